@@ -17,10 +17,15 @@
 #
 #   # Compile all ".k" files in "./tests/" matching pattern "test_foo_*"
 #   scripts/compile_klang.sh all ./build/out "./tests/test_foo*"
+#
+# If KLANG_DAEMON_SOCKET points to the socket of a running compiler daemon
+# (see scripts/klang_daemon.sh), compile requests are forwarded to it instead
+# of starting a new compiler process (see scripts/klang_client.sh).
 # ==============================================================================
 
 source ./scripts/config.sh
 source ./scripts/compile_java.sh
+source ./scripts/klang_client.sh
 
 # Compile a list of klang files.
 # Parameters:
@@ -40,12 +45,18 @@ compile_klang_files() {
         echo "Unknown output code format option: '${1}'"
         return 1
     fi
-    compile_release
 
     local outdir="${2}"
     shift 2
     local files=${@}
 
+    if [[ -n "${KLANG_DAEMON_SOCKET}" && -S "${KLANG_DAEMON_SOCKET}" ]]; then
+        klang_client "${KLANG_DAEMON_SOCKET}" ${output_format_flags[@]} --out "${outdir}" -- $files
+        return
+    fi
+
+    compile_release
+
     local classpath=$(_join_array "DEPENDENCIES[@]" ":")
     # Add compiler classes to cp
     classpath="${RELEASE_WORK_DIR}/classes:${classpath}"
@@ -37,6 +37,23 @@ if [ -z "${CONFIG_SH_SOURCED}" ]; then
 
     TEST_WORK_DIR="${BUILD_ARTIFACTS_BASE_DIR}/test"
 
+    # JMH benchmarks config
+    JMH_WORK_DIR="${BUILD_ARTIFACTS_BASE_DIR}/jmh"
+    # The test helpers provide the synthetic inputs, which are shared with the tests
+    JMH_SRC_DIRS=(      \
+        'src/jmh/java'  \
+        'src/test/java/cc/crochethk/klang/testhelpers' \
+    )
+    JMH_LIB_DIR="lib/jmh"
+    JMH_VERSION="1.37"
+    # Maven Central paths of the runtime dependencies
+    JMH_DEPENDENCIES=(                                                          \
+        "org/openjdk/jmh/jmh-core/${JMH_VERSION}/jmh-core-${JMH_VERSION}.jar"   \
+        "net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar"            \
+        "org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar"        \
+    )
+    JMH_ANNOTATION_PROCESSOR="org/openjdk/jmh/jmh-generator-annprocess/${JMH_VERSION}/jmh-generator-annprocess-${JMH_VERSION}.jar"
+
     TEST_ASM_TESTS_DIR=src/test/c/gen_asm
     TEST_KLANG_FILES_DIR=tests
 
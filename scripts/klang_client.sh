@@ -0,0 +1,78 @@
+#!/usr/bin/env bash
+
+# ==============================================================================
+# Thin client of the compiler daemon (see scripts/klang_daemon.sh). Forwards
+# the given compiler arguments to the daemon and replays its stdout, stderr and
+# exit code. No JVM is started, the socket is connected using either "socat" or
+# a netcat supporting Unix domain sockets ("nc -U").
+#
+# Parameters:
+#   $1    : Socket path of the running daemon.
+#   $2... : Arguments passed on to the compiler. Relative paths are resolved
+#           against the current working directory.
+#
+# Example:
+#   scripts/klang_client.sh ./build/klangd.sock --asm --out ./build/out -- tests/t5.k
+# ==============================================================================
+
+# Exit code used when the daemon could not be reached
+KLANG_CLIENT_EXIT_NO_DAEMON=2
+
+# Connect stdin and stdout to the given Unix domain socket.
+# Parameters:
+#   $1 : Socket path
+_klang_connect() {
+    if command -v socat > /dev/null; then
+        # Keep receiving after the request was sent, until the daemon closes
+        # the connection (socat would otherwise give up after 0.5s)
+        socat -t 86400 - UNIX-CONNECT:"${1}"
+    elif command -v nc > /dev/null; then
+        nc -U "${1}"
+    else
+        echo "Error: Neither 'socat' nor 'nc' found, which are needed to talk to the daemon" >&2
+        return 1
+    fi
+}
+
+# Send a compile request to the daemon and replay its response.
+# Parameters:
+#   $1    : Socket path of the running daemon.
+#   $2... : Arguments passed on to the compiler.
+klang_client() {
+    local socket="${1}"
+    shift
+
+    # The request has one argument per line
+    local arg
+    for arg in "$@"; do
+        if [[ "${arg}" == *$'\n'* ]]; then
+            echo "Error: Arguments must not contain line breaks: '${arg}'" >&2
+            return 1
+        fi
+    done
+
+    local exit_code=""
+    local line
+    while IFS= read -r line; do
+        case "${line}" in
+            "out "*)  printf '%s\n' "${line#out }" ;;
+            "err "*)  printf '%s\n' "${line#err }" >&2 ;;
+            "exit "*) exit_code="${line#exit }" ;;
+        esac
+    done < <(printf '%s\n' "$(pwd)" "$#" "$@" | _klang_connect "${socket}")
+
+    if [[ -z "${exit_code}" ]]; then
+        echo "Error: Could not talk to compiler daemon at '${socket}'" >&2
+        return ${KLANG_CLIENT_EXIT_NO_DAEMON}
+    fi
+    return ${exit_code}
+}
+
+# Do not execute if the script is being sourced
+if [[ "${BASH_SOURCE[0]}" == "${0}" ]]; then
+    if [[ $# -lt 1 ]]; then
+        echo "Usage: ${0} SOCKET [COMPILER_ARGS]..."
+        exit 1
+    fi
+    klang_client "$@"
+fi
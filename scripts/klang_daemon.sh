@@ -0,0 +1,73 @@
+#!/usr/bin/env bash
+
+# ==============================================================================
+# Start or stop a long-lived compiler daemon. While it is running, compile
+# requests can be forwarded to it using the thin client (scripts/klang_client.sh),
+# avoiding JVM startup and warm-up costs on every invocation.
+#
+# Parameters:
+#   $1 : "start" | "stop" | "status"
+#   $2 : (optional) Socket path. (default: "${BUILD_ARTIFACTS_BASE_DIR}/klangd.sock")
+#
+# Example:
+#   scripts/klang_daemon.sh start
+#   export KLANG_DAEMON_SOCKET=./build/klangd.sock
+#   scripts/compile_klang.sh asm ./build/out ./tests
+#   scripts/klang_daemon.sh stop
+# ==============================================================================
+
+source ./scripts/config.sh
+source ./scripts/compile_java.sh
+
+socket="${2:-${BUILD_ARTIFACTS_BASE_DIR}/klangd.sock}"
+pid_file="${socket}.pid"
+
+_daemon_running() {
+    [[ -f "${pid_file}" ]] && kill -0 "$(cat "${pid_file}")" 2>/dev/null
+}
+
+case "${1}" in
+    start)
+        if _daemon_running; then
+            echo "Daemon already running (pid $(cat "${pid_file}"))"
+            exit 0
+        fi
+        compile_release || exit 1
+
+        classpath=$(_join_array "DEPENDENCIES[@]" ":")
+        classpath="${RELEASE_WORK_DIR}/classes:${classpath}"
+
+        mkdir -p "$(dirname "${socket}")"
+        nohup java --enable-preview -cp "${classpath}" \
+            cc.crochethk.klang.KlangDaemon "${socket}" > "${socket}.log" 2>&1 &
+        echo $! > "${pid_file}"
+
+        # Wait for the socket to show up
+        for _ in $(seq 50); do
+            [[ -S "${socket}" ]] && break
+            sleep 0.1
+        done
+        echo "Daemon started (pid $(cat "${pid_file}")), socket: '${socket}'"
+        ;;
+    stop)
+        if _daemon_running; then
+            kill "$(cat "${pid_file}")"
+            echo "Daemon stopped"
+        else
+            echo "Daemon not running"
+        fi
+        rm -f "${pid_file}"
+        ;;
+    status)
+        if _daemon_running; then
+            echo "Daemon running (pid $(cat "${pid_file}")), socket: '${socket}'"
+        else
+            echo "Daemon not running"
+            exit 1
+        fi
+        ;;
+    *)
+        echo "Usage: ${0} start|stop|status [SOCKET]"
+        exit 1
+        ;;
+esac
@@ -74,7 +74,7 @@ for test_file in ${file_list}; do
 
     gcc -Wall -I"${src_file_compile_dir}" -o "${c_bin_dir}/${test_file_name_no_ext}"   \
         "${test_file}" "${src_file_compile_dir}/tests.asm.${test_file_name_no_ext}.s" \
-        "${src_file_compile_dir}/tests.asm.${test_file_name_no_ext}.c"
+        "${src_file_compile_dir}/tests.asm.${test_file_name_no_ext}.c" -lm
     if [ $? -ne 0 ]; then
         echo -e "\n\e[31m>>> ERROR. Test failed! <<<\e[0m\n"
         continue
@@ -0,0 +1,70 @@
+#!/usr/bin/env bash
+
+# ==============================================================================
+# Build and run the JMH benchmarks in 'src/jmh/java'. Missing JMH jars are
+# downloaded from Maven Central into 'lib/jmh' first.
+# Results are written as JSON to '${JMH_WORK_DIR}/results.json', so they can be
+# compared against the results of a baseline run.
+#
+# Parameters:
+#   $@ : (optional) Arguments passed on to JMH, e.g. a benchmark name regex
+#        or parameter overrides.
+#
+# Example:
+#   # Run all benchmarks
+#   scripts/run_benchmarks.sh
+#
+#   # Only run the parser benchmark for the largest program of the scaling test
+#   scripts/run_benchmarks.sh "PipelineBenchmark.parser" -p input=synthetic:1024
+# ==============================================================================
+
+source ./scripts/config.sh
+source ./scripts/compile_java.sh
+
+MAVEN_CENTRAL_URL="https://repo1.maven.org/maven2"
+
+# Download the given Maven Central artifact into JMH_LIB_DIR, if not present yet,
+# and print the local jar path.
+# Parameters:
+#   $1 : Artifact path relative to the repository root
+_fetch_jmh_jar() {
+    local target="${JMH_LIB_DIR}/$(basename "${1}")"
+    if [[ ! -f "${target}" ]]; then
+        mkdir -p "${JMH_LIB_DIR}"
+        echo "Downloading '$(basename "${1}")'" >&2
+        curl -fsSL -o "${target}" "${MAVEN_CENTRAL_URL}/${1}" || return 1
+    fi
+    echo "${target}"
+}
+
+run_benchmarks() {
+    compile_release || return 1
+
+    local jmh_jars=()
+    local jar
+    for dep in "${JMH_DEPENDENCIES[@]}"; do
+        jar=$(_fetch_jmh_jar "${dep}") || return 1
+        jmh_jars+=("${jar}")
+    done
+    local processor_jar
+    processor_jar=$(_fetch_jmh_jar "${JMH_ANNOTATION_PROCESSOR}") || return 1
+
+    local classpath=$(_join_array "DEPENDENCIES[@]" ":")
+    classpath="${RELEASE_WORK_DIR}/classes:${classpath}:$(_join_array "jmh_jars[@]" ":")"
+
+    local classes_dir="${JMH_WORK_DIR}/classes"
+    rm -rf "${classes_dir}"
+    mkdir -p "${classes_dir}"
+    find "${JMH_SRC_DIRS[@]}" -type f -name "*.java" > "${JMH_WORK_DIR}/sources.txt"
+    javac --enable-preview --source 23 --target 23 -cp "${classpath}" \
+        -processorpath "${processor_jar}:$(_join_array "jmh_jars[@]" ":")" \
+        -d "${classes_dir}" @"${JMH_WORK_DIR}/sources.txt" || return 1
+
+    java --enable-preview -cp "${classes_dir}:${classpath}" org.openjdk.jmh.Main \
+        -rf json -rff "${JMH_WORK_DIR}/results.json" "$@"
+}
+
+# Do not execute if the script is being sourced
+if [[ "${BASH_SOURCE[0]}" == "${0}" ]]; then
+    run_benchmarks "$@"
+fi
@@ -0,0 +1,27 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator;
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator.Sizes;
+
+/**
+ * Resolves benchmark input names to Klang source code. An input is either the
+ * path of a source file relative to the repository root, or "synthetic:N",
+ * denoting the program {@link SyntheticProgramGenerator} generates for the
+ * default sizes scaled by N. These are the same programs {@code ScalingTest}
+ * compiles.
+ */
+class BenchmarkInputs {
+    static final String SYNTHETIC_PREFIX = "synthetic:";
+
+    static String load(String input) throws IOException {
+        if (input.startsWith(SYNTHETIC_PREFIX)) {
+            var factor = Integer.parseInt(input.substring(SYNTHETIC_PREFIX.length()));
+            return SyntheticProgramGenerator.generate(Sizes.DEFAULT.scaled(factor));
+        }
+        return Files.readString(Path.of(input));
+    }
+}
@@ -0,0 +1,64 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.crochethk.klang.ast.Prog;
+import cc.crochethk.klang.visitor.TypeChecker;
+import cc.crochethk.klang.visitor.codegen.GenJBC;
+
+/**
+ * Measures Java Byte Code generation. Separate from {@link PipelineBenchmark},
+ * since GenJBC supports only a subset of the language (e.g. no structs). For
+ * the same reason the synthetic inputs are not measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class GenJbcBenchmark {
+    @State(Scope.Thread)
+    public static class JbcState {
+        @Param({
+                "examples/fibonacci.k",
+                "examples/grading_scale.k",
+                "tests/asm/many_int_and_float_args.k",
+                "tests/asm/test_f64.k",
+        })
+        public String input;
+
+        Prog ast;
+        Path outDir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            var tokens = PipelineState.lex(BenchmarkInputs.load(input));
+            ast = PipelineState.buildAst(PipelineState.parse(tokens));
+            ast.accept(new TypeChecker());
+            outDir = Files.createTempDirectory("klang-bench");
+        }
+    }
+
+    @Benchmark
+    public GenJBC genJbc(JbcState s) {
+        var gen = new GenJBC(s.outDir.toString(), "bench", "Bench");
+        s.ast.accept(gen);
+        return gen;
+    }
+}
@@ -0,0 +1,85 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.crochethk.klang.antlr.KlangParser.StartContext;
+import cc.crochethk.klang.ast.Prog;
+import cc.crochethk.klang.visitor.TypeChecker;
+import cc.crochethk.klang.visitor.codegen.GenAsm;
+import cc.crochethk.klang.visitor.codegen.asm.helpers.GenCHeaders;
+import cc.crochethk.klang.visitor.codegen.asm.helpers.GenCImpls;
+
+/**
+ * Measures each stage of the compiler pipeline separately. Every benchmark
+ * starts from the previous stage's precomputed result held by {@link PipelineState}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PipelineBenchmark {
+    @Benchmark
+    public List<Token> lexer(PipelineState s) {
+        return PipelineState.lex(s.code);
+    }
+
+    /** Like {@link #lexer} but starting from the encoded source, as the compiler does. */
+    @Benchmark
+    public List<Token> lexerFromBytes(PipelineState s) {
+        return PipelineState.lex(SourceInput.charStream(s.codeBytes, s.input));
+    }
+
+    @Benchmark
+    public StartContext parser(PipelineState s) {
+        return PipelineState.parse(s.tokens);
+    }
+
+    @Benchmark
+    public StartContext parserTwoStage(PipelineState s) {
+        return PipelineState.parseTwoStage(s.tokens);
+    }
+
+    @Benchmark
+    public Prog treeBuilder(PipelineState s) {
+        return PipelineState.buildAst(s.parseTree);
+    }
+
+    @Benchmark
+    public Prog typeChecker(PipelineState s) {
+        s.ast.accept(new TypeChecker());
+        return s.ast;
+    }
+
+    @Benchmark
+    public GenAsm genAsm(PipelineState s) throws IOException {
+        var gen = new GenAsm(s.outDir.toString(), "bench", s.className());
+        gen.generateAssembly(s.ast);
+        return gen;
+    }
+
+    @Benchmark
+    public GenCHeaders genCHeaders(PipelineState s) {
+        var gen = new GenCHeaders(s.outDir.toString(), "bench", s.className());
+        s.ast.accept(gen);
+        return gen;
+    }
+
+    @Benchmark
+    public GenCImpls genCImpls(PipelineState s) {
+        var gen = new GenCImpls(s.outDir.toString(), "bench", s.className());
+        s.ast.accept(gen);
+        return gen;
+    }
+}
@@ -0,0 +1,92 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import cc.crochethk.klang.antlr.KlangParser.StartContext;
+import cc.crochethk.klang.ast.Prog;
+import cc.crochethk.klang.visitor.TypeChecker;
+
+/**
+ * Holds one input program and the results of all pipeline stages for it, so
+ * each stage can be measured in isolation using its predecessor's output.
+ */
+@State(Scope.Thread)
+public class PipelineState {
+    @Param({
+            "examples/fibonacci.k",
+            "examples/linked_list.k",
+            "examples/point.k",
+            "examples/sine_taylor_expansion.k",
+            "tests/asm/many_int_and_float_args.k",
+            "tests/asm/test_f64.k",
+            "tests/asm/test_i64.k",
+            "synthetic:16",
+            "synthetic:256",
+    })
+    public String input;
+
+    String code;
+    /** {@link #code} UTF-8 encoded, i.e. as read from a source file. */
+    ByteBuffer codeBytes;
+    List<Token> tokens;
+    StartContext parseTree;
+    Prog ast;
+    Path outDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        code = BenchmarkInputs.load(input);
+        codeBytes = ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8));
+        tokens = lex(code);
+        parseTree = parse(tokens);
+        ast = buildAst(parseTree);
+        ast.accept(new TypeChecker());
+        outDir = Files.createTempDirectory("klang-bench");
+    }
+
+    static List<Token> lex(String code) {
+        return lex(CharStreams.fromString(code));
+    }
+
+    static List<Token> lex(CharStream input) {
+        var tokenStream = new CommonTokenStream(KlangCompiler.buildLexer(input));
+        tokenStream.fill();
+        return tokenStream.getTokens();
+    }
+
+    static StartContext parse(List<Token> tokens) {
+        return KlangCompiler.buildParser(new CommonTokenStream(new ListTokenSource(tokens))).start();
+    }
+
+    /** Like {@link #parse} but using the compiler's pooled parser and two-stage strategy. */
+    static StartContext parseTwoStage(List<Token> tokens) {
+        return ParserPool.parse(ParserPool.parser(), new CommonTokenStream(new ListTokenSource(tokens)), System.err);
+    }
+
+    static Prog buildAst(StartContext parseTree) {
+        ParseTreeWalker.DEFAULT.walk(new TreeBuilder(), parseTree);
+        return parseTree.result;
+    }
+
+    /** Name of the generated class/files, derived from the input name. */
+    String className() {
+        return input.replaceAll("^.*[/:]", "").replace(".k", "");
+    }
+}
@@ -19,13 +19,16 @@ functionDef
 
 structDef
 	returns[StructDef result]:
-	KW_STRUCT name=IDENT LBRACE (
+	(attributes+=attribute)* KW_STRUCT name=IDENT LBRACE (
 		params TRIDASH (methodDefs+=functionDef)+
 		| params? TRIDASH?
 		| TRIDASH? (methodDefs+=functionDef)+
 	) RBRACE
 ;
 
+/** Annotation changing how a definition is compiled, e.g. "#[reorder]" */
+attribute: HASH LBRACKET name=IDENT RBRACKET;
+
 params: list+=parameter (COMMA list+=parameter)* COMMA?;
 
 parameter
@@ -218,6 +221,9 @@ LPAR: '(';
 RPAR: ')';
 LBRACE: '{';
 RBRACE: '}';
+LBRACKET: '[';
+RBRACKET: ']';
+HASH: '#';
 COLON: ':';
 COMMA: ',';
 SEMI: ';';
@@ -0,0 +1,145 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of generated output files, located in the output directory.
+ * There is one entry per compilation unit (i.e. package + class name), consisting
+ * of the key it was generated with and a copy of each output file.
+ * The key is a hash of the source code, the output affecting config fields
+ * and the compiler build id. So whenever any of these change the entry is
+ * simply overwritten by the next successful compilation.
+ */
+class CompilationCache {
+    static final String CACHE_DIR_NAME = ".klang-cache";
+    private static final String KEY_FILE_NAME = "key";
+
+    private final Path cacheDir;
+
+    CompilationCache(String outputDir) {
+        this.cacheDir = Path.of(outputDir, CACHE_DIR_NAME);
+    }
+
+    /** Computes the cache key of a compilation unit. */
+    static String key(byte[] source, KlangCompilerConfig cfg, String packageName, String className) {
+        return key(ByteBuffer.wrap(source), cfg, packageName, className);
+    }
+
+    /**
+     * Computes the cache key of a compilation unit from the remaining bytes of
+     * {@code source}, without changing the buffer's position.
+     */
+    static String key(ByteBuffer source, KlangCompilerConfig cfg, String packageName, String className) {
+        var md = sha256();
+        md.update(BuildId.VALUE.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(cfg.outputAffectingFields().getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(qualifiedName(packageName, className).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(source.duplicate());
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /**
+     * Checks whether there is an entry for the given unit and key. If so, output
+     * files that are missing or differ from the cached copy are restored.
+     * @return {@code true} on a cache hit, {@code false} otherwise.
+     */
+    boolean restore(String key, String packageName, String className, List<Path> outputs)
+            throws IOException {
+        var entryDir = entryDir(packageName, className);
+        var keyFile = entryDir.resolve(KEY_FILE_NAME);
+        if (!Files.isRegularFile(keyFile) || !Files.readString(keyFile).equals(key)) {
+            return false;
+        }
+        for (int i = 0; i < outputs.size(); i++) {
+            if (!Files.isRegularFile(entryDir.resolve(String.valueOf(i)))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < outputs.size(); i++) {
+            var cached = entryDir.resolve(String.valueOf(i));
+            var target = outputs.get(i);
+            if (!Files.isRegularFile(target) || Files.mismatch(cached, target) != -1) {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return true;
+    }
+
+    /** Stores copies of the given output files, replacing the unit's previous entry. */
+    void store(String key, String packageName, String className, List<Path> outputs)
+            throws IOException {
+        var entryDir = entryDir(packageName, className);
+        Files.createDirectories(entryDir);
+        // Invalidate first, so that an interrupted store never leaves a valid but incomplete entry
+        Files.deleteIfExists(entryDir.resolve(KEY_FILE_NAME));
+        for (int i = 0; i < outputs.size(); i++) {
+            Files.copy(outputs.get(i), entryDir.resolve(String.valueOf(i)),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.writeString(entryDir.resolve(KEY_FILE_NAME), key);
+    }
+
+    private Path entryDir(String packageName, String className) {
+        return cacheDir.resolve(qualifiedName(packageName, className));
+    }
+
+    private static String qualifiedName(String packageName, String className) {
+        return packageName.isEmpty() ? className : packageName + "." + className;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Identifies the running compiler build by hashing the contents of the jar
+     * or class directory it was loaded from. Computed once per process.
+     */
+    private static class BuildId {
+        static final String VALUE = compute();
+
+        private static String compute() {
+            var md = sha256();
+            try {
+                var location = Path.of(KlangCompiler.class.getProtectionDomain()
+                        .getCodeSource().getLocation().toURI());
+                List<Path> files;
+                try (Stream<Path> s = Files.isDirectory(location) ? Files.walk(location) : Stream.of(location)) {
+                    files = s.filter(Files::isRegularFile).sorted().toList();
+                }
+                for (var f : files) {
+                    md.update(location.relativize(f).toString().getBytes(StandardCharsets.UTF_8));
+                    md.update(Files.readAllBytes(f));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (URISyntaxException | SecurityException | NullPointerException e) {
+                // Unknown origin: never share cache entries with another process
+                md.update(String.valueOf(ProcessHandle.current().pid()).getBytes(StandardCharsets.UTF_8));
+                md.update(String.valueOf(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(md.digest());
+        }
+    }
+}
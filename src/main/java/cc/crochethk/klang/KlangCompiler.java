@@ -1,12 +1,19 @@
 package cc.crochethk.klang;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -18,10 +25,17 @@ import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
 import cc.crochethk.klang.antlr.*;
+import cc.crochethk.klang.antlr.KlangParser.StartContext;
+import cc.crochethk.klang.PhaseTimer.Phase;
 import cc.crochethk.klang.ast.Node;
+import cc.crochethk.klang.ast.Prog;
+import cc.crochethk.klang.visitor.ConstantFolder;
+import cc.crochethk.klang.visitor.DeadCodeEliminator;
+import cc.crochethk.klang.visitor.LoopOptimizer;
 import cc.crochethk.klang.visitor.PrettyPrinter;
 import cc.crochethk.klang.visitor.TypeChecker;
 import cc.crochethk.klang.visitor.codegen.GenAsm;
@@ -31,13 +45,118 @@ import utils.PathUtils;
 
 public class KlangCompiler {
     private KlangCompilerConfig cfg;
+    private final PrintStream out;
+    private final PrintStream err;
+    /** Collects phase timings of all compiled files, if enabled. Might be {@code null}. */
+    private final PhaseReport phaseReport;
+    private PhaseTimer timer = new PhaseTimer("");
 
     public KlangCompiler(KlangCompilerConfig config) {
+        this(config, System.out, System.err);
+    }
+
+    /**
+     * @param out The stream regular progress messages are written to.
+     * @param err The stream error messages are written to.
+     */
+    public KlangCompiler(KlangCompilerConfig config, PrintStream out, PrintStream err) {
+        this(config, out, err, null);
+    }
+
+    /** @param phaseReport Report to record each compiled file's phase timings in, or {@code null}. */
+    KlangCompiler(KlangCompilerConfig config, PrintStream out, PrintStream err, PhaseReport phaseReport) {
         this.cfg = config;
+        this.out = out;
+        this.err = err;
+        this.phaseReport = phaseReport;
+    }
+
+    /**
+     * Compiles the source file at the given path. The package name is inferred
+     * from the path's parent directories, the class name from the file name.
+     * Progress and error messages are written to this compiler's streams.
+     * @param sourceRoot The directory {@code fp} is relative to.
+     */
+    public Result compileFile(Path sourceRoot, Path fp) {
+        out.println(String.format("--------[ %s ]--------", fp.toString()));
+        var file = sourceRoot.resolve(fp).toFile();
+
+        var fpBase = PathUtils.getParentOrEmpty(fp).normalize();
+        var packageName = fpBase.toString().replace(File.separator, ".");
+        var className = PathUtils.getFileNameNoExt(fp);
+        timer = phaseReport != null ? phaseReport.timerFor(fp) : new PhaseTimer(fp.toString());
+
+        try {
+            var source = SourceInput.read(file.toPath());
+            if (isCacheable()) {
+                var cache = new CompilationCache(cfg.outputDir());
+                var key = CompilationCache.key(source, cfg, packageName, className);
+                var outputs = outFilePaths(packageName, className);
+                if (cache.restore(key, packageName, className, outputs)) {
+                    printCacheHitMessage(outputs);
+                } else {
+                    compileOrThrow(source, fp.toString(), packageName, className);
+                    cache.store(key, packageName, className, outputs);
+                }
+            } else {
+                compileOrThrow(source, fp.toString(), packageName, className);
+            }
+            out.println(">>> All tasks finished successfully.\n");
+            return Result.Ok;
+        } catch (Exception e) {
+            out.println(">>> Errors occurred while processing compilation tasks.");
+            err.println(e.getMessage());
+            return Result.Err;
+        }
+    }
+
+    private void compileOrThrow(ByteBuffer source, String sourceName, String packageName, String className)
+            throws IOException {
+        timer.addBytes(Phase.LEX, source.remaining());
+        if (compile(SourceInput.charStream(source, sourceName), packageName, className).isErr()) {
+            throw new RuntimeException();
+        }
+    }
+
+    /**
+     * Only pure file generating runs are cached, since e.g. a cache hit would
+     * swallow the pretty printer's console output.
+     */
+    private boolean isCacheable() {
+        return cfg.useCache() && !cfg.noCompile() && !cfg.showParseTree() && !cfg.prettyPrintAst()
+                && (cfg.generateAsm() || cfg.generateJbc());
+    }
+
+    /** Paths of all files the enabled code generators would write. */
+    private List<Path> outFilePaths(String packageName, String className) throws IOException {
+        var paths = new ArrayList<Path>();
+        if (cfg.generateJbc()) {
+            paths.addAll(new GenJBC(cfg.outputDir(), packageName, className).outFilePaths());
+        }
+        if (cfg.generateAsm()) {
+            paths.addAll(new GenAsm(cfg.outputDir(), packageName, className, cfg.streamAsm(), cfg.optLevel(),
+                    cfg.asmFromIr(), cfg.emitObject()).outFilePaths());
+        }
+        return paths;
+    }
+
+    private void printCacheHitMessage(List<Path> outputs) {
+        var indent = " ".repeat(4);
+        var sb = new StringBuilder();
+        sb.append("Source unchanged, using cached output:");
+        for (var p : outputs) {
+            sb.append("\n" + indent + "'" + p + "'");
+        }
+        out.println(sb.toString());
     }
 
     public Result compile(Reader inputCode, final String packageName, final String className)
             throws IOException {
+        return compile(CharStreams.fromReader(inputCode), packageName, className);
+    }
+
+    public Result compile(CharStream inputCode, final String packageName, final String className)
+            throws IOException {
         Result compileResult = Result.Ok;
 
         var ast = buildAst(inputCode);
@@ -47,7 +166,7 @@ public class KlangCompiler {
         if (cfg.prettyPrintAst()) {
             var pp = new PrettyPrinter();
             ast.accept(pp);
-            System.out.println(pp.writer.toString());
+            out.println(pp.writer.toString());
         }
 
         if (cfg.noCompile()) {
@@ -56,40 +175,64 @@ public class KlangCompiler {
 
         // Type checking
         if (cfg.typeCheck()) {
-            ast.accept(new TypeChecker());
+            timer.time(Phase.TYPE_CHECK, () -> ast.accept(new TypeChecker(err)));
+        }
+
+        // AST optimizations (rely on the types)
+        if (cfg.typeCheck() && cfg.optLevel() > 0) {
+            timer.time(Phase.OPTIMIZE, () -> {
+                ast.accept(new ConstantFolder());
+                if (ast instanceof Prog prog) {
+                    new LoopOptimizer().apply(prog);
+                    new DeadCodeEliminator().apply(prog);
+                }
+            });
         }
 
         // Java Byte Code generation
-        System.out.println("Java Byte Code:");
+        out.println("Java Byte Code:");
         if (cfg.generateJbc()) {
             var codeGenerator = new GenJBC(cfg.outputDir(), packageName, className);
             printGeneratingFilesMessage(indent, codeGenerator.outFilePaths());
 
-            if (runWithSuccessCheck(() -> ast.accept(codeGenerator), indent).isErr()) {
+            if (runWithSuccessCheck(() -> timer.time(Phase.GEN_JBC, () -> ast.accept(codeGenerator)),
+                    indent).isErr()) {
                 compileResult = Result.Err;
+            } else {
+                recordWrittenBytes(Phase.GEN_JBC, codeGenerator.outFilePaths());
             }
         } else {
-            System.out.println(indent + "No JBC generated (disabled).");
+            out.println(indent + "No JBC generated (disabled).");
         }
-        System.out.println();
+        out.println();
 
         // GNU Assembly generation
-        System.out.println("GNU Assembly Code:");
+        out.println("GNU Assembly Code:");
         if (cfg.generateAsm()) {
             // Prepare for Assembly
-            var codeGenerator = new GenAsm(cfg.outputDir(), packageName, className);
+            var codeGenerator = new GenAsm(cfg.outputDir(), packageName, className, cfg.streamAsm(),
+                    cfg.optLevel(), cfg.asmFromIr(), cfg.emitObject());
 
             // Generate files
             var genResult = runWithSuccessCheck(() -> {
                 printGeneratingFilesMessage(indent, codeGenerator.outFilePaths());
-                ast.accept(codeGenerator);
+                if (ast instanceof Prog prog) {
+                    timer.time(Phase.GEN_ASM, () -> codeGenerator.generateAssembly(prog));
+                    timer.time(Phase.GEN_C_HELPERS, () -> codeGenerator.generateCHelpers(prog));
+                } else {
+                    ast.accept(codeGenerator);
+                }
             }, indent);
 
             if (genResult.isErr()) {
                 compileResult = Result.Err;
+            } else {
+                var paths = codeGenerator.outFilePaths();
+                recordWrittenBytes(Phase.GEN_ASM, paths.subList(0, 1));
+                recordWrittenBytes(Phase.GEN_C_HELPERS, paths.subList(1, paths.size()));
             }
         } else {
-            System.out.println(indent + "No assembly generated (disabled).");
+            out.println(indent + "No assembly generated (disabled).");
         }
         return compileResult;
     }
@@ -105,41 +248,66 @@ public class KlangCompiler {
         }
     };
 
-    private static Result runWithSuccessCheck(Runnable callable, String msgIndent) {
+    private void recordWrittenBytes(Phase phase, List<Path> paths) {
+        for (var p : paths) {
+            try {
+                timer.addBytes(phase, Files.size(p));
+            } catch (IOException e) {
+                // Not written, nothing to count
+            }
+        }
+    }
+
+    private Result runWithSuccessCheck(Runnable callable, String msgIndent) {
         try {
             callable.run();
-            System.out.println(msgIndent + "Success!");
+            out.println(msgIndent + "Success!");
             return Result.Ok;
         } catch (Exception e) {
-            System.err.println(msgIndent + "ERROR: " + e.getMessage());
+            err.println(msgIndent + "ERROR: " + e.getMessage());
             return Result.Err;
         }
     }
 
-    private static void printGeneratingFilesMessage(String indent, List<Path> paths) {
+    private void printGeneratingFilesMessage(String indent, List<Path> paths) {
         StringBuilder sb = new StringBuilder();
         sb.append(indent + "Generating...");
         for (var p : paths) {
             sb.append("\n" + indent.repeat(2) + "'" + p + "'");
         }
-        System.out.println(sb.toString());
+        out.println(sb.toString());
     }
 
     /**
      * Builds the Abstract Syntax Tree from the given input source code and
      * returns its root node.
      */
-    private Node buildAst(Reader inputCode) throws IOException {
-        var lexer = buildLexer(CharStreams.fromReader(inputCode));
-        var parser = buildParser(lexer);
-        var antlrTree = parser.start();
-        if (cfg.showParseTree()) {
-            showParseTreeVisualization(parser, antlrTree);
+    private Node buildAst(CharStream inputCode) {
+        if (cfg.noParseTree() && cfg.buildAst() && !cfg.showParseTree()) {
+            // Lexing, parsing and building the AST are interleaved, thus timed as a whole
+            try {
+                return timer.time(Phase.PARSE, () -> ParserPool.parseAst(inputCode, err));
+            } finally {
+                ParserPool.release();
+            }
+        }
+
+        var tokens = new CommonTokenStream(ParserPool.lexer(inputCode, err));
+        timer.time(Phase.LEX, tokens::fill);
+        var parser = ParserPool.parser();
+        StartContext antlrTree;
+        try {
+            antlrTree = timer.time(Phase.PARSE, () -> ParserPool.parse(parser, tokens, err));
+            if (cfg.showParseTree()) {
+                showParseTreeVisualization(parser, antlrTree);
+            }
+        } finally {
+            ParserPool.release();
         }
 
         if (cfg.buildAst()) {
             var treeBuilder = new TreeBuilder();
-            ParseTreeWalker.DEFAULT.walk(treeBuilder, antlrTree);
+            timer.time(Phase.BUILD_AST, () -> ParseTreeWalker.DEFAULT.walk(treeBuilder, antlrTree));
         }
         return antlrTree.result;
     }
@@ -151,26 +319,72 @@ public class KlangCompiler {
     }
 
     static KlangParser buildParser(Lexer lx) {
-        var parser = new KlangParser(new CommonTokenStream(lx));
+        return buildParser(new CommonTokenStream(lx));
+    }
+
+    static KlangParser buildParser(TokenStream tokens) {
+        var parser = new KlangParser(tokens);
         parser.addErrorListener(ThrowingErrorListener.INSTANCE);
         return parser;
     }
 
     public static void main(String[] args) {
+        int exitCode = run(args, Path.of(""), System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Runs the command line interface with the given arguments and returns the
+     * process exit code instead of exiting.
+     * @param workDir The directory relative source and output paths are resolved
+     *      against. This is the invoker's working directory.
+     */
+    static int run(String[] args, Path workDir, PrintStream out, PrintStream err) {
         final String USAGE_INFO = """
                 Usage: java --enable-preview -jar klangc.jar [OPTION | FLAG]... [--] FILE...
-                Default: {...} --out ./out --asm --build-ast true --typecheck true FILE...
+                Default: {...} --out ./out --asm --build-ast true --typecheck true --opt-level 1 FILE...
                     FILE...                 One or more source files to compile.
                 Options:
                     --out <dir>                 Output directory for generated files. (default: './out')
                     --build-ast <true|false>    Transform parsetree to custom AST. (default: true)
                     --typecheck <true|false>    Perform type check. (default: true)
+                    --cache <true|false>        Reuse outputs of unchanged sources from previous runs.
+                                                The cache lives in '<dir>/.klang-cache'. (default: false)
+                    --jobs <n>                  Number of files to compile in parallel. Output stays
+                                                grouped per file and in order. 0 means one job per
+                                                available processor. (default: 1)
+                    --time-report <file>        Write the phase timings as JSON to the given file.
+                                                Implies '--time-phases'.
+                    --opt-level <n>             Optimization level. 0 compiles the program as written and keeps
+                                                all values of the generated assembly on the stack. 1 folds
+                                                constant expressions, moves invariant code out of loops,
+                                                removes dead code, allocates registers for variables and
+                                                temporaries, omits the frame pointer of functions without
+                                                calls and applies peephole optimizations to the assembly.
+                                                (default: 1)
                 Flags:
                     --asm                       Generate GNU Assembly. (default)
                     --jbc                       Generate Java Byte Code.
+                    --stream-asm                Write the assembly code function by function while generating
+                                                it, instead of keeping all of it in memory. Lowers the memory
+                                                footprint for large sources. Data sections are written last.
+                    --asm-from-ir               Generate the assembly from the intermediate representation (a
+                                                three-address code with control flow graph) instead of directly
+                                                from the AST. No registers are allocated then.
+                    --emit-obj                  Encode the instructions directly and write a relocatable ELF
+                                                object file ('.o') instead of the assembly file, so no assembler
+                                                is needed. Links like the assembled '.s' file would.
                     --show-parsetree            Visualize the parsetree generated by antlr.
                     --pretty-print-ast          Convert the AST back to sourcecode and print it to the console.
                     --no-compile                Disable all compilation steps after parsing the source file.
+                    --no-parse-tree             Build the AST while parsing instead of from a complete parse tree,
+                                                so neither the parse tree nor all tokens are kept in memory.
+                                                Lexing and AST building are timed as part of 'parse'.
+                                                Ignored with '--show-parsetree' or '--build-ast false'.
+                    --time-phases               Print wall time, CPU time and bytes produced (source size for
+                                                lexing, output size for code generation) of each phase and file.
                     --help                      Print this usage information.
 
                 Note:
@@ -183,11 +397,20 @@ public class KlangCompiler {
         final String optOutDir = "out";
         final String optBuildAst = "build-ast";
         final String optTypeCheck = "typecheck";
+        final String optJobs = "jobs";
+        final String optCache = "cache";
+        final String optTimeReport = "time-report";
+        final String optOptLevel = "opt-level";
         final String flagJbc = "jbc";
         final String flagAsm = "asm";
+        final String flagStreamAsm = "stream-asm";
+        final String flagAsmFromIr = "asm-from-ir";
+        final String flagEmitObj = "emit-obj";
         final String flagShowParseTree = "show-parsetree";
         final String flagPrettyPrintAst = "pretty-print-ast";
         final String flagNoCompile = "no-compile";
+        final String flagNoParseTree = "no-parse-tree";
+        final String flagTimePhases = "time-phases";
         final String flagHelp = "help";
 
         // Setup parser and parse args
@@ -199,31 +422,68 @@ public class KlangCompiler {
                     .optionalArg(optOutDir, "./out")
                     .optionalArg(optBuildAst, "true")
                     .optionalArg(optTypeCheck, "true")
+                    .optionalArg(optJobs, "1")
+                    .optionalArg(optCache, "false")
+                    .optionalArg(optTimeReport)
+                    .optionalArg(optOptLevel, "1")
                     .flag(flagJbc)
                     .flag(flagAsm)
                     .withTrailingArgs()
 
+                    .flag(flagStreamAsm)
+                    .flag(flagAsmFromIr)
+                    .flag(flagEmitObj)
+
                     .flag(flagShowParseTree)
                     .flag(flagPrettyPrintAst)
                     .flag(flagNoCompile)
+                    .flag(flagNoParseTree)
+                    .flag(flagTimePhases)
                     .parse(args);
         } catch (IllegalArgumentException e) {
-            System.err.println("Error: " + e.getMessage());
-            System.err.println(USAGE_INFO);
-            System.exit(1);
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE_INFO);
+            return 1;
         }
 
         if (parser.hasFlag(flagHelp)) {
-            System.out.println(USAGE_INFO);
+            out.println(USAGE_INFO);
         }
 
-        String outputDir = parser.getValue(optOutDir).get();
+        String outputDir = workDir.resolve(parser.getValue(optOutDir).get()).toString();
         List<String> files = parser.getTrailingArgs();
-        System.out.println("Output directory: " + outputDir);
-        System.out.println("Files to process: " + files);
+        out.println("Output directory: " + outputDir);
+        out.println("Files to process: " + files);
 
         var targetFormatProvided = parser.hasFlag(flagJbc) || parser.hasFlag(flagAsm);
 
+        int jobs = 1;
+        try {
+            jobs = Integer.parseInt(parser.getValue(optJobs).get());
+            if (jobs < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            err.println("Error: Invalid number of jobs: " + parser.getValue(optJobs).get());
+            err.println(USAGE_INFO);
+            return 1;
+        }
+        if (jobs == 0) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        int optLevel;
+        try {
+            optLevel = Integer.parseInt(parser.getValue(optOptLevel).get());
+            if (optLevel < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            err.println("Error: Invalid optimization level: " + parser.getValue(optOptLevel).get());
+            err.println(USAGE_INFO);
+            return 1;
+        }
+
         var config = KlangCompilerConfig.builder()
                 .outputDir(outputDir)
 
@@ -232,32 +492,96 @@ public class KlangCompiler {
                 // If no format specified generate only assembly per default
                 .generateAsm(targetFormatProvided ? parser.hasFlag(flagAsm) : true)
                 .generateJbc(targetFormatProvided ? parser.hasFlag(flagJbc) : false)
+                .streamAsm(parser.hasFlag(flagStreamAsm))
+                .optLevel(optLevel)
+                .asmFromIr(parser.hasFlag(flagAsmFromIr))
+                .emitObject(parser.hasFlag(flagEmitObj))
                 .showParseTree(parser.hasFlag(flagShowParseTree))
                 .prettyPrintAst(parser.hasFlag(flagPrettyPrintAst))
                 .noCompile(parser.hasFlag(flagNoCompile))
+                .noParseTree(parser.hasFlag(flagNoParseTree))
+                .useCache(parser.getValue(optCache).get().equals("true"))
                 .build();
 
-        var compiler = new KlangCompiler(config);
         var filePaths = files.stream().map(src -> Path.of(src)).toList();
-        for (var fp : filePaths) {
-            System.out.println(String.format("--------[ %s ]--------", fp.toString()));
-            var file = fp.toFile();
+        var timeReportFile = parser.getValue(optTimeReport);
+        var phaseReport = parser.hasFlag(flagTimePhases) || timeReportFile.isPresent()
+                ? new PhaseReport(filePaths)
+                : null;
+
+        var result = Result.Ok;
+        if (jobs == 1 || filePaths.size() == 1) {
+            var compiler = new KlangCompiler(config, out, err, phaseReport);
+            for (var fp : filePaths) {
+                if (compiler.compileFile(workDir, fp).isErr()) {
+                    result = Result.Err;
+                    break;
+                }
+            }
+        } else {
+            result = compileInParallel(config, workDir, filePaths, jobs, out, err, phaseReport);
+        }
 
-            var fpBase = PathUtils.getParentOrEmpty(fp).normalize();
-            var packageName = fpBase.toString().replace(File.separator, ".");
-            var className = PathUtils.getFileNameNoExt(fp);
+        if (phaseReport != null) {
+            phaseReport.printSummary(out);
+            if (timeReportFile.isPresent()) {
+                try {
+                    phaseReport.writeJson(workDir.resolve(timeReportFile.get()));
+                } catch (IOException e) {
+                    err.println("Error: Could not write time report: " + e.getMessage());
+                    result = Result.Err;
+                }
+            }
+        }
+        return result.isErr() ? 1 : 0;
+    }
+
+    /** Output of a single file's compilation, captured while running in parallel. */
+    private record BufferedResult(Result result, String out, String err) {
+    }
 
-            try (var reader = new FileReader(file)) {
-                if (compiler.compile(reader, packageName, className).isErr()) {
-                    throw new RuntimeException();
+    /**
+     * Compiles the given files using up to {@code jobs} threads. Each file gets its
+     * own compiler instance writing into private buffers. The buffers are printed
+     * in the order the files were given, stopping after the first failed file just
+     * like the sequential mode does.
+     */
+    private static Result compileInParallel(KlangCompilerConfig config, Path sourceRoot,
+            List<Path> filePaths, int jobs, PrintStream out, PrintStream err, PhaseReport phaseReport) {
+        ParserPool.prewarm();
+        try (var executor = Executors.newFixedThreadPool(jobs)) {
+            var tasks = new ArrayList<Future<BufferedResult>>();
+            for (var fp : filePaths) {
+                tasks.add(executor.submit(() -> {
+                    var outBuf = new ByteArrayOutputStream();
+                    var errBuf = new ByteArrayOutputStream();
+                    var compiler = new KlangCompiler(config, new PrintStream(outBuf), new PrintStream(errBuf),
+                            phaseReport);
+                    var result = compiler.compileFile(sourceRoot, fp);
+                    return new BufferedResult(result, outBuf.toString(), errBuf.toString());
+                }));
+            }
+
+            for (var task : tasks) {
+                BufferedResult res;
+                try {
+                    res = task.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    err.println(e.getCause() != null ? e.getCause() : e);
+                    executor.shutdownNow();
+                    return Result.Err;
+                }
+                out.print(res.out());
+                out.flush();
+                err.print(res.err());
+                err.flush();
+                if (res.result().isErr()) {
+                    executor.shutdownNow();
+                    return Result.Err;
                 }
-                System.out.println(">>> All tasks finished successfully.\n");
-            } catch (Exception e) {
-                System.out.println(">>> Errors occurred while processing compilation tasks.");
-                System.err.println(e.getMessage());
-                System.exit(1);
             }
         }
+        return Result.Ok;
     }
 
     private static void showParseTreeVisualization(Parser parser, RuleContext tree) {
@@ -4,20 +4,45 @@ record KlangCompilerConfig(
         String outputDir,
         boolean showParseTree,
         boolean noCompile,
+        boolean noParseTree,
         boolean buildAst,
         boolean prettyPrintAst,
         boolean typeCheck,
         boolean generateJbc,
-        boolean generateAsm) {
+        boolean generateAsm,
+        boolean streamAsm,
+        int optLevel,
+        boolean asmFromIr,
+        boolean emitObject,
+        boolean useCache) {
+
+    /**
+     * Returns a textual representation of all fields influencing the content
+     * of generated files. Used as part of the compilation cache key, so make
+     * sure to add new fields here if they do.
+     */
+    String outputAffectingFields() {
+        return "buildAst=" + buildAst + ", typeCheck=" + typeCheck
+                + ", generateJbc=" + generateJbc + ", generateAsm=" + generateAsm
+                + ", streamAsm=" + streamAsm + ", optLevel=" + optLevel
+                + ", asmFromIr=" + asmFromIr + ", emitObject=" + emitObject;
+    }
+
     public static class KlangCompilerConfigBuilder {
         private String outputDir;
         private boolean showParseTree;
         private boolean noCompile;
+        private boolean noParseTree;
         private boolean buildAst;
         private boolean prettyPrintAst;
         private boolean typeCheck;
         private boolean generateJbc;
         private boolean generateAsm;
+        private boolean streamAsm;
+        private int optLevel;
+        private boolean asmFromIr;
+        private boolean emitObject;
+        private boolean useCache;
 
         public KlangCompilerConfigBuilder outputDir(final String outputDir) {
             this.outputDir = outputDir;
@@ -34,6 +59,11 @@ record KlangCompilerConfig(
             return this;
         }
 
+        public KlangCompilerConfigBuilder noParseTree(final boolean noParseTree) {
+            this.noParseTree = noParseTree;
+            return this;
+        }
+
         public KlangCompilerConfigBuilder buildAst(final boolean buildAst) {
             this.buildAst = buildAst;
             return this;
@@ -59,17 +89,47 @@ record KlangCompilerConfig(
             return this;
         }
 
+        public KlangCompilerConfigBuilder streamAsm(final boolean streamAsm) {
+            this.streamAsm = streamAsm;
+            return this;
+        }
+
+        public KlangCompilerConfigBuilder optLevel(final int optLevel) {
+            this.optLevel = optLevel;
+            return this;
+        }
+
+        public KlangCompilerConfigBuilder asmFromIr(final boolean asmFromIr) {
+            this.asmFromIr = asmFromIr;
+            return this;
+        }
+
+        public KlangCompilerConfigBuilder emitObject(final boolean emitObject) {
+            this.emitObject = emitObject;
+            return this;
+        }
+
+        public KlangCompilerConfigBuilder useCache(final boolean useCache) {
+            this.useCache = useCache;
+            return this;
+        }
+
         public KlangCompilerConfig build() {
             return new KlangCompilerConfig(this.outputDir, this.showParseTree, this.noCompile,
-                    this.buildAst, this.prettyPrintAst, this.typeCheck, this.generateJbc, this.generateAsm);
+                    this.noParseTree, this.buildAst, this.prettyPrintAst, this.typeCheck, this.generateJbc, this.generateAsm,
+                    this.streamAsm, this.optLevel, this.asmFromIr, this.emitObject, this.useCache);
         }
 
         @Override
         public String toString() {
             return "KlangCompilerConfigBuilder(outputDir=" + this.outputDir + ", showParseTree="
-                    + this.showParseTree + ", noCompile=" + this.noCompile + ", buildAst=" + this.buildAst
+                    + this.showParseTree + ", noCompile=" + this.noCompile + ", noParseTree=" + this.noParseTree
+                    + ", buildAst=" + this.buildAst
                     + ", prettyPrintAst=" + this.prettyPrintAst + ", typeCheck=" + this.typeCheck
-                    + ", generateJbc=" + this.generateJbc + ", generateAsm=" + this.generateAsm + ")";
+                    + ", generateJbc=" + this.generateJbc + ", generateAsm=" + this.generateAsm
+                    + ", streamAsm=" + this.streamAsm + ", optLevel=" + this.optLevel
+                    + ", asmFromIr=" + this.asmFromIr + ", emitObject=" + this.emitObject
+                    + ", useCache=" + this.useCache + ")";
         }
     }
 
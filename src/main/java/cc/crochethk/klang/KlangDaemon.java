@@ -0,0 +1,174 @@
+package cc.crochethk.klang;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived compiler process listening on a Unix domain socket. Each connection
+ * carries one compile request with the same arguments {@link KlangCompiler#main}
+ * accepts. The compiler's stdout/stderr are streamed back line by line while
+ * compiling, followed by the exit code.
+ *
+ * <p>The protocol is line-based UTF-8 text, so that a shell script can act as the
+ * client (see {@code scripts/klang_client.sh}), without starting a JVM:
+ * <pre>
+ * request:  workDir NL argc NL (arg NL){argc}
+ * response: (TAG_OUT line NL | TAG_ERR line NL)* TAG_EXIT code NL
+ * </pre>
+ * A last output line without line break is terminated by the daemon.
+ */
+public class KlangDaemon {
+    static final String TAG_OUT = "out ";
+    static final String TAG_ERR = "err ";
+    static final String TAG_EXIT = "exit ";
+
+    private final Path socketPath;
+
+    public KlangDaemon(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    /** Accepts and serves compile requests until the process is terminated. */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                // Nothing left to do about it
+            }
+        }));
+
+        ParserPool.prewarm();
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                var executor = Executors.newCachedThreadPool()) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            System.out.println("Klang compiler daemon listening on '" + socketPath + "'");
+            while (true) {
+                var client = server.accept();
+                executor.submit(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            handle(Channels.newInputStream(client), Channels.newOutputStream(client));
+        } catch (IOException e) {
+            System.err.println("Dropped client connection: " + e.getMessage());
+        }
+    }
+
+    /** Reads one request from {@code in}, compiles and writes the response to {@code response}. */
+    static void handle(InputStream in, OutputStream response) throws IOException {
+        var outLines = new TaggedLineOutputStream(response, TAG_OUT);
+        var errLines = new TaggedLineOutputStream(response, TAG_ERR);
+        var out = new PrintStream(outLines, true, StandardCharsets.UTF_8);
+        var err = new PrintStream(errLines, true, StandardCharsets.UTF_8);
+
+        int exitCode;
+        try {
+            var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            var workDir = Path.of(readLine(reader));
+            var args = new String[Integer.parseInt(readLine(reader))];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readLine(reader);
+            }
+            exitCode = KlangCompiler.run(args, workDir, out, err);
+        } catch (Exception e) {
+            err.println("Error: " + e);
+            exitCode = 1;
+        }
+        out.close();
+        err.close();
+        synchronized (response) {
+            response.write((TAG_EXIT + exitCode + "\n").getBytes(StandardCharsets.UTF_8));
+            response.flush();
+        }
+    }
+
+    private static String readLine(BufferedReader reader) throws IOException {
+        var line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Incomplete request");
+        }
+        return line;
+    }
+
+    /**
+     * Writes every line written into it as a separate line prefixed with the
+     * given tag. Closing it terminates a pending incomplete line.
+     */
+    private static class TaggedLineOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final byte[] tag;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        TaggedLineOutputStream(OutputStream target, String tag) {
+            this.target = target;
+            this.tag = tag.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                writeLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void writeLine() throws IOException {
+            // Both output streams share the same connection
+            synchronized (target) {
+                target.write(tag);
+                line.writeTo(target);
+                target.write('\n');
+                target.flush();
+            }
+            line.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                writeLine();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java --enable-preview -cp klangc.jar "
+                    + KlangDaemon.class.getName() + " <socket-path>");
+            System.exit(1);
+        }
+        try {
+            new KlangDaemon(Path.of(args[0])).serve();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package cc.crochethk.klang;
+
+import java.io.PrintStream;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.LexerNoViableAltException;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import cc.crochethk.klang.antlr.KlangLexer;
+import cc.crochethk.klang.antlr.KlangParser;
+import cc.crochethk.klang.antlr.KlangParser.StartContext;
+import cc.crochethk.klang.ast.Prog;
+
+/**
+ * Provides one lexer and parser instance per thread, which are reused for
+ * each file via {@code setInputStream}. All instances share the generated
+ * parser's static DFA cache, so prediction work done for one file (or by
+ * {@link #prewarm()}) speeds up all following ones.
+ * <p>
+ * Parsing is done in two stages: First in SLL mode, bailing out on the first
+ * syntax error. Only if that fails the input is parsed again in full LL mode,
+ * which then reports the actual syntax error, if any. SLL is considerably
+ * faster, especially for the left-recursive {@code expr} rule, and suffices
+ * for virtually all valid programs.
+ * </p>
+ */
+class ParserPool {
+    private static final ThreadLocal<KlangLexer> LEXERS = ThreadLocal.withInitial(() -> new KlangLexer(null));
+    private static final ThreadLocal<KlangParser> PARSERS = ThreadLocal.withInitial(() -> new KlangParser(null));
+
+    /** Program using every syntactic construct, for pre-warming the DFA cache. */
+    static final String WARMUP_SOURCE = """
+            struct Node {
+                value: i64,
+                weight: f64,
+                next: Node,
+                ---
+                sum(depth: i64) -> i64 {
+                    if self.next == null || depth <= 0 {
+                        return self.value;
+                    }
+                    return self.value + self.next.sum(depth - 1);
+                }
+            }
+
+            struct Empty {}
+
+            struct Flags { a: bool, b: bool, }
+
+            fn helper(a: i64, b: f64, c: bool, s: string,) -> f64 {
+                return -(a as f64) * b / 2.5 + (c ? 1.0 : 0.0) - (s == "x" ? 1.0 : 2.0);
+            }
+
+            fn nothing() {}
+
+            fn ___main___() {
+                let n = Node{1, 1.5, Node{2, 2.5, null}};
+                let x: i64 = n.next.value % 3 ** 2;
+                let y: f64;
+                let z: string = "text";
+                y = helper(x, n.weight, !(x < 2 && x >= 0 || x != 1 && x > 3), z);
+                n.next.value = n.sum(2) - x;
+                n.next.weight = y;
+                loop {
+                    if x > 10 {
+                        break;
+                    } else {
+                        x = x + 1;
+                    }
+                }
+                {
+                    let f = Flags{true, false,};
+                    print(f.a, z, x.to_string(), n.next.sum(1));
+                    drop f;
+                }
+                nothing();
+                n.next.sum(0);
+                drop n;
+                return;
+            }
+            """;
+
+    /**
+     * Returns the current thread's lexer, reset to read from {@code input}.
+     * @param err The stream syntax errors are reported to.
+     */
+    static KlangLexer lexer(CharStream input, PrintStream err) {
+        return lexer(input, err, ThrowingErrorListener.INSTANCE);
+    }
+
+    private static KlangLexer lexer(CharStream input, PrintStream err, ANTLRErrorListener errorListener) {
+        var lx = LEXERS.get();
+        lx.setInputStream(input);
+        lx.removeErrorListeners();
+        lx.addErrorListener(new PrintingErrorListener(err));
+        lx.addErrorListener(errorListener);
+        return lx;
+    }
+
+    /** Returns the current thread's parser. Input is provided when parsing. */
+    static KlangParser parser() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Parses {@code tokens} with the given parser, trying SLL mode first.
+     * @param err The stream syntax errors are reported to.
+     */
+    static StartContext parse(KlangParser parser, TokenStream tokens, PrintStream err) {
+        try {
+            return parseSll(parser, tokens);
+        } catch (ParseCancellationException e) {
+            return parseLl(parser, tokens, err);
+        }
+    }
+
+    /**
+     * Parses in SLL mode, throwing {@link ParseCancellationException} on the
+     * first syntax error (i.e. if the input is either invalid or requires LL).
+     */
+    static StartContext parseSll(KlangParser parser, TokenStream tokens) {
+        tokens.seek(0);
+        parser.setTokenStream(tokens);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        resetState(parser);
+        return parser.start();
+    }
+
+    /** Parses in full LL mode, reporting syntax errors to {@code err} as a parser usually does. */
+    static StartContext parseLl(KlangParser parser, TokenStream tokens, PrintStream err) {
+        tokens.seek(0);
+        parser.setTokenStream(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(new PrintingErrorListener(err));
+        parser.addErrorListener(ThrowingErrorListener.INSTANCE);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        resetState(parser);
+        return parser.start();
+    }
+
+    /**
+     * {@code Parser.reset()} keeps the ATN state, which is taken as invoking
+     * state of the start rule's context. After an aborted parse it would point
+     * into some rule, breaking the error recovery of the next parse.
+     */
+    private static void resetState(KlangParser parser) {
+        parser.setState(ATNState.INVALID_STATE_NUMBER);
+    }
+
+    /**
+     * Parses {@code input} and builds the AST on the fly, without ever holding the
+     * complete parse tree or all tokens in memory. {@link TreeBuilder} is attached
+     * as parse listener, so each node is built as soon as its rule is exited.
+     * Afterwards the parts of the parse tree it will not look at anymore are
+     * pruned. Tokens are pulled through an {@link UnbufferedTokenStream}.
+     * <p>
+     * Like {@link #parse}, SLL mode is tried first. Since the token stream cannot
+     * be rewound, the input is lexed again for the LL stage.
+     * </p>
+     */
+    static Prog parseAst(CharStream input, PrintStream err) {
+        var parser = parser();
+        try {
+            try {
+                return parseAst(parser, input, err, true);
+            } catch (ParseCancellationException e) {
+                if (e.getCause() instanceof LexerNoViableAltException) {
+                    // Won't get any better in LL mode
+                    throw e;
+                }
+                input.seek(0);
+                return parseAst(parser, input, err, false);
+            }
+        } finally {
+            parser.removeParseListeners();
+        }
+    }
+
+    private static Prog parseAst(KlangParser parser, CharStream input, PrintStream err, boolean sll) {
+        var astBuilder = new AstBuildingListener(parser);
+        var tokens = new UnbufferedTokenStream<>(lexer(input, err, astBuilder.lexerErrorListener));
+        parser.removeParseListeners();
+        parser.addParseListener(astBuilder);
+        var tree = sll ? parseSll(parser, tokens) : parseLl(parser, tokens, err);
+        if (parser.getNumberOfSyntaxErrors() > 0) {
+            // The parser recovered, but there is no AST
+            throw new ParseCancellationException(
+                    "Source contains " + parser.getNumberOfSyntaxErrors() + " syntax error(s)");
+        }
+        return tree.result;
+    }
+
+    /**
+     * Drives a {@link TreeBuilder} during parsing and prunes the parse tree
+     * behind it. AST nodes are only built as long as the parse is not failing,
+     * since exit events are also delivered for incomplete contexts while the
+     * parser is unwinding or recovering.
+     */
+    private static class AstBuildingListener implements ParseTreeListener {
+        private final TreeBuilder treeBuilder = new TreeBuilder();
+        private final KlangParser parser;
+        private boolean lexerFailed = false;
+
+        /**
+         * Lexer errors abort the parse. The thrown exception must not be a
+         * {@code RecognitionException}, since the parser would try to recover
+         * from it when tokens are lexed on demand.
+         */
+        final BaseErrorListener lexerErrorListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                    int charPositionInLine, String msg, RecognitionException e) {
+                lexerFailed = true;
+                throw new ParseCancellationException("line " + line + ":" + charPositionInLine + " " + msg, e);
+            }
+        };
+
+        AstBuildingListener(KlangParser parser) {
+            this.parser = parser;
+        }
+
+        private boolean failing(ParserRuleContext ctx) {
+            return lexerFailed || ctx.exception != null || parser.getNumberOfSyntaxErrors() > 0;
+        }
+
+        @Override
+        public void enterEveryRule(ParserRuleContext ctx) {
+            ctx.enterRule(treeBuilder);
+        }
+
+        @Override
+        public void exitEveryRule(ParserRuleContext ctx) {
+            if (failing(ctx)) {
+                return;
+            }
+            ctx.exitRule(treeBuilder);
+            pruneBelowGrandchildren(ctx);
+        }
+
+        /**
+         * {@link TreeBuilder} accesses at most the children and grandchildren of
+         * an exited context, and so does the context's parent on its exit. Any
+         * deeper descendants can be dropped once the context's node is built.
+         */
+        private static void pruneBelowGrandchildren(ParserRuleContext ctx) {
+            if (ctx.children == null) {
+                return;
+            }
+            for (var child : ctx.children) {
+                if (child instanceof ParserRuleContext c && c.children != null) {
+                    for (var grandchild : c.children) {
+                        if (grandchild instanceof ParserRuleContext g) {
+                            g.children = null;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void visitTerminal(TerminalNode node) {
+        }
+
+        @Override
+        public void visitErrorNode(ErrorNode node) {
+        }
+    }
+
+    /**
+     * Detaches the current thread's lexer and parser from their last input,
+     * so it can be garbage collected while the instances are idle.
+     */
+    static void release() {
+        LEXERS.get().setInputStream(null);
+        PARSERS.get().setTokenStream(null);
+    }
+
+    /**
+     * Fills the shared DFA cache by parsing a program that uses every syntactic
+     * construct in both modes. Intended to be called once at startup of
+     * long-running or multi-threaded compiler processes.
+     */
+    static void prewarm() {
+        var parser = parser();
+        var tokens = new CommonTokenStream(lexer(CharStreams.fromString(WARMUP_SOURCE), System.err));
+        tokens.fill();
+        parseSll(parser, tokens);
+        parseLl(parser, tokens, System.err);
+        release();
+    }
+}
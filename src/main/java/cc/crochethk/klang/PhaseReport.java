@@ -0,0 +1,138 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import cc.crochethk.klang.PhaseTimer.Phase;
+import cc.crochethk.klang.PhaseTimer.Sample;
+
+/**
+ * Collects the {@link PhaseTimer}s of all files of a compiler run and aggregates
+ * them into a summary table and an optional JSON report.
+ */
+class PhaseReport {
+    /** Timers in the order the files were given. Created up front, so lookups are thread-safe. */
+    private final Map<Path, PhaseTimer> timers = new LinkedHashMap<>();
+
+    PhaseReport(List<Path> files) {
+        files.forEach(fp -> timers.putIfAbsent(fp, new PhaseTimer(fp.toString())));
+    }
+
+    PhaseTimer timerFor(Path file) {
+        return timers.get(file);
+    }
+
+    /** Sums up the samples of each phase across all files. */
+    Map<Phase, Sample> totals() {
+        var totals = new EnumMap<Phase, Sample>(Phase.class);
+        for (var t : timers.values()) {
+            t.samples().forEach((phase, sample) -> totals.merge(phase, sample, Sample::plus));
+        }
+        return totals;
+    }
+
+    void printSummary(PrintStream out) {
+        final String rowFormat = "%-32s %-14s %12s %12s %12s%n";
+        out.println("Phase timings:");
+        out.printf(rowFormat, "File", "Phase", "Wall [ms]", "CPU [ms]", "Bytes");
+        for (var t : timers.values()) {
+            t.samples().forEach((phase, s) -> out.printf(rowFormat,
+                    abbreviate(t.file, 32), phase.label, millis(s.wallNanos()), millis(s.cpuNanos()),
+                    s.bytes()));
+        }
+
+        var totals = totals();
+        var all = Sample.ZERO;
+        for (var entry : totals.entrySet()) {
+            var s = entry.getValue();
+            out.printf(rowFormat, "TOTAL", entry.getKey().label,
+                    millis(s.wallNanos()), millis(s.cpuNanos()), s.bytes());
+            all = all.plus(s);
+        }
+        // Bytes are source bytes for some phases and output bytes for others, so they don't add up
+        out.printf(rowFormat, "TOTAL", "all", millis(all.wallNanos()), millis(all.cpuNanos()), "");
+    }
+
+    /**
+     * Writes the samples of each file and their totals as JSON. Phases that did
+     * not run are absent:
+     * <pre>
+     * {
+     *   "files": [
+     *     {"file": "a.k", "phases": {"lex": {"wallNanos": 1, "cpuNanos": 1, "bytes": 42}, ...}},
+     *     ...
+     *   ],
+     *   "totals": {"lex": {"wallNanos": 1, "cpuNanos": 1, "bytes": 42}, ...}
+     * }
+     * </pre>
+     */
+    void writeJson(Path target) throws IOException {
+        var sb = new StringBuilder();
+        sb.append("{\n  \"files\": [");
+        var firstFile = true;
+        for (var t : timers.values()) {
+            sb.append(firstFile ? "\n" : ",\n");
+            firstFile = false;
+            sb.append("    {\"file\": ").append(jsonString(t.file)).append(", \"phases\": ");
+            appendPhases(sb, t.samples());
+            sb.append("}");
+        }
+        sb.append("\n  ],\n  \"totals\": ");
+        appendPhases(sb, totals());
+        sb.append("\n}\n");
+
+        var parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(target, sb.toString());
+    }
+
+    private static void appendPhases(StringBuilder sb, Map<Phase, Sample> samples) {
+        sb.append("{");
+        var first = true;
+        for (var entry : samples.entrySet()) {
+            var s = entry.getValue();
+            sb.append(first ? "" : ", ");
+            first = false;
+            sb.append(jsonString(entry.getKey().label)).append(": {")
+                    .append("\"wallNanos\": ").append(s.wallNanos())
+                    .append(", \"cpuNanos\": ").append(s.cpuNanos())
+                    .append(", \"bytes\": ").append(s.bytes())
+                    .append("}");
+        }
+        sb.append("}");
+    }
+
+    private static String jsonString(String s) {
+        var sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"', '\\' -> sb.append('\\').append(c);
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String abbreviate(String s, int maxLen) {
+        return s.length() <= maxLen ? s : "..." + s.substring(s.length() - maxLen + 3);
+    }
+}
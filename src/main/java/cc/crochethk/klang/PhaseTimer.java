@@ -0,0 +1,103 @@
+package cc.crochethk.klang;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records wall time, CPU time and produced bytes of the compilation phases of
+ * a single source file. Each measured action is expected to run on one thread,
+ * which is what makes the per-thread CPU time meaningful.
+ */
+class PhaseTimer {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    enum Phase {
+        LEX("lex"),
+        PARSE("parse"),
+        BUILD_AST("build-ast"),
+        TYPE_CHECK("typecheck"),
+        OPTIMIZE("optimize"),
+        GEN_JBC("gen-jbc"),
+        GEN_ASM("gen-asm"),
+        GEN_C_HELPERS("gen-c-helpers");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * @param bytes Size of the source for {@link Phase#LEX}, size of the written
+     *      files for code generating phases and 0 otherwise.
+     */
+    record Sample(long wallNanos, long cpuNanos, long bytes) {
+        static final Sample ZERO = new Sample(0, 0, 0);
+
+        Sample plus(Sample other) {
+            return new Sample(wallNanos + other.wallNanos, cpuNanos + other.cpuNanos,
+                    bytes + other.bytes);
+        }
+    }
+
+    @FunctionalInterface
+    interface ThrowingRunnable<E extends Exception> {
+        void run() throws E;
+    }
+
+    @FunctionalInterface
+    interface ThrowingSupplier<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    final String file;
+    private final Map<Phase, Sample> samples = new EnumMap<>(Phase.class);
+
+    PhaseTimer(String file) {
+        this.file = file;
+    }
+
+    /** Runs the given action, adding its wall and CPU time to the given phase. */
+    <E extends Exception> void time(Phase phase, ThrowingRunnable<E> action) throws E {
+        long cpuStart = cpuTime();
+        long wallStart = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            long wall = System.nanoTime() - wallStart;
+            long cpu = cpuTime() - cpuStart;
+            add(phase, new Sample(wall, cpu, 0));
+        }
+    }
+
+    /** Like {@link #time(Phase, ThrowingRunnable)} but returns the action's result. */
+    <T, E extends Exception> T time(Phase phase, ThrowingSupplier<T, E> action) throws E {
+        var result = new ArrayList<T>(1);
+        time(phase, () -> {
+            result.add(action.get());
+        });
+        return result.get(0);
+    }
+
+    void addBytes(Phase phase, long bytes) {
+        add(phase, new Sample(0, 0, bytes));
+    }
+
+    /** Adds the given sample to the phase's recorded sample. */
+    synchronized void add(Phase phase, Sample sample) {
+        samples.merge(phase, sample, Sample::plus);
+    }
+
+    /** The recorded samples in phase order. Phases that did not run are absent. */
+    synchronized Map<Phase, Sample> samples() {
+        return new EnumMap<>(samples);
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+}
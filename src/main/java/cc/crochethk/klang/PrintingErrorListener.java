@@ -0,0 +1,25 @@
+package cc.crochethk.klang;
+
+import java.io.PrintStream;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/**
+ * Reports syntax errors like ANTLR's {@code ConsoleErrorListener}, but to the
+ * given stream instead of {@code System.err}, e.g. the compiler's error stream.
+ */
+public class PrintingErrorListener extends BaseErrorListener {
+    private final PrintStream err;
+
+    public PrintingErrorListener(PrintStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+            String msg, RecognitionException e) {
+        err.println("line " + line + ":" + charPositionInLine + " " + msg);
+    }
+}
@@ -0,0 +1,177 @@
+package cc.crochethk.klang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CodePointBuffer;
+import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Loads source files and feeds them to the lexer without intermediate copies
+ * where possible. Large files are memory-mapped instead of read onto the heap.
+ * Pure ASCII sources, which all Klang programs are unless they contain
+ * non-ASCII string literals or comments, are lexed directly from the bytes.
+ * Everything else is decoded as UTF-8 first.
+ */
+class SourceInput {
+    /** Files of at least this size are memory-mapped. Reading smaller ones is cheaper. */
+    static final long MMAP_THRESHOLD = 64 * 1024;
+
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
+    /** Returns the content of the given file as read-only buffer. */
+    static ByteBuffer read(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large: " + file);
+            }
+            if (size >= MMAP_THRESHOLD) {
+                // Mapping stays valid after closing the channel
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            var buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+            }
+            return buf.flip().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Returns a CharStream over the remaining bytes of {@code source}, which are
+     * expected to be UTF-8 encoded. Malformed input is replaced with U+FFFD.
+     * The buffer's position is not changed.
+     */
+    static CharStream charStream(ByteBuffer source, String sourceName) {
+        source = source.slice();
+        if (isAscii(source)) {
+            return new AsciiCharStream(source, sourceName);
+        }
+        var chars = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            var decoded = chars.decode(source);
+            var codePoints = CodePointBuffer.builder(decoded.remaining());
+            codePoints.append(decoded);
+            return CodePointCharStream.fromBuffer(codePoints.build(), sourceName);
+        } catch (IOException e) {
+            // Cannot happen when replacing malformed input
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Whether all remaining bytes of {@code buf} are 7-bit ASCII. */
+    static boolean isAscii(ByteBuffer buf) {
+        var longs = buf.duplicate().order(ByteOrder.nativeOrder());
+        int i = longs.position();
+        int end = longs.limit();
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            if ((longs.getLong(i) & NON_ASCII_MASK) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (longs.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * CharStream reading single byte characters from a buffer. Mirrors the
+     * behavior of ANTLR's {@link CodePointCharStream} for 8-bit input.
+     */
+    static final class AsciiCharStream implements CharStream {
+        private final ByteBuffer bytes;
+        private final int size;
+        private final String name;
+        private int position = 0;
+
+        /** @param bytes The characters from index 0 to the buffer's limit. */
+        AsciiCharStream(ByteBuffer bytes, String name) {
+            this.bytes = bytes;
+            this.size = bytes.limit();
+            this.name = name;
+        }
+
+        @Override
+        public void consume() {
+            if (position >= size) {
+                assert LA(1) == IntStream.EOF;
+                throw new IllegalStateException("cannot consume EOF");
+            }
+            position++;
+        }
+
+        @Override
+        public int LA(int i) {
+            int offset;
+            if (i > 0) {
+                offset = position + i - 1;
+                return offset < size ? bytes.get(offset) : IntStream.EOF;
+            } else if (i < 0) {
+                offset = position + i;
+                return offset >= 0 ? bytes.get(offset) : IntStream.EOF;
+            }
+            // Undefined
+            return 0;
+        }
+
+        @Override
+        public int mark() {
+            return -1;
+        }
+
+        @Override
+        public void release(int marker) {
+        }
+
+        @Override
+        public int index() {
+            return position;
+        }
+
+        @Override
+        public void seek(int index) {
+            position = index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String getSourceName() {
+            return name == null || name.isEmpty() ? IntStream.UNKNOWN_SOURCE_NAME : name;
+        }
+
+        @Override
+        public String getText(Interval interval) {
+            int startIdx = Math.min(interval.a, size);
+            int len = Math.min(interval.b - interval.a + 1, size - startIdx);
+            var chars = new byte[Math.max(len, 0)];
+            bytes.get(startIdx, chars);
+            return new String(chars, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return getText(Interval.of(0, size - 1));
+        }
+    }
+}
@@ -355,7 +355,8 @@ public class TreeBuilder extends KlangBaseListener {
         var params = buildParamsList(ctx.params());
         var methDefs = ctx.methodDefs.stream().map(
                 methDef -> new MethDef(srcPos, Type.of(name, ""), methDef.result)).toList();
-        ctx.result = new StructDef(srcPos, name, params, methDefs);
+        var attributes = ctx.attributes.stream().map(attr -> attr.name.getText()).toList();
+        ctx.result = new StructDef(srcPos, name, params, methDefs, attributes);
     }
 
     @Override
@@ -8,7 +8,7 @@ import utils.SourcePos;
 /** Simple wrapper Node for chained {@code MemberAccessor}s. */
 public class MemberAccessChain extends Expr {
     /** Initiator of the member access. Must not be {@code null}. */
-    public final Expr owner;
+    public Expr owner;
     /**
      * Accessor chain leading to the actual member to be accessed. There must be
      * at least one element in the chain, i.e. this field should never be 
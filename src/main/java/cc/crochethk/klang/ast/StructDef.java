@@ -7,17 +7,32 @@ import cc.crochethk.klang.visitor.Visitor;
 import utils.SourcePos;
 
 public class StructDef extends Node {
+    /** Attribute allowing the fields to be reordered in memory, to minimize padding. */
+    public static final String ATTR_REORDER = "reorder";
+
     public String name;
     public List<Parameter> fields;
     public List<MethDef> methods;
+    /** Names of the attributes the struct is annotated with, e.g. {@value #ATTR_REORDER}. */
+    public List<String> attributes;
     // // public List<MethDef> autoMethods = new ArrayList<>();
     // // public List<FunDef> autoFuns = new ArrayList<>();
 
     public StructDef(SourcePos srcPos, String name, List<Parameter> fields, List<MethDef> methDefs) {
+        this(srcPos, name, fields, methDefs, List.of());
+    }
+
+    public StructDef(SourcePos srcPos, String name, List<Parameter> fields, List<MethDef> methDefs,
+            List<String> attributes) {
         super(srcPos);
         this.name = name;
         this.fields = fields != null ? fields : List.of();
         this.methods = methDefs != null ? methDefs : List.of();
+        this.attributes = attributes != null ? attributes : List.of();
+    }
+
+    public boolean hasAttribute(String attribute) {
+        return attributes.contains(attribute);
     }
 
     @Override
@@ -33,12 +48,12 @@ public class StructDef extends Node {
     @Override
     public String toString() {
         return super.toString() + "(name=" + name + ", fields=" + fields
-                + ", methods=" + methods + ")";
+                + ", methods=" + methods + ", attributes=" + attributes + ")";
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), name, fields, methods);
+        return Objects.hash(super.hashCode(), name, fields, methods, attributes);
     }
 
     @Override
@@ -50,6 +65,7 @@ public class StructDef extends Node {
             return Objects.equals(name, other.name)
                     && Objects.equals(fields, other.fields)
                     && Objects.equals(methods, other.methods)
+                    && Objects.equals(attributes, other.attributes)
                     && super.equals(other);
         }
         return false;
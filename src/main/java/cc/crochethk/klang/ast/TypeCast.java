@@ -6,7 +6,7 @@ import cc.crochethk.klang.visitor.Visitor;
 import utils.SourcePos;
 
 public class TypeCast extends Expr {
-    public final Expr expr;
+    public Expr expr;
     public final TypeNode targetType;
 
     public TypeCast(SourcePos srcPos, Expr expr, TypeNode targetType) {
@@ -7,7 +7,7 @@ import utils.SourcePos;
 
 public class VarAssignStat extends Node {
     public final String targetVarName;
-    public final Expr expr;
+    public Expr expr;
 
     public VarAssignStat(SourcePos srcPos, String targetVarName, Expr expr) {
         super(srcPos);
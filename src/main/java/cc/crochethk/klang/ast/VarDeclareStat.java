@@ -9,7 +9,7 @@ import utils.SourcePos;
 public class VarDeclareStat extends Node {
     private final String varName;
     public final Optional<TypeNode> declaredType;
-    public final Optional<VarAssignStat> initializer;
+    public Optional<VarAssignStat> initializer;
 
     /**
      * @param declaredType A semi-optional type to declare the variable with. 
@@ -0,0 +1,43 @@
+package cc.crochethk.klang.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.crochethk.klang.ir.Instr.Terminator;
+
+/**
+ * A sequence of instructions without any jumps in between. Control flow only
+ * enters at the top and leaves through the {@link Terminator} at the end.
+ */
+public final class BasicBlock {
+    public final int id;
+    /** The instructions, excluding the terminator. */
+    public final List<Instr> instrs = new ArrayList<>();
+    private Terminator terminator = null;
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    /** Returns the terminator, or {@code null} while the block is under construction. */
+    public Terminator terminator() {
+        return terminator;
+    }
+
+    public void setTerminator(Terminator terminator) {
+        this.terminator = terminator;
+    }
+
+    public boolean isTerminated() {
+        return terminator != null;
+    }
+
+    public List<BasicBlock> successors() {
+        return terminator != null ? terminator.successors() : List.of();
+    }
+
+    @Override
+    public String toString() {
+        return "B" + id;
+    }
+}
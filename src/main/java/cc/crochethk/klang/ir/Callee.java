@@ -0,0 +1,62 @@
+package cc.crochethk.klang.ir;
+
+import cc.crochethk.klang.visitor.Type;
+
+/**
+ * The target of a {@link Instr.Call}. Backends map these to their own naming
+ * scheme, e.g. {@code GenAsm.getAsmMethodName(...)} for methods, or lower them
+ * differently, e.g. field getters and setters to plain loads and stores.
+ */
+public sealed interface Callee {
+    /** A function defined in the program. */
+    public record Function(String name) implements Callee {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** A method of {@code owner}, which takes the instance as first argument. */
+    public record Method(Type owner, String name) implements Callee {
+        @Override
+        public String toString() {
+            return owner.klangName() + "." + name;
+        }
+    }
+
+    public record FieldGetter(Type owner, String field) implements Callee {
+        @Override
+        public String toString() {
+            return owner.klangName() + ".get_" + field;
+        }
+    }
+
+    public record FieldSetter(Type owner, String field) implements Callee {
+        @Override
+        public String toString() {
+            return owner.klangName() + ".set_" + field;
+        }
+    }
+
+    public record Constructor(Type type) implements Callee {
+        @Override
+        public String toString() {
+            return type.klangName() + ".new";
+        }
+    }
+
+    public record Destructor(Type type) implements Callee {
+        @Override
+        public String toString() {
+            return type.klangName() + ".drop";
+        }
+    }
+
+    /** The builtin {@code print} function for a single argument of type {@code argType}. */
+    public record Print(Type argType) implements Callee {
+        @Override
+        public String toString() {
+            return "print";
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cc.crochethk.klang.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The control flow graph of an {@link IrFunction}. Edges are given by the
+ * blocks' terminators, this class adds predecessors and a reverse postorder.
+ */
+public final class ControlFlowGraph {
+    public final IrFunction function;
+    private final List<BasicBlock> reversePostorder;
+    private final Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+
+    private ControlFlowGraph(IrFunction function) {
+        this.function = function;
+        this.reversePostorder = computeReversePostorder(function.entry());
+        for (var block : reversePostorder) {
+            predecessors.put(block, new ArrayList<>());
+        }
+        for (var block : reversePostorder) {
+            for (var succ : block.successors()) {
+                predecessors.get(succ).add(block);
+            }
+        }
+    }
+
+    /**
+     * Builds the control flow graph of {@code function}, removing all blocks
+     * not reachable from its entry.
+     */
+    public static ControlFlowGraph of(IrFunction function) {
+        var cfg = new ControlFlowGraph(function);
+        var reachable = new HashSet<>(cfg.reversePostorder);
+        function.blocks.removeIf(b -> !reachable.contains(b));
+        return cfg;
+    }
+
+    private record DfsFrame(BasicBlock block, Iterator<BasicBlock> successors) {
+    }
+
+    /** Iterative depth-first search, so deeply nested code doesn't overflow the stack. */
+    private static List<BasicBlock> computeReversePostorder(BasicBlock entry) {
+        var postorder = new ArrayList<BasicBlock>();
+        var visited = new HashSet<BasicBlock>();
+        var stack = new ArrayDeque<DfsFrame>();
+        visited.add(entry);
+        stack.push(new DfsFrame(entry, entry.successors().iterator()));
+        while (!stack.isEmpty()) {
+            var top = stack.peek();
+            if (top.successors.hasNext()) {
+                var succ = top.successors.next();
+                if (visited.add(succ)) {
+                    stack.push(new DfsFrame(succ, succ.successors().iterator()));
+                }
+            } else {
+                stack.pop();
+                postorder.add(top.block);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    public BasicBlock entry() {
+        return function.entry();
+    }
+
+    /** All blocks in reverse postorder, i.e. each block precedes its successors except along back edges. */
+    public List<BasicBlock> blocks() {
+        return Collections.unmodifiableList(reversePostorder);
+    }
+
+    public List<BasicBlock> successors(BasicBlock block) {
+        return block.successors();
+    }
+
+    public List<BasicBlock> predecessors(BasicBlock block) {
+        return Collections.unmodifiableList(predecessors.get(block));
+    }
+}
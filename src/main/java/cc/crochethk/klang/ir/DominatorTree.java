@@ -0,0 +1,147 @@
+package cc.crochethk.klang.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dominator tree of a {@link ControlFlowGraph}, computed with the iterative
+ * algorithm by Cooper, Harvey and Kennedy ("A Simple, Fast Dominance
+ * Algorithm", 2001). Block {@code a} dominates {@code b} if every path from
+ * the entry to {@code b} passes through {@code a}.
+ */
+public final class DominatorTree {
+    private final ControlFlowGraph cfg;
+    /** Position of each block in reverse postorder */
+    private final Map<BasicBlock, Integer> rpoIndex = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> idoms = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private Map<BasicBlock, Set<BasicBlock>> frontiers = null;
+
+    private DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        var blocks = cfg.blocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            rpoIndex.put(blocks.get(i), i);
+            children.put(blocks.get(i), new ArrayList<>());
+        }
+    }
+
+    public static DominatorTree of(ControlFlowGraph cfg) {
+        var tree = new DominatorTree(cfg);
+        tree.computeIdoms();
+        return tree;
+    }
+
+    private void computeIdoms() {
+        var entry = cfg.entry();
+        idoms.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : cfg.blocks()) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock newIdom = null;
+                for (var pred : cfg.predecessors(block)) {
+                    if (idoms.containsKey(pred)) {
+                        newIdom = newIdom == null ? pred : intersect(pred, newIdom);
+                    }
+                }
+                if (idoms.get(block) != newIdom) {
+                    idoms.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        }
+        idoms.put(entry, null);
+        idoms.forEach((block, idom) -> {
+            if (idom != null) {
+                children.get(idom).add(block);
+            }
+        });
+        // Keep children in a deterministic order
+        children.values().forEach(c -> c.sort((a, b) -> rpoIndex.get(a) - rpoIndex.get(b)));
+    }
+
+    /** Walks up from both blocks to their nearest common dominator. */
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (rpoIndex.get(a) > rpoIndex.get(b)) {
+                a = idoms.get(a);
+            }
+            while (rpoIndex.get(b) > rpoIndex.get(a)) {
+                b = idoms.get(b);
+            }
+        }
+        return a;
+    }
+
+    public BasicBlock root() {
+        return cfg.entry();
+    }
+
+    /** The immediate dominator of {@code block}, {@code null} for the entry. */
+    public BasicBlock idom(BasicBlock block) {
+        return idoms.get(block);
+    }
+
+    /** The blocks immediately dominated by {@code block}. */
+    public List<BasicBlock> children(BasicBlock block) {
+        return Collections.unmodifiableList(children.get(block));
+    }
+
+    /** Whether {@code a} dominates {@code b}. Every block dominates itself. */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        for (var block = b; block != null; block = idoms.get(block)) {
+            if (block == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the edge {@code from -> to} closes a loop, i.e. its target
+     * dominates its source. {@code to} is the loop's header then.
+     */
+    public boolean isBackEdge(BasicBlock from, BasicBlock to) {
+        return dominates(to, from);
+    }
+
+    /**
+     * The dominance frontier of {@code block}: Blocks where its dominance ends,
+     * i.e. which have a predecessor dominated by {@code block} without being
+     * strictly dominated by it themselves. This is where SSA construction places
+     * phi functions for values defined in {@code block}.
+     */
+    public Set<BasicBlock> dominanceFrontier(BasicBlock block) {
+        if (frontiers == null) {
+            computeFrontiers();
+        }
+        return Collections.unmodifiableSet(frontiers.get(block));
+    }
+
+    private void computeFrontiers() {
+        frontiers = new HashMap<>();
+        for (var block : cfg.blocks()) {
+            frontiers.put(block, new LinkedHashSet<>());
+        }
+        for (var block : cfg.blocks()) {
+            var preds = cfg.predecessors(block);
+            if (preds.size() < 2) {
+                continue;
+            }
+            for (var pred : preds) {
+                for (var runner = pred; runner != null && runner != idoms.get(block); runner = idoms.get(runner)) {
+                    frontiers.get(runner).add(block);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package cc.crochethk.klang.ir;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.UnaryOpExpr.UnaryOp;
+import cc.crochethk.klang.ir.Value.Temp;
+
+/**
+ * A three-address instruction. Each one computes at most one result from at
+ * most two operands, except for calls. The operands' and results' types are
+ * those of the source program.
+ */
+public sealed interface Instr {
+    /** The temporary written by this instruction, if any. */
+    default Optional<Temp> def() {
+        return Optional.empty();
+    }
+
+    /** The operands read by this instruction. */
+    List<Value> uses();
+
+    /** {@code dst = src} */
+    public record Copy(Temp dst, Value src) implements Instr {
+        @Override
+        public Optional<Temp> def() {
+            return Optional.of(dst);
+        }
+
+        @Override
+        public List<Value> uses() {
+            return List.of(src);
+        }
+
+        @Override
+        public String toString() {
+            return dst + " = " + src;
+        }
+    }
+
+    /**
+     * {@code dst = lhs op rhs}. Both operands are of the same type, except for
+     * comparisons of references, where one side may be {@code null}.
+     */
+    public record BinOp(Temp dst, BinaryOp op, Value lhs, Value rhs) implements Instr {
+        @Override
+        public Optional<Temp> def() {
+            return Optional.of(dst);
+        }
+
+        @Override
+        public List<Value> uses() {
+            return List.of(lhs, rhs);
+        }
+
+        @Override
+        public String toString() {
+            return dst + " = " + lhs + " " + op.toLexeme() + " " + rhs;
+        }
+    }
+
+    /** {@code dst = op operand} */
+    public record UnOp(Temp dst, UnaryOp op, Value operand) implements Instr {
+        @Override
+        public Optional<Temp> def() {
+            return Optional.of(dst);
+        }
+
+        @Override
+        public List<Value> uses() {
+            return List.of(operand);
+        }
+
+        @Override
+        public String toString() {
+            return dst + " = " + op.toLexeme() + operand;
+        }
+    }
+
+    /** Converts {@code src} to the type of {@code dst} (i.e. between i64 and f64). */
+    public record Convert(Temp dst, Value src) implements Instr {
+        @Override
+        public Optional<Temp> def() {
+            return Optional.of(dst);
+        }
+
+        @Override
+        public List<Value> uses() {
+            return List.of(src);
+        }
+
+        @Override
+        public String toString() {
+            return dst + " = " + src + " as " + dst.type().klangName();
+        }
+    }
+
+    /** Calls {@code callee}. {@code dst} is {@code null} if there's no result. */
+    public record Call(Temp dst, Callee callee, List<Value> args) implements Instr {
+        @Override
+        public Optional<Temp> def() {
+            return Optional.ofNullable(dst);
+        }
+
+        @Override
+        public List<Value> uses() {
+            return args;
+        }
+
+        @Override
+        public String toString() {
+            var call = "call " + callee + "("
+                    + args.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")";
+            return dst != null ? dst + " = " + call : call;
+        }
+    }
+
+    /** Ends a basic block, transferring control to its successors or the caller. */
+    public sealed interface Terminator extends Instr {
+        List<BasicBlock> successors();
+    }
+
+    public record Jump(BasicBlock target) implements Terminator {
+        @Override
+        public List<Value> uses() {
+            return List.of();
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of(target);
+        }
+
+        @Override
+        public String toString() {
+            return "jump " + target;
+        }
+    }
+
+    /** Continues with {@code then} if the bool {@code cond} is true, with {@code otherwise} if not. */
+    public record Branch(Value cond, BasicBlock then, BasicBlock otherwise) implements Terminator {
+        @Override
+        public List<Value> uses() {
+            return List.of(cond);
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of(then, otherwise);
+        }
+
+        @Override
+        public String toString() {
+            return "branch " + cond + ", " + then + ", " + otherwise;
+        }
+    }
+
+    /** Returns {@code value} to the caller. {@code value} is {@code null} for void functions. */
+    public record Return(Value value) implements Terminator {
+        @Override
+        public List<Value> uses() {
+            return value != null ? List.of(value) : List.of();
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of();
+        }
+
+        @Override
+        public String toString() {
+            return value != null ? "return " + value : "return";
+        }
+    }
+}
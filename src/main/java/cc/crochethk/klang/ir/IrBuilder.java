@@ -0,0 +1,398 @@
+package cc.crochethk.klang.ir;
+
+import static cc.crochethk.klang.visitor.BuiltinDefinitions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.UnaryOpExpr.UnaryOp;
+import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.literal.*;
+import cc.crochethk.klang.ir.Instr.*;
+import cc.crochethk.klang.ir.Value.Const;
+import cc.crochethk.klang.ir.Value.Temp;
+import cc.crochethk.klang.visitor.Type;
+import cc.crochethk.klang.visitor.Visitor;
+
+/**
+ * Lowers a type checked function to IR.
+ * <p>
+ * Operands are evaluated in the same order as the code generators do, i.e.
+ * a binary operation's rhs before its lhs and arguments from left to right.
+ * The exceptions are {@code &&} and {@code ||}, which evaluate their lhs first
+ * and their rhs only if the lhs doesn't determine the result.
+ * Statements following a {@code return} or {@code break} end up in blocks
+ * without predecessors, which are removed once the function is complete.
+ * </p>
+ */
+public class IrBuilder implements Visitor {
+    private final IrFunction function;
+    /** The block instructions are currently appended to */
+    private BasicBlock current;
+    /** The value of the most recently visited expression */
+    private Value result = null;
+    private final Map<String, Temp> variables = new HashMap<>();
+    /** Where {@code break} continues, {@code null} outside of loops */
+    private BasicBlock loopExit = null;
+
+    private IrBuilder(IrFunction function) {
+        this.function = function;
+        this.current = function.newBlock();
+    }
+
+    /** Builds the IR of {@code funDef}, which must have been type checked. */
+    public static IrFunction build(FunDef funDef) {
+        var builder = new IrBuilder(new IrFunction(funDef.name, funDef.returnType.theType));
+        for (var p : funDef.params) {
+            builder.function.params.add(builder.declare(p.name(), p.type().theType));
+        }
+        funDef.body.accept(builder);
+        if (!builder.current.isTerminated()) {
+            builder.current.setTerminator(new Return(null));
+        }
+        ControlFlowGraph.of(builder.function);
+        return builder.function;
+    }
+
+    private Temp declare(String varName, Type type) {
+        var variable = function.newVariable(varName, type);
+        variables.put(varName, variable);
+        return variable;
+    }
+
+    private Value eval(Expr expr) {
+        expr.accept(this);
+        return result;
+    }
+
+    private void emit(Instr instr) {
+        current.instrs.add(instr);
+    }
+
+    /** Ends the current block with {@code terminator} and continues in a new one. */
+    private void terminate(Terminator terminator) {
+        current.setTerminator(terminator);
+        current = function.newBlock();
+    }
+
+    /** Temporary for the result of an expression of the given type, {@code null} for void. */
+    private Temp resultTemp(Type type) {
+        return type == Type.VOID_T ? null : function.newTemp(type);
+    }
+
+    private List<Value> evalAll(List<Expr> exprs) {
+        var values = new ArrayList<Value>(exprs.size());
+        exprs.forEach(e -> values.add(eval(e)));
+        return values;
+    }
+
+    /**
+     * Ends the current block with a branch to {@code then} if {@code cond} is
+     * true, otherwise to {@code otherwise}. The operands of {@code &&} and
+     * {@code ||} branch on their own, so the rhs is evaluated only if needed.
+     */
+    private void branch(Expr cond, BasicBlock then, BasicBlock otherwise) {
+        if (cond instanceof UnaryOpExpr unOp && unOp.op == UnaryOp.not) {
+            branch(unOp.operand, otherwise, then);
+        } else if (cond instanceof BinOpExpr binOp && binOp.op.isBoolean()) {
+            var rhsBlock = function.newBlockAfter(current);
+            if (binOp.op == BinaryOp.and) {
+                branch(binOp.lhs, rhsBlock, otherwise);
+            } else {
+                branch(binOp.lhs, then, rhsBlock);
+            }
+            current = rhsBlock;
+            branch(binOp.rhs, then, otherwise);
+        } else {
+            current.setTerminator(new Branch(eval(cond), then, otherwise));
+        }
+    }
+
+    private void call(Type resultType, Callee callee, List<Value> args) {
+        var dst = resultTemp(resultType);
+        emit(new Call(dst, callee, args));
+        result = dst;
+    }
+
+    @Override
+    public void visit(I64Lit i64Lit) {
+        result = Const.of(i64Lit.value);
+    }
+
+    @Override
+    public void visit(F64Lit f64Lit) {
+        result = Const.of(f64Lit.value);
+    }
+
+    @Override
+    public void visit(BoolLit boolLit) {
+        result = Const.of(boolLit.value);
+    }
+
+    @Override
+    public void visit(StringLit stringLit) {
+        result = Const.of(stringLit.value);
+    }
+
+    @Override
+    public void visit(NullLit nullLit) {
+        result = Const.nullRef();
+    }
+
+    @Override
+    public void visit(Var var) {
+        result = variables.get(var.name);
+    }
+
+    @Override
+    public void visit(FunCall funCall) {
+        var argTypes = funCall.args.stream().map(arg -> arg.theType).toList();
+        var autoFunSign = findBuiltinFun(funCall.name, argTypes);
+        if (autoFunSign.isPresent()) {
+            var autoFun = autoFunSign.get();
+            if (!autoFun.name().equals(NAME_FN_PRINT)) {
+                throw new UnsupportedOperationException(
+                        "Builtin function '" + autoFun.name() + "' not implemented.");
+            }
+            call(autoFun.returnType(), new Callee.Print(argTypes.get(0)), evalAll(funCall.args));
+            return;
+        }
+        call(funCall.theType, new Callee.Function(funCall.name), evalAll(funCall.args));
+    }
+
+    @Override
+    public void visit(MemberAccessChain maChain) {
+        result = evalChain(maChain);
+    }
+
+    /**
+     * Evaluates the chain's accessors from left to right. A trailing
+     * {@code FieldSet} is skipped, leaving the field's owner as result.
+     */
+    private Value evalChain(MemberAccessChain maChain) {
+        var obj = eval(maChain.owner);
+        var ownerType = maChain.owner.theType;
+        for (var ma = maChain.chain; ma != null; ma = ma.next) {
+            switch (ma) {
+                case FieldGet fieldGet -> {
+                    call(fieldGet.theType, new Callee.FieldGetter(ownerType, fieldGet.targetName),
+                            List.of(obj));
+                }
+                case MethodCall methodCall -> {
+                    var args = new ArrayList<Value>();
+                    args.add(obj);
+                    args.addAll(evalAll(methodCall.args));
+                    call(methodCall.theType, new Callee.Method(ownerType, methodCall.targetName), args);
+                }
+                case FieldSet _ -> {
+                    // Handled by FieldAssignStat
+                    return obj;
+                }
+            }
+            obj = result;
+            ownerType = ma.theType;
+        }
+        return obj;
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        throw new IllegalStateException("Member accesses are lowered as part of their chain");
+    }
+
+    @Override
+    public void visit(FieldGet fieldGet) {
+        throw new IllegalStateException("Member accesses are lowered as part of their chain");
+    }
+
+    @Override
+    public void visit(FieldSet fieldSet) {
+        throw new IllegalStateException("Member accesses are lowered as part of their chain");
+    }
+
+    @Override
+    public void visit(ConstructorCall constructorCall) {
+        call(constructorCall.theType, new Callee.Constructor(constructorCall.theType),
+                evalAll(constructorCall.args));
+    }
+
+    @Override
+    public void visit(BinOpExpr binOpExpr) {
+        if (binOpExpr.op.isBoolean()) {
+            // Result is lhs, unless rhs must be evaluated
+            var dst = function.newTemp(binOpExpr.theType);
+            emit(new Copy(dst, eval(binOpExpr.lhs)));
+            var rhsBlock = function.newBlockAfter(current);
+            var join = function.newBlockAfter(rhsBlock);
+            current.setTerminator(binOpExpr.op == BinaryOp.and
+                    ? new Branch(dst, rhsBlock, join)
+                    : new Branch(dst, join, rhsBlock));
+
+            current = rhsBlock;
+            emit(new Copy(dst, eval(binOpExpr.rhs)));
+            current.setTerminator(new Jump(join));
+            current = join;
+            result = dst;
+            return;
+        }
+        var rhs = eval(binOpExpr.rhs);
+        var lhs = eval(binOpExpr.lhs);
+        var dst = function.newTemp(binOpExpr.theType);
+        emit(new BinOp(dst, binOpExpr.op, lhs, rhs));
+        result = dst;
+    }
+
+    @Override
+    public void visit(UnaryOpExpr unaryOpExpr) {
+        var operand = eval(unaryOpExpr.operand);
+        var dst = function.newTemp(unaryOpExpr.theType);
+        emit(new UnOp(dst, unaryOpExpr.op, operand));
+        result = dst;
+    }
+
+    @Override
+    public void visit(TypeCast typeCast) {
+        var src = eval(typeCast.expr);
+        var targetType = typeCast.targetType.theType;
+        if (!src.type().equals(targetType)) {
+            var dst = function.newTemp(targetType);
+            emit(new Convert(dst, src));
+            result = dst;
+        }
+    }
+
+    @Override
+    public void visit(TernaryConditionalExpr ternaryConditionalExpr) {
+        var dst = function.newTemp(ternaryConditionalExpr.theType);
+        var thenBlock = function.newBlock();
+        var elseBlock = function.newBlock();
+        var join = function.newBlock();
+        branch(ternaryConditionalExpr.condition, thenBlock, elseBlock);
+
+        current = thenBlock;
+        emit(new Copy(dst, eval(ternaryConditionalExpr.then)));
+        current.setTerminator(new Jump(join));
+
+        current = elseBlock;
+        emit(new Copy(dst, eval(ternaryConditionalExpr.otherwise)));
+        current.setTerminator(new Jump(join));
+
+        current = join;
+        result = dst;
+    }
+
+    @Override
+    public void visit(VarDeclareStat varDeclareStat) {
+        declare(varDeclareStat.varName(), varDeclareStat.theType);
+        varDeclareStat.initializer.ifPresent(init -> init.accept(this));
+    }
+
+    @Override
+    public void visit(VarAssignStat varAssignStat) {
+        var src = eval(varAssignStat.expr);
+        emit(new Copy(variables.get(varAssignStat.targetVarName), src));
+    }
+
+    @Override
+    public void visit(FieldAssignStat fieldAssignStat) {
+        var field = fieldAssignStat.maChain.getLast();
+        var ownerType = field.owner != null
+                ? field.owner.theType
+                : fieldAssignStat.maChain.owner.theType;
+        var obj = evalChain(fieldAssignStat.maChain);
+        var value = eval(fieldAssignStat.expr);
+        call(Type.VOID_T, new Callee.FieldSetter(ownerType, field.targetName), List.of(obj, value));
+    }
+
+    @Override
+    public void visit(IfElseStat ifElseStat) {
+        var thenBlock = function.newBlock();
+        var elseBlock = ifElseStat.otherwise.isEmpty() ? null : function.newBlock();
+        var join = function.newBlock();
+        branch(ifElseStat.condition, thenBlock, elseBlock != null ? elseBlock : join);
+
+        current = thenBlock;
+        ifElseStat.then.accept(this);
+        current.setTerminator(new Jump(join));
+
+        if (elseBlock != null) {
+            current = elseBlock;
+            ifElseStat.otherwise.accept(this);
+            current.setTerminator(new Jump(join));
+        }
+        current = join;
+    }
+
+    @Override
+    public void visit(LoopStat loopStat) {
+        var previousExit = loopExit;
+        var header = function.newBlock();
+        current.setTerminator(new Jump(header));
+        loopExit = function.newBlock();
+        // Keep blocks in source order
+        function.blocks.remove(loopExit);
+
+        current = header;
+        loopStat.body.accept(this);
+        current.setTerminator(new Jump(header));
+
+        function.blocks.add(loopExit);
+        current = loopExit;
+        loopExit = previousExit;
+    }
+
+    @Override
+    public void visit(StatementList statementList) {
+        statementList.statements.forEach(stat -> stat.accept(this));
+    }
+
+    @Override
+    public void visit(ReturnStat returnStat) {
+        var value = returnStat.expr.isEmpty() ? null : eval(returnStat.expr);
+        terminate(new Return(value));
+    }
+
+    @Override
+    public void visit(BreakStat breakStat) {
+        terminate(new Jump(loopExit));
+    }
+
+    @Override
+    public void visit(DropStat dropStat) {
+        var instance = dropStat.refTypeVar;
+        call(Type.VOID_T, new Callee.Destructor(instance.theType), List.of(eval(instance)));
+    }
+
+    @Override
+    public void visit(TypeNode type) {
+    }
+
+    @Override
+    public void visit(FunDef funDef) {
+        throw new UnsupportedOperationException("Use IrBuilder.build(...) to lower a function");
+    }
+
+    @Override
+    public void visit(StructDef structDef) {
+        throw new UnsupportedOperationException("Use IrBuilder.build(...) to lower a function");
+    }
+
+    @Override
+    public void visit(MethDef methDef) {
+        throw new UnsupportedOperationException("Use IrBuilder.build(...) to lower a function");
+    }
+
+    @Override
+    public void visit(Prog prog) {
+        throw new UnsupportedOperationException("Use IrBuilder.build(...) to lower a function");
+    }
+
+    @Override
+    public void visit(EmptyExpr emptyExpr) {
+        result = null;
+    }
+}
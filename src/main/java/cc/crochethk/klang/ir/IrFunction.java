@@ -0,0 +1,72 @@
+package cc.crochethk.klang.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import cc.crochethk.klang.ir.Value.Temp;
+import cc.crochethk.klang.visitor.Type;
+
+/** A function in IR form. The first block is the entry. */
+public final class IrFunction {
+    public final String name;
+    public final Type returnType;
+    public final List<Temp> params = new ArrayList<>();
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    private int tempCount = 0;
+    private int blockCount = 0;
+
+    public IrFunction(String name, Type returnType) {
+        this.name = name;
+        this.returnType = returnType;
+    }
+
+    public BasicBlock entry() {
+        return blocks.getFirst();
+    }
+
+    /** Creates a new block and appends it to {@link #blocks}. */
+    public BasicBlock newBlock() {
+        var block = new BasicBlock(blockCount++);
+        blocks.add(block);
+        return block;
+    }
+
+    /** Creates a new block and inserts it into {@link #blocks} directly after {@code predecessor}. */
+    public BasicBlock newBlockAfter(BasicBlock predecessor) {
+        var block = new BasicBlock(blockCount++);
+        blocks.add(blocks.indexOf(predecessor) + 1, block);
+        return block;
+    }
+
+    /** Creates a new temporary for an intermediate result. */
+    public Temp newTemp(Type type) {
+        return new Temp(tempCount++, type, null);
+    }
+
+    /** Creates a new temporary representing the source variable {@code varName}. */
+    public Temp newVariable(String varName, Type type) {
+        return new Temp(tempCount++, type, varName);
+    }
+
+    /** Number of temporaries created so far. Their ids are {@code 0} to {@code tempCount() - 1}. */
+    public int tempCount() {
+        return tempCount;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("fn ").append(name).append("(")
+                .append(params.stream().map(p -> p + ": " + p.type().klangName())
+                        .collect(Collectors.joining(", ")))
+                .append(") -> ").append(returnType.klangName()).append(" {\n");
+        for (var block : blocks) {
+            sb.append(block).append(":\n");
+            block.instrs.forEach(instr -> sb.append("    ").append(instr).append("\n"));
+            if (block.isTerminated()) {
+                sb.append("    ").append(block.terminator()).append("\n");
+            }
+        }
+        return sb.append("}").toString();
+    }
+}
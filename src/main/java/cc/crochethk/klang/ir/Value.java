@@ -0,0 +1,65 @@
+package cc.crochethk.klang.ir;
+
+import cc.crochethk.klang.visitor.Type;
+
+/** An operand of an IR instruction. */
+public sealed interface Value permits Value.Temp, Value.Const {
+    Type type();
+
+    /**
+     * A virtual register. Temporaries holding intermediate results are assigned
+     * exactly once. Those representing a source variable ({@code varName} is set)
+     * are assigned wherever the variable is.
+     */
+    public record Temp(int id, Type type, String varName) implements Value {
+        public boolean isVariable() {
+            return varName != null;
+        }
+
+        @Override
+        public final boolean equals(Object obj) {
+            return obj instanceof Temp other && id == other.id;
+        }
+
+        @Override
+        public final int hashCode() {
+            return Integer.hashCode(id);
+        }
+
+        @Override
+        public String toString() {
+            return isVariable() ? "%" + varName : "%t" + id;
+        }
+    }
+
+    /**
+     * A constant. The value is a {@code Long}, {@code Double}, {@code Boolean},
+     * {@code String} or {@code null} for null references.
+     */
+    public record Const(Object value, Type type) implements Value {
+        public static Const of(long value) {
+            return new Const(value, Type.LONG_T);
+        }
+
+        public static Const of(double value) {
+            return new Const(value, Type.DOUBLE_T);
+        }
+
+        public static Const of(boolean value) {
+            return new Const(value, Type.BOOL_T);
+        }
+
+        public static Const of(String value) {
+            return new Const(value, Type.STRING_T);
+        }
+
+        public static Const nullRef() {
+            return new Const(null, Type.ANY_T);
+        }
+
+        @Override
+        public String toString() {
+            return value instanceof String s ? '"' + s + '"' : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package cc.crochethk.klang.visitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.literal.*;
+import utils.SourcePos;
+
+/**
+ * Evaluates constant expressions at compile time. Must run on a type checked AST.
+ * <ul>
+ *  <li>Binary and unary operations, type casts and ternary conditionals with
+ *  literal operands are replaced by their result.</li>
+ *  <li>Variables of primitive type holding a known constant are replaced by
+ *  that constant. Values are tracked through straight-line code and merged
+ *  after branches. Variables assigned anywhere in a loop are unknown in it.</li>
+ *  <li>If-else statements with a constant condition are replaced by the
+ *  statements of the branch taken.</li>
+ * </ul>
+ * <p>
+ * Folding must not change the program's behavior. Therefore operations whose
+ * result differs between the JVM and x86-64 (e.g. integer division by zero,
+ * which traps at runtime, or casting NaN to {@code i64}) are left alone, as are
+ * ordering comparisons involving NaN.
+ * </p>
+ */
+public class ConstantFolder implements Visitor {
+    /** Constant value of each variable, if known */
+    private Map<String, LiteralExpr<?>> constants = new HashMap<>();
+    /** The replacement of the most recently visited expression */
+    private Expr replacement = null;
+    /** The statements replacing the most recently visited if-else, if its condition was constant */
+    private List<Node> inlined = null;
+
+    /** Visits {@code expr} and returns the expression it should be replaced with. */
+    private Expr fold(Expr expr) {
+        expr.accept(this);
+        return replacement;
+    }
+
+    private List<Expr> foldAll(List<Expr> exprs) {
+        var folded = new ArrayList<Expr>(exprs.size());
+        exprs.forEach(e -> folded.add(fold(e)));
+        return folded;
+    }
+
+    /** Creates a type checked literal node for {@code value}. */
+    static LiteralExpr<?> literal(SourcePos srcPos, Object value) {
+        LiteralExpr<?> lit = switch (value) {
+            case Long l -> new I64Lit(srcPos, l);
+            case Double d -> new F64Lit(srcPos, d);
+            case Boolean b -> new BoolLit(srcPos, b);
+            default -> throw new IllegalArgumentException("Not a primitive constant: " + value);
+        };
+        lit.theType = switch (value) {
+            case Long _ -> Type.LONG_T;
+            case Double _ -> Type.DOUBLE_T;
+            default -> Type.BOOL_T;
+        };
+        return lit;
+    }
+
+    private static boolean isPrimitiveLiteral(Expr expr) {
+        return expr instanceof I64Lit || expr instanceof F64Lit || expr instanceof BoolLit;
+    }
+
+    @Override
+    public void visit(I64Lit i64Lit) {
+        replacement = i64Lit;
+    }
+
+    @Override
+    public void visit(F64Lit f64Lit) {
+        replacement = f64Lit;
+    }
+
+    @Override
+    public void visit(BoolLit boolLit) {
+        replacement = boolLit;
+    }
+
+    @Override
+    public void visit(StringLit stringLit) {
+        replacement = stringLit;
+    }
+
+    @Override
+    public void visit(NullLit nullLit) {
+        replacement = nullLit;
+    }
+
+    @Override
+    public void visit(Var var) {
+        var constant = constants.get(var.name);
+        // Each use gets its own node, code generators may associate data with it
+        replacement = constant != null ? literal(var.srcPos, constant.value) : var;
+    }
+
+    @Override
+    public void visit(FunCall funCall) {
+        funCall.args = foldAll(funCall.args);
+        replacement = funCall;
+    }
+
+    @Override
+    public void visit(MemberAccessChain memberAccessChain) {
+        memberAccessChain.owner = fold(memberAccessChain.owner);
+        for (var ma = memberAccessChain.chain; ma != null; ma = ma.next) {
+            if (ma instanceof MethodCall methodCall) {
+                methodCall.args = foldAll(methodCall.args);
+            }
+        }
+        replacement = memberAccessChain;
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+    }
+
+    @Override
+    public void visit(FieldGet fieldGet) {
+    }
+
+    @Override
+    public void visit(FieldSet fieldSet) {
+    }
+
+    @Override
+    public void visit(ConstructorCall constructorCall) {
+        constructorCall.args = foldAll(constructorCall.args);
+        replacement = constructorCall;
+    }
+
+    @Override
+    public void visit(BinOpExpr binOpExpr) {
+        binOpExpr.rhs = fold(binOpExpr.rhs);
+        binOpExpr.lhs = fold(binOpExpr.lhs);
+        replacement = binOpExpr;
+        if (binOpExpr.op.isBoolean() && binOpExpr.lhs instanceof BoolLit lhs) {
+            // Short-circuit: rhs is only evaluated if lhs doesn't determine the result
+            boolean decisive = binOpExpr.op == BinOpExpr.BinaryOp.or;
+            replacement = lhs.value == decisive ? lhs : binOpExpr.rhs;
+        } else if (binOpExpr.lhs instanceof LiteralExpr<?> lhs && binOpExpr.rhs instanceof LiteralExpr<?> rhs) {
+            var value = evalBinOp(binOpExpr.op, lhs.value, rhs.value);
+            if (value != null) {
+                replacement = literal(binOpExpr.srcPos, value);
+            }
+        }
+    }
+
+    /** Computes {@code lhs op rhs}, or returns {@code null} if it must be left to the runtime. */
+    private static Object evalBinOp(BinOpExpr.BinaryOp op, Object lhs, Object rhs) {
+        if (lhs instanceof Long a && rhs instanceof Long b) {
+            return switch (op) {
+                case add -> a + b;
+                case sub -> a - b;
+                case mult -> a * b;
+                // idiv traps on these, the JVM throws
+                case div -> b == 0 || (a == Long.MIN_VALUE && b == -1) ? null : a / b;
+                case mod -> b == 0 || (a == Long.MIN_VALUE && b == -1) ? null : a % b;
+                case pow -> intPow(a, b);
+                case eq -> a.longValue() == b.longValue();
+                case neq -> a.longValue() != b.longValue();
+                case gt -> a > b;
+                case gteq -> a >= b;
+                case lt -> a < b;
+                case lteq -> a <= b;
+                default -> null;
+            };
+        } else if (lhs instanceof Double a && rhs instanceof Double b) {
+            var unordered = a.isNaN() || b.isNaN();
+            return switch (op) {
+                case add -> a + b;
+                case sub -> a - b;
+                case mult -> a * b;
+                case div -> a / b;
+                // Primitive comparison, so that 0.0 == -0.0 and NaN != NaN
+                case eq -> a.doubleValue() == b.doubleValue();
+                case neq -> a.doubleValue() != b.doubleValue();
+                case gt -> unordered ? null : a > b;
+                case gteq -> unordered ? null : a >= b;
+                case lt -> unordered ? null : a < b;
+                case lteq -> unordered ? null : a <= b;
+                default -> null;
+            };
+        } else if (lhs instanceof Boolean a && rhs instanceof Boolean b) {
+            return switch (op) {
+                case and -> a && b;
+                case or -> a || b;
+                case eq -> a.booleanValue() == b.booleanValue();
+                case neq -> a.booleanValue() != b.booleanValue();
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Raises {@code base} to the power {@code exponent} by squaring, wrapping
+     * around like the generated code. Negative exponents truncate the result
+     * towards zero.
+     */
+    private static long intPow(long base, long exponent) {
+        if (exponent < 0) {
+            if (base != 1 && base != -1) {
+                return 0;
+            }
+            exponent = -exponent;
+        }
+        long result = 1;
+        for (; exponent != 0; exponent >>>= 1) {
+            if ((exponent & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+        return result;
+    }
+
+    @Override
+    public void visit(UnaryOpExpr unaryOpExpr) {
+        unaryOpExpr.operand = fold(unaryOpExpr.operand);
+        replacement = unaryOpExpr;
+        if (unaryOpExpr.operand instanceof LiteralExpr<?> operand) {
+            Object value = switch (unaryOpExpr.op) {
+                case neg -> switch (operand.value) {
+                    case Long l -> -l;
+                    case Double d -> -d;
+                    default -> null;
+                };
+                case not -> operand.value instanceof Boolean b ? !b : null;
+                default -> null;
+            };
+            if (value != null) {
+                replacement = literal(unaryOpExpr.srcPos, value);
+            }
+        }
+    }
+
+    @Override
+    public void visit(TypeCast typeCast) {
+        typeCast.expr = fold(typeCast.expr);
+        replacement = typeCast;
+        if (typeCast.expr instanceof LiteralExpr<?> operand && isPrimitiveLiteral(operand)) {
+            var targetType = typeCast.targetType.theType;
+            Object value = null;
+            if (operand.theType.equals(targetType)) {
+                value = operand.value;
+            } else if (operand.value instanceof Long l && targetType == Type.DOUBLE_T) {
+                value = (double) l;
+            } else if (operand.value instanceof Double d && targetType == Type.LONG_T
+                    // Out of range and NaN yield 0x8000_0000_0000_0000 with cvttsd2si
+                    && d >= -0x1p63 && d < 0x1p63) {
+                value = (long) d.doubleValue();
+            }
+            if (value != null) {
+                replacement = literal(typeCast.srcPos, value);
+            }
+        }
+    }
+
+    @Override
+    public void visit(TernaryConditionalExpr ternaryConditionalExpr) {
+        ternaryConditionalExpr.condition = fold(ternaryConditionalExpr.condition);
+        ternaryConditionalExpr.then = fold(ternaryConditionalExpr.then);
+        ternaryConditionalExpr.otherwise = fold(ternaryConditionalExpr.otherwise);
+        replacement = ternaryConditionalExpr;
+        if (ternaryConditionalExpr.condition instanceof BoolLit cond) {
+            replacement = cond.value ? ternaryConditionalExpr.then : ternaryConditionalExpr.otherwise;
+        }
+    }
+
+    @Override
+    public void visit(VarDeclareStat varDeclareStat) {
+        constants.remove(varDeclareStat.varName());
+        varDeclareStat.initializer.ifPresent(init -> init.accept(this));
+    }
+
+    @Override
+    public void visit(VarAssignStat varAssignStat) {
+        varAssignStat.expr = fold(varAssignStat.expr);
+        if (isPrimitiveLiteral(varAssignStat.expr)) {
+            constants.put(varAssignStat.targetVarName, (LiteralExpr<?>) varAssignStat.expr);
+        } else {
+            constants.remove(varAssignStat.targetVarName);
+        }
+    }
+
+    @Override
+    public void visit(FieldAssignStat fieldAssignStat) {
+        fieldAssignStat.maChain.accept(this);
+        fieldAssignStat.expr = fold(fieldAssignStat.expr);
+    }
+
+    @Override
+    public void visit(IfElseStat ifElseStat) {
+        ifElseStat.condition = fold(ifElseStat.condition);
+        if (ifElseStat.condition instanceof BoolLit cond) {
+            var taken = cond.value ? ifElseStat.then : ifElseStat.otherwise;
+            taken.accept(this);
+            inlined = taken.statements;
+            return;
+        }
+
+        var before = new HashMap<>(constants);
+        ifElseStat.then.accept(this);
+        var afterThen = constants;
+        constants = before;
+        ifElseStat.otherwise.accept(this);
+        var afterOtherwise = constants;
+
+        // A branch leaving the function or loop doesn't reach the code after the if
+        if (leavesBlock(ifElseStat.then)) {
+            constants = afterOtherwise;
+        } else if (leavesBlock(ifElseStat.otherwise)) {
+            constants = afterThen;
+        } else {
+            afterThen.entrySet().removeIf(e -> {
+                var other = afterOtherwise.get(e.getKey());
+                return other == null || !other.value.equals(e.getValue().value);
+            });
+            constants = afterThen;
+        }
+    }
+
+    private static boolean leavesBlock(StatementList statementList) {
+        var stats = statementList.statements;
+        var last = stats.isEmpty() ? null : stats.getLast();
+        return last instanceof ReturnStat || last instanceof BreakStat;
+    }
+
+    @Override
+    public void visit(LoopStat loopStat) {
+        // The values at the loop's start depend on the previous iteration
+        var assigned = new HashSet<String>();
+        collectAssignedVars(loopStat.body, assigned);
+        constants.keySet().removeAll(assigned);
+        var atLoopStart = new HashMap<>(constants);
+
+        loopStat.body.accept(this);
+        // The loop may be left by any break, where only the unassigned values are known
+        constants = atLoopStart;
+    }
+
+    private static void collectAssignedVars(StatementList statementList, Set<String> assigned) {
+        for (var stat : statementList.statements) {
+            switch (stat) {
+                case VarDeclareStat decl -> assigned.add(decl.varName());
+                case VarAssignStat assign -> assigned.add(assign.targetVarName);
+                case IfElseStat ifElse -> {
+                    collectAssignedVars(ifElse.then, assigned);
+                    collectAssignedVars(ifElse.otherwise, assigned);
+                }
+                case LoopStat loop -> collectAssignedVars(loop.body, assigned);
+                case StatementList list -> collectAssignedVars(list, assigned);
+                default -> {
+                }
+            }
+        }
+    }
+
+    @Override
+    public void visit(StatementList statementList) {
+        var statements = new ArrayList<Node>(statementList.statements.size());
+        for (var stat : statementList.statements) {
+            stat.accept(this);
+            if (inlined != null) {
+                statements.addAll(inlined);
+                inlined = null;
+            } else {
+                statements.add(stat);
+            }
+        }
+        statementList.statements = statements;
+    }
+
+    @Override
+    public void visit(ReturnStat returnStat) {
+        returnStat.expr = fold(returnStat.expr);
+    }
+
+    @Override
+    public void visit(BreakStat breakStat) {
+    }
+
+    @Override
+    public void visit(DropStat dropStat) {
+    }
+
+    @Override
+    public void visit(VoidResultExprStat voidResultExprStat) {
+        voidResultExprStat.expr = fold(voidResultExprStat.expr);
+    }
+
+    @Override
+    public void visit(TypeNode type) {
+    }
+
+    @Override
+    public void visit(FunDef funDef) {
+        constants = new HashMap<>();
+        funDef.body.accept(this);
+    }
+
+    @Override
+    public void visit(StructDef structDef) {
+        structDef.methods.forEach(m -> m.accept(this));
+    }
+
+    @Override
+    public void visit(MethDef methDef) {
+        methDef.def.accept(this);
+    }
+
+    @Override
+    public void visit(Prog prog) {
+        prog.funDefs.forEach(f -> f.accept(this));
+        prog.structDefs.forEach(s -> s.accept(this));
+    }
+
+    @Override
+    public void visit(EmptyExpr emptyExpr) {
+        replacement = emptyExpr;
+    }
+}
@@ -0,0 +1,275 @@
+package cc.crochethk.klang.visitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.literal.*;
+
+/**
+ * Removes code without effect on the program's behavior. Must run on a type
+ * checked AST.
+ * <ul>
+ *  <li>Statements that can't be reached, because they follow a {@code return},
+ *  a {@code break}, an if-else leaving in both branches or a loop without
+ *  {@code break}.</li>
+ *  <li>Dead stores, i.e. assignments and initializers whose value is never
+ *  read, as determined by a backward liveness analysis. Only stores of
+ *  expressions without side effects are removed. Calls and member accesses are
+ *  kept, as are integer divisions which might trap.</li>
+ *  <li>Declarations of variables which are not used at all afterwards.</li>
+ * </ul>
+ */
+public class DeadCodeEliminator {
+    /** Variables live at the exit of each enclosing loop, innermost first */
+    private final Deque<Set<String>> liveAtLoopExits = new ArrayDeque<>();
+
+    public void apply(Prog prog) {
+        prog.funDefs.forEach(this::apply);
+        prog.structDefs.forEach(s -> s.methods.forEach(m -> apply(m.def)));
+    }
+
+    public void apply(FunDef funDef) {
+        removeUnreachable(funDef.body);
+        liveness(funDef.body, new HashSet<>(), true);
+        var used = new HashSet<String>();
+        collectReferencedVars(funDef.body, used);
+        removeUnusedDeclarations(funDef.body, used);
+    }
+
+    // --------------------[ Unreachable code ]---------------------------------
+    /** Truncates all statement lists after the first statement not completing normally. */
+    private static void removeUnreachable(StatementList statementList) {
+        var stats = statementList.statements;
+        for (int i = 0; i < stats.size(); i++) {
+            var stat = stats.get(i);
+            switch (stat) {
+                case IfElseStat ifElse -> {
+                    removeUnreachable(ifElse.then);
+                    removeUnreachable(ifElse.otherwise);
+                }
+                case LoopStat loop -> removeUnreachable(loop.body);
+                case StatementList list -> removeUnreachable(list);
+                default -> {
+                }
+            }
+            if (leaves(stat) && i + 1 < stats.size()) {
+                statementList.statements = new ArrayList<>(stats.subList(0, i + 1));
+                return;
+            }
+        }
+    }
+
+    /** Whether control never continues with the statement following {@code stat}. */
+    public static boolean leaves(Node stat) {
+        return switch (stat) {
+            case ReturnStat _, BreakStat _ -> true;
+            case IfElseStat ifElse -> leaves(ifElse.then) && leaves(ifElse.otherwise);
+            case LoopStat loop -> !hasBreak(loop.body);
+            case StatementList list -> !list.statements.isEmpty() && leaves(list.statements.getLast());
+            default -> false;
+        };
+    }
+
+    /** Whether {@code stat} contains a {@code break} of the enclosing loop. */
+    private static boolean hasBreak(Node stat) {
+        return switch (stat) {
+            case BreakStat _ -> true;
+            case IfElseStat ifElse -> hasBreak(ifElse.then) || hasBreak(ifElse.otherwise);
+            case StatementList list -> list.statements.stream().anyMatch(DeadCodeEliminator::hasBreak);
+            // Breaks in nested loops leave those
+            default -> false;
+        };
+    }
+
+    // --------------------[ Dead stores ]--------------------------------------
+    /**
+     * Computes the variables live before {@code stat}, given those live after it.
+     * @param apply If {@code true}, dead stores are removed. Must only be set
+     *      once {@code liveOut} is final, i.e. not while iterating a loop.
+     */
+    private Set<String> liveness(Node stat, Set<String> liveOut, boolean apply) {
+        var live = new HashSet<>(liveOut);
+        switch (stat) {
+            case StatementList list -> {
+                var kept = new ArrayList<Node>(list.statements.size());
+                Set<String> liveAfter = live;
+                for (var s : list.statements.reversed()) {
+                    if (apply && isDeadStore(s, liveAfter)) {
+                        continue;
+                    }
+                    liveAfter = liveness(s, liveAfter, apply);
+                    kept.add(s);
+                }
+                if (apply) {
+                    list.statements = kept.reversed();
+                }
+                return liveAfter;
+            }
+            case VarAssignStat assign -> {
+                live.remove(assign.targetVarName);
+                collectUses(assign.expr, live);
+            }
+            case VarDeclareStat decl -> {
+                if (apply && decl.initializer.isPresent() && !live.contains(decl.varName())
+                        && isPure(decl.initializer.get().expr)) {
+                    decl.initializer = Optional.empty();
+                }
+                live.remove(decl.varName());
+                decl.initializer.ifPresent(init -> collectUses(init.expr, live));
+            }
+            case IfElseStat ifElse -> {
+                live.clear();
+                live.addAll(liveness(ifElse.then, liveOut, apply));
+                live.addAll(liveness(ifElse.otherwise, liveOut, apply));
+                collectUses(ifElse.condition, live);
+            }
+            case LoopStat loop -> {
+                liveAtLoopExits.push(liveOut);
+                // The body's end flows into its start, iterate until stable
+                var liveAtStart = new HashSet<String>();
+                while (true) {
+                    var next = liveness(loop.body, liveAtStart, false);
+                    if (liveAtStart.containsAll(next)) {
+                        break;
+                    }
+                    liveAtStart.addAll(next);
+                }
+                if (apply) {
+                    liveness(loop.body, liveAtStart, true);
+                }
+                liveAtLoopExits.pop();
+                return liveAtStart;
+            }
+            case ReturnStat ret -> {
+                live.clear();
+                collectUses(ret.expr, live);
+            }
+            case BreakStat _ -> {
+                live.clear();
+                live.addAll(liveAtLoopExits.peek());
+            }
+            case FieldAssignStat fieldAssign -> {
+                collectUses(fieldAssign.maChain, live);
+                collectUses(fieldAssign.expr, live);
+            }
+            case DropStat drop -> live.add(drop.refTypeVar.name);
+            case VoidResultExprStat exprStat -> collectUses(exprStat.expr, live);
+            default -> {
+            }
+        }
+        return live;
+    }
+
+    private static boolean isDeadStore(Node stat, Set<String> liveOut) {
+        return stat instanceof VarAssignStat assign
+                && !liveOut.contains(assign.targetVarName)
+                && isPure(assign.expr);
+    }
+
+    /** Whether evaluating {@code expr} has no effect besides producing its value. */
+    static boolean isPure(Expr expr) {
+        return switch (expr) {
+            case LiteralExpr<?> _, Var _, EmptyExpr _ -> true;
+            case BinOpExpr binOp -> isPure(binOp.lhs) && isPure(binOp.rhs) && !mightTrap(binOp);
+            case UnaryOpExpr unOp -> isPure(unOp.operand);
+            case TypeCast cast -> isPure(cast.expr);
+            case TernaryConditionalExpr tern -> isPure(tern.condition) && isPure(tern.then)
+                    && isPure(tern.otherwise);
+            // Calls, getters and allocations
+            default -> false;
+        };
+    }
+
+    /** Integer division and modulo trap on a zero divisor. */
+    static boolean mightTrap(BinOpExpr binOp) {
+        return (binOp.op == BinaryOp.div || binOp.op == BinaryOp.mod)
+                && binOp.lhs.theType == Type.LONG_T
+                && !(binOp.rhs instanceof I64Lit divisor && divisor.value != 0 && divisor.value != -1);
+    }
+
+    /** Adds the names of all variables read by {@code expr} to {@code uses}. */
+    private static void collectUses(Expr expr, Set<String> uses) {
+        switch (expr) {
+            case Var var -> uses.add(var.name);
+            case BinOpExpr binOp -> {
+                collectUses(binOp.lhs, uses);
+                collectUses(binOp.rhs, uses);
+            }
+            case UnaryOpExpr unOp -> collectUses(unOp.operand, uses);
+            case TypeCast cast -> collectUses(cast.expr, uses);
+            case TernaryConditionalExpr tern -> {
+                collectUses(tern.condition, uses);
+                collectUses(tern.then, uses);
+                collectUses(tern.otherwise, uses);
+            }
+            case FunCall call -> call.args.forEach(a -> collectUses(a, uses));
+            case ConstructorCall call -> call.args.forEach(a -> collectUses(a, uses));
+            case MemberAccessChain maChain -> {
+                collectUses(maChain.owner, uses);
+                for (var ma = maChain.chain; ma != null; ma = ma.next) {
+                    if (ma instanceof MethodCall call) {
+                        call.args.forEach(a -> collectUses(a, uses));
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // --------------------[ Unused declarations ]------------------------------
+    /** Adds the names of all variables read or assigned in {@code stat} to {@code used}. */
+    private static void collectReferencedVars(Node stat, Set<String> used) {
+        switch (stat) {
+            case StatementList list -> list.statements.forEach(s -> collectReferencedVars(s, used));
+            case VarDeclareStat decl -> decl.initializer.ifPresent(init -> {
+                used.add(decl.varName());
+                collectUses(init.expr, used);
+            });
+            case VarAssignStat assign -> {
+                used.add(assign.targetVarName);
+                collectUses(assign.expr, used);
+            }
+            case IfElseStat ifElse -> {
+                collectUses(ifElse.condition, used);
+                collectReferencedVars(ifElse.then, used);
+                collectReferencedVars(ifElse.otherwise, used);
+            }
+            case LoopStat loop -> collectReferencedVars(loop.body, used);
+            case ReturnStat ret -> collectUses(ret.expr, used);
+            case FieldAssignStat fieldAssign -> {
+                collectUses(fieldAssign.maChain, used);
+                collectUses(fieldAssign.expr, used);
+            }
+            case DropStat drop -> used.add(drop.refTypeVar.name);
+            case VoidResultExprStat exprStat -> collectUses(exprStat.expr, used);
+            default -> {
+            }
+        }
+    }
+
+    private static void removeUnusedDeclarations(StatementList statementList, Set<String> used) {
+        statementList.statements = new ArrayList<>(statementList.statements);
+        statementList.statements.removeIf(s -> s instanceof VarDeclareStat decl
+                && decl.initializer.isEmpty() && !used.contains(decl.varName()));
+        for (var stat : statementList.statements) {
+            switch (stat) {
+                case IfElseStat ifElse -> {
+                    removeUnusedDeclarations(ifElse.then, used);
+                    removeUnusedDeclarations(ifElse.otherwise, used);
+                }
+                case LoopStat loop -> removeUnusedDeclarations(loop.body, used);
+                case StatementList list -> removeUnusedDeclarations(list, used);
+                default -> {
+                }
+            }
+        }
+    }
+}
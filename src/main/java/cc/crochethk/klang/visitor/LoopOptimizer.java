@@ -0,0 +1,502 @@
+package cc.crochethk.klang.visitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.literal.*;
+
+/**
+ * Moves work out of loops. Must run on a type checked AST. Loops are optimized
+ * outermost first, the code moved out of a loop is placed in variables
+ * declared right before it (the loop's "preheader").
+ * <ul>
+ *  <li>Loop-invariant code motion: Expressions whose variables aren't assigned
+ *  in the loop are evaluated once in the preheader. Only expressions without
+ *  side effects, which can't trap, are moved, so evaluating them is harmless
+ *  even if the loop is left before reaching them. Field reads are moved only if
+ *  the loop writes no fields and calls nothing but builtin functions, and the
+ *  read happens in the loop's first iteration before any other statement than
+ *  variable assignments.</li>
+ *  <li>Induction variable strength reduction: If an {@code i64} variable
+ *  {@code i} is assigned exactly once in the loop, by {@code i = i + c} or
+ *  {@code i = i - c} with invariant {@code c}, products {@code i * k} with
+ *  invariant {@code k} are replaced by a variable, which is updated right after
+ *  {@code i} by adding {@code c * k}. Constant factors the code generators
+ *  reduce to shifts are kept, as right-hand side.</li>
+ * </ul>
+ * <p>
+ * The variables introduced are prefixed with {@code $}, which klang
+ * identifiers can't contain.
+ * </p>
+ */
+public class LoopOptimizer {
+    /** Number of variables introduced in the current function */
+    private int varCount;
+
+    // Context of the loop being optimized
+    /** Variables assigned or declared in the loop */
+    private Set<String> assigned;
+    /** Field reads that may be moved to the preheader */
+    private Set<Expr> movableFieldReads;
+    private List<Node> preheader;
+    /** Expressions moved to the preheader, with the variable holding their value */
+    private Map<Expr, String> hoisted;
+
+    public void apply(Prog prog) {
+        prog.funDefs.forEach(this::apply);
+        prog.structDefs.forEach(s -> s.methods.forEach(m -> apply(m.def)));
+    }
+
+    public void apply(FunDef funDef) {
+        varCount = 0;
+        optimizeLoops(funDef.body);
+    }
+
+    /** Optimizes the loops in {@code statementList}, inserting their preheaders before them. */
+    private void optimizeLoops(StatementList statementList) {
+        var stats = new ArrayList<Node>(statementList.statements.size());
+        for (var stat : statementList.statements) {
+            switch (stat) {
+                case LoopStat loop -> {
+                    stats.addAll(optimize(loop));
+                    optimizeLoops(loop.body);
+                }
+                case IfElseStat ifElse -> {
+                    optimizeLoops(ifElse.then);
+                    optimizeLoops(ifElse.otherwise);
+                }
+                case StatementList list -> optimizeLoops(list);
+                default -> {
+                }
+            }
+            stats.add(stat);
+        }
+        statementList.statements = stats;
+    }
+
+    /** Optimizes {@code loop}, not including nested loops, and returns its preheader. */
+    private List<Node> optimize(LoopStat loop) {
+        assigned = new HashSet<>();
+        forEachStatement(loop.body, stat -> {
+            switch (stat) {
+                case VarAssignStat assign -> assigned.add(assign.targetVarName);
+                case VarDeclareStat decl -> assigned.add(decl.varName());
+                default -> {
+                }
+            }
+        });
+        movableFieldReads = mayWriteFields(loop.body) ? Set.of() : firstIterationFieldReads(loop.body);
+        preheader = new ArrayList<>();
+        hoisted = new IdentityHashMap<>();
+
+        rewriteExprs(loop.body, this::hoist);
+        reduceInductionVars(loop.body);
+        return preheader;
+    }
+
+    // --------------------[ Loop-invariant code motion ]-----------------------
+    /** Replaces the invariant parts of {@code expr} by variables computed in the preheader. */
+    private Expr hoist(Expr expr) {
+        if (isInvariant(expr) && !isTrivial(expr)) {
+            var name = hoisted.entrySet().stream()
+                    .filter(e -> isSame(e.getKey(), expr))
+                    .map(Map.Entry::getValue)
+                    .findFirst()
+                    .orElseGet(() -> {
+                        var newName = declare("$inv", expr);
+                        hoisted.put(expr, newName);
+                        return newName;
+                    });
+            return var(expr, name);
+        }
+        return rewriteOperands(expr, this::hoist);
+    }
+
+    /** Whether {@code expr} yields the same value in every iteration and may be evaluated before the loop. */
+    private boolean isInvariant(Expr expr) {
+        return switch (expr) {
+            case LiteralExpr<?> _ -> true;
+            case Var var -> !assigned.contains(var.name);
+            case BinOpExpr binOp -> isInvariant(binOp.lhs) && isInvariant(binOp.rhs)
+                    && !DeadCodeEliminator.mightTrap(binOp);
+            case UnaryOpExpr unOp -> isInvariant(unOp.operand);
+            case TypeCast cast -> isInvariant(cast.expr);
+            case TernaryConditionalExpr tern -> isInvariant(tern.condition) && isInvariant(tern.then)
+                    && isInvariant(tern.otherwise);
+            case MemberAccessChain maChain -> movableFieldReads.contains(maChain) && isInvariant(maChain.owner);
+            default -> false;
+        };
+    }
+
+    /** Whether {@code expr} is as cheap as reading a variable. */
+    private static boolean isTrivial(Expr expr) {
+        return expr instanceof LiteralExpr<?> || expr instanceof Var
+                || expr instanceof UnaryOpExpr unOp && isTrivial(unOp.operand);
+    }
+
+    /** Whether executing {@code stat} might change a field or call user code. */
+    private static boolean mayWriteFields(Node stat) {
+        var writes = new boolean[] { false };
+        forEachStatement(stat, s -> writes[0] |= s instanceof FieldAssignStat || s instanceof DropStat);
+        forEachExpr(stat, expr -> writes[0] |= switch (expr) {
+            case FunCall call -> !BuiltinDefinitions.isBuiltinFunName(call.name);
+            case MemberAccessChain maChain -> maChain.isOrHasFunCall();
+            default -> false;
+        });
+        return writes[0];
+    }
+
+    /**
+     * Returns the reads of fields of variables, which are evaluated in the first
+     * iteration of a loop with the given body, before anything observable happens.
+     */
+    private static Set<Expr> firstIterationFieldReads(StatementList body) {
+        Set<Expr> reads = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var stat : body.statements) {
+            switch (stat) {
+                case VarAssignStat assign -> collectEvaluatedFieldReads(assign.expr, reads);
+                case VarDeclareStat decl -> decl.initializer
+                        .ifPresent(init -> collectEvaluatedFieldReads(init.expr, reads));
+                case IfElseStat ifElse -> {
+                    collectEvaluatedFieldReads(ifElse.condition, reads);
+                    return reads;
+                }
+                default -> {
+                    return reads;
+                }
+            }
+        }
+        return reads;
+    }
+
+    /** Adds the field reads always evaluated by {@code expr} to {@code reads}. */
+    private static void collectEvaluatedFieldReads(Expr expr, Set<Expr> reads) {
+        switch (expr) {
+            case MemberAccessChain maChain -> {
+                var onlyFields = true;
+                for (var ma = maChain.chain; ma != null; ma = ma.next) {
+                    onlyFields &= ma instanceof FieldGet;
+                }
+                if (onlyFields && maChain.owner instanceof Var) {
+                    reads.add(maChain);
+                }
+            }
+            case BinOpExpr binOp -> {
+                collectEvaluatedFieldReads(binOp.lhs, reads);
+                // Short-circuiting operators evaluate the rhs conditionally
+                if (!binOp.op.isBoolean()) {
+                    collectEvaluatedFieldReads(binOp.rhs, reads);
+                }
+            }
+            case UnaryOpExpr unOp -> collectEvaluatedFieldReads(unOp.operand, reads);
+            case TypeCast cast -> collectEvaluatedFieldReads(cast.expr, reads);
+            case TernaryConditionalExpr tern -> collectEvaluatedFieldReads(tern.condition, reads);
+            case ConstructorCall call -> call.args.forEach(arg -> collectEvaluatedFieldReads(arg, reads));
+            default -> {
+            }
+        }
+    }
+
+    // --------------------[ Induction variables ]------------------------------
+    /** The single assignment {@code var = var ± step} of a basic induction variable. */
+    private record InductionVar(VarAssignStat update, boolean isIncrement, Expr step) {
+    }
+
+    /** Replaces products of induction variables and invariants in {@code body}. */
+    private void reduceInductionVars(StatementList body) {
+        var inductionVars = findInductionVars(body);
+        if (inductionVars.isEmpty()) {
+            return;
+        }
+        // Derived variable of each product, per induction variable and factor
+        var derived = new HashMap<String, Map<Expr, String>>();
+        UnaryOperator<Expr> reduce = new UnaryOperator<>() {
+            @Override
+            public Expr apply(Expr expr) {
+                if (expr instanceof BinOpExpr binOp && binOp.op == BinaryOp.mult
+                        && binOp.theType == Type.LONG_T) {
+                    var reduced = reduceProduct(binOp, binOp.lhs, binOp.rhs);
+                    if (reduced == null) {
+                        reduced = reduceProduct(binOp, binOp.rhs, binOp.lhs);
+                    }
+                    if (reduced != null) {
+                        return reduced;
+                    }
+                }
+                return rewriteOperands(expr, this);
+            }
+
+            private Expr reduceProduct(BinOpExpr product, Expr var, Expr factor) {
+                if (!(var instanceof Var v) || !inductionVars.containsKey(v.name)) {
+                    return null;
+                }
+                if (!isReducibleFactor(factor)) {
+                    if (factor == product.lhs && factor instanceof I64Lit) {
+                        // Code generators reduce constant right-hand sides only
+                        product.lhs = var;
+                        product.rhs = factor;
+                    }
+                    return null;
+                }
+                var factors = derived.computeIfAbsent(v.name, _ -> new IdentityHashMap<>());
+                var name = factors.entrySet().stream()
+                        .filter(e -> isSame(e.getKey(), factor))
+                        .map(Map.Entry::getValue)
+                        .findFirst()
+                        .orElseGet(() -> {
+                            var newName = declare("$iv", mult(var(v, v.name), copy(factor)));
+                            factors.put(factor, newName);
+                            return newName;
+                        });
+                return var(product, name);
+            }
+        };
+        rewriteExprs(body, reduce);
+
+        // Update the derived variables along with their induction variable
+        var updates = new IdentityHashMap<VarAssignStat, List<Node>>();
+        derived.forEach((ivName, factors) -> factors.forEach((factor, name) -> {
+            var iv = inductionVars.get(ivName);
+            var step = mult(copy(iv.step), copy(factor));
+            var stepValue = step.lhs instanceof I64Lit c && step.rhs instanceof I64Lit k
+                    ? ConstantFolder.literal(step.srcPos, c.value * k.value)
+                    : var(step, declare("$step", step));
+            var op = iv.isIncrement ? BinaryOp.add : BinaryOp.sub;
+            var next = binOp(var(stepValue, name), op, stepValue);
+            var update = new VarAssignStat(iv.update.srcPos, name, next);
+            update.theType = Type.LONG_T;
+            updates.computeIfAbsent(iv.update, _ -> new ArrayList<>()).add(update);
+        }));
+        insertAfter(body, updates);
+    }
+
+    /**
+     * Returns the basic induction variables of the loop with the given body, i.e.
+     * {@code i64} variables assigned only by adding or subtracting an invariant.
+     */
+    private Map<String, InductionVar> findInductionVars(StatementList body) {
+        var assignments = new HashMap<String, List<Node>>();
+        forEachStatement(body, stat -> {
+            switch (stat) {
+                case VarAssignStat assign -> assignments
+                        .computeIfAbsent(assign.targetVarName, _ -> new ArrayList<>()).add(assign);
+                case VarDeclareStat decl -> assignments
+                        .computeIfAbsent(decl.varName(), _ -> new ArrayList<>()).add(decl);
+                default -> {
+                }
+            }
+        });
+        var inductionVars = new HashMap<String, InductionVar>();
+        assignments.forEach((name, stats) -> {
+            if (stats.size() == 1 && stats.getFirst() instanceof VarAssignStat assign
+                    && assign.theType == Type.LONG_T && assign.expr instanceof BinOpExpr binOp) {
+                Predicate<Expr> isVar = e -> e instanceof Var v && v.name.equals(name);
+                Expr step = null;
+                if (binOp.op == BinaryOp.add && isVar.test(binOp.lhs)) {
+                    step = binOp.rhs;
+                } else if (binOp.op == BinaryOp.add && isVar.test(binOp.rhs)) {
+                    step = binOp.lhs;
+                } else if (binOp.op == BinaryOp.sub && isVar.test(binOp.lhs)) {
+                    step = binOp.rhs;
+                }
+                if (step != null && isReducibleStep(step)) {
+                    inductionVars.put(name, new InductionVar(assign, binOp.op == BinaryOp.add, step));
+                }
+            }
+        });
+        return inductionVars;
+    }
+
+    private boolean isReducibleStep(Expr step) {
+        return step instanceof I64Lit || step instanceof Var v && !assigned.contains(v.name);
+    }
+
+    /** Whether multiplying by {@code factor} is worth replacing by an addition. */
+    private boolean isReducibleFactor(Expr factor) {
+        if (factor instanceof I64Lit k) {
+            // Multiplying by 0, ±1 and powers of two is as cheap as adding
+            return Long.bitCount(Math.abs(k.value)) > 1;
+        }
+        return factor instanceof Var v && v.theType == Type.LONG_T && !assigned.contains(v.name);
+    }
+
+    /** Inserts the statements of {@code updates} after their key statement. */
+    private static void insertAfter(StatementList statementList, Map<VarAssignStat, List<Node>> updates) {
+        var stats = new ArrayList<Node>(statementList.statements.size());
+        for (var stat : statementList.statements) {
+            stats.add(stat);
+            switch (stat) {
+                case VarAssignStat assign when updates.containsKey(assign) -> stats.addAll(updates.get(assign));
+                case IfElseStat ifElse -> {
+                    insertAfter(ifElse.then, updates);
+                    insertAfter(ifElse.otherwise, updates);
+                }
+                case LoopStat loop -> insertAfter(loop.body, updates);
+                case StatementList list -> insertAfter(list, updates);
+                default -> {
+                }
+            }
+        }
+        statementList.statements = stats;
+    }
+
+    // --------------------[ Helpers ]------------------------------------------
+    /** Declares a new variable initialized with {@code init} in the preheader and returns its name. */
+    private String declare(String prefix, Expr init) {
+        var name = prefix + varCount++;
+        var decl = new VarDeclareStat(init.srcPos, name, null, init);
+        decl.theType = init.theType;
+        decl.initializer.get().theType = init.theType;
+        preheader.add(decl);
+        return name;
+    }
+
+    /** Creates a read of variable {@code name}, replacing {@code expr}. */
+    private static Var var(Expr expr, String name) {
+        // Each use gets its own node, code generators may associate data with it
+        var var = new Var(expr.srcPos, name);
+        var.theType = expr.theType;
+        return var;
+    }
+
+    private static BinOpExpr mult(Expr lhs, Expr rhs) {
+        return binOp(lhs, BinaryOp.mult, rhs);
+    }
+
+    private static BinOpExpr binOp(Expr lhs, BinaryOp op, Expr rhs) {
+        var binOp = new BinOpExpr(lhs.srcPos, lhs, op, rhs);
+        binOp.theType = Type.LONG_T;
+        return binOp;
+    }
+
+    /** Copies a variable or literal. */
+    private static Expr copy(Expr expr) {
+        return switch (expr) {
+            case Var var -> var(var, var.name);
+            case LiteralExpr<?> lit -> ConstantFolder.literal(lit.srcPos, lit.value);
+            default -> throw new IllegalArgumentException("Not a variable or literal: " + expr);
+        };
+    }
+
+    /** Whether {@code a} and {@code b} compute the same value, apart from their source positions. */
+    private static boolean isSame(Expr a, Expr b) {
+        return switch (a) {
+            case LiteralExpr<?> x when b instanceof LiteralExpr<?> y -> x.getClass() == y.getClass()
+                    && Objects.equals(x.value, y.value);
+            case Var x when b instanceof Var y -> x.name.equals(y.name);
+            case BinOpExpr x when b instanceof BinOpExpr y -> x.op == y.op
+                    && isSame(x.lhs, y.lhs) && isSame(x.rhs, y.rhs);
+            case UnaryOpExpr x when b instanceof UnaryOpExpr y -> x.op == y.op && isSame(x.operand, y.operand);
+            case TypeCast x when b instanceof TypeCast y -> x.theType.equals(y.theType) && isSame(x.expr, y.expr);
+            case TernaryConditionalExpr x when b instanceof TernaryConditionalExpr y -> isSame(x.condition, y.condition)
+                    && isSame(x.then, y.then) && isSame(x.otherwise, y.otherwise);
+            case MemberAccessChain x when b instanceof MemberAccessChain y -> {
+                var same = isSame(x.owner, y.owner);
+                var mx = x.chain;
+                var my = y.chain;
+                for (; same && mx != null && my != null; mx = mx.next, my = my.next) {
+                    same = mx instanceof FieldGet && my instanceof FieldGet && mx.targetName.equals(my.targetName);
+                }
+                yield same && mx == null && my == null;
+            }
+            default -> false;
+        };
+    }
+
+    /** Calls {@code action} for {@code stat} and all statements nested in it. */
+    private static void forEachStatement(Node stat, Consumer<Node> action) {
+        action.accept(stat);
+        switch (stat) {
+            case StatementList list -> list.statements.forEach(s -> forEachStatement(s, action));
+            case IfElseStat ifElse -> {
+                forEachStatement(ifElse.then, action);
+                forEachStatement(ifElse.otherwise, action);
+            }
+            case LoopStat loop -> forEachStatement(loop.body, action);
+            default -> {
+            }
+        }
+    }
+
+    /** Calls {@code action} for all expressions and subexpressions evaluated in {@code stat}. */
+    private static void forEachExpr(Node stat, Consumer<Expr> action) {
+        rewriteExprs(stat, new UnaryOperator<>() {
+            @Override
+            public Expr apply(Expr expr) {
+                action.accept(expr);
+                return rewriteOperands(expr, this);
+            }
+        });
+    }
+
+    /**
+     * Replaces the expressions evaluated in {@code stat}, including nested
+     * statements, by the result of {@code rewrite}. Expressions used as
+     * statements, i.e. calls, must be rewritten in place.
+     */
+    private static void rewriteExprs(Node stat, UnaryOperator<Expr> rewrite) {
+        switch (stat) {
+            case StatementList list -> list.statements.forEach(s -> rewriteExprs(s, rewrite));
+            case VarAssignStat assign -> assign.expr = rewrite.apply(assign.expr);
+            case VarDeclareStat decl -> decl.initializer.ifPresent(init -> init.expr = rewrite.apply(init.expr));
+            case IfElseStat ifElse -> {
+                ifElse.condition = rewrite.apply(ifElse.condition);
+                rewriteExprs(ifElse.then, rewrite);
+                rewriteExprs(ifElse.otherwise, rewrite);
+            }
+            case LoopStat loop -> rewriteExprs(loop.body, rewrite);
+            case ReturnStat ret -> ret.expr = rewrite.apply(ret.expr);
+            case FieldAssignStat fieldAssign -> {
+                rewriteOperands(fieldAssign.maChain, rewrite);
+                fieldAssign.expr = rewrite.apply(fieldAssign.expr);
+            }
+            case VoidResultExprStat exprStat -> exprStat.expr = rewrite.apply(exprStat.expr);
+            case Expr expr -> rewrite.apply(expr);
+            default -> {
+            }
+        }
+    }
+
+    /** Replaces the operands of {@code expr} by the result of {@code rewrite} and returns {@code expr}. */
+    private static Expr rewriteOperands(Expr expr, UnaryOperator<Expr> rewrite) {
+        switch (expr) {
+            case BinOpExpr binOp -> {
+                binOp.lhs = rewrite.apply(binOp.lhs);
+                binOp.rhs = rewrite.apply(binOp.rhs);
+            }
+            case UnaryOpExpr unOp -> unOp.operand = rewrite.apply(unOp.operand);
+            case TypeCast cast -> cast.expr = rewrite.apply(cast.expr);
+            case TernaryConditionalExpr tern -> {
+                tern.condition = rewrite.apply(tern.condition);
+                tern.then = rewrite.apply(tern.then);
+                tern.otherwise = rewrite.apply(tern.otherwise);
+            }
+            case FunCall call -> call.args = call.args.stream().map(rewrite).toList();
+            case ConstructorCall call -> call.args = call.args.stream().map(rewrite).toList();
+            case MemberAccessChain maChain -> {
+                maChain.owner = rewrite.apply(maChain.owner);
+                for (var ma = maChain.chain; ma != null; ma = ma.next) {
+                    if (ma instanceof MethodCall call) {
+                        call.args = call.args.stream().map(rewrite).toList();
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+        return expr;
+    }
+}
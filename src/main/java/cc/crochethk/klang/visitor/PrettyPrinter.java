@@ -308,6 +308,10 @@ public class PrettyPrinter implements Visitor {
 
     @Override
     public void visit(StructDef structDef) {
+        structDef.attributes.forEach(attr -> {
+            scb.write("#[", attr, "]");
+            scb.writeIndent();
+        });
         scb.write("struct ", structDef.name, " {");
         if (!structDef.isEmpty()) {
             scb.increaseIndent();
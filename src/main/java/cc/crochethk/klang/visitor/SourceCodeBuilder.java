@@ -1,5 +1,8 @@
 package cc.crochethk.klang.visitor;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Base class for writing string based source code.
  * The indentation symbol can be customized and indentation level is managed.
@@ -61,6 +64,20 @@ public class SourceCodeBuilder {
         buffer.append(s);
     }
 
+    /** Number of characters written so far (and not yet drained). */
+    public int length() {
+        return buffer.length();
+    }
+
+    /**
+     * Writes the current result to {@code out} and clears it, so the builder
+     * can be reused for subsequent code. Indentation level is kept.
+     */
+    public void drainTo(Writer out) throws IOException {
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
     @Override
     public String toString() {
         return buffer.toString();
@@ -0,0 +1,72 @@
+package cc.crochethk.klang.visitor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cc.crochethk.klang.ast.Parameter;
+import cc.crochethk.klang.ast.StructDef;
+
+/**
+ * The memory layout of a struct's instances, matching the C struct generated
+ * by {@code GenCHeaders} under the x86-64 System V ABI: Fields are placed in
+ * declaration order, each aligned to its size, and the total size is padded to
+ * the largest field alignment. A struct without fields consists of a single
+ * dummy {@code char}. Fields keep their natural size, e.g. a {@code bool} takes
+ * a single byte.
+ * <p>
+ * Structs annotated with {@code #[reorder]} place their fields by decreasing
+ * alignment instead, keeping the declaration order among equally aligned ones.
+ * Since all sizes are powers of two, this needs no padding between fields.
+ * </p>
+ * <p>
+ * Requires the struct definition to be type checked.
+ * </p>
+ *
+ * @param fields The fields in memory order.
+ */
+public record StructLayout(Type type, List<Field> fields, int size, int alignment) {
+    /** A field at {@code offset} bytes from the start of the struct. */
+    public record Field(String name, Type type, int offset) {
+        public int size() {
+            return type.byteSize();
+        }
+    }
+
+    public static StructLayout of(StructDef structDef) {
+        var params = new ArrayList<>(structDef.fields);
+        if (structDef.hasAttribute(StructDef.ATTR_REORDER)) {
+            // Stable, i.e. equally aligned fields keep their order
+            params.sort(Comparator.comparingInt((Parameter p) -> p.type().theType.byteSize()).reversed());
+        }
+
+        var fields = new ArrayList<Field>();
+        int offset = 0;
+        int alignment = 1;
+        for (var p : params) {
+            var fieldType = p.type().theType;
+            int fieldAlign = fieldType.byteSize();
+            offset = alignUp(offset, fieldAlign);
+            fields.add(new Field(p.name(), fieldType, offset));
+            offset += fieldType.byteSize();
+            alignment = Math.max(alignment, fieldAlign);
+        }
+        // Empty structs contain the dummy char
+        int size = fields.isEmpty() ? 1 : alignUp(offset, alignment);
+        return new StructLayout(structDef.theType, List.copyOf(fields), size, alignment);
+    }
+
+    /** Returns the field with the given name. */
+    public Field field(String name) {
+        return fields.stream()
+                .filter(f -> f.name().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException(
+                        "Struct '" + type.klangName() + "' has no field '" + name + "'"));
+    }
+
+    private static int alignUp(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
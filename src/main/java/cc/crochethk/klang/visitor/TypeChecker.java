@@ -1,5 +1,6 @@
 package cc.crochethk.klang.visitor;
 
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,10 +23,20 @@ import static cc.crochethk.klang.visitor.BuiltinDefinitions.*;
  */
 public class TypeChecker implements Visitor {
     int errorsReported = 0;
+    private final PrintStream errOut;
+
+    public TypeChecker() {
+        this(System.err);
+    }
+
+    /** @param errOut The stream type errors are reported to. */
+    public TypeChecker(PrintStream errOut) {
+        this.errOut = errOut;
+    }
 
     private void reportError(Node node, String s) {
         errorsReported++;
-        System.err.println("(L" + node.line() + ":" + node.column() + ") Type error: " + s);
+        errOut.println("(L" + node.line() + ":" + node.column() + ") Type error: " + s);
     }
 
     @Override
@@ -590,6 +601,11 @@ public class TypeChecker implements Visitor {
     @Override
     public void visit(StructDef structDef) {
         // structDef.theType is set already in 'visit(Prog)'
+        structDef.attributes.forEach(attr -> {
+            if (!attr.equals(StructDef.ATTR_REORDER)) {
+                reportError(structDef, "Unknown attribute '" + attr + "' on struct '" + structDef.name + "'");
+            }
+        });
         Set<String> fnames = new HashSet<>();
         structDef.fields.forEach(f -> {
             if (!fnames.add(f.name())) {
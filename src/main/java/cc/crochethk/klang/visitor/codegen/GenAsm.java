@@ -5,11 +5,13 @@ import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
 import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
 import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -19,8 +21,11 @@ import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister;
 import cc.crochethk.klang.ast.*;
 import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
 import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.UnaryOpExpr.UnaryOp;
 import cc.crochethk.klang.ast.literal.*;
+import cc.crochethk.klang.ir.IrBuilder;
 import cc.crochethk.klang.visitor.BuiltinDefinitions;
+import cc.crochethk.klang.visitor.StructLayout;
 import cc.crochethk.klang.visitor.Type;
 import cc.crochethk.klang.visitor.Type.Signature;
 import cc.crochethk.klang.visitor.codegen.asm.*;
@@ -30,6 +35,7 @@ import cc.crochethk.klang.visitor.codegen.asm.helpers.*;
 
 public class GenAsm extends CodeGenVisitor {
     private static final String FILE_EXT = ".s";
+    private static final String OBJECT_FILE_EXT = ".o";
 
     private GenCHeaders cHeaderGen;
     private GenCImpls cImplsGen;
@@ -39,23 +45,82 @@ public class GenAsm extends CodeGenVisitor {
     /** Mutable data section (".data") */
     DataSection dataSec = new DataSection.WritableData();
     /** Program code section (".text") */
-    CodeSection code = new CodeSection();
+    CodeSection code;
 
     StackManager stack = null;
 
+    /** Layouts of the program's structs, used to access fields in place. */
+    private Map<Type, StructLayout> structLayouts = Map.of();
+
+    /** Optimization level, {@code 0} generates straightforward code only. */
+    private final int optLevel;
+    /** Registers of the current function's variables and temporaries. */
+    private RegisterAllocation regAlloc = RegisterAllocation.NONE;
+    /** Stack slots to preserve caller saved registers in, while calling other functions. */
+    private Map<OperandSpecifier, MemAddr> callerSavedSlots;
+    /** Stack slots of the callee saved registers used by the current function. */
+    private Map<Register, MemAddr> calleeSavedSlots;
+
+    /** Symbol of the current function. */
+    private String currentFunName;
+    /** The call being generated as tail call, {@code null} otherwise. */
+    private Node tailCall = null;
+    /**
+     * Label before the current function's parameters are stored, where self tail
+     * calls continue. Is set only if there are any.
+     */
+    private String selfTailCallLabel;
+
+    /** Whether to generate functions from their IR instead of the AST. */
+    private final boolean fromIr;
+
+    /** Whether to write a relocatable object file instead of assembly code. */
+    private final boolean emitObject;
+
+    /** Whether to write the code section to file function by function. */
+    private final boolean streamOutput;
+    /** The assembly file while streaming, {@code null} otherwise. */
+    private Writer streamOut = null;
+
     /** Function argument registers */
     private final Register[] regs = { rdi, rsi, rdx, rcx, r8, r9 };
     private final XmmRegister[] xmmRegs = { xmm0, xmm1, xmm2, xmm3, xmm4, xmm5, xmm6, xmm7 };
 
     public GenAsm(String outputDir, String packageName, String className) throws IOException {
+        this(outputDir, packageName, className, false, 0, false, false);
+    }
+
+    /**
+     * @param streamOutput If {@code true}, each function's code is flushed to the
+     *      assembly file as soon as it is generated, instead of keeping the whole
+     *      ".text" section in memory. Only the data sections are deferred and
+     *      written after the code.
+     * @param optLevel The optimization level. With {@code 0} all values are kept
+     *      on the stack. Starting with {@code 1} variables and temporaries are
+     *      assigned to registers and the code is passed through the
+     *      {@link PeepholeOptimizer}.
+     * @param fromIr If {@code true}, functions are lowered to the intermediate
+     *      representation first and the assembly is generated from that.
+     *      {@code optLevel} only enables the peephole optimizations then.
+     * @param emitObject If {@code true}, the instructions are encoded and written
+     *      to an ELF object file ({@code .o}), instead of an assembly file to be
+     *      passed to the assembler. {@code streamOutput} doesn't apply then.
+     */
+    public GenAsm(String outputDir, String packageName, String className, boolean streamOutput, int optLevel,
+            boolean fromIr, boolean emitObject) throws IOException {
         super(outputDir, packageName, className);
+        this.streamOutput = streamOutput && !emitObject;
+        this.optLevel = optLevel;
+        this.fromIr = fromIr;
+        this.emitObject = emitObject;
+        code = new CodeSection(optLevel > 0 ? PeepholeOptimizer.ALL : PeepholeOptimizer.NONE, emitObject);
         cHeaderGen = new GenCHeaders(outputDir, packageName, className);
         cImplsGen = new GenCImpls(outputDir, packageName, className);
     }
 
     @Override
     public List<Path> outFilePaths() {
-        var asmOut = Path.of(outDir, packageName + "." + className + FILE_EXT);
+        var asmOut = Path.of(outDir, packageName + "." + className + (emitObject ? OBJECT_FILE_EXT : FILE_EXT));
         var cOuts = Stream.concat(
                 cHeaderGen.outFilePaths().stream(), cImplsGen.outFilePaths().stream());
         return Stream.concat(Stream.of(asmOut), cOuts).toList();
@@ -93,10 +158,72 @@ public class GenAsm extends CodeGenVisitor {
     @Override
     public void visit(Var var) {
         if (var.theType.isFloatType()) {
-            code.movsd(stack.get(var.name), xmm0);
+            code.movsd(varLocation(var.name), xmm0);
         } else {
-            code.movq(stack.get(var.name), rax);
+            code.movq(varLocation(var.name), rax);
+        }
+    }
+
+    /** The register or stack slot holding the given variable. */
+    private OperandSpecifier varLocation(String varName) {
+        return regAlloc.ofVar(varName).orElseGet(() -> stack.get(varName));
+    }
+
+    /**
+     * Returns a location to keep the result of {@code value} in while evaluating
+     * other expressions. This is either a register or a new stack slot.
+     */
+    private OperandSpecifier tempLocation(Expr value) {
+        return regAlloc.ofTemp(value).orElseGet(() -> stack.reserveSlot(value.theType));
+    }
+
+    /**
+     * Whether {@code arg} of a call with the given arguments is evaluated before
+     * any argument registers are set up, since it may clobber them. Besides calls,
+     * this applies to binary operations, which use {@code rdx} and {@code xmm1}.
+     * <p>
+     * The owner of a method call or field access, passed as {@link EmptyExpr},
+     * is already in {@code rax}. So it must be saved as well, if any other
+     * argument is evaluated beforehand.
+     * </p>
+     */
+    public static boolean isEvaluatedBeforeArgs(Expr arg, List<Expr> args) {
+        if (arg instanceof EmptyExpr) {
+            return args.stream().anyMatch(GenAsm::isEvaluatedBeforeArgs);
+        }
+        return isEvaluatedBeforeArgs(arg);
+    }
+
+    /**
+     * Whether evaluating {@code arg} might clobber scratch and argument registers,
+     * i.e. it contains calls, member accesses or binary operations.
+     */
+    public static boolean isEvaluatedBeforeArgs(Expr arg) {
+        return arg.isOrHasFunCall() || arg.isOrHasMemberAccessChain() || hasBinOp(arg);
+    }
+
+    private static boolean hasBinOp(Expr expr) {
+        return switch (expr) {
+            case BinOpExpr _ -> true;
+            case UnaryOpExpr u -> hasBinOp(u.operand);
+            case TypeCast c -> hasBinOp(c.expr);
+            case TernaryConditionalExpr t -> hasBinOp(t.condition) || hasBinOp(t.then) || hasBinOp(t.otherwise);
+            default -> false;
+        };
+    }
+
+    /**
+     * Whether the right-hand side's result must be kept in a temporary location
+     * while evaluating the left-hand side, since the latter might overwrite the
+     * registers used otherwise.
+     */
+    public static boolean needsRhsTemp(BinOpExpr binOpExpr) {
+        var lhsNotComplex = binOpExpr.lhs instanceof LiteralExpr || binOpExpr.lhs instanceof Var;
+        if (binOpExpr.lhs.theType.isFloatType()) {
+            return !lhsNotComplex;
         }
+        // integer div uses rdx for remainder
+        return !lhsNotComplex || binOpExpr.op == BinaryOp.div || binOpExpr.op == BinaryOp.mod;
     }
 
     @Override
@@ -109,12 +236,20 @@ public class GenAsm extends CodeGenVisitor {
             callBuiltinFunction(funCall, autoFun);
             return;
         }
+        genCall(funCall, funCall.name, funCall.args);
+    }
 
+    /**
+     * Generates the call of function {@code funName} with the given arguments.
+     * @param callSite The node causing the call. Used to look up values that must
+     *      be preserved across the call.
+     */
+    private void genCall(Node callSite, String funName, List<Expr> args) {
         // Memory locations of args that needed to be evaluated before prologue
-        var preEvaluatedArgsIt = funCall.args.stream().map(arg -> {
-            if (arg.isOrHasFunCall() || arg.isOrHasMemberAccessChain()) {
+        var preEvaluatedArgsIt = args.stream().map(arg -> {
+            if (isEvaluatedBeforeArgs(arg, args)) {
                 arg.accept(this);
-                var resultAddr = stack.reserveSlot(arg.theType);
+                var resultAddr = tempLocation(arg);
                 if (arg.theType.isFloatType())
                     code.movsd(xmm0, resultAddr);
                 else
@@ -125,7 +260,12 @@ public class GenAsm extends CodeGenVisitor {
             }
         }).toList().iterator();
 
-        stack.alignRspToStackSize();
+        var isTailCall = callSite == tailCall;
+        var isSelfTailCall = isTailCall && funName.equals(currentFunName);
+        if (!isTailCall) {
+            // Tail calls release the frame first
+            stack.noteCall();
+        }
 
         // Prepare function arguments
         var xmmRegsIt = Arrays.stream(xmmRegs).iterator();
@@ -135,7 +275,7 @@ public class GenAsm extends CodeGenVisitor {
         OperandSpecifier theXmm0SrcOpSpec = null;
 
         var stackArgsOffset = 0;
-        for (var argIter = funCall.args.iterator(); argIter.hasNext();) {
+        for (var argIter = args.iterator(); argIter.hasNext();) {
             var arg = argIter.next();
             var preEvaledArg = preEvaluatedArgsIt.next();
 
@@ -192,7 +332,11 @@ public class GenAsm extends CodeGenVisitor {
                 theXmm0Arg.accept(this);
             }
         }
-        code.call(funCall.name);
+        if (isTailCall) {
+            genTailCall(funName, isSelfTailCall);
+            return;
+        }
+        genPreservingCall(callSite, funName);
 
         // Release stack args if necessary
         if (stackArgsOffset > 0) {
@@ -200,6 +344,70 @@ public class GenAsm extends CodeGenVisitor {
         }
     }
 
+    /**
+     * Calls {@code funName}, saving the caller saved registers still needed
+     * after {@code callSite} around it. Arguments must be set up already.
+     */
+    private void genPreservingCall(Node callSite, String funName) {
+        var preserved = regAlloc.preservedAcross(callSite);
+        preserved.forEach(reg -> moveValue(reg, callerSavedSlots.get(reg)));
+        code.call(funName);
+        preserved.forEach(reg -> moveValue(callerSavedSlots.get(reg), reg));
+    }
+
+    /**
+     * Jumps to {@code funName} with the arguments set up. A self tail call
+     * continues with the current function's parameters, otherwise the frame is
+     * released, so the callee returns to the current function's caller.
+     */
+    private void genTailCall(String funName, boolean isSelfTailCall) {
+        if (isSelfTailCall) {
+            if (selfTailCallLabel == null) {
+                selfTailCallLabel = code.newLabel();
+            }
+            code.jmp(selfTailCallLabel);
+        } else {
+            calleeSavedSlots.forEach((reg, slot) -> code.movq(slot, reg));
+            code.leave();
+            code.tailCall(funName);
+        }
+    }
+
+    /**
+     * Returns the call whose result {@code expr} is, if it can be generated as
+     * tail call, i.e. it is no builtin and all arguments are passed in registers.
+     */
+    private Node tailCallOf(Expr expr) {
+        List<Expr> args;
+        var intArgs = 0;
+        Node call;
+        switch (expr) {
+            case FunCall funCall -> {
+                var argTypes = funCall.args.stream().map(arg -> arg.theType).toList();
+                if (findBuiltinFun(funCall.name, argTypes).isPresent()) {
+                    return null;
+                }
+                call = funCall;
+                args = funCall.args;
+            }
+            case ConstructorCall constructorCall -> {
+                call = constructorCall;
+                args = constructorCall.args;
+            }
+            case MemberAccessChain maChain when maChain.getLast() instanceof MethodCall methodCall -> {
+                call = methodCall;
+                args = methodCall.args;
+                intArgs++; // this
+            }
+            default -> {
+                return null;
+            }
+        }
+        int floatArgs = (int) args.stream().filter(arg -> arg.theType.isFloatType()).count();
+        intArgs += args.size() - floatArgs;
+        return intArgs <= regs.length && floatArgs <= xmmRegs.length ? call : null;
+    }
+
     /**
      * Given a {@code FunCall}, which was recognized to be a auto generated function,
      * generates the appropriate builtin function call.
@@ -216,9 +424,7 @@ public class GenAsm extends CodeGenVisitor {
                 var arg0 = new StringLit(srcPos, GenCBase.getTypeFormat(autoFun.params().get(0).type()));
                 arg0.theType = Type.STRING_T;
                 var args = Stream.concat(Stream.of(arg0), funCall.args.stream()).toList();
-                var builtinFunCall = new FunCall(srcPos, "printf@PLT", args);
-                builtinFunCall.theType = autoFun.returnType();
-                builtinFunCall.accept(this);
+                genCall(funCall, "printf@PLT", args);
             }
             default -> {
                 throw new UnsupportedOperationException(
@@ -253,17 +459,9 @@ public class GenAsm extends CodeGenVisitor {
 
     @Override
     public void visit(FieldGet fieldGet) {
-        // Call autoimplemented getter matching the targets owner type and 'targetName' field
-        var ownerType = getMemberOwnerType(fieldGet);
-        var getterFunName = getGetterFullName(ownerType, fieldGet.targetName);
-
         // Assumption: "owner" reference already in rax (from previous MemberAccess nodes)
-        // Passing EmptyNode as arg, makes FunCall load the mentioned pointer from rax.
-        var thisArg = new EmptyExpr(fieldGet.srcPos);
-        thisArg.theType = ownerType;
-        var funCall = new FunCall(fieldGet.srcPos, getterFunName, List.of(thisArg));
-        funCall.theType = fieldGet.theType;
-        funCall.accept(this);
+        var field = fieldLayout(getMemberOwnerType(fieldGet), fieldGet.targetName);
+        loadField(field, new MemAddr(field.offset(), rax));
         if (fieldGet.next != null) {
             fieldGet.next.accept(this);
         }
@@ -279,9 +477,7 @@ public class GenAsm extends CodeGenVisitor {
         var thisArg = new EmptyExpr(methodCall.srcPos);
         thisArg.theType = ownerType;
         var allArgs = Stream.concat(Stream.of(thisArg), methodCall.args.stream()).toList();
-        var funCall = new FunCall(methodCall.srcPos, asmMethName, allArgs);
-        funCall.theType = methodCall.theType;
-        funCall.accept(this);
+        genCall(methodCall, asmMethName, allArgs);
         if (methodCall.next != null) {
             methodCall.next.accept(this);
         }
@@ -298,43 +494,117 @@ public class GenAsm extends CodeGenVisitor {
     @Override
     public void visit(ConstructorCall constructorCall) {
         var fullConstName = getConstructorFullName(constructorCall.theType);
-        var funCall = new FunCall(constructorCall.srcPos, fullConstName, constructorCall.args);
-        funCall.theType = constructorCall.theType;
-        funCall.accept(this);
+        genCall(constructorCall, fullConstName, constructorCall.args);
     }
 
     @Override
     public void visit(BinOpExpr binOpExpr) {
-        binOpExpr.rhs.accept(this);
-
-        var lhsNotComplex = binOpExpr.lhs instanceof LiteralExpr || binOpExpr.lhs instanceof Var;
+        if (binOpExpr.op.isBoolean()) {
+            // Short-circuit: lhs first, rhs only if lhs doesn't determine the result
+            var endLabel = code.newLabel();
+            binOpExpr.lhs.accept(this);
+            code.testq(rax, rax);
+            if (binOpExpr.op == BinaryOp.and) {
+                code.je(endLabel);
+            } else {
+                code.jne(endLabel);
+            }
+            binOpExpr.rhs.accept(this);
+            code.bindLabel(endLabel);
+            return;
+        }
 
-        final OperandSpecifier rhsResLoc;
-        final OperandSpecifier dstOpSpec;
+        if (binOpExpr.op == BinaryOp.pow) {
+            genPow(binOpExpr);
+            return;
+        }
 
         //type checker ensures operand types are equal or, in case of eq/neq, both reftypes
         final var operandType = binOpExpr.lhs.theType;
+        final OperandSpecifier dstOpSpec = operandType.isFloatType() ? xmm0 : rax;
+        final OperandSpecifier rhsResLoc = genOperands(binOpExpr);
+        genOpInstruction(code, operandType, binOpExpr.op, rhsResLoc, dstOpSpec);
+    }
+
+    private void genPow(BinOpExpr powExpr) {
+        var operandType = powExpr.lhs.theType;
+        long n = inlinedExponent(powExpr);
+        if (n >= 0) {
+            powExpr.lhs.accept(this);
+            genPowByMultiplication(code, rodataSec, operandType, n);
+        } else if (operandType == Type.LONG_T) {
+            genIntPow(code, genOperands(powExpr));
+        } else {
+            var rhsResLoc = genOperands(powExpr);
+            if (rhsResLoc != xmm1) {
+                code.movsd(rhsResLoc, xmm1);
+            }
+            stack.noteCall();
+            genPreservingCall(powExpr, "pow@PLT");
+        }
+    }
+
+    /**
+     * Returns the rhs as an immediate operand, if it's an i64 literal the
+     * operation can use in place, otherwise {@code null}.
+     *
+     * @see #isImmediateOperand(BinaryOp, long)
+     */
+    public static Const immediateRhs(BinOpExpr binOpExpr) {
+        if (binOpExpr.lhs.theType == Type.LONG_T && binOpExpr.rhs instanceof I64Lit lit
+                && isImmediateOperand(binOpExpr.op, lit.value)) {
+            return $(lit.value);
+        }
+        return null;
+    }
+
+    /**
+     * Whether the i64 operation accepts the constant {@code rhs} as immediate
+     * operand. Multiplication, division and modulo by constants are reduced
+     * to cheaper instructions (see {@link StrengthReduction}), the others
+     * encode a sign-extended 32-bit immediate.
+     */
+    public static boolean isImmediateOperand(BinaryOp op, long rhs) {
+        return switch (op) {
+            case mult -> true;
+            case div, mod -> StrengthReduction.canDivide(rhs);
+            case add, sub, eq, neq, gt, gteq, lt, lteq -> rhs == (int) rhs;
+            default -> false;
+        };
+    }
+
+    /**
+     * Evaluates both operands of {@code binOpExpr}, rhs first. Afterwards lhs is
+     * in {@code rax} ({@code xmm0} with floats).
+     *
+     * @return The location of the rhs' value.
+     */
+    private OperandSpecifier genOperands(BinOpExpr binOpExpr) {
+        final var operandType = binOpExpr.lhs.theType;
+        final OperandSpecifier dstOpSpec = operandType.isFloatType() ? xmm0 : rax;
+        final OperandSpecifier rhsResLoc;
 
-        // Put rhs result on stack, if the register might be overwritten when evaluating lhs
-        if (operandType.isFloatType()) {
-            dstOpSpec = xmm0;
-            rhsResLoc = lhsNotComplex ? xmm1 : stack.reserveSlot(binOpExpr.rhs.theType);
-            code.movsd(dstOpSpec, rhsResLoc);
+        var immediate = optLevel > 0 ? immediateRhs(binOpExpr) : null;
+        if (immediate != null) {
+            rhsResLoc = immediate;
+        } else if (optLevel > 0 && binOpExpr.rhs instanceof Var rhsVar) {
+            // Use variable in place, it's not changed while evaluating lhs
+            rhsResLoc = varLocation(rhsVar.name);
         } else {
-            dstOpSpec = rax;
-            rhsResLoc = (lhsNotComplex
-                    && binOpExpr.op != BinaryOp.div
-                    && binOpExpr.op != BinaryOp.mod) // integer div uses rdx for remainder
-                            ? rdx
-                            : stack.reserveSlot(binOpExpr.rhs.theType);
-            code.movq(dstOpSpec, rhsResLoc);
+            binOpExpr.rhs.accept(this);
+            // Keep rhs result in a temporary location, if the register might be overwritten when evaluating lhs
+            if (needsRhsTemp(binOpExpr)) {
+                rhsResLoc = tempLocation(binOpExpr.rhs);
+            } else {
+                rhsResLoc = operandType.isFloatType() ? xmm1 : rdx;
+            }
+            moveValue(dstOpSpec, rhsResLoc);
         }
 
         binOpExpr.lhs.accept(this);
         // now operands in %rax (lhs), "rhsResLoc" (rhs)
         // or with floats:  %xmm0 (lhs), "rhsResLoc" (rhs)
-
-        genOpInstruction(code, operandType, binOpExpr.op, rhsResLoc, dstOpSpec);
+        return rhsResLoc;
     }
 
     /**
@@ -353,6 +623,9 @@ public class GenAsm extends CodeGenVisitor {
      * <p>The result will be placed in the provided {@code dst} nevertheless,
      * except for float comparison. In this case the result will be in {@code rax}.
      * </p>
+     * <p>A {@link Const} {@code src} requires {@code dst} to be {@code rax}, see
+     * {@link #immediateRhs(BinOpExpr)}. Besides {@code rdx}, {@code rcx} might be
+     * overwritten then.</p>
      * 
      * @apiNote Integer division and modulo operations always overwrite 
      * {@code rax} and {@code rdx}.
@@ -381,7 +654,9 @@ public class GenAsm extends CodeGenVisitor {
                 }
             }
             case mult -> {
-                if (operandType == Type.LONG_T) {
+                if (operandType == Type.LONG_T && src instanceof Const factor) {
+                    StrengthReduction.multiply(code, factor.value());
+                } else if (operandType == Type.LONG_T) {
                     code.imulq(src, dst);
                 } else if (operandType == Type.DOUBLE_T) {
                     code.mulsd(src, dst);
@@ -390,7 +665,9 @@ public class GenAsm extends CodeGenVisitor {
                 }
             }
             case div -> {
-                if (operandType == Type.LONG_T) {
+                if (operandType == Type.LONG_T && src instanceof Const divisor) {
+                    StrengthReduction.divide(code, divisor.value());
+                } else if (operandType == Type.LONG_T) {
                     genSignedIntegerDivision(code, src, dst);
                     if (dst != rax) {
                         code.movq(rax, dst);
@@ -402,7 +679,9 @@ public class GenAsm extends CodeGenVisitor {
                 }
             }
             case mod -> {
-                if (operandType == Type.LONG_T) {
+                if (operandType == Type.LONG_T && src instanceof Const divisor) {
+                    StrengthReduction.remainder(code, divisor.value());
+                } else if (operandType == Type.LONG_T) {
                     genSignedIntegerDivision(code, src, dst);
                     code.movq(rdx, rax);
                 } else {
@@ -437,11 +716,7 @@ public class GenAsm extends CodeGenVisitor {
                 } else if (operandType == Type.DOUBLE_T) {
                     code.movq($(0), rax); //clear rax
                     // Set conditional codes
-                    if (op == BinaryOp.eq || op == BinaryOp.neq) {
-                        code.ucomisd(src, (XmmRegister) dst);
-                    } else {
-                        code.comisd(src, (XmmRegister) dst);
-                    }
+                    genFloatCompare(code, op, src, (XmmRegister) dst);
 
                     switch (op) {
                         case eq -> {
@@ -454,10 +729,9 @@ public class GenAsm extends CodeGenVisitor {
                             code.setp(ByteRegister.al);
                             code.cmovne(rdx, rax);
                         }
-                        case gt -> code.seta(ByteRegister.al);
-                        case gteq -> code.setnb(ByteRegister.al);
-                        case lt -> code.setb(ByteRegister.al);
-                        case lteq -> code.setbe(ByteRegister.al);
+                        // lt and lteq are compared with swapped operands
+                        case gt, lt -> code.seta(ByteRegister.al);
+                        case gteq, lteq -> code.setnb(ByteRegister.al);
                         default -> error = true;
                     }
                 } else {
@@ -465,10 +739,6 @@ public class GenAsm extends CodeGenVisitor {
                 }
             }
 
-            // Boolean
-            // - Type check is expected to ensure only bool operands are present
-            case and -> code.andq(src, dst);
-            case or -> code.orq(src, dst);
             default -> throw new UnsupportedOperationException("Operation '" + op
                     + "' not yet implemented for '" + operandType + ", " + operandType + "'");
         }
@@ -479,6 +749,207 @@ public class GenAsm extends CodeGenVisitor {
         }
     }
 
+    /**
+     * Sets the condition codes for the double comparison {@code lhs op rhs}.
+     * Afterwards the condition holds, if CCs indicate 'above' (gt, lt) or
+     * 'above or equal' (gteq, lteq), respectively 'equal' and 'not parity' (eq).
+     * <p>
+     * The operands of lt and lteq are swapped, since the 'below' conditions
+     * are also met if either operand is NaN (unordered), while 'above' ones are
+     * not. A {@code src} other than an {@code XmmRegister} is then loaded into
+     * {@code xmm1}.
+     * </p>
+     */
+    public static void genFloatCompare(CodeSection code, BinaryOp op, OperandSpecifier rhs, XmmRegister lhs) {
+        switch (op) {
+            case eq, neq -> code.ucomisd(rhs, lhs);
+            case gt, gteq -> code.comisd(rhs, lhs);
+            case lt, lteq -> {
+                var rhsReg = rhs instanceof XmmRegister reg ? reg : xmm1;
+                if (rhsReg != rhs) {
+                    code.movsd(rhs, rhsReg);
+                }
+                code.comisd(lhs, rhsReg);
+            }
+            default -> throw new IllegalArgumentException("Not a comparison: " + op);
+        }
+    }
+
+    /**
+     * Generates the comparison {@code lhs op rhs} followed by a jump to
+     * {@code target}, taken if the comparison's result equals {@code jumpIf}.
+     * Otherwise execution continues after the generated instructions.
+     * <p>
+     * Comparisons of doubles involving NaN are false, except for neq.
+     * Restrictions on {@code rhs} are the same as with
+     * {@link #genFloatCompare(CodeSection, BinaryOp, OperandSpecifier, XmmRegister)}.
+     * </p>
+     */
+    public static void genCompareJump(CodeSection code, Type operandType, BinaryOp op,
+            OperandSpecifier rhs, OperandSpecifier lhs, boolean jumpIf, String target) {
+        if (operandType != Type.DOUBLE_T) {
+            code.cmpq(rhs, lhs);
+            // Jump on the negated comparison instead
+            if (!jumpIf) {
+                op = switch (op) {
+                    case eq -> BinaryOp.neq;
+                    case neq -> BinaryOp.eq;
+                    case gt -> BinaryOp.lteq;
+                    case gteq -> BinaryOp.lt;
+                    case lt -> BinaryOp.gteq;
+                    case lteq -> BinaryOp.gt;
+                    default -> throw new IllegalArgumentException("Not a comparison: " + op);
+                };
+            }
+            switch (op) {
+                case eq -> code.je(target);
+                case neq -> code.jne(target);
+                case gt -> code.jg(target);
+                case gteq -> code.jge(target);
+                case lt -> code.jl(target);
+                default -> code.jle(target);
+            }
+            return;
+        }
+
+        genFloatCompare(code, op, rhs, (XmmRegister) lhs);
+        switch (op) {
+            case gt, lt -> {
+                if (jumpIf) {
+                    code.ja(target);
+                } else {
+                    code.jbe(target);
+                }
+            }
+            case gteq, lteq -> {
+                if (jumpIf) {
+                    code.jae(target);
+                } else {
+                    code.jb(target);
+                }
+            }
+            default -> {
+                // eq, neq: Unordered operands (PF set) are unequal
+                boolean jumpIfUnequal = (op == BinaryOp.neq) == jumpIf;
+                if (jumpIfUnequal) {
+                    code.jp(target);
+                    code.jne(target);
+                } else {
+                    var unorderedLabel = code.newLabel();
+                    code.jp(unorderedLabel);
+                    code.je(target);
+                    code.bindLabel(unorderedLabel);
+                }
+            }
+        }
+    }
+
+    /** Largest integral f64 exponent, for which powers are computed by multiplication. */
+    public static final int MAX_INLINED_F64_EXPONENT = 16;
+
+    /**
+     * Returns the exponent, if a power with the given constant exponent is
+     * computed by a chain of multiplications, otherwise {@code -1}. These are
+     * non-negative i64 exponents and small integral f64 exponents.
+     */
+    public static long inlinedExponent(Object exponent) {
+        return switch (exponent) {
+            case Long n when n >= 0 -> n;
+            case Double d when d == Math.rint(d) && d >= 0 && d <= MAX_INLINED_F64_EXPONENT -> d.longValue();
+            case null, default -> -1;
+        };
+    }
+
+    /** @see #inlinedExponent(Object) */
+    public static long inlinedExponent(BinOpExpr powExpr) {
+        return powExpr.rhs instanceof LiteralExpr<?> lit ? inlinedExponent(lit.value) : -1;
+    }
+
+    /** Whether the power is computed by calling {@code pow} from libm. */
+    public static boolean callsPow(BinOpExpr binOpExpr) {
+        return binOpExpr.op == BinaryOp.pow && binOpExpr.lhs.theType.isFloatType()
+                && inlinedExponent(binOpExpr) < 0;
+    }
+
+    /**
+     * Raises the base in {@code rax} ({@code xmm0} with floats) to the constant
+     * power {@code n} by squaring and multiplying, e.g. {@code x**5} is
+     * {@code ((x*x)*(x*x))*x}. Clobbers {@code rdx} ({@code xmm1}).
+     */
+    public static void genPowByMultiplication(CodeSection code, ReadOnlyData rodata, Type operandType, long n) {
+        boolean isFloat = operandType.isFloatType();
+        if (n == 0) {
+            if (isFloat) {
+                code.movsd(new MemAddr(rodata.createLiteral(1.0), rip), xmm0);
+            } else {
+                code.movq($(1), rax);
+            }
+            return;
+        }
+        OperandSpecifier acc = isFloat ? xmm0 : rax;
+        OperandSpecifier base = isFloat ? xmm1 : rdx;
+        if (n > 1) {
+            if (isFloat) {
+                code.movsd(acc, base);
+            } else {
+                code.movq(acc, base);
+            }
+        }
+        // Bits below the most significant one, which the accumulator starts with
+        for (int bit = 62 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            if (isFloat) {
+                code.mulsd(acc, acc);
+            } else {
+                code.imulq(acc, acc);
+            }
+            if ((n >> bit & 1) != 0) {
+                if (isFloat) {
+                    code.mulsd(base, acc);
+                } else {
+                    code.imulq(base, acc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Raises the i64 base in {@code rax} to the power {@code exponent} by
+     * squaring, leaving the result in {@code rax}. Negative exponents truncate
+     * the result towards zero, i.e. only bases 1 and -1 yield a non-zero value.
+     * Clobbers {@code rcx} and {@code rdx}.
+     */
+    public static void genIntPow(CodeSection code, OperandSpecifier exponent) {
+        var loopLabel = code.newLabel();
+        var skipLabel = code.newLabel();
+        var doneLabel = code.newLabel();
+        if (exponent != rcx) {
+            code.movq(exponent, rcx);
+        }
+        code.movq(rax, rdx);
+        code.movq($(1), rax);
+        code.testq(rcx, rcx);
+        code.jns(loopLabel);
+        // Only the parity of a negative exponent matters for 1 and -1
+        code.negq(rcx);
+        code.cmpq($(1), rdx);
+        code.je(loopLabel);
+        code.cmpq($(-1), rdx);
+        code.je(loopLabel);
+        code.movq($(0), rax);
+        code.jmp(doneLabel);
+
+        code.bindLabel(loopLabel);
+        code.testq(rcx, rcx);
+        code.je(doneLabel);
+        code.shrq($(1), rcx);
+        code.jae(skipLabel);
+        code.imulq(rdx, rax);
+        code.bindLabel(skipLabel);
+        code.imulq(rdx, rdx);
+        code.jmp(loopLabel);
+        code.bindLabel(doneLabel);
+    }
+
     /**
      * Generates instructions for integer division. Result will be in
      * {@code rax:rdx} as {@code quotient:remainder}.
@@ -552,6 +1023,44 @@ public class GenAsm extends CodeGenVisitor {
         }
     }
 
+    /**
+     * Generates a jump to {@code target}, taken if {@code condition} evaluates
+     * to {@code jumpIf}. Comparisons branch on the condition codes directly,
+     * without materializing the bool in {@code rax}. The operands of
+     * {@code &&} and {@code ||} each jump to where their result leads to.
+     */
+    private void genCondJump(Expr condition, boolean jumpIf, String target) {
+        if (condition instanceof UnaryOpExpr unOp && unOp.op == UnaryOp.not) {
+            genCondJump(unOp.operand, !jumpIf, target);
+        } else if (condition instanceof BinOpExpr binOp && binOp.op.isBoolean()) {
+            // The lhs value which makes evaluating rhs unnecessary
+            boolean decisive = binOp.op == BinaryOp.or;
+            if (jumpIf == decisive) {
+                genCondJump(binOp.lhs, jumpIf, target);
+                genCondJump(binOp.rhs, jumpIf, target);
+            } else {
+                var skipLabel = code.newLabel();
+                genCondJump(binOp.lhs, decisive, skipLabel);
+                genCondJump(binOp.rhs, jumpIf, target);
+                code.bindLabel(skipLabel);
+            }
+        } else if (condition instanceof BinOpExpr binOp && binOp.op.isComparison()) {
+            var operandType = binOp.lhs.theType;
+            var rhsResLoc = genOperands(binOp);
+            genCompareJump(code, operandType, binOp.op, rhsResLoc,
+                    operandType.isFloatType() ? xmm0 : rax, jumpIf, target);
+        } else {
+            condition.accept(this);
+            // set zero flag if condition was false
+            code.testq(rax, rax);
+            if (jumpIf) {
+                code.jne(target);
+            } else {
+                code.je(target);
+            }
+        }
+    }
+
     @Override
     public void visit(TernaryConditionalExpr ternaryConditionalExpr) {
         var then = ternaryConditionalExpr.then;
@@ -559,10 +1068,7 @@ public class GenAsm extends CodeGenVisitor {
         var elseStartLabel = code.newLabel();
         var elseEndLabel = code.newLabel();
 
-        ternaryConditionalExpr.condition.accept(this);
-        // set zero flag if condition was false
-        code.testq(rax, rax);
-        code.je(elseStartLabel);
+        genCondJump(ternaryConditionalExpr.condition, false, elseStartLabel);
 
         then.accept(this);
         code.jmp(elseEndLabel);
@@ -574,7 +1080,9 @@ public class GenAsm extends CodeGenVisitor {
 
     @Override
     public void visit(VarDeclareStat varDeclareStat) {
-        stack.reserveSlot(varDeclareStat.varName(), varDeclareStat.theType);
+        if (regAlloc.ofVar(varDeclareStat.varName()).isEmpty()) {
+            stack.reserveSlot(varDeclareStat.varName(), varDeclareStat.theType);
+        }
         varDeclareStat.initializer.ifPresent(init -> init.accept(this));
     }
 
@@ -582,24 +1090,91 @@ public class GenAsm extends CodeGenVisitor {
     public void visit(VarAssignStat varAssignStat) {
         varAssignStat.expr.accept(this);
         if (varAssignStat.theType.isFloatType()) {
-            code.movsd(xmm0, stack.get(varAssignStat.targetVarName));
+            code.movsd(xmm0, varLocation(varAssignStat.targetVarName));
         } else {
-            code.movq(rax, stack.get(varAssignStat.targetVarName));
+            code.movq(rax, varLocation(varAssignStat.targetVarName));
         }
     }
 
     @Override
     public void visit(FieldAssignStat faStat) {
-        var field = faStat.maChain.chain.getLast();
-        var fieldOwnerType = field.owner != null
-                ? field.owner.theType
-                : faStat.maChain.owner.theType;
-        var setterFunName = getSetterFullName(fieldOwnerType, field.targetName);
-        // delegate "thisArg" fetching to the funcall
-        var thisArg = faStat.maChain;
-        var funCall = new FunCall(faStat.srcPos, setterFunName, List.of(thisArg, faStat.expr));
-        funCall.theType = faStat.theType;
-        funCall.accept(this);
+        var maChain = faStat.maChain;
+        var target = maChain.chain.getLast();
+        var fieldOwnerType = target.owner != null
+                ? target.owner.theType
+                : maChain.owner.theType;
+        var field = fieldLayout(fieldOwnerType, target.targetName);
+
+        // Get the owner reference into a register other than rax, while the value
+        // ends up in rax or xmm0
+        Register ownerReg;
+        if (isDirectFieldAccess(maChain)) {
+            // The variable can't change while evaluating the value
+            faStat.expr.accept(this);
+            var ownerLoc = varLocation(((Var) maChain.owner).name);
+            if (ownerLoc instanceof Register reg) {
+                ownerReg = reg;
+            } else {
+                code.movq(ownerLoc, rcx);
+                ownerReg = rcx;
+            }
+        } else if (isEvaluatedBeforeArgs(faStat.expr)) {
+            // Evaluating the value might clobber any scratch register
+            maChain.accept(this);
+            var ownerTemp = tempLocation(maChain);
+            code.movq(rax, ownerTemp);
+            faStat.expr.accept(this);
+            if (ownerTemp instanceof Register reg) {
+                ownerReg = reg;
+            } else {
+                code.movq(ownerTemp, rcx);
+                ownerReg = rcx;
+            }
+        } else {
+            maChain.accept(this);
+            code.movq(rax, rcx);
+            ownerReg = rcx;
+            faStat.expr.accept(this);
+        }
+        storeField(field, new MemAddr(field.offset(), ownerReg));
+    }
+
+    /**
+     * Whether the field assignment's target is a field of a variable, e.g.
+     * {@code self.value}, so the owner reference can be used in place.
+     */
+    public static boolean isDirectFieldAccess(MemberAccessChain maChain) {
+        return maChain.owner instanceof Var && maChain.chain.next == null;
+    }
+
+    private StructLayout.Field fieldLayout(Type ownerType, String fieldName) {
+        var layout = structLayouts.get(ownerType);
+        if (layout == null) {
+            throw new IllegalStateException("Unknown struct type '" + ownerType.klangName() + "'");
+        }
+        return layout.field(fieldName);
+    }
+
+    /** Loads the field at {@code addr} into {@code rax} or {@code xmm0}. */
+    private void loadField(StructLayout.Field field, MemAddr addr) {
+        if (field.type().isFloatType()) {
+            code.movsd(addr, xmm0);
+        } else if (field.size() == 1) {
+            code.movzbq(addr, rax);
+        } else {
+            code.movq(addr, rax);
+        }
+    }
+
+    /** Stores {@code rax} or {@code xmm0} to the field at {@code addr}. */
+    private void storeField(StructLayout.Field field, MemAddr addr) {
+        if (field.type().isFloatType()) {
+            code.movsd(xmm0, addr);
+        } else if (field.size() == 1) {
+            code.movb(ByteRegister.al, addr);
+        } else {
+            code.movq(rax, addr);
+        }
     }
 
     @Override
@@ -612,10 +1187,7 @@ public class GenAsm extends CodeGenVisitor {
         var elseStartLabel = otherwise.isEmpty() ? ifElseEndLabel : code.newLabel();
 
         // condition
-        // - set zero flag if condition was false
-        ifElseStat.condition.accept(this);
-        code.testq(rax, rax);
-        code.je(elseStartLabel);
+        genCondJump(ifElseStat.condition, false, elseStartLabel);
         // then
         then.accept(this);
         code.jmp(ifElseEndLabel);
@@ -667,11 +1239,18 @@ public class GenAsm extends CodeGenVisitor {
 
     @Override
     public void visit(ReturnStat returnStat) {
+        if (optLevel > 0) {
+            tailCall = tailCallOf(returnStat.expr);
+            if (tailCall != null) {
+                returnStat.expr.accept(this);
+                tailCall = null;
+                return;
+            }
+        }
         returnStat.expr.accept(this);
 
-        // Naive approach: always generate a 'jmp'
-        // TODO jump only if returnStat is not last statement of 
-
+        // Always jump to the epilogue, the peephole optimizer removes the
+        // jump if the epilogue follows directly
         var label = functionExitLabel.isPresent()
                 ? functionExitLabel.get()
                 : code.newLabel();
@@ -688,9 +1267,7 @@ public class GenAsm extends CodeGenVisitor {
     public void visit(DropStat dropStat) {
         var thisArg = dropStat.refTypeVar;
         var funName = getDestructorFullName(thisArg.theType);
-        var destructor = new FunCall(dropStat.srcPos, funName, List.of(thisArg));
-        destructor.theType = dropStat.theType;
-        destructor.accept(this);
+        genCall(dropStat, funName, List.of(thisArg));
     }
 
     @Override
@@ -716,16 +1293,38 @@ public class GenAsm extends CodeGenVisitor {
      */
     void genFunDefWithName(String newFunName, FunDef funDef) {
         functionExitLabel = Optional.empty();
+        currentFunName = newFunName;
+        selfTailCallLabel = null;
         stack = new StackManager(code);
+        regAlloc = optLevel > 0 ? RegisterAllocation.of(funDef) : RegisterAllocation.NONE;
 
-        code.writeIndented(".globl\t", newFunName);
-        code.writeIndented(".type\t", newFunName, ", @function");
-        code.write("\n", newFunName, ":");
+        code.beginFunction(newFunName);
+
+        if (fromIr) {
+            new IrLowering(code, rodataSec, structLayouts).lower(IrBuilder.build(funDef), newFunName);
+            code.endFunction();
+            flushStreamOut();
+            return;
+        }
 
         /* Prologue */
         // Backup caller's and set callee's context
         code.pushq(rbp);
         code.movq(rsp, rbp);
+        // The frame size is known after generating the body
+        var frameAllocPos = code.position();
+
+        // Backup callee saved registers and reserve slots for caller saved ones
+        calleeSavedSlots = new LinkedHashMap<>();
+        for (var reg : regAlloc.usedCalleeSaved()) {
+            var slot = stack.reserveSlot(Type.ANY_T);
+            code.movq(reg, slot);
+            calleeSavedSlots.put(reg, slot);
+        }
+        callerSavedSlots = new HashMap<>();
+        for (var reg : regAlloc.usedCallerSaved()) {
+            callerSavedSlots.put(reg, stack.reserveSlot(Type.ANY_T));
+        }
 
         // Backup all register args to stack
         // and add args passed on stack to the stack manager.
@@ -751,6 +1350,8 @@ public class GenAsm extends CodeGenVisitor {
          *  +--------------------+
          */
 
+        // Self tail calls continue here with the arguments in registers
+        var paramsPos = code.position();
         var xmmRegsIt = Arrays.stream(xmmRegs).iterator();
         var regularRegsIt = Arrays.stream(regs).iterator();
 
@@ -759,16 +1360,29 @@ public class GenAsm extends CodeGenVisitor {
             var p = paramIt.next();
             var ptype = p.type().theType;
 
+            var paramReg = regAlloc.ofVar(p.name());
             if (ptype.isFloatType() && xmmRegsIt.hasNext()) {
                 var src = xmmRegsIt.next();
-                stack.storeXmmSd(p.name(), src);
+                if (paramReg.isPresent()) {
+                    code.movsd(src, paramReg.get());
+                } else {
+                    stack.storeXmmSd(p.name(), src);
+                }
             } else if (regularRegsIt.hasNext()) {
                 var src = regularRegsIt.next();
-                stack.store(p.name(), ptype, src);
+                if (paramReg.isPresent()) {
+                    code.movq(src, paramReg.get());
+                } else {
+                    stack.store(p.name(), ptype, src);
+                }
             } else {
                 // Caller saved stack arg
-                // - add its offset to manager, assuming 8 Bytes per arg
-                stack.associate(p.name(), stackArgOffset);
+                if (paramReg.isPresent()) {
+                    moveValue(new MemAddr(stackArgOffset, rbp), paramReg.get());
+                } else {
+                    // - add its offset to manager, assuming 8 Bytes per arg
+                    stack.associate(p.name(), stackArgOffset);
+                }
                 stackArgOffset += 8;
             }
 
@@ -776,7 +1390,7 @@ public class GenAsm extends CodeGenVisitor {
 
         // Reserve stack for local variables
         for (var stat : funDef.body.statements) {
-            if (stat instanceof VarDeclareStat decl) {
+            if (stat instanceof VarDeclareStat decl && regAlloc.ofVar(decl.varName()).isEmpty()) {
                 stack.alloc(decl.theType.byteSize());
             }
         }
@@ -785,13 +1399,44 @@ public class GenAsm extends CodeGenVisitor {
         // Generate body instructions
         funDef.body.accept(this);
 
+        if (selfTailCallLabel != null) {
+            var label = selfTailCallLabel;
+            code.insertAt(paramsPos, () -> code.bindLabel(label));
+        }
+
+        // Reserve the whole frame at once, so %rsp is the same on every path
+        var rspAdjustment = stack.rspAdjustment();
+        if (rspAdjustment > 0) {
+            code.insertAt(frameAllocPos, () -> code.subq($(rspAdjustment), rsp));
+        }
+
         functionExitLabel.ifPresent(label -> code.bindLabel(label));
         /* Epilogue */
+        calleeSavedSlots.forEach((reg, slot) -> code.movq(slot, reg));
         // Restore caller's context:
         // -> Copy %rbp to %rsp and then replace %rbp with the stored value
         // -> Can be reduced to "popq" part in certain cases.
         code.leave();
         code.ret();
+
+        // Leaf functions only do their actual work, addressing locals via %rsp
+        if (optLevel > 0 && stack.canOmitFramePointer()) {
+            code.omitFramePointer();
+        }
+
+        code.endFunction();
+        flushStreamOut();
+    }
+
+    /** Writes the code generated so far to the assembly file, if streaming. */
+    private void flushStreamOut() {
+        if (streamOut != null) {
+            try {
+                code.drainTo(streamOut);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     @Override
@@ -807,6 +1452,51 @@ public class GenAsm extends CodeGenVisitor {
 
     @Override
     public void visit(Prog prog) {
+        generateAssembly(prog);
+        generateCHelpers(prog);
+    }
+
+    /** Generates the assembly code of the given program and writes the assembly (or object) file. */
+    public void generateAssembly(Prog prog) {
+        var layouts = new HashMap<Type, StructLayout>();
+        prog.structDefs.forEach(st -> layouts.put(st.theType, StructLayout.of(st)));
+        structLayouts = layouts;
+
+        var filePath = outFilePaths().get(0);
+        if (emitObject) {
+            generateFunctions(prog);
+            var encoder = new MachineCodeEncoder(rodataSec);
+            encoder.encode(code.instructions());
+            try {
+                Files.write(filePath, new ElfObjectWriter(encoder, rodataSec).toBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        try (var w = Files.newBufferedWriter(filePath)) {
+            w.write("\t.file\t\"" + filePath.getFileName().toString() + "\"");
+            if (streamOutput) {
+                // Literals are known only after all code is generated,
+                // therefore the data sections follow the code section.
+                streamOut = w;
+                code.drainTo(w);
+                generateFunctions(prog);
+                streamOut = null;
+                writeSections(w, dataSec, rodataSec);
+            } else {
+                generateFunctions(prog);
+                writeSections(w, rodataSec, dataSec, code);
+            }
+            w.write("\n\t.section\t.note.GNU-stack,\"\",@progbits\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            streamOut = null;
+        }
+    }
+
+    private void generateFunctions(Prog prog) {
         prog.structDefs.forEach(stDef -> stDef.accept(this));
         prog.funDefs.forEach(f -> {
             if (prog.entryPoint.isPresent() && f.name.equals(prog.entryPoint.get().name))
@@ -814,26 +1504,20 @@ public class GenAsm extends CodeGenVisitor {
             else
                 f.accept(this);
         });
+    }
 
-        var filePath = outFilePaths().get(0);
-        try (var w = new FileWriter(filePath.toFile())) {
-            w.write("\t.file\t\"" + filePath.getFileName().toString() + "\"");
-
-            SectionBuilder[] sections = { rodataSec, dataSec, code };
-            for (var s : sections) {
-                var sStr = s.toString();
-                if (!s.initialState.equals(sStr)) {
-                    w.write(s.toString());
-                    w.write("\n");
-                }
+    /** Writes the given sections, skipping empty ones. */
+    private static void writeSections(Writer w, SectionBuilder... sections) throws IOException {
+        for (var s : sections) {
+            if (!s.isEmpty()) {
+                s.drainTo(w);
+                w.write("\n");
             }
-
-            w.write("\n\t.section\t.note.GNU-stack,\"\",@progbits\n");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+    }
 
-        // Create C helpers
+    /** Generates the C helper files (header and implementations) the assembly code relies on. */
+    public void generateCHelpers(Prog prog) {
         prog.accept(cHeaderGen);
         prog.accept(cImplsGen);
     }
@@ -843,6 +1527,15 @@ public class GenAsm extends CodeGenVisitor {
         // nop
     }
 
+    /** Copies a value, using {@code movsd} if either operand is an xmm register. */
+    private void moveValue(OperandSpecifier src, OperandSpecifier dst) {
+        if (src instanceof XmmRegister || dst instanceof XmmRegister) {
+            code.movsd(src, dst);
+        } else {
+            code.movq(src, dst);
+        }
+    }
+
     /** The {@code ownerType} method's respective assembly function name. */
     public static String getAsmMethodName(Type ownerType, String methName) {
         return ownerType.klangName() + "$" + methName;
@@ -893,18 +1586,14 @@ public class GenAsm extends CodeGenVisitor {
         /** Basepointer (%rbp) offset used to determine where the next element will be stored */
         private int writeOffset = 0;
 
-        /**
-         * Unaligned byte size that will be allocated in the current stack frame (e.g. for local vars)
-         * on next {@link #alignRspToStackSize()} call.
-         */
-        private int pendingAllocSize = 0;
+        /** Byte size of the current stack frame, i.e. below %rbp, without alignment padding */
+        private int frameSize = 0;
 
-        /** Currently allocated stack frame size including any alignment padding */
-        private int alignedStackSize = 0;
+        /** Whether the current function calls other functions */
+        private boolean hasCalls = false;
 
-        private int unalignedStackSize() {
-            return alignedStackSize + pendingAllocSize;
-        }
+        /** Size of the System V red zone below %rsp, which leaf functions may use without reserving it */
+        private static final int RED_ZONE_SIZE = 128;
 
         public StackManager(CodeSection codeSection) {
             this.code = codeSection;
@@ -912,24 +1601,38 @@ public class GenAsm extends CodeGenVisitor {
         }
 
         /**
-         * Increases current frame's stacksize by decrementing %rsp by the
-         * 16-byte-aligned {@link #pendingAllocSize}.
-         * 
-         * Call this method before "call" instructions to make sure %rsp is 
-         * aligned as required by the Linux System V ABI.
+         * Call this method for "call" instructions, so the whole frame is
+         * reserved by {@link #rspAdjustment()}. Otherwise the callee would
+         * overwrite it.
+         */
+        public void noteCall() {
+            hasCalls = true;
+        }
+
+        /**
+         * Returns the 16-byte-aligned number of bytes the prologue must subtract
+         * from %rsp, such that the frame is reserved and %rsp is aligned as required
+         * by the Linux System V ABI at each call. Functions without calls keep a
+         * small frame in the red zone instead.
+         * <p>
+         * Call this method after generating the function's body, since slots
+         * may be reserved throughout.
+         * </p>
          */
-        public void alignRspToStackSize() {
-            var size = getAlignedSize();
-            if (size > 0) {
-                code.subq($(size), rsp);
-                alignedStackSize += size;
+        public int rspAdjustment() {
+            if (!hasCalls && frameSize <= RED_ZONE_SIZE) {
+                return 0;
             }
-            pendingAllocSize = 0;
+            return (frameSize + 0xF) & ~0xF;
         }
 
-        /** Returns allocSize aligned such that it's multiple of 16 Bytes. */
-        private int getAlignedSize() {
-            return (pendingAllocSize + 0xF) & ~0xF;
+        /**
+         * Whether the function may do without a frame pointer, i.e. it calls
+         * nothing and its frame fits into the red zone, even though %rbp isn't
+         * pushed below the return address anymore.
+         */
+        public boolean canOmitFramePointer() {
+            return !hasCalls && frameSize + 8 <= RED_ZONE_SIZE;
         }
 
         /**
@@ -944,14 +1647,12 @@ public class GenAsm extends CodeGenVisitor {
          * useful for computing the required stack size in the prologue of a
          * function definition (i.e. before actually changing %rsp or storing
          * elements on stack).
-         * %rsp must be aligned using {@link #alignRspToStackSize()} before any 
-         * "call" instructions.
          */
         public void alloc(int bytes) {
             // ---- HARDCODED FOR NOW ----
             bytes = Type.ANY_T.byteSize();
 
-            pendingAllocSize += bytes;
+            frameSize += bytes;
         }
 
         /**
@@ -1043,7 +1744,7 @@ public class GenAsm extends CodeGenVisitor {
 
             writeOffset -= size;
             // allocated if necessary
-            if (Math.abs(writeOffset) > unalignedStackSize()) {
+            if (Math.abs(writeOffset) > frameSize) {
                 alloc(size);
             }
             return writeOffset;
@@ -22,6 +22,7 @@ import java.util.Map;
 import cc.crochethk.klang.ast.*;
 import cc.crochethk.klang.ast.UnaryOpExpr.UnaryOp;
 import cc.crochethk.klang.ast.literal.*;
+import cc.crochethk.klang.visitor.DeadCodeEliminator;
 import cc.crochethk.klang.visitor.Type;
 import utils.PathUtils;
 import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
@@ -46,6 +47,13 @@ public class GenJBC extends CodeGenVisitor {
 
     private Map<String, FunDef> funDefs = new HashMap<>();
 
+    /** Name of the generated method computing i64 powers. */
+    private static final String INT_POW_NAME = "pow$i64";
+    private static final MethodTypeDesc INT_POW_DESC = MethodTypeDesc.of(
+            ConstantDescs.CD_long, ConstantDescs.CD_long, ConstantDescs.CD_long);
+    /** Whether {@value #INT_POW_NAME} must be generated. */
+    private boolean usesIntPow = false;
+
     /**
      * Manager for function-local variable offset lookup.
      * (for example for use in "Xload(slot)" instructions)
@@ -122,6 +130,19 @@ public class GenJBC extends CodeGenVisitor {
 
     @Override
     public void visit(BinOpExpr binOpExpr) {
+        if (binOpExpr.op.isBoolean()) {
+            // Short-circuit: rhs is only evaluated if lhs doesn't determine the result
+            var falseBranch = codeBuilder.newLabel();
+            genCondJump(binOpExpr, false, falseBranch);
+            genComparisonBranches(codeBuilder, falseBranch);
+            return;
+        }
+
+        if (binOpExpr.op == BinaryOp.pow) {
+            genPow(binOpExpr);
+            return;
+        }
+
         // load both operands
         binOpExpr.lhs.accept(this);
         binOpExpr.rhs.accept(this);
@@ -131,6 +152,113 @@ public class GenJBC extends CodeGenVisitor {
         genOpInstruction(codeBuilder, binOpExpr.lhs.theType, binOpExpr.op);
     }
 
+    /**
+     * Constant exponents are multiplied out by squaring, others computed by
+     * {@code Math.pow} respectively the generated {@value #INT_POW_NAME}.
+     */
+    private void genPow(BinOpExpr powExpr) {
+        var cb = codeBuilder;
+        var kind = powExpr.lhs.theType.jvmTypeKind();
+        powExpr.lhs.accept(this);
+        long n = GenAsm.inlinedExponent(powExpr);
+        if (n == 0) {
+            cb.pop2();
+            if (kind == TypeKind.LongType) {
+                cb.lconst_1();
+            } else {
+                cb.dconst_1();
+            }
+        } else if (n > 0) {
+            int baseSlot = varsManager.reserveTempSlot(powExpr.lhs.theType);
+            cb.dup2();
+            cb.storeLocal(kind, baseSlot);
+            // Bits below the most significant one, which the stack starts with
+            for (int bit = 62 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+                cb.dup2();
+                genOpInstruction(cb, powExpr.lhs.theType, BinaryOp.mult);
+                if ((n >> bit & 1) != 0) {
+                    cb.loadLocal(kind, baseSlot);
+                    genOpInstruction(cb, powExpr.lhs.theType, BinaryOp.mult);
+                }
+            }
+        } else {
+            powExpr.rhs.accept(this);
+            if (kind == TypeKind.LongType) {
+                usesIntPow = true;
+                cb.invokestatic(ClassDesc.of(packageName, className), INT_POW_NAME, INT_POW_DESC);
+            } else {
+                cb.invokestatic(ClassDesc.of("java.lang.Math"), "pow", MethodTypeDesc.of(
+                        ConstantDescs.CD_double, ConstantDescs.CD_double, ConstantDescs.CD_double));
+            }
+        }
+    }
+
+    /**
+     * Generates {@value #INT_POW_NAME}, raising an i64 base to an i64 power by
+     * squaring. Negative exponents truncate the result towards zero, i.e. only
+     * bases 1 and -1 yield a non-zero value.
+     */
+    private void genIntPowMethod(ClassBuilder cb) {
+        var methFlags = AccessFlags.ofMethod(AccessFlag.STATIC, AccessFlag.PRIVATE, AccessFlag.SYNTHETIC)
+                .flagsMask();
+        cb.withMethod(INT_POW_NAME, INT_POW_DESC, methFlags, mb -> mb.withCode(cdb -> {
+            int base = 0, exponent = 2, result = 4;
+            var loop = cdb.newLabel();
+            var skip = cdb.newLabel();
+            var done = cdb.newLabel();
+            cdb.lconst_1();
+            cdb.lstore(result);
+            cdb.lload(exponent);
+            cdb.lconst_0();
+            cdb.lcmp();
+            cdb.ifge(loop);
+            // Only the parity of a negative exponent matters for 1 and -1
+            cdb.lload(exponent);
+            cdb.lneg();
+            cdb.lstore(exponent);
+            cdb.lload(base);
+            cdb.lconst_1();
+            cdb.lcmp();
+            cdb.ifeq(loop);
+            cdb.lload(base);
+            cdb.ldc(-1L);
+            cdb.lcmp();
+            cdb.ifeq(loop);
+            cdb.lconst_0();
+            cdb.lreturn();
+
+            cdb.labelBinding(loop);
+            cdb.lload(exponent);
+            cdb.lconst_0();
+            cdb.lcmp();
+            cdb.ifeq(done);
+            cdb.lload(exponent);
+            cdb.lconst_1();
+            cdb.land();
+            cdb.lconst_0();
+            cdb.lcmp();
+            cdb.ifeq(skip);
+            cdb.lload(result);
+            cdb.lload(base);
+            cdb.lmul();
+            cdb.lstore(result);
+            cdb.labelBinding(skip);
+            cdb.lload(base);
+            cdb.dup2();
+            cdb.lmul();
+            cdb.lstore(base);
+            cdb.lload(exponent);
+            cdb.iconst_1();
+            cdb.lushr();
+            cdb.lstore(exponent);
+            cdb.goto_(loop);
+
+            cdb.labelBinding(done);
+            cdb.lload(result);
+            cdb.lreturn();
+        }));
+    }
+
     private void genOpInstruction(CodeBuilder cb, Type operandType, BinaryOp op) {
         boolean error = false;
         switch (op) {
@@ -165,7 +293,6 @@ public class GenJBC extends CodeGenVisitor {
             }
             // TODO
             // case mod -> {}
-            // case pow -> {}
 
             /** Comparisons
             * For Double comparisons "dcmpl" and "dcmpg" instructions are used
@@ -175,11 +302,6 @@ public class GenJBC extends CodeGenVisitor {
                 genCmpInstruction(cb, operandType.jvmTypeKind(), op);
                 genCmpInstructionEvaluation(cb, operandType.jvmTypeKind(), op);
             }
-            /**
-             * Boolean
-             */
-            case and -> cb.iand();
-            case or -> cb.ior();
             default -> {
                 throw new UnsupportedOperationException("Operation '" + op
                         + "' not yet implemented for '" + operandType + ", " + operandType + "'");
@@ -289,13 +411,42 @@ public class GenJBC extends CodeGenVisitor {
         }
     }
 
+    /**
+     * Generates a jump to {@code target}, taken if {@code condition} evaluates
+     * to {@code jumpIf}. The operands of {@code &&} and {@code ||} each jump
+     * to where their result leads to, without pushing it onto the stack.
+     */
+    private void genCondJump(Expr condition, boolean jumpIf, Label target) {
+        if (condition instanceof UnaryOpExpr unOp && unOp.op == UnaryOp.not) {
+            genCondJump(unOp.operand, !jumpIf, target);
+        } else if (condition instanceof BinOpExpr binOp && binOp.op.isBoolean()) {
+            // The lhs value which makes evaluating rhs unnecessary
+            boolean decisive = binOp.op == BinaryOp.or;
+            if (jumpIf == decisive) {
+                genCondJump(binOp.lhs, jumpIf, target);
+                genCondJump(binOp.rhs, jumpIf, target);
+            } else {
+                var skipLabel = codeBuilder.newLabel();
+                genCondJump(binOp.lhs, decisive, skipLabel);
+                genCondJump(binOp.rhs, jumpIf, target);
+                codeBuilder.labelBinding(skipLabel);
+            }
+        } else {
+            condition.accept(this);
+            if (jumpIf) {
+                codeBuilder.ifne(target);
+            } else {
+                codeBuilder.ifeq(target);
+            }
+        }
+    }
+
     @Override
     public void visit(TernaryConditionalExpr ternaryConditionalExpr) {
-        ternaryConditionalExpr.condition.accept(this);
         var falseBranch = codeBuilder.newLabel();
         var afterFalseBranch = codeBuilder.newLabel();
 
-        codeBuilder.ifeq(falseBranch);
+        genCondJump(ternaryConditionalExpr.condition, false, falseBranch);
         ternaryConditionalExpr.then.accept(this);
         codeBuilder.goto_(afterFalseBranch);
         codeBuilder.labelBinding(falseBranch);
@@ -318,19 +469,21 @@ public class GenJBC extends CodeGenVisitor {
 
     @Override
     public void visit(IfElseStat ifElseStat) {
-        ifElseStat.condition.accept(this);
-        codeBuilder.ifThenElse(
-                thenbcb -> {
-                    var cbBak = codeBuilder;
-                    codeBuilder = thenbcb;
-                    ifElseStat.then.accept(this);
-                    codeBuilder = cbBak;
-                }, elsebcb -> {
-                    var cbBak = codeBuilder;
-                    codeBuilder = elsebcb;
-                    ifElseStat.otherwise.accept(this);
-                    codeBuilder = cbBak;
-                });
+        var elseStart = codeBuilder.newLabel();
+        var ifElseEnd = codeBuilder.newLabel();
+
+        genCondJump(ifElseStat.condition, false, elseStart);
+        ifElseStat.then.accept(this);
+        // A jump after a returning branch might target the end of the code
+        var thenCompletes = !DeadCodeEliminator.leaves(ifElseStat.then);
+        if (thenCompletes) {
+            codeBuilder.goto_(ifElseEnd);
+        }
+        codeBuilder.labelBinding(elseStart);
+        ifElseStat.otherwise.accept(this);
+        if (thenCompletes) {
+            codeBuilder.labelBinding(ifElseEnd);
+        }
     }
 
     private Label currentLoopEnd = null;
@@ -444,6 +597,9 @@ public class GenJBC extends CodeGenVisitor {
         var bytes = ClassFile.of().build(classDesc, cb -> {
             this.classBuilder = cb;
             prog.funDefs.forEach(def -> def.accept(this));
+            if (usesIntPow) {
+                genIntPowMethod(cb);
+            }
 
             // Generate executable if an entrypoint is specified
             prog.entryPoint.ifPresent(entryPoint -> genMainMethod(cb, entryPoint));
@@ -509,6 +665,13 @@ public class GenJBC extends CodeGenVisitor {
             return slot;
         }
 
+        /** Reserves slots for an unnamed value of the given Type and returns the starting slot index. */
+        Integer reserveTempSlot(Type t) {
+            int slot = nextSlot;
+            nextSlot += t.jvmSize();
+            return slot;
+        }
+
         /** Returns the slot index associated with the given varName. */
         Integer getSlot(String varName) {
             return varSlots.get(varName);
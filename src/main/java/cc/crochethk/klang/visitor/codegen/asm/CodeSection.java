@@ -1,5 +1,12 @@
 package cc.crochethk.klang.visitor.codegen.asm;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const;
 import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
 import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register;
 import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.ByteRegister;
@@ -12,14 +19,130 @@ import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister;
  * Arguments for most instructions must implement the OperandSpecifier interface,
  * providing a valid Register, Immediate or Memoryaddress string.
  * </p>
+ * <p>
+ * Instructions are recorded as {@link Instruction} objects and rendered to text
+ * function by function, when {@link #endFunction()} is called. Before that,
+ * they are rewritten by the configured {@link PeepholeOptimizer}.
+ * </p>
  */
 public class CodeSection extends SectionBuilder {
     /** Generates local labels, e.g. for jump instructions. */
     private final LocalLabelManager labelMgr;
 
+    private final PeepholeOptimizer peephole;
+
+    /** Instructions of the current function, not yet rendered. */
+    private List<Instruction> pending = new ArrayList<>();
+
+    /** Whether finished functions are kept as instructions instead of being rendered. */
+    private final boolean keepInstructions;
+    private final List<Instruction> instructions = new ArrayList<>();
+
     public CodeSection() {
+        this(PeepholeOptimizer.NONE);
+    }
+
+    /** @param peephole Optimizer each function's instructions are passed through. */
+    public CodeSection(PeepholeOptimizer peephole) {
+        this(peephole, false);
+    }
+
+    /**
+     * @param keepInstructions If {@code true}, finished functions are not rendered
+     *      to text, but kept for {@link #instructions()}, e.g. to encode them.
+     */
+    public CodeSection(PeepholeOptimizer peephole, boolean keepInstructions) {
         super(".text");
         labelMgr = new LocalLabelManager(".L");
+        this.peephole = peephole;
+        this.keepInstructions = keepInstructions;
+    }
+
+    /** Writes the directives and the label starting the global function {@code name}. */
+    public void beginFunction(String name) {
+        endFunction();
+        emit(new FunctionLabel(name));
+    }
+
+    /** Optimizes the instructions recorded since the function's begin and renders them. */
+    public void endFunction() {
+        var optimized = peephole.optimize(pending);
+        if (keepInstructions) {
+            instructions.addAll(optimized);
+        } else {
+            for (var instr : optimized) {
+                write(instr.render());
+            }
+        }
+        pending = new ArrayList<>();
+    }
+
+    /** The instructions of all finished functions, if they are kept. */
+    public List<Instruction> instructions() {
+        return instructions;
+    }
+
+    /** The position of the next instruction within the current function, e.g. for {@link #insertAt}. */
+    public int position() {
+        return pending.size();
+    }
+
+    /**
+     * Inserts the instructions written by {@code emitter} at {@code position}
+     * of the current function, instead of appending them.
+     */
+    public void insertAt(int position, Runnable emitter) {
+        var tail = pending.subList(position, pending.size());
+        var following = new ArrayList<>(tail);
+        tail.clear();
+        emitter.run();
+        pending.addAll(following);
+    }
+
+    /**
+     * Removes the frame pointer from the current function, i.e. its
+     * {@code pushq %rbp}, {@code movq %rsp, %rbp} and {@code leave}, and
+     * addresses the frame relative to {@code %rsp} instead. The function must
+     * not change {@code %rsp} otherwise, so locals live in the red zone.
+     */
+    public void omitFramePointer() {
+        var savesFramePointer = new Op("pushq", Register.rbp);
+        var setsFramePointer = new Op("movq", Register.rsp, Register.rbp);
+        var rewritten = new ArrayList<Instruction>();
+        for (var instr : pending) {
+            if (instr instanceof Op op) {
+                if (op.equals(savesFramePointer) || op.equals(setsFramePointer) || op.mnemonic().equals("leave")) {
+                    continue;
+                }
+                instr = new Op(op.mnemonic(), op.operands().stream().map(CodeSection::relativeToRsp).toList());
+            }
+            rewritten.add(instr);
+        }
+        pending = rewritten;
+    }
+
+    /** {@code %rbp} pointed to the saved frame pointer, just below the return address. */
+    private static OperandSpecifier relativeToRsp(OperandSpecifier operand) {
+        if (operand instanceof MemAddr addr && addr.base() == Register.rbp) {
+            int offset = addr.offset().isEmpty() ? 0 : Integer.parseInt(addr.offset());
+            return new MemAddr(offset - 8, Register.rsp, addr.index(), addr.scale());
+        }
+        return operand;
+    }
+
+    private void emit(Instruction instr) {
+        pending.add(instr);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return super.isEmpty() && pending.isEmpty();
+    }
+
+    @Override
+    public void drainTo(Writer out) throws IOException {
+        endFunction();
+        super.drainTo(out);
     }
 
     /** Returns a new unique label name. No code is written. */
@@ -29,27 +152,45 @@ public class CodeSection extends SectionBuilder {
 
     /** Bind the given label to reference the current code position. */
     public void bindLabel(String label) {
-        write("\n", label, ":");
+        emit(new Label(label));
     }
 
     public void movq(OperandSpecifier src, OperandSpecifier dst) {
         writeInstruction("movq", src, dst);
     }
 
+    /** Load the byte at {@code src}, zero-extended to 64 bit, into {@code dst} */
+    public void movzbq(MemAddr src, Register dst) {
+        writeInstruction("movzbq", src, dst);
+    }
+
+    /** Store the lowest byte of a register to {@code dst} */
+    public void movb(ByteRegister src, MemAddr dst) {
+        writeInstruction("movb", src, dst);
+    }
+
     public void pushq(OperandSpecifier source) {
         writeInstruction("pushq", source);
     }
 
     public void call(String name) {
-        writeInstruction("call", name);
+        emit(new Call(name));
+    }
+
+    /**
+     * Jump to the function {@code name}, which returns to the current function's
+     * caller. The current frame must be released already.
+     */
+    public void tailCall(String name) {
+        emit(new Call(name, true));
     }
 
     public void leave() {
-        writeIndented("leave");
+        emit(new Op("leave"));
     }
 
     public void ret() {
-        writeIndented("ret");
+        emit(new Op("ret"));
     }
 
     /** Calculate an effective address and put it into {@code dst} register */
@@ -72,6 +213,11 @@ public class CodeSection extends SectionBuilder {
         writeInstruction("imulq", src, dst);
     }
 
+    /** Signed multiply {@code rax} by {@code src}, the 128-bit product is stored in {@code rdx:rax} */
+    public void imulq(OperandSpecifier src) {
+        writeInstruction("imulq", src);
+    }
+
     /** Divide {@code rax:rdx} by {@code src} */
     public void idivq(OperandSpecifier src) {
         writeInstruction("idivq", src);
@@ -79,7 +225,7 @@ public class CodeSection extends SectionBuilder {
 
     /** Sign-extend {@code rax} into {@code rdx} */
     public void cqto() {
-        writeIndented("cqto");
+        emit(new Op("cqto"));
     }
 
     /**
@@ -100,6 +246,24 @@ public class CodeSection extends SectionBuilder {
         writeInstruction("orq", src, dst);
     }
 
+    /** Left shift similar to {@code dst = dst << count} */
+    public void shlq(Const count, OperandSpecifier dst) {
+        writeInstruction("shlq", count, dst);
+    }
+
+    /** Arithmetic right shift similar to {@code dst = dst >> count} */
+    public void sarq(Const count, OperandSpecifier dst) {
+        writeInstruction("sarq", count, dst);
+    }
+
+    /**
+     * Logical right shift similar to {@code dst = dst >>> count}. The last bit
+     * shifted out is stored in {@code CF}.
+     */
+    public void shrq(Const count, OperandSpecifier dst) {
+        writeInstruction("shrq", count, dst);
+    }
+
     /** Bitwise XOR similar to {@code dst = dst ^ src} */
     public void xorq(OperandSpecifier src, OperandSpecifier dst) {
         writeInstruction("xorq", src, dst);
@@ -124,12 +288,67 @@ public class CodeSection extends SectionBuilder {
     }
 
     public void jmp(String label) {
-        writeInstruction("jmp", label);
+        emit(new Jump("jmp", label));
     }
 
     /** Jump if {@code ZF} is set (equality/result was zero) */
     public void je(String label) {
-        writeInstruction("je", label);
+        emit(new Jump("je", label));
+    }
+
+    /** Jump if {@code ZF} is not set (inequality/result was nonzero) */
+    public void jne(String label) {
+        emit(new Jump("jne", label));
+    }
+
+    /** Jump if {@code SF} is not set (result was not negative) */
+    public void jns(String label) {
+        emit(new Jump("jns", label));
+    }
+
+    /** Jump if CCs indicate 'greater' (signed). */
+    public void jg(String label) {
+        emit(new Jump("jg", label));
+    }
+
+    /** Jump if CCs indicate 'greater or equal' (signed). */
+    public void jge(String label) {
+        emit(new Jump("jge", label));
+    }
+
+    /** Jump if CCs indicate 'less' (signed). */
+    public void jl(String label) {
+        emit(new Jump("jl", label));
+    }
+
+    /** Jump if CCs indicate 'less or equal' (signed). */
+    public void jle(String label) {
+        emit(new Jump("jle", label));
+    }
+
+    /** Jump if CCs indicate 'above' (unsigned), i.e. {@code CF} and {@code ZF} are not set. */
+    public void ja(String label) {
+        emit(new Jump("ja", label));
+    }
+
+    /** Jump if CCs indicate 'above or equal' (unsigned), i.e. {@code CF} is not set. */
+    public void jae(String label) {
+        emit(new Jump("jae", label));
+    }
+
+    /** Jump if CCs indicate 'below' (unsigned), i.e. {@code CF} is set. */
+    public void jb(String label) {
+        emit(new Jump("jb", label));
+    }
+
+    /** Jump if CCs indicate 'below or equal' (unsigned), i.e. {@code CF} or {@code ZF} is set. */
+    public void jbe(String label) {
+        emit(new Jump("jbe", label));
+    }
+
+    /** Jump if {@code PF} is set. After {@code ucomisd} this means 'unordered' (NaN). */
+    public void jp(String label) {
+        emit(new Jump("jp", label));
     }
 
     // --------------------[ conditional byte set instruction ]-----------------
@@ -313,14 +532,10 @@ public class CodeSection extends SectionBuilder {
     // -------------------------------------------------------------------------
 
     private void writeInstruction(String instr, OperandSpecifier src, OperandSpecifier dst) {
-        writeIndented(instr, "\t", src.operandSpec(), ", ", dst.operandSpec());
+        emit(new Op(instr, src, dst));
     }
 
     private void writeInstruction(String instr, OperandSpecifier singleOperand) {
-        writeIndented(instr, "\t", singleOperand.operandSpec());
-    }
-
-    private void writeInstruction(String instr, String label) {
-        writeIndented(instr, "\t", label);
+        emit(new Op(instr, singleOperand));
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,9 @@
 package cc.crochethk.klang.visitor.codegen.asm;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,6 +33,13 @@ public abstract class DataSection extends SectionBuilder {
         /** Maps each literal constant definition to its label. */
         private Map<String, String> literalsMap = new HashMap<>();
 
+        /** The section's content as raw bytes, for writing object files. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        /** Maps each label to its offset in {@link #bytes}. */
+        private final Map<String, Integer> labelOffsets = new HashMap<>();
+        /** The largest alignment of any literal. */
+        private int maxAlignment = 1;
+
         public ReadOnlyData() {
             super(".section\t.rodata");
             labelMgr = new LocalLabelManager(".LC");
@@ -51,7 +62,9 @@ public abstract class DataSection extends SectionBuilder {
         public String createLiteral(String value) {
             final var escapedStr = Utf8Helper.octalEscapeNonAscii(value);
             final var litDefinition = "\n\t.string\t\"" + escapedStr + "\"";
-            return getOrCreateLabel(litDefinition);
+            var utf8 = value.getBytes(StandardCharsets.UTF_8);
+            // Zero terminated
+            return getOrCreateLabel(litDefinition, Align.None, ByteBuffer.allocate(utf8.length + 1).put(utf8));
         }
 
         public String createLiteral(double value) {
@@ -69,23 +82,37 @@ public abstract class DataSection extends SectionBuilder {
          */
         public String createLiteralData32(int[] data, Align alignment) {
             var sb = new StringBuilder();
+            var buffer = ByteBuffer.allocate(4 * data.length).order(ByteOrder.LITTLE_ENDIAN);
             for (int d : data) {
                 sb.append("\n\t.long\t");
                 sb.append(d);
+                buffer.putInt(d);
             }
             var litDef = sb.toString();
-            return getOrCreateLabel(litDef, alignment);
+            return getOrCreateLabel(litDef, alignment, buffer);
+        }
+
+        /** The section's content, as the assembler would produce it. */
+        public byte[] bytes() {
+            return bytes.toByteArray();
         }
 
-        private String getOrCreateLabel(final String litDefinition) {
-            return getOrCreateLabel(litDefinition, Align.None);
+        /** The offset of the data {@code label} points to, relative to the section's start. */
+        public int offsetOf(String label) {
+            return labelOffsets.get(label);
+        }
+
+        /** The alignment the section as a whole requires. */
+        public int alignment() {
+            return maxAlignment;
         }
 
         /**
          * @param litDefinition The literal data definition.
          * @param alignment An optional byte alignment value (e.g. 8 or 16).
+         * @param data The literal's binary representation.
          */
-        private String getOrCreateLabel(final String litDefinition, Align alignment) {
+        private String getOrCreateLabel(final String litDefinition, Align alignment, ByteBuffer data) {
             var alignDirective = alignment != Align.None
                     ? "\n\t.align\t" + alignment.bytes
                     : "";
@@ -97,6 +124,15 @@ public abstract class DataSection extends SectionBuilder {
 
                 write(alignDirective);
                 write("\n", label, ":", litDefinition);
+
+                if (alignment != Align.None) {
+                    maxAlignment = Math.max(maxAlignment, alignment.bytes);
+                    while (bytes.size() % alignment.bytes != 0) {
+                        bytes.write(0);
+                    }
+                }
+                labelOffsets.put(label, bytes.size());
+                bytes.write(data.array(), 0, data.capacity());
             }
             return label;
         }
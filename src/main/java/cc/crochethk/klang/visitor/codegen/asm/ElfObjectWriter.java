@@ -0,0 +1,218 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cc.crochethk.klang.visitor.codegen.asm.DataSection.ReadOnlyData;
+import cc.crochethk.klang.visitor.codegen.asm.MachineCodeEncoder.Relocation;
+
+/**
+ * Writes a relocatable ELF64 object file for x86-64, equivalent to what the GNU
+ * assembler produces for the generated assembly. It consists of the encoded
+ * ".text" section, the ".rodata" section, the symbol table and the relocations
+ * of the ".text" section.
+ * <p>
+ * All functions defined are global symbols. Symbols referenced but not defined
+ * (e.g. {@code printf} and the C helper functions) are left undefined.
+ * </p>
+ */
+public class ElfObjectWriter {
+    // Section indices
+    private static final int TEXT = 1, RELA_TEXT = 2, RODATA = 3, NOTE_GNU_STACK = 4, SYMTAB = 5, STRTAB = 6,
+            SHSTRTAB = 7, SECTION_COUNT = 8;
+
+    // Symbol table indices: null, section symbols of ".text" and ".rodata", then globals
+    private static final int RODATA_SYM = 2, FIRST_GLOBAL_SYM = 3;
+
+    private static final int SHT_PROGBITS = 1, SHT_SYMTAB = 2, SHT_STRTAB = 3, SHT_RELA = 4;
+    private static final long SHF_ALLOC = 0x2, SHF_EXECINSTR = 0x4, SHF_INFO_LINK = 0x40;
+    private static final int STB_LOCAL = 0, STB_GLOBAL = 1;
+    private static final int STT_NOTYPE = 0, STT_FUNC = 2, STT_SECTION = 3;
+    private static final int R_X86_64_PC32 = 2, R_X86_64_PLT32 = 4;
+
+    private static final int EHDR_SIZE = 64, SHDR_SIZE = 64, SYM_SIZE = 24, RELA_SIZE = 24;
+
+    private final byte[] text;
+    private final Map<String, Integer> functions;
+    private final List<Relocation> relocations;
+    private final ReadOnlyData rodata;
+
+    public ElfObjectWriter(MachineCodeEncoder encoder, ReadOnlyData rodata) {
+        this.text = encoder.code();
+        this.functions = encoder.functions();
+        this.relocations = encoder.relocations();
+        this.rodata = rodata;
+    }
+
+    /** Returns the complete object file. */
+    public byte[] toBytes() {
+        var strtab = new StringTable();
+        var shstrtab = new StringTable();
+
+        // Symbols: null, section symbols, then defined and undefined globals
+        var symbolIndices = new LinkedHashMap<String, Integer>();
+        functions.keySet().forEach(name -> symbolIndices.put(name, FIRST_GLOBAL_SYM + symbolIndices.size()));
+        for (var reloc : relocations) {
+            if (!reloc.symbol().equals(MachineCodeEncoder.RODATA)) {
+                symbolIndices.putIfAbsent(reloc.symbol(), FIRST_GLOBAL_SYM + symbolIndices.size());
+            }
+        }
+        var symtab = section(SYM_SIZE * (FIRST_GLOBAL_SYM + symbolIndices.size()));
+        symtab.put(new byte[SYM_SIZE]);
+        putSymbol(symtab, 0, STB_LOCAL, STT_SECTION, TEXT, 0);
+        putSymbol(symtab, 0, STB_LOCAL, STT_SECTION, RODATA, 0);
+        for (var name : symbolIndices.keySet()) {
+            var offset = functions.get(name);
+            if (offset != null) {
+                putSymbol(symtab, strtab.add(name), STB_GLOBAL, STT_FUNC, TEXT, offset);
+            } else {
+                putSymbol(symtab, strtab.add(name), STB_GLOBAL, STT_NOTYPE, 0, 0);
+            }
+        }
+
+        var relaText = section(RELA_SIZE * relocations.size());
+        for (var reloc : relocations) {
+            int symbol = reloc.symbol().equals(MachineCodeEncoder.RODATA)
+                    ? RODATA_SYM
+                    : symbolIndices.get(reloc.symbol());
+            int type = switch (reloc.kind()) {
+                case PC32 -> R_X86_64_PC32;
+                case PLT32 -> R_X86_64_PLT32;
+            };
+            relaText.putLong(reloc.offset());
+            relaText.putLong((long) symbol << 32 | type);
+            relaText.putLong(reloc.addend());
+        }
+
+        // Section contents, each 16-byte aligned, following the ELF header
+        var rodataBytes = rodata.bytes();
+        byte[][] contents = new byte[SECTION_COUNT][];
+        contents[TEXT] = text;
+        contents[RELA_TEXT] = relaText.array();
+        contents[RODATA] = rodataBytes;
+        contents[NOTE_GNU_STACK] = new byte[0];
+        contents[SYMTAB] = symtab.array();
+        contents[STRTAB] = strtab.toBytes();
+        int[] names = new int[SECTION_COUNT];
+        names[TEXT] = shstrtab.add(".text");
+        names[RELA_TEXT] = shstrtab.add(".rela.text");
+        names[RODATA] = shstrtab.add(".rodata");
+        names[NOTE_GNU_STACK] = shstrtab.add(".note.GNU-stack");
+        names[SYMTAB] = shstrtab.add(".symtab");
+        names[STRTAB] = shstrtab.add(".strtab");
+        names[SHSTRTAB] = shstrtab.add(".shstrtab");
+        contents[SHSTRTAB] = shstrtab.toBytes();
+
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[EHDR_SIZE]);
+        long[] offsets = new long[SECTION_COUNT];
+        for (int i = 1; i < SECTION_COUNT; i++) {
+            pad(out, 16);
+            offsets[i] = out.size();
+            out.writeBytes(contents[i]);
+        }
+        pad(out, 8);
+        long shoff = out.size();
+
+        var headers = section(SHDR_SIZE * SECTION_COUNT);
+        headers.put(new byte[SHDR_SIZE]);
+        putSectionHeader(headers, names[TEXT], SHT_PROGBITS, SHF_ALLOC | SHF_EXECINSTR, offsets[TEXT],
+                text.length, 0, 0, 16, 0);
+        putSectionHeader(headers, names[RELA_TEXT], SHT_RELA, SHF_INFO_LINK, offsets[RELA_TEXT],
+                contents[RELA_TEXT].length, SYMTAB, TEXT, 8, RELA_SIZE);
+        putSectionHeader(headers, names[RODATA], SHT_PROGBITS, SHF_ALLOC, offsets[RODATA],
+                rodataBytes.length, 0, 0, rodata.alignment(), 0);
+        putSectionHeader(headers, names[NOTE_GNU_STACK], SHT_PROGBITS, 0, offsets[NOTE_GNU_STACK],
+                0, 0, 0, 1, 0);
+        putSectionHeader(headers, names[SYMTAB], SHT_SYMTAB, 0, offsets[SYMTAB],
+                contents[SYMTAB].length, STRTAB, FIRST_GLOBAL_SYM, 8, SYM_SIZE);
+        putSectionHeader(headers, names[STRTAB], SHT_STRTAB, 0, offsets[STRTAB],
+                contents[STRTAB].length, 0, 0, 1, 0);
+        putSectionHeader(headers, names[SHSTRTAB], SHT_STRTAB, 0, offsets[SHSTRTAB],
+                contents[SHSTRTAB].length, 0, 0, 1, 0);
+        out.writeBytes(headers.array());
+
+        var bytes = out.toByteArray();
+        var ehdr = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        ehdr.put(new byte[] { 0x7F, 'E', 'L', 'F',
+                2, // 64-bit
+                1, // little endian
+                1, // ELF version
+                0, // System V ABI
+        });
+        ehdr.position(16);
+        ehdr.putShort((short) 1); // relocatable
+        ehdr.putShort((short) 62); // x86-64
+        ehdr.putInt(1); // ELF version
+        ehdr.putLong(0); // entry point
+        ehdr.putLong(0); // program header offset
+        ehdr.putLong(shoff);
+        ehdr.putInt(0); // flags
+        ehdr.putShort((short) EHDR_SIZE);
+        ehdr.putShort((short) 0); // program header entry size
+        ehdr.putShort((short) 0); // program header count
+        ehdr.putShort((short) SHDR_SIZE);
+        ehdr.putShort((short) SECTION_COUNT);
+        ehdr.putShort((short) SHSTRTAB);
+        return bytes;
+    }
+
+    private static void putSymbol(ByteBuffer buf, int name, int bind, int type, int section, long value) {
+        buf.putInt(name);
+        buf.put((byte) (bind << 4 | type));
+        buf.put((byte) 0); // default visibility
+        buf.putShort((short) section);
+        buf.putLong(value);
+        buf.putLong(0); // size
+    }
+
+    private static void putSectionHeader(ByteBuffer buf, int name, int type, long flags, long offset, long size,
+            int link, int info, long align, long entsize) {
+        buf.putInt(name);
+        buf.putInt(type);
+        buf.putLong(flags);
+        buf.putLong(0); // address
+        buf.putLong(offset);
+        buf.putLong(size);
+        buf.putInt(link);
+        buf.putInt(info);
+        buf.putLong(align);
+        buf.putLong(entsize);
+    }
+
+    private static ByteBuffer section(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void pad(ByteArrayOutputStream out, int alignment) {
+        while (out.size() % alignment != 0) {
+            out.write(0);
+        }
+    }
+
+    /** A string table section, i.e. zero terminated strings referenced by their offset. */
+    private static class StringTable {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        StringTable() {
+            bytes.write(0);
+        }
+
+        /** Adds {@code s} and returns its offset. */
+        int add(String s) {
+            int offset = bytes.size();
+            bytes.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+            bytes.write(0);
+            return offset;
+        }
+
+        byte[] toBytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An entry of the ".text" section as recorded by {@link CodeSection}. Entries
+ * are kept as objects until the end of each function, so they can still be
+ * inspected and rewritten (see {@link PeepholeOptimizer}).
+ */
+public sealed interface Instruction {
+    /** Returns the assembly text of this entry, starting with a line break. */
+    String render();
+
+    /**
+     * A machine instruction with its operands in AT&T order, i.e. the source
+     * first, e.g. {@code movq %rax, -8(%rbp)}.
+     */
+    public record Op(String mnemonic, List<OperandSpecifier> operands) implements Instruction {
+        public Op(String mnemonic, OperandSpecifier... operands) {
+            this(mnemonic, List.of(operands));
+        }
+
+        /** The first operand. */
+        public OperandSpecifier src() {
+            return operands.getFirst();
+        }
+
+        /** The last operand, which is the destination for most instructions. */
+        public OperandSpecifier dst() {
+            return operands.getLast();
+        }
+
+        /** Whether this is a plain move of {@code src} to {@code dst}. */
+        public boolean isMove() {
+            return operands.size() == 2 && (mnemonic.equals("movq") || mnemonic.equals("movsd"));
+        }
+
+        @Override
+        public String render() {
+            var ops = operands.stream().map(OperandSpecifier::operandSpec).collect(Collectors.joining(", "));
+            return "\n\t" + mnemonic + (operands.isEmpty() ? "" : "\t" + ops);
+        }
+    }
+
+    /** A jump to a local label, either unconditional ({@code jmp}) or conditional. */
+    public record Jump(String mnemonic, String target) implements Instruction {
+        public boolean isUnconditional() {
+            return mnemonic.equals("jmp");
+        }
+
+        public Jump withTarget(String newTarget) {
+            return new Jump(mnemonic, newTarget);
+        }
+
+        @Override
+        public String render() {
+            return "\n\t" + mnemonic + "\t" + target;
+        }
+    }
+
+    /**
+     * A call of the function with the given symbol name. A tail call jumps to
+     * the function instead, which then returns to the current function's caller.
+     */
+    public record Call(String target, boolean isTail) implements Instruction {
+        public Call(String target) {
+            this(target, false);
+        }
+
+        @Override
+        public String render() {
+            return "\n\t" + (isTail ? "jmp" : "call") + "\t" + target;
+        }
+    }
+
+    /** A local label, which is referenced by {@link Jump}s only. */
+    public record Label(String name) implements Instruction {
+        @Override
+        public String render() {
+            return "\n" + name + ":";
+        }
+    }
+
+    /**
+     * The start of a global function, i.e. its symbol's directives and label.
+     * Code is never moved across it.
+     */
+    public record FunctionLabel(String name) implements Instruction {
+        @Override
+        public String render() {
+            return "\n\t.globl\t" + name + "\n\t.type\t" + name + ", @function\n" + name + ":";
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ir.BasicBlock;
+import cc.crochethk.klang.ir.Callee;
+import cc.crochethk.klang.ir.Instr;
+import cc.crochethk.klang.ir.Instr.*;
+import cc.crochethk.klang.ir.IrFunction;
+import cc.crochethk.klang.ir.Value;
+import cc.crochethk.klang.ir.Value.Const;
+import cc.crochethk.klang.ir.Value.Temp;
+import cc.crochethk.klang.visitor.StructLayout;
+import cc.crochethk.klang.visitor.Type;
+import cc.crochethk.klang.visitor.codegen.GenAsm;
+import cc.crochethk.klang.visitor.codegen.asm.DataSection.ReadOnlyData;
+import cc.crochethk.klang.visitor.codegen.asm.DataSection.ReadOnlyData.Align;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.ByteRegister;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister;
+import cc.crochethk.klang.visitor.codegen.asm.helpers.GenCBase;
+
+/**
+ * Translates an {@link IrFunction} to x86-64 assembly.
+ * <p>
+ * Every temporary gets its own 8 byte stack slot below {@code %rbp}, so the
+ * frame has a fixed size and {@code %rsp} stays 16 byte aligned throughout the
+ * function body. Functions without calls, whose frame fits into the red zone,
+ * neither reserve it nor set up {@code %rbp}, and address the slots relative
+ * to {@code %rsp}. Instructions load their operands into scratch registers
+ * ({@code %rax}, {@code %rcx} or {@code %xmm0}, {@code %xmm1}) and store the
+ * result back to its slot.
+ * </p>
+ * <p>
+ * Calls of field getters and setters are replaced by accessing the field in
+ * place, using the struct's {@link StructLayout}.
+ * </p>
+ * <p>
+ * A comparison directly followed by a {@link Branch} on its result, which is
+ * not used otherwise, is fused into a conditional jump. The bool is not
+ * materialized then.
+ * </p>
+ * <p>
+ * A call whose result is returned right away, and whose arguments are all
+ * passed in registers, is generated as tail call. Calls of the function itself
+ * jump back to storing the parameters, others release the frame and jump to
+ * the callee, which then returns to the caller directly.
+ * </p>
+ */
+public class IrLowering {
+    private final CodeSection code;
+    private final ReadOnlyData rodataSec;
+    private final Map<Type, StructLayout> structLayouts;
+
+    /** Function argument registers */
+    private static final Register[] regs = { rdi, rsi, rdx, rcx, r8, r9 };
+    private static final XmmRegister[] xmmRegs = { xmm0, xmm1, xmm2, xmm3, xmm4, xmm5, xmm6, xmm7 };
+
+    private Map<BasicBlock, String> labels;
+    /** The block emitted after the current one, {@code null} for the last one */
+    private BasicBlock nextBlock;
+    /** How often each temporary is used as an operand within the current function */
+    private Map<Temp, Integer> useCounts;
+    /** Symbol of the current function */
+    private String symbol;
+    /** Label before the parameters are stored, if there are self tail calls */
+    private String selfTailCallLabel;
+    /** Whether the current function calls others, except in tail position */
+    private boolean hasCalls;
+
+    /** Size of the System V red zone below %rsp, which leaf functions may use without reserving it */
+    private static final int RED_ZONE_SIZE = 128;
+
+    public IrLowering(CodeSection code, ReadOnlyData rodataSec, Map<Type, StructLayout> structLayouts) {
+        this.code = code;
+        this.rodataSec = rodataSec;
+        this.structLayouts = structLayouts;
+    }
+
+    /**
+     * Generates the body of {@code function}, from the prologue to the last
+     * {@code ret}. The caller is responsible for the symbol's label.
+     * @param symbol The function's symbol, used to recognize self tail calls.
+     */
+    public void lower(IrFunction function, String symbol) {
+        this.symbol = symbol;
+        selfTailCallLabel = null;
+        labels = new HashMap<>();
+        function.blocks.forEach(b -> labels.put(b, code.newLabel()));
+        useCounts = countUses(function);
+
+        /* Prologue */
+        code.pushq(rbp);
+        code.movq(rsp, rbp);
+        // Whether rsp is reserved is known after lowering the calls
+        var frameAllocPos = code.position();
+        hasCalls = false;
+        var paramsPos = code.position();
+        storeParams(function.params);
+
+        var blocks = function.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+            nextBlock = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            code.bindLabel(labels.get(block));
+            var fusedCompare = fusableCompare(block);
+            var tailCall = tailCall(block);
+            if (fusedCompare != null) {
+                block.instrs.subList(0, block.instrs.size() - 1).forEach(this::lowerInstr);
+                lowerCompareBranch(fusedCompare, (Branch) block.terminator());
+            } else if (tailCall != null) {
+                block.instrs.subList(0, block.instrs.size() - 1).forEach(this::lowerInstr);
+                lowerCall(tailCall, true);
+            } else {
+                block.instrs.forEach(this::lowerInstr);
+                lowerTerminator(block.terminator(), function.returnType);
+            }
+        }
+
+        if (selfTailCallLabel != null) {
+            var label = selfTailCallLabel;
+            code.insertAt(paramsPos, () -> code.bindLabel(label));
+        }
+
+        var frameSize = function.tempCount() * 8;
+        if (!hasCalls && frameSize + 8 <= RED_ZONE_SIZE) {
+            code.omitFramePointer();
+        } else if (frameSize > 0) {
+            code.insertAt(frameAllocPos, () -> code.subq($((frameSize + 15) / 16 * 16), rsp));
+        }
+    }
+
+    private static Map<Temp, Integer> countUses(IrFunction function) {
+        var counts = new HashMap<Temp, Integer>();
+        for (var block : function.blocks) {
+            var instrs = new ArrayList<Instr>(block.instrs);
+            instrs.add(block.terminator());
+            for (var instr : instrs) {
+                for (var use : instr.uses()) {
+                    if (use instanceof Temp t) {
+                        counts.merge(t, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the block's last instruction, if it's a comparison whose result is
+     * only used by the block's branch. Otherwise returns {@code null}.
+     */
+    private BinOp fusableCompare(BasicBlock block) {
+        if (block.terminator() instanceof Branch branch && !block.instrs.isEmpty()
+                && block.instrs.getLast() instanceof BinOp binOp && binOp.op().isComparison()
+                && binOp.dst().equals(branch.cond()) && useCounts.get(binOp.dst()) == 1) {
+            return binOp;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the block's last instruction, if it's a call of a function, method,
+     * constructor or destructor, whose result the block returns and whose
+     * arguments all fit in registers. Otherwise returns {@code null}.
+     */
+    private static Call tailCall(BasicBlock block) {
+        if (block.terminator() instanceof Return ret && !block.instrs.isEmpty()
+                && block.instrs.getLast() instanceof Call call && Objects.equals(call.dst(), ret.value())
+                && switch (call.callee()) {
+                    case Callee.Function _, Callee.Method _, Callee.Constructor _, Callee.Destructor _ -> true;
+                    default -> false;
+                }) {
+            var floatArgs = call.args().stream().filter(arg -> arg.type().isFloatType()).count();
+            var intArgs = call.args().size() - floatArgs;
+            return intArgs <= regs.length && floatArgs <= xmmRegs.length ? call : null;
+        }
+        return null;
+    }
+
+    private static MemAddr slot(Temp temp) {
+        return new MemAddr(-8 * (temp.id() + 1), rbp);
+    }
+
+    /** Moves the parameters from the argument registers and the caller's frame to their slots. */
+    private void storeParams(List<Temp> params) {
+        var xmmRegsIt = List.of(xmmRegs).iterator();
+        var regularRegsIt = List.of(regs).iterator();
+        var stackArgOffset = 16; //skip rbp backup and return addr
+        for (var p : params) {
+            if (p.type().isFloatType() && xmmRegsIt.hasNext()) {
+                code.movsd(xmmRegsIt.next(), slot(p));
+            } else if (!p.type().isFloatType() && regularRegsIt.hasNext()) {
+                code.movq(regularRegsIt.next(), slot(p));
+            } else {
+                code.movq(new MemAddr(stackArgOffset, rbp), rax);
+                code.movq(rax, slot(p));
+                stackArgOffset += 8;
+            }
+        }
+    }
+
+    /** Loads a non-float value into {@code dst}. */
+    private void load(Value value, Register dst) {
+        switch (value) {
+            case Temp t -> code.movq(slot(t), dst);
+            case Const c -> {
+                switch (c.value()) {
+                    case Long l -> code.movq($(l), dst);
+                    case Boolean b -> code.movq(b ? $(1) : $(0), dst);
+                    case String s -> code.leaq(new MemAddr(rodataSec.createLiteral(s), rip), dst);
+                    case null -> code.movq($(0), dst);
+                    default -> throw new IllegalArgumentException("Not an integer constant: " + c);
+                }
+            }
+        }
+    }
+
+    /** Loads a float value into {@code dst}. */
+    private void load(Value value, XmmRegister dst) {
+        switch (value) {
+            case Temp t -> code.movsd(slot(t), dst);
+            case Const c -> code.movsd(new MemAddr(rodataSec.createLiteral((double) c.value()), rip), dst);
+        }
+    }
+
+    /** Stores {@code %rax} or {@code %xmm0} to the slot of {@code dst}, depending on its type. */
+    private void storeResult(Temp dst) {
+        if (dst.type().isFloatType()) {
+            code.movsd(xmm0, slot(dst));
+        } else {
+            code.movq(rax, slot(dst));
+        }
+    }
+
+    private void lowerInstr(Instr instr) {
+        switch (instr) {
+            case Copy copy -> {
+                if (copy.dst().type().isFloatType()) {
+                    load(copy.src(), xmm0);
+                } else {
+                    load(copy.src(), rax);
+                }
+                storeResult(copy.dst());
+            }
+            case BinOp binOp -> lowerBinOp(binOp);
+            case UnOp unOp -> lowerUnOp(unOp);
+            case Convert convert -> lowerConvert(convert);
+            case Call call when call.callee() instanceof Callee.FieldGetter g -> {
+                var field = structLayouts.get(g.owner()).field(g.field());
+                load(call.args().getFirst(), rcx);
+                var addr = new MemAddr(field.offset(), rcx);
+                if (field.type().isFloatType()) {
+                    code.movsd(addr, xmm0);
+                } else if (field.size() == 1) {
+                    code.movzbq(addr, rax);
+                } else {
+                    code.movq(addr, rax);
+                }
+                storeResult(call.dst());
+            }
+            case Call call when call.callee() instanceof Callee.FieldSetter s -> {
+                var field = structLayouts.get(s.owner()).field(s.field());
+                load(call.args().getFirst(), rcx);
+                var addr = new MemAddr(field.offset(), rcx);
+                var value = call.args().getLast();
+                if (field.type().isFloatType()) {
+                    load(value, xmm0);
+                    code.movsd(xmm0, addr);
+                } else if (field.size() == 1) {
+                    load(value, rax);
+                    code.movb(ByteRegister.al, addr);
+                } else {
+                    load(value, rax);
+                    code.movq(rax, addr);
+                }
+            }
+            case Call call -> lowerCall(call, false);
+            case Terminator t -> throw new IllegalStateException("Terminator inside block: " + t);
+        }
+    }
+
+    private void lowerBinOp(BinOp binOp) {
+        var op = binOp.op();
+        var operandType = binOp.lhs().type();
+        if (op == BinaryOp.pow) {
+            lowerPow(binOp);
+        } else if (operandType.isFloatType()) {
+            load(binOp.lhs(), xmm0);
+            load(binOp.rhs(), xmm1);
+            switch (op) {
+                case add -> code.addsd(xmm1, xmm0);
+                case sub -> code.subsd(xmm1, xmm0);
+                case mult -> code.mulsd(xmm1, xmm0);
+                case div -> code.divsd(xmm1, xmm0);
+                case eq, neq, gt, gteq, lt, lteq -> {
+                    code.movq($(0), rax);
+                    GenAsm.genFloatCompare(code, op, xmm1, xmm0);
+                    switch (op) {
+                        case eq -> {
+                            code.movq($(0), rdx);
+                            code.setnp(ByteRegister.al);
+                            code.cmovne(rdx, rax);
+                        }
+                        case neq -> {
+                            code.movq($(1), rdx);
+                            code.setp(ByteRegister.al);
+                            code.cmovne(rdx, rax);
+                        }
+                        // lt and lteq are compared with swapped operands
+                        case gt, lt -> code.seta(ByteRegister.al);
+                        default -> code.setnb(ByteRegister.al);
+                    }
+                }
+                default -> throw unsupported(op, operandType);
+            }
+        } else {
+            load(binOp.lhs(), rax);
+            var rhs = loadIntRhs(binOp);
+            switch (op) {
+                case add -> code.addq(rhs, rax);
+                case sub -> code.subq(rhs, rax);
+                case mult -> {
+                    if (rhs instanceof OperandSpecifier.Const factor) {
+                        StrengthReduction.multiply(code, factor.value());
+                    } else {
+                        code.imulq(rcx, rax);
+                    }
+                }
+                case div, mod -> {
+                    if (rhs instanceof OperandSpecifier.Const divisor && op == BinaryOp.div) {
+                        StrengthReduction.divide(code, divisor.value());
+                    } else if (rhs instanceof OperandSpecifier.Const divisor) {
+                        StrengthReduction.remainder(code, divisor.value());
+                    } else {
+                        // sign-extend rax into rdx
+                        code.cqto();
+                        code.idivq(rcx);
+                        if (op == BinaryOp.mod) {
+                            code.movq(rdx, rax);
+                        }
+                    }
+                }
+                case eq, neq, gt, gteq, lt, lteq -> {
+                    code.cmpq(rhs, rax);
+                    code.movq($(0), rax);
+                    switch (op) {
+                        case eq -> code.sete(ByteRegister.al);
+                        case neq -> code.setne(ByteRegister.al);
+                        case gt -> code.setg(ByteRegister.al);
+                        case gteq -> code.setge(ByteRegister.al);
+                        case lt -> code.setl(ByteRegister.al);
+                        default -> code.setle(ByteRegister.al);
+                    }
+                }
+                case and -> code.andq(rcx, rax);
+                case or -> code.orq(rcx, rax);
+                default -> throw unsupported(op, operandType);
+            }
+        }
+        storeResult(binOp.dst());
+    }
+
+    /**
+     * Loads the rhs of an i64 operation into {@code rcx}, unless it's a
+     * constant usable as immediate operand, which is returned instead.
+     */
+    private OperandSpecifier loadIntRhs(BinOp binOp) {
+        if (binOp.rhs() instanceof Const c && c.value() instanceof Long value
+                && GenAsm.isImmediateOperand(binOp.op(), value)) {
+            return $(value);
+        }
+        load(binOp.rhs(), rcx);
+        return rcx;
+    }
+
+    /** Computes the power into {@code rax} respectively {@code xmm0}. */
+    private void lowerPow(BinOp pow) {
+        var operandType = pow.lhs().type();
+        if (operandType.isFloatType()) {
+            load(pow.lhs(), xmm0);
+        } else {
+            load(pow.lhs(), rax);
+        }
+        long n = pow.rhs() instanceof Const c ? GenAsm.inlinedExponent(c.value()) : -1;
+        if (n >= 0) {
+            GenAsm.genPowByMultiplication(code, rodataSec, operandType, n);
+        } else if (operandType.isFloatType()) {
+            load(pow.rhs(), xmm1);
+            // The frame keeps rsp aligned
+            hasCalls = true;
+            code.call("pow@PLT");
+        } else {
+            load(pow.rhs(), rcx);
+            GenAsm.genIntPow(code, rcx);
+        }
+    }
+
+    private static UnsupportedOperationException unsupported(Object op, Type operandType) {
+        return new UnsupportedOperationException("Operation '" + op
+                + "' not supported for '" + operandType + "'");
+    }
+
+    private void lowerUnOp(UnOp unOp) {
+        var operandType = unOp.operand().type();
+        switch (unOp.op()) {
+            case neg -> {
+                if (operandType.isFloatType()) {
+                    load(unOp.operand(), xmm0);
+                    // Create 128-bit number with 64th bit set to 1
+                    var signBitMask = rodataSec.createLiteralData32(
+                            new int[] { 0, 0x8000_0000, 0, 0 }, Align._16);
+                    code.xorpd(new MemAddr(signBitMask, rip), xmm0);
+                } else {
+                    load(unOp.operand(), rax);
+                    code.negq(rax);
+                }
+            }
+            case not -> {
+                load(unOp.operand(), rax);
+                code.xorq($(1), rax);
+            }
+            default -> throw unsupported(unOp.op(), operandType);
+        }
+        storeResult(unOp.dst());
+    }
+
+    private void lowerConvert(Convert convert) {
+        var srcType = convert.src().type();
+        var dstType = convert.dst().type();
+        if (srcType == Type.LONG_T && dstType == Type.DOUBLE_T) {
+            load(convert.src(), rax);
+            code.pxor(xmm0, xmm0);
+            code.cvtsi2sdq(rax, xmm0);
+        } else if (srcType == Type.DOUBLE_T && dstType == Type.LONG_T) {
+            load(convert.src(), xmm0);
+            code.cvttsd2siq(xmm0, rax);
+        } else {
+            throw new UnsupportedOperationException("Unsupported conversion: "
+                    + srcType.prettyTypeName() + " -> " + dstType.prettyTypeName());
+        }
+        storeResult(convert.dst());
+    }
+
+    private static String functionName(Callee callee) {
+        return switch (callee) {
+            case Callee.Function f -> f.name();
+            case Callee.Method m -> GenAsm.getAsmMethodName(m.owner(), m.name());
+            case Callee.FieldGetter g -> GenAsm.getGetterFullName(g.owner(), g.field());
+            case Callee.FieldSetter s -> GenAsm.getSetterFullName(s.owner(), s.field());
+            case Callee.Constructor c -> GenAsm.getConstructorFullName(c.type());
+            case Callee.Destructor d -> GenAsm.getDestructorFullName(d.type());
+            case Callee.Print _ -> "printf@PLT";
+        };
+    }
+
+    /**
+     * Lowers {@code call}. A tail call requires all arguments in registers, and
+     * ends the current function.
+     */
+    private void lowerCall(Call call, boolean isTail) {
+        var args = call.args();
+        if (call.callee() instanceof Callee.Print print) {
+            var format = Const.of(GenCBase.getTypeFormat(print.argType()));
+            args = new ArrayList<>(args);
+            args.addFirst(format);
+        }
+
+        // Assign arguments to registers, the remaining ones are passed on the stack
+        var regArgs = new ArrayList<Value>();
+        var regArgDsts = new ArrayList<OperandSpecifier>();
+        var stackArgs = new ArrayList<Value>();
+        int nextReg = 0;
+        int nextXmmReg = 0;
+        for (var arg : args) {
+            if (arg.type().isFloatType() && nextXmmReg < xmmRegs.length) {
+                regArgs.add(arg);
+                regArgDsts.add(xmmRegs[nextXmmReg++]);
+            } else if (!arg.type().isFloatType() && nextReg < regs.length) {
+                regArgs.add(arg);
+                regArgDsts.add(regs[nextReg++]);
+            } else {
+                stackArgs.add(arg);
+            }
+        }
+
+        // Push stack args right to left, keeping rsp 16 byte aligned at the call
+        var stackArgsSize = stackArgs.size() * 8;
+        if (stackArgs.size() % 2 != 0) {
+            code.subq($(8), rsp);
+            stackArgsSize += 8;
+        }
+        for (var arg : stackArgs.reversed()) {
+            if (arg.type().isFloatType()) {
+                load(arg, xmm0);
+                code.subq($(8), rsp);
+                code.movsd(xmm0, new MemAddr(rsp));
+            } else {
+                load(arg, rax);
+                code.pushq(rax);
+            }
+        }
+
+        // Loading from slots and constants never clobbers other argument registers
+        for (int i = 0; i < regArgs.size(); i++) {
+            switch (regArgDsts.get(i)) {
+                case XmmRegister xmm -> load(regArgs.get(i), xmm);
+                case Register reg -> load(regArgs.get(i), reg);
+                default -> throw new IllegalStateException();
+            }
+        }
+        if (call.callee() instanceof Callee.Print) {
+            // Variadic function: %al holds the number of vector registers used
+            code.movq($(nextXmmReg), rax);
+        }
+
+        var name = functionName(call.callee());
+        if (isTail) {
+            if (name.equals(symbol)) {
+                if (selfTailCallLabel == null) {
+                    selfTailCallLabel = code.newLabel();
+                }
+                code.jmp(selfTailCallLabel);
+            } else {
+                code.leave();
+                code.tailCall(name);
+            }
+            return;
+        }
+        hasCalls = true;
+        code.call(name);
+        if (stackArgsSize > 0) {
+            code.addq($(stackArgsSize), rsp);
+        }
+        if (call.dst() != null) {
+            storeResult(call.dst());
+        }
+    }
+
+    /** Lowers {@code branch}, jumping on the comparison instead of its materialized result. */
+    private void lowerCompareBranch(BinOp compare, Branch branch) {
+        var operandType = compare.lhs().type();
+        if (operandType.isFloatType()) {
+            load(compare.lhs(), xmm0);
+            load(compare.rhs(), xmm1);
+            lowerBranch(branch, (jumpIf, target) -> GenAsm.genCompareJump(
+                    code, operandType, compare.op(), xmm1, xmm0, jumpIf, target));
+        } else {
+            load(compare.lhs(), rax);
+            var rhs = loadIntRhs(compare);
+            lowerBranch(branch, (jumpIf, target) -> GenAsm.genCompareJump(
+                    code, operandType, compare.op(), rhs, rax, jumpIf, target));
+        }
+    }
+
+    /**
+     * Generates the jumps of {@code branch}, falling through to the next block
+     * where possible. {@code condJump} generates a conditional jump to the given
+     * label, taken if the branch condition equals the given bool.
+     */
+    private void lowerBranch(Branch branch, BiConsumer<Boolean, String> condJump) {
+        if (branch.otherwise() == nextBlock) {
+            condJump.accept(true, labels.get(branch.then()));
+        } else {
+            condJump.accept(false, labels.get(branch.otherwise()));
+            if (branch.then() != nextBlock) {
+                code.jmp(labels.get(branch.then()));
+            }
+        }
+    }
+
+    private void lowerTerminator(Terminator terminator, Type returnType) {
+        switch (terminator) {
+            case Jump jump -> {
+                if (jump.target() != nextBlock) {
+                    code.jmp(labels.get(jump.target()));
+                }
+            }
+            case Branch branch -> {
+                load(branch.cond(), rax);
+                code.testq(rax, rax);
+                lowerBranch(branch, (jumpIf, target) -> {
+                    if (jumpIf) {
+                        code.jne(target);
+                    } else {
+                        code.je(target);
+                    }
+                });
+            }
+            case Return ret -> {
+                if (ret.value() != null) {
+                    if (returnType.isFloatType()) {
+                        load(ret.value(), xmm0);
+                    } else {
+                        load(ret.value(), rax);
+                    }
+                }
+                code.leave();
+                code.ret();
+            }
+        }
+    }
+}
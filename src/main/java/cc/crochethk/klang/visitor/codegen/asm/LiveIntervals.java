@@ -0,0 +1,377 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.MemberAccess.*;
+import cc.crochethk.klang.ast.literal.*;
+import cc.crochethk.klang.visitor.Type;
+import cc.crochethk.klang.visitor.Visitor;
+import cc.crochethk.klang.visitor.codegen.GenAsm;
+
+/**
+ * Computes the live intervals of a function's variables and of the temporaries
+ * {@link GenAsm} needs while evaluating expressions.
+ * <p>
+ * Positions are numbered in the order {@code GenAsm} evaluates the nodes, so the
+ * function body is treated as straight-line code and an interval spans from the
+ * value's first definition to its last use. This covers both branches of an
+ * {@code if} conservatively. A variable that is live when entering a loop is
+ * kept alive until the loop's end, since the next iteration may read it again.
+ * </p>
+ * <p>
+ * The numbering has to mirror {@code GenAsm} closely: Call positions are
+ * looked up by the node causing the call and temporaries by the expression
+ * whose result they hold. It assumes register allocation is enabled, i.e.
+ * variables on the right-hand side of a binary operation are used in place.
+ * </p>
+ */
+public class LiveIntervals implements Visitor {
+    /** Live range of a single variable or temporary. Both bounds are inclusive. */
+    public static final class Interval {
+        /** The variable's name, or {@code null} for temporaries. */
+        public final String varName;
+        /** The expression a temporary holds the result of, {@code null} for variables. */
+        public final Expr temp;
+        public final boolean isFloat;
+        int start;
+        int end;
+
+        private Interval(String varName, Expr temp, Type type, int start) {
+            this.varName = varName;
+            this.temp = temp;
+            this.isFloat = type.isFloatType();
+            this.start = start;
+            this.end = start;
+        }
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        /** Whether the value must survive a call at the given position. */
+        public boolean isLiveAcross(int callPos) {
+            return start < callPos && callPos < end;
+        }
+
+        @Override
+        public String toString() {
+            return (varName != null ? varName : "tmp(" + temp + ")") + "[" + start + ", " + end + "]";
+        }
+    }
+
+    private record Loop(int start, int end) {
+    }
+
+    private int pos = 0;
+    private final Map<String, Interval> vars = new HashMap<>();
+    private final Map<Expr, Interval> temps = new IdentityHashMap<>();
+    private final Map<Node, Integer> calls = new IdentityHashMap<>();
+    private final List<Loop> loops = new ArrayList<>();
+
+    private LiveIntervals() {
+    }
+
+    /** Computes the live intervals of the given function's parameters, locals and temporaries. */
+    public static LiveIntervals of(FunDef funDef) {
+        var li = new LiveIntervals();
+        for (var p : funDef.params) {
+            li.def(p.name(), p.type().theType);
+        }
+        funDef.body.accept(li);
+        li.extendIntoLoops();
+        return li;
+    }
+
+    /** All intervals, ordered by start position. */
+    public List<Interval> intervals() {
+        var all = new ArrayList<Interval>(vars.values());
+        all.addAll(temps.values());
+        all.sort(Comparator.comparingInt(Interval::start));
+        return all;
+    }
+
+    /** Positions of all calls, keyed by the node causing the call. */
+    public Map<Node, Integer> callPositions() {
+        return calls;
+    }
+
+    /**
+     * A variable read in a loop but defined before it must survive the whole loop.
+     * Loops are processed innermost first, so extending a variable through an
+     * inner loop is taken into account for the enclosing ones.
+     */
+    private void extendIntoLoops() {
+        loops.sort(Comparator.comparingInt(l -> l.end - l.start));
+        for (var loop : loops) {
+            for (var iv : vars.values()) {
+                if (iv.start < loop.start && iv.end > loop.start) {
+                    iv.end = Math.max(iv.end, loop.end);
+                }
+            }
+        }
+    }
+
+    private void def(String name, Type type) {
+        var iv = vars.get(name);
+        if (iv == null) {
+            vars.put(name, new Interval(name, null, type, pos));
+        } else {
+            iv.end = pos;
+        }
+        pos++;
+    }
+
+    private void use(String name) {
+        var iv = vars.get(name);
+        if (iv != null) {
+            iv.end = pos;
+        }
+        pos++;
+    }
+
+    private void startTemp(Expr value) {
+        temps.put(value, new Interval(null, value, value.theType, pos++));
+    }
+
+    private void endTemp(Expr value) {
+        temps.get(value).end = pos++;
+    }
+
+    /** Mirrors the argument evaluation order of {@code GenAsm}'s function calls. */
+    private void call(Node callSite, List<Expr> args) {
+        var preEvaluated = args.stream().filter(arg -> GenAsm.isEvaluatedBeforeArgs(arg, args)).toList();
+        for (var arg : preEvaluated) {
+            arg.accept(this);
+            startTemp(arg);
+        }
+
+        Expr xmm0Arg = null;
+        for (var arg : args) {
+            if (arg.theType.isFloatType() && xmm0Arg == null) {
+                // Evaluated last, since xmm0 is needed in the meantime
+                xmm0Arg = arg;
+            } else if (!GenAsm.isEvaluatedBeforeArgs(arg, args)) {
+                arg.accept(this);
+            }
+        }
+        if (xmm0Arg != null && !GenAsm.isEvaluatedBeforeArgs(xmm0Arg, args)) {
+            xmm0Arg.accept(this);
+        }
+
+        calls.put(callSite, pos);
+        for (var arg : preEvaluated) {
+            temps.get(arg).end = pos;
+        }
+        pos++;
+    }
+
+    @Override
+    public void visit(I64Lit i64Lit) {
+    }
+
+    @Override
+    public void visit(F64Lit f64Lit) {
+    }
+
+    @Override
+    public void visit(BoolLit boolLit) {
+    }
+
+    @Override
+    public void visit(StringLit stringLit) {
+    }
+
+    @Override
+    public void visit(NullLit nullLit) {
+    }
+
+    @Override
+    public void visit(Var var) {
+        use(var.name);
+    }
+
+    @Override
+    public void visit(FunCall funCall) {
+        // Builtins (i.e. print) are lowered to a single call as well
+        call(funCall, funCall.args);
+    }
+
+    @Override
+    public void visit(MemberAccessChain maChain) {
+        maChain.owner.accept(this);
+        maChain.chain.accept(this);
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        call(methodCall, methodCall.args);
+        if (methodCall.next != null) {
+            methodCall.next.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(FieldGet fieldGet) {
+        // Loaded in place
+        if (fieldGet.next != null) {
+            fieldGet.next.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(FieldSet fieldSet) {
+    }
+
+    @Override
+    public void visit(ConstructorCall constructorCall) {
+        call(constructorCall, constructorCall.args);
+    }
+
+    @Override
+    public void visit(BinOpExpr binOpExpr) {
+        if (binOpExpr.op.isBoolean()) {
+            // Short-circuit evaluation
+            binOpExpr.lhs.accept(this);
+            binOpExpr.rhs.accept(this);
+        } else if (binOpExpr.op == BinaryOp.pow && GenAsm.inlinedExponent(binOpExpr) >= 0) {
+            // Constant exponent, multiplied out
+            binOpExpr.lhs.accept(this);
+        } else if (GenAsm.immediateRhs(binOpExpr) != null) {
+            binOpExpr.lhs.accept(this);
+        } else if (binOpExpr.rhs instanceof Var rhsVar) {
+            binOpExpr.lhs.accept(this);
+            use(rhsVar.name);
+        } else if (GenAsm.needsRhsTemp(binOpExpr)) {
+            binOpExpr.rhs.accept(this);
+            startTemp(binOpExpr.rhs);
+            binOpExpr.lhs.accept(this);
+            endTemp(binOpExpr.rhs);
+        } else {
+            binOpExpr.rhs.accept(this);
+            binOpExpr.lhs.accept(this);
+        }
+        if (GenAsm.callsPow(binOpExpr)) {
+            calls.put(binOpExpr, pos);
+            pos++;
+        }
+    }
+
+    @Override
+    public void visit(UnaryOpExpr unaryOpExpr) {
+        unaryOpExpr.operand.accept(this);
+    }
+
+    @Override
+    public void visit(TypeCast typeCast) {
+        typeCast.expr.accept(this);
+    }
+
+    @Override
+    public void visit(TernaryConditionalExpr ternaryConditionalExpr) {
+        ternaryConditionalExpr.condition.accept(this);
+        ternaryConditionalExpr.then.accept(this);
+        ternaryConditionalExpr.otherwise.accept(this);
+    }
+
+    @Override
+    public void visit(VarDeclareStat varDeclareStat) {
+        // Like an assignment, the initializer is stored after evaluating it
+        varDeclareStat.initializer.ifPresent(init -> init.accept(this));
+        def(varDeclareStat.varName(), varDeclareStat.theType);
+    }
+
+    @Override
+    public void visit(VarAssignStat varAssignStat) {
+        varAssignStat.expr.accept(this);
+        def(varAssignStat.targetVarName, varAssignStat.expr.theType);
+    }
+
+    @Override
+    public void visit(FieldAssignStat fieldAssignStat) {
+        var maChain = fieldAssignStat.maChain;
+        if (GenAsm.isDirectFieldAccess(maChain)) {
+            fieldAssignStat.expr.accept(this);
+            use(((Var) maChain.owner).name);
+        } else if (GenAsm.isEvaluatedBeforeArgs(fieldAssignStat.expr)) {
+            maChain.accept(this);
+            startTemp(maChain);
+            fieldAssignStat.expr.accept(this);
+            endTemp(maChain);
+        } else {
+            maChain.accept(this);
+            fieldAssignStat.expr.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(IfElseStat ifElseStat) {
+        ifElseStat.condition.accept(this);
+        ifElseStat.then.accept(this);
+        ifElseStat.otherwise.accept(this);
+    }
+
+    @Override
+    public void visit(LoopStat loopStat) {
+        var start = pos++;
+        loopStat.body.accept(this);
+        loops.add(new Loop(start, pos++));
+    }
+
+    @Override
+    public void visit(StatementList statementList) {
+        statementList.statements.forEach(s -> s.accept(this));
+    }
+
+    @Override
+    public void visit(ReturnStat returnStat) {
+        returnStat.expr.accept(this);
+    }
+
+    @Override
+    public void visit(BreakStat breakStat) {
+    }
+
+    @Override
+    public void visit(DropStat dropStat) {
+        call(dropStat, List.of(dropStat.refTypeVar));
+    }
+
+    @Override
+    public void visit(TypeNode type) {
+    }
+
+    @Override
+    public void visit(FunDef funDef) {
+        throw new UnsupportedOperationException("Use LiveIntervals.of(FunDef) instead");
+    }
+
+    @Override
+    public void visit(StructDef structDef) {
+        throw new UnsupportedOperationException("Use LiveIntervals.of(FunDef) instead");
+    }
+
+    @Override
+    public void visit(MethDef methDef) {
+        throw new UnsupportedOperationException("Use LiveIntervals.of(FunDef) instead");
+    }
+
+    @Override
+    public void visit(Prog prog) {
+        throw new UnsupportedOperationException("Use LiveIntervals.of(FunDef) instead");
+    }
+
+    @Override
+    public void visit(EmptyExpr emptyExpr) {
+    }
+}
@@ -0,0 +1,471 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cc.crochethk.klang.visitor.codegen.asm.DataSection.ReadOnlyData;
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.ByteRegister;
+
+/**
+ * Encodes the instructions recorded by {@link CodeSection} into x86-64 machine
+ * code, i.e. the content of the ".text" section of an object file.
+ * <p>
+ * Jumps to local labels are resolved here. References to other symbols, i.e.
+ * called functions and literals in the ".rodata" section, are left to the
+ * linker as {@link Relocation}s.
+ * </p>
+ * <p>
+ * Only the instructions and operand combinations {@link CodeSection} offers
+ * are supported. Jumps always use 32-bit displacements.
+ * </p>
+ */
+public class MachineCodeEncoder {
+    /** Symbol name of relocations relative to the start of the ".rodata" section. */
+    public static final String RODATA = ".rodata";
+
+    /** A reference to a symbol which has to be patched in by the linker. */
+    public record Relocation(int offset, Kind kind, String symbol, long addend) {
+        public enum Kind {
+            /** {@code symbol + addend - offset}, e.g. for rip relative operands */
+            PC32,
+            /** Like {@link #PC32}, but through the procedure linkage table if necessary */
+            PLT32,
+        }
+    }
+
+    /** A jump's 32-bit displacement to be resolved, once all labels are known. */
+    private record Fixup(int offset, String label) {
+    }
+
+    private final ReadOnlyData rodata;
+
+    private byte[] code = new byte[256];
+    private int size = 0;
+
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final List<Fixup> fixups = new ArrayList<>();
+    private final Map<String, Integer> functions = new LinkedHashMap<>();
+    private final List<Relocation> relocations = new ArrayList<>();
+
+    /** @param rodata The section the labels of rip relative operands belong to. */
+    public MachineCodeEncoder(ReadOnlyData rodata) {
+        this.rodata = rodata;
+    }
+
+    public void encode(List<Instruction> instructions) {
+        instructions.forEach(this::encode);
+    }
+
+    /** The encoded code. Fails if a jump targets an unknown label. */
+    public byte[] code() {
+        for (var fixup : fixups) {
+            var target = labels.get(fixup.label());
+            if (target == null) {
+                throw new IllegalStateException("Undefined label '" + fixup.label() + "'");
+            }
+            patch32(fixup.offset(), target - (fixup.offset() + 4));
+        }
+        fixups.clear();
+        return Arrays.copyOf(code, size);
+    }
+
+    /** The global functions defined, mapped to their offset. In order of definition. */
+    public Map<String, Integer> functions() {
+        return functions;
+    }
+
+    public List<Relocation> relocations() {
+        return relocations;
+    }
+
+    // --------------------[ Instructions ]-------------------------------------
+    /** Marks an absent prefix or opcode. */
+    private static final int NONE = -1;
+
+    /** Opcode extensions ("/digit") of the arithmetic and logic instructions. */
+    private static final Map<String, Integer> ALU_OPS = Map.of(
+            "addq", 0, "orq", 1, "andq", 4, "subq", 5, "xorq", 6, "cmpq", 7);
+
+    /** Opcode extensions of the shifts by an immediate count (opcode C1, or D1 if shifting by 1). */
+    private static final Map<String, Integer> SHIFT_OPS = Map.of("shlq", 4, "shrq", 5, "sarq", 7);
+
+    /** Opcode extensions of the instructions with a single r/m64 operand (opcode F7). */
+    private static final Map<String, Integer> UNARY_OPS = Map.of("negq", 3, "idivq", 7);
+
+    /** Mandatory prefix and opcode (after 0F) of SSE instructions in "xmm, xmm/m64" form. */
+    private static final Map<String, int[]> SSE_OPS = Map.of(
+            "movsd", new int[] { 0xF2, 0x10 },
+            "addsd", new int[] { 0xF2, 0x58 },
+            "mulsd", new int[] { 0xF2, 0x59 },
+            "subsd", new int[] { 0xF2, 0x5C },
+            "divsd", new int[] { 0xF2, 0x5E },
+            "xorpd", new int[] { 0x66, 0x57 },
+            "pxor", new int[] { 0x66, 0xEF },
+            "comisd", new int[] { 0x66, 0x2F },
+            "ucomisd", new int[] { 0x66, 0x2E });
+
+    /** Condition codes by their mnemonic suffix, as used by {@code jcc}, {@code setcc} and {@code cmovcc}. */
+    private static final Map<String, Integer> CONDITIONS = Map.ofEntries(
+            Map.entry("o", 0x0), Map.entry("no", 0x1), Map.entry("b", 0x2), Map.entry("nb", 0x3),
+            Map.entry("ae", 0x3), Map.entry("e", 0x4), Map.entry("z", 0x4), Map.entry("ne", 0x5),
+            Map.entry("nz", 0x5), Map.entry("be", 0x6), Map.entry("a", 0x7), Map.entry("s", 0x8),
+            Map.entry("ns", 0x9), Map.entry("p", 0xA), Map.entry("np", 0xB), Map.entry("l", 0xC),
+            Map.entry("ge", 0xD), Map.entry("le", 0xE), Map.entry("g", 0xF));
+
+    private void encode(Instruction instr) {
+        switch (instr) {
+            case FunctionLabel fun -> functions.put(fun.name(), size);
+            case Label label -> labels.put(label.name(), size);
+            case Jump jump -> {
+                if (jump.isUnconditional()) {
+                    emit(0xE9);
+                } else {
+                    emit(0x0F, 0x80 | condition(jump.mnemonic(), "j"));
+                }
+                fixups.add(new Fixup(size, jump.target()));
+                emit32(0);
+            }
+            case Call call -> {
+                // "printf@PLT" is a call of "printf" through the PLT, which is what PLT32 does anyway
+                var symbol = call.target().replaceFirst("@PLT$", "");
+                relocations.add(new Relocation(size + 1, Relocation.Kind.PLT32, symbol, -4));
+                emit(call.isTail() ? 0xE9 : 0xE8);
+                emit32(0);
+            }
+            case Op op -> encodeOp(op);
+        }
+    }
+
+    private void encodeOp(Op op) {
+        var mnemonic = op.mnemonic();
+        var operands = op.operands();
+        if (operands.isEmpty()) {
+            switch (mnemonic) {
+                case "leave" -> emit(0xC9);
+                case "ret" -> emit(0xC3);
+                case "cqto" -> emit(0x48, 0x99);
+                default -> throw unsupported(op);
+            }
+            return;
+        }
+
+        var src = op.src();
+        var dst = op.dst();
+        if (ALU_OPS.containsKey(mnemonic)) {
+            int ext = ALU_OPS.get(mnemonic);
+            if (src instanceof Const c) {
+                emitWithImmediate(true, 0x83, 0x81, ext, dst, c);
+            } else if (isGpr(src)) {
+                emitModRm(NONE, true, new int[] { ext << 3 | 0x1 }, regCode(src), dst, 0);
+            } else if (isGpr(dst)) {
+                emitModRm(NONE, true, new int[] { ext << 3 | 0x3 }, regCode(dst), src, 0);
+            } else {
+                throw unsupported(op);
+            }
+            return;
+        }
+        if (SHIFT_OPS.containsKey(mnemonic)) {
+            if (!(src instanceof Const count)) {
+                throw unsupported(op);
+            }
+            if (count.value() == 1) {
+                emitModRm(NONE, true, new int[] { 0xD1 }, SHIFT_OPS.get(mnemonic), dst, 0);
+            } else {
+                emitModRm(NONE, true, new int[] { 0xC1 }, SHIFT_OPS.get(mnemonic), dst, 1);
+                emit((int) count.value());
+            }
+            return;
+        }
+        if (UNARY_OPS.containsKey(mnemonic)) {
+            emitModRm(NONE, true, new int[] { 0xF7 }, UNARY_OPS.get(mnemonic), dst, 0);
+            return;
+        }
+        if (SSE_OPS.containsKey(mnemonic)) {
+            var sse = SSE_OPS.get(mnemonic);
+            if (dst instanceof XmmRegister) {
+                emitModRm(sse[0], false, new int[] { 0x0F, sse[1] }, regCode(dst), src, 0);
+            } else if (mnemonic.equals("movsd") && src instanceof XmmRegister) {
+                // Store to memory
+                emitModRm(sse[0], false, new int[] { 0x0F, 0x11 }, regCode(src), dst, 0);
+            } else {
+                throw unsupported(op);
+            }
+            return;
+        }
+        if (mnemonic.startsWith("set")) {
+            if (!(dst instanceof ByteRegister)) {
+                throw unsupported(op);
+            }
+            emitModRm(NONE, false, new int[] { 0x0F, 0x90 | condition(mnemonic, "set") }, 0, dst, 0);
+            return;
+        }
+        if (mnemonic.startsWith("cmov")) {
+            emitModRm(NONE, true, new int[] { 0x0F, 0x40 | condition(mnemonic, "cmov") }, regCode(dst), src, 0);
+            return;
+        }
+
+        switch (mnemonic) {
+            case "movq" -> encodeMovq(op, src, dst);
+            case "pushq" -> {
+                if (src instanceof Register reg) {
+                    int code = regCode(reg);
+                    if (code >= 8) {
+                        emit(0x41);
+                    }
+                    emit(0x50 + (code & 7));
+                } else if (src instanceof Const c && fitsInt(c.value())) {
+                    emit(0x68);
+                    emit32((int) c.value());
+                } else {
+                    emitModRm(NONE, false, new int[] { 0xFF }, 6, src, 0);
+                }
+            }
+            case "movzbq" -> emitModRm(NONE, true, new int[] { 0x0F, 0xB6 }, regCode(dst), src, 0);
+            case "movb" -> emitModRm(NONE, false, new int[] { 0x88 }, regCode(src), dst, 0, needsRex(src));
+            case "leaq" -> emitModRm(NONE, true, new int[] { 0x8D }, regCode(dst), src, 0);
+            case "testq" -> {
+                if (src instanceof Const c) {
+                    emitWithImmediate(true, NONE, 0xF7, 0, dst, c);
+                } else if (isGpr(src)) {
+                    emitModRm(NONE, true, new int[] { 0x85 }, regCode(src), dst, 0);
+                } else {
+                    emitModRm(NONE, true, new int[] { 0x85 }, regCode(dst), src, 0);
+                }
+            }
+            case "imulq" -> {
+                if (operands.size() == 1) {
+                    // rdx:rax = rax * src
+                    emitModRm(NONE, true, new int[] { 0xF7 }, 5, src, 0);
+                } else if (src instanceof Const c) {
+                    emitWithImmediate(true, 0x6B, 0x69, regCode(dst), dst, c);
+                } else {
+                    emitModRm(NONE, true, new int[] { 0x0F, 0xAF }, regCode(dst), src, 0);
+                }
+            }
+            case "cvtsi2sdq" -> emitModRm(0xF2, true, new int[] { 0x0F, 0x2A }, regCode(dst), src, 0);
+            case "cvttsd2siq" -> emitModRm(0xF2, true, new int[] { 0x0F, 0x2C }, regCode(dst), src, 0);
+            default -> throw unsupported(op);
+        }
+    }
+
+    private void encodeMovq(Op op, OperandSpecifier src, OperandSpecifier dst) {
+        if (src instanceof Const c) {
+            if (fitsInt(c.value())) {
+                emitWithImmediate(true, NONE, 0xC7, 0, dst, c);
+            } else if (dst instanceof Register reg) {
+                // movabs
+                int code = regCode(reg);
+                emit(0x48 | code >> 3, 0xB8 + (code & 7));
+                emit64(c.value());
+            } else {
+                throw unsupported(op);
+            }
+        } else if (dst instanceof XmmRegister) {
+            emitModRm(0x66, true, new int[] { 0x0F, 0x6E }, regCode(dst), src, 0);
+        } else if (src instanceof XmmRegister) {
+            emitModRm(0x66, true, new int[] { 0x0F, 0x7E }, regCode(src), dst, 0);
+        } else if (isGpr(src)) {
+            emitModRm(NONE, true, new int[] { 0x89 }, regCode(src), dst, 0);
+        } else if (isGpr(dst)) {
+            emitModRm(NONE, true, new int[] { 0x8B }, regCode(dst), src, 0);
+        } else {
+            throw unsupported(op);
+        }
+    }
+
+    /**
+     * Emits an instruction with an immediate operand, using the short form with
+     * a sign extended 8-bit immediate if possible.
+     * @param opcode8 Opcode of the 8-bit immediate form, {@link #NONE} if there is none.
+     */
+    private void emitWithImmediate(boolean rexW, int opcode8, int opcode32, int reg, OperandSpecifier rm, Const imm) {
+        long value = imm.value();
+        if (opcode8 != NONE && value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emitModRm(NONE, rexW, new int[] { opcode8 }, reg, rm, 1);
+            emit((int) value);
+        } else if (fitsInt(value)) {
+            emitModRm(NONE, rexW, new int[] { opcode32 }, reg, rm, 4);
+            emit32((int) value);
+        } else {
+            throw new UnsupportedOperationException("Immediate '" + value + "' exceeds 32 bits");
+        }
+    }
+
+    // --------------------[ Operand encoding ]---------------------------------
+    /**
+     * Emits an instruction with a ModR/M byte: the optional mandatory prefix,
+     * REX, opcode, ModR/M, SIB and displacement.
+     * @param reg The register number or opcode extension for the ModR/M reg field.
+     * @param rm The register or memory operand.
+     * @param immSize Number of immediate bytes following the displacement. Required
+     *      for rip relative operands, which are relative to the instruction's end.
+     */
+    private void emitModRm(int prefix, boolean rexW, int[] opcode, int reg, OperandSpecifier rm, int immSize) {
+        emitModRm(prefix, rexW, opcode, reg, rm, immSize, needsRex(rm));
+    }
+
+    private void emitModRm(int prefix, boolean rexW, int[] opcode, int reg, OperandSpecifier rm, int immSize,
+            boolean forceRex) {
+        int rex = (rexW ? 0x8 : 0) | (reg >> 3) << 2;
+
+        int mod, rmBits;
+        int sib = -1;
+        long disp = 0;
+        int dispSize = 0;
+        String ripLabel = null;
+        switch (rm) {
+            case Register _, ByteRegister _, XmmRegister _ -> {
+                int code = regCode(rm);
+                rex |= code >> 3;
+                mod = 0b11;
+                rmBits = code & 7;
+            }
+            case MemAddr addr when addr.base() == Register.rip -> {
+                mod = 0b00;
+                rmBits = 0b101;
+                dispSize = 4;
+                if (isNumber(addr.offset())) {
+                    disp = Long.parseLong(addr.offset());
+                } else {
+                    ripLabel = addr.offset();
+                }
+            }
+            case MemAddr addr -> {
+                int base = regCode(addr.base());
+                disp = addr.offset().isEmpty() ? 0 : parseDisplacement(addr.offset());
+                // rbp and r13 can't be encoded without displacement
+                if (disp == 0 && (base & 7) != 0b101) {
+                    mod = 0b00;
+                } else if (disp >= Byte.MIN_VALUE && disp <= Byte.MAX_VALUE) {
+                    mod = 0b01;
+                    dispSize = 1;
+                } else {
+                    mod = 0b10;
+                    dispSize = 4;
+                }
+                rex |= base >> 3;
+                // rsp and r12 as base always require a SIB byte
+                if (addr.index() != null || (base & 7) == 0b100) {
+                    int index = addr.index() != null ? regCode(addr.index()) : 0b100;
+                    int scale = addr.index() != null ? Integer.numberOfTrailingZeros(addr.scale().factor) : 0;
+                    rex |= (index >> 3) << 1;
+                    rmBits = 0b100;
+                    sib = scale << 6 | (index & 7) << 3 | (base & 7);
+                } else {
+                    rmBits = base & 7;
+                }
+            }
+            case RawMemAddr raw -> {
+                // Absolute address: SIB without base and index
+                mod = 0b00;
+                rmBits = 0b100;
+                sib = 0x25;
+                disp = raw.address();
+                dispSize = 4;
+            }
+            default -> throw new UnsupportedOperationException("Unsupported operand '" + rm.operandSpec() + "'");
+        }
+
+        if (prefix != NONE) {
+            emit(prefix);
+        }
+        if (rex != 0 || forceRex) {
+            emit(0x40 | rex);
+        }
+        for (int b : opcode) {
+            emit(b);
+        }
+        emit(mod << 6 | (reg & 7) << 3 | rmBits);
+        if (sib >= 0) {
+            emit(sib);
+        }
+        if (ripLabel != null) {
+            relocations.add(new Relocation(size, Relocation.Kind.PC32, RODATA,
+                    rodata.offsetOf(ripLabel) - 4 - immSize));
+        }
+        if (dispSize == 1) {
+            emit((int) disp);
+        } else if (dispSize == 4) {
+            emit32((int) disp);
+        }
+    }
+
+    /** Hardware register numbers in the order of the enum constants (rax, rcx, rdx, rbx, rsi, rdi, rsp, rbp, r8...). */
+    private static final int[] GPR_CODES = { 0, 1, 2, 3, 6, 7, 4, 5, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+    private static int regCode(OperandSpecifier reg) {
+        return switch (reg) {
+            case Register r when r != Register.rip -> GPR_CODES[r.ordinal()];
+            case ByteRegister b -> GPR_CODES[b.ordinal()];
+            case XmmRegister x -> x.ordinal();
+            default -> throw new UnsupportedOperationException("Not a register: '" + reg.operandSpec() + "'");
+        };
+    }
+
+    /** Without REX, the byte registers spl, bpl, sil and dil encode ah, ch, dh and bh instead. */
+    private static boolean needsRex(OperandSpecifier operand) {
+        return operand instanceof ByteRegister b && regCode(b) >= 4 && regCode(b) < 8;
+    }
+
+    private static boolean isGpr(OperandSpecifier operand) {
+        return operand instanceof Register r && r != Register.rip;
+    }
+
+    private static int condition(String mnemonic, String prefix) {
+        var cc = CONDITIONS.get(mnemonic.substring(prefix.length()));
+        if (cc == null) {
+            throw new UnsupportedOperationException("Unknown condition in '" + mnemonic + "'");
+        }
+        return cc;
+    }
+
+    private static boolean fitsInt(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    private static boolean isNumber(String s) {
+        return s.matches("-?\\d+");
+    }
+
+    private static long parseDisplacement(String offset) {
+        if (!isNumber(offset)) {
+            throw new UnsupportedOperationException("Symbolic displacement '" + offset + "' requires rip as base");
+        }
+        return Long.parseLong(offset);
+    }
+
+    private static UnsupportedOperationException unsupported(Op op) {
+        return new UnsupportedOperationException("Can't encode '" + op.render().strip() + "'");
+    }
+
+    // --------------------[ Buffer ]-------------------------------------------
+    private void emit(int... bytes) {
+        for (int b : bytes) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, 2 * size);
+            }
+            code[size++] = (byte) b;
+        }
+    }
+
+    private void emit32(int value) {
+        emit(value, value >> 8, value >> 16, value >> 24);
+    }
+
+    private void emit64(long value) {
+        emit32((int) value);
+        emit32((int) (value >> 32));
+    }
+
+    private void patch32(int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            code[offset + i] = (byte) (value >> 8 * i);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cc.crochethk.klang.visitor.codegen.asm;
 
+import java.util.Objects;
+
 public interface OperandSpecifier {
     String operandSpec();
 
@@ -131,6 +133,41 @@ public interface OperandSpecifier {
             }
         }
 
+        /** The displacement, either a number or a symbol. May be empty. */
+        public String offset() {
+            return offset;
+        }
+
+        public Register base() {
+            return base;
+        }
+
+        /** The index register, {@code null} if there is none. */
+        public Register index() {
+            return index;
+        }
+
+        /** The index's scale, {@code null} if there is no index. */
+        public Scale scale() {
+            return s;
+        }
+
+        /** Whether {@code reg} is used to compute this address. */
+        public boolean references(Register reg) {
+            return base == reg || index == reg;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof MemAddr other && offset.equals(other.offset)
+                    && base == other.base && index == other.index && s == other.s;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(offset, base, index, s);
+        }
+
         @Override
         public String operandSpec() {
             // return offset + "(" + base.operandSpec() + "," + index.operandSpec() + "," + s.factor + ")";
@@ -0,0 +1,247 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register;
+
+/**
+ * Rewrites the instructions of a single function by looking at short
+ * sequences of them at a time. Which rewrites are applied is configured by the
+ * set of {@link Pass}es. All passes are repeated until none of them changes
+ * the code anymore.
+ */
+public class PeepholeOptimizer {
+    public enum Pass {
+        /**
+         * Removes moves of a location to itself and moves reverting the
+         * preceding one, e.g. {@code movq %rax, -8(%rbp)} followed by
+         * {@code movq -8(%rbp), %rax}.
+         */
+        REDUNDANT_MOVES,
+        /** Removes jumps to a label directly following them. */
+        JUMP_TO_NEXT,
+        /**
+         * Redirects jumps to a label which is followed by an unconditional
+         * jump to the latter's target. Code which can't be reached after
+         * unconditional jumps and labels no longer referenced are removed.
+         */
+        JUMP_THREADING,
+        /** Replaces {@code cmpq $0, %reg} by the shorter {@code testq %reg, %reg}. */
+        CMP_ZERO_TO_TEST,
+        /**
+         * Replaces a conditional jump over an unconditional one by the inverted
+         * conditional jump, e.g. {@code je .L1; jmp .L2; .L1:} becomes
+         * {@code jne .L2; .L1:}.
+         */
+        INVERT_BRANCHES,
+    }
+
+    /** Conditional jumps and the jumps taken in exactly the opposite case. */
+    private static final Map<String, String> INVERSE_JUMPS = Map.ofEntries(
+            Map.entry("je", "jne"), Map.entry("jne", "je"),
+            Map.entry("jg", "jle"), Map.entry("jle", "jg"),
+            Map.entry("jge", "jl"), Map.entry("jl", "jge"),
+            Map.entry("ja", "jbe"), Map.entry("jbe", "ja"),
+            Map.entry("jae", "jb"), Map.entry("jb", "jae"),
+            Map.entry("jp", "jnp"), Map.entry("jnp", "jp"));
+
+    /** Applies no rewrites at all. */
+    public static final PeepholeOptimizer NONE = new PeepholeOptimizer(EnumSet.noneOf(Pass.class));
+    /** Applies all available rewrites. */
+    public static final PeepholeOptimizer ALL = new PeepholeOptimizer(EnumSet.allOf(Pass.class));
+
+    private final Set<Pass> passes;
+
+    public PeepholeOptimizer(Set<Pass> passes) {
+        this.passes = EnumSet.copyOf(passes);
+    }
+
+    /** Returns the optimized version of the given function's instructions. */
+    public List<Instruction> optimize(List<Instruction> instructions) {
+        if (passes.isEmpty()) {
+            return instructions;
+        }
+        var code = new ArrayList<>(instructions);
+        boolean changed;
+        do {
+            changed = false;
+            if (passes.contains(Pass.CMP_ZERO_TO_TEST)) {
+                changed |= cmpZeroToTest(code);
+            }
+            if (passes.contains(Pass.REDUNDANT_MOVES)) {
+                changed |= removeRedundantMoves(code);
+            }
+            if (passes.contains(Pass.JUMP_THREADING)) {
+                changed |= threadJumps(code);
+            }
+            if (passes.contains(Pass.INVERT_BRANCHES)) {
+                changed |= invertBranches(code);
+            }
+            if (passes.contains(Pass.JUMP_TO_NEXT)) {
+                changed |= removeJumpsToNext(code);
+            }
+        } while (changed);
+        return code;
+    }
+
+    // --------------------[ Passes ]-------------------------------------------
+    private static boolean cmpZeroToTest(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof Op op && op.mnemonic().equals("cmpq")
+                    && op.src().equals($(0)) && op.dst() instanceof Register reg) {
+                code.set(i, new Op("testq", reg, reg));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean removeRedundantMoves(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (!(code.get(i) instanceof Op op && op.isMove())) {
+                continue;
+            }
+            if (op.src().equals(op.dst())
+                    || i > 0 && code.get(i - 1) instanceof Op prev && revertsMove(prev, op)) {
+                code.remove(i--);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Whether {@code move} copies back what {@code prev} just copied, which is a no-op. */
+    private static boolean revertsMove(Op prev, Op move) {
+        return prev.mnemonic().equals(move.mnemonic())
+                && prev.src().equals(move.dst()) && prev.dst().equals(move.src())
+                // e.g. "movq (%rax), %rax" changes where "(%rax)" points to
+                && !addressDependsOn(prev.src(), prev.dst());
+    }
+
+    private static boolean addressDependsOn(OperandSpecifier operand, OperandSpecifier reg) {
+        return operand instanceof MemAddr addr && reg instanceof Register r && addr.references(r);
+    }
+
+    private static boolean removeJumpsToNext(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof Jump jump && labelsAt(code, i + 1).contains(jump.target())) {
+                code.remove(i--);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean invertBranches(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i + 2 < code.size(); i++) {
+            if (code.get(i) instanceof Jump branch && INVERSE_JUMPS.containsKey(branch.mnemonic())
+                    && code.get(i + 1) instanceof Jump jump && jump.isUnconditional()
+                    && labelsAt(code, i + 2).contains(branch.target())) {
+                code.set(i, new Jump(INVERSE_JUMPS.get(branch.mnemonic()), jump.target()));
+                code.remove(i + 1);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean threadJumps(List<Instruction> code) {
+        // Labels directly followed by an unconditional jump
+        var forwards = new HashMap<String, String>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof Label label
+                    && firstAfterLabels(code, i) instanceof Jump jump && jump.isUnconditional()) {
+                forwards.put(label.name(), jump.target());
+            }
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof Jump jump) {
+                var target = finalTarget(jump.target(), forwards);
+                if (!target.equals(jump.target())) {
+                    code.set(i, jump.withTarget(target));
+                    changed = true;
+                }
+            }
+        }
+        changed |= removeUnreachable(code);
+        changed |= removeUnreferencedLabels(code);
+        return changed;
+    }
+
+    /** Follows the chain of forwarding labels, stopping at cycles. */
+    private static String finalTarget(String label, Map<String, String> forwards) {
+        var visited = new HashSet<String>();
+        while (forwards.containsKey(label) && visited.add(label)) {
+            label = forwards.get(label);
+        }
+        return label;
+    }
+
+    /** Removes instructions following an unconditional jump, tail call or return up to the next label. */
+    private static boolean removeUnreachable(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (!leavesBlock(code.get(i))) {
+                continue;
+            }
+            while (i + 1 < code.size() && (code.get(i + 1) instanceof Op || code.get(i + 1) instanceof Jump
+                    || code.get(i + 1) instanceof Call)) {
+                code.remove(i + 1);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean leavesBlock(Instruction instr) {
+        return instr instanceof Jump jump && jump.isUnconditional()
+                || instr instanceof Call call && call.isTail()
+                || instr instanceof Op op && op.mnemonic().equals("ret");
+    }
+
+    private static boolean removeUnreferencedLabels(List<Instruction> code) {
+        var referenced = new HashSet<String>();
+        code.forEach(instr -> {
+            if (instr instanceof Jump jump) {
+                referenced.add(jump.target());
+            }
+        });
+        return code.removeIf(instr -> instr instanceof Label label && !referenced.contains(label.name()));
+    }
+
+    // --------------------[ Helpers ]------------------------------------------
+    /** The names of the labels bound consecutively, starting at {@code index}. */
+    private static Set<String> labelsAt(List<Instruction> code, int index) {
+        var labels = new HashSet<String>();
+        for (int i = index; i < code.size() && code.get(i) instanceof Label label; i++) {
+            labels.add(label.name());
+        }
+        return labels;
+    }
+
+    /** The first entry after {@code index} which is not a label, {@code null} if there is none. */
+    private static Instruction firstAfterLabels(List<Instruction> code, int index) {
+        for (int i = index + 1; i < code.size(); i++) {
+            if (!(code.get(i) instanceof Label)) {
+                return code.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,195 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SequencedSet;
+
+import cc.crochethk.klang.ast.Expr;
+import cc.crochethk.klang.ast.FunDef;
+import cc.crochethk.klang.ast.Node;
+import cc.crochethk.klang.visitor.codegen.asm.LiveIntervals.Interval;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister;
+
+/**
+ * Assigns registers to a function's variables and temporaries by a linear scan
+ * over their {@link LiveIntervals} (see Poletto and Sarkar, "Linear Scan
+ * Register Allocation", 1999).
+ * <p>
+ * Only registers the code generator doesn't use otherwise are handed out:
+ * {@code rbx} and {@code r12}-{@code r15}, which are callee saved, as well as
+ * {@code r10}, {@code r11} and {@code xmm8}-{@code xmm15}, which are caller
+ * saved. The former must be preserved by the function's prologue and epilogue,
+ * the latter around each call they are live across. Thus values living across
+ * calls prefer callee saved registers, all others caller saved ones.
+ * </p>
+ * <p>
+ * When running out of registers, the value whose interval ends last is
+ * spilled, i.e. it is kept in a stack slot for its whole lifetime.
+ * </p>
+ */
+public class RegisterAllocation {
+    private static final List<Register> CALLEE_SAVED = List.of(rbx, r12, r13, r14, r15);
+    private static final List<Register> CALLER_SAVED = List.of(r10, r11);
+    private static final List<XmmRegister> XMM_REGS = List.of(
+            xmm8, xmm9, xmm10, xmm11, xmm12, xmm13, xmm14, xmm15);
+
+    /** Keeps all values on the stack. */
+    public static final RegisterAllocation NONE = new RegisterAllocation();
+
+    private final Map<String, OperandSpecifier> varRegs = new HashMap<>();
+    private final Map<Expr, OperandSpecifier> tempRegs = new IdentityHashMap<>();
+    private final Map<Node, List<OperandSpecifier>> preservedAcrossCall = new IdentityHashMap<>();
+    private final SequencedSet<Register> usedCalleeSaved = new LinkedHashSet<>();
+    private final SequencedSet<OperandSpecifier> usedCallerSaved = new LinkedHashSet<>();
+
+    private RegisterAllocation() {
+    }
+
+    /** Allocates registers for the parameters, local variables and temporaries of {@code funDef}. */
+    public static RegisterAllocation of(FunDef funDef) {
+        var liveIntervals = LiveIntervals.of(funDef);
+        var callPositions = new ArrayList<>(liveIntervals.callPositions().values());
+        Collections.sort(callPositions);
+
+        var assigned = linearScan(liveIntervals.intervals(), callPositions);
+
+        var alloc = new RegisterAllocation();
+        assigned.forEach((iv, reg) -> {
+            if (iv.varName != null) {
+                alloc.varRegs.put(iv.varName, reg);
+            } else {
+                alloc.tempRegs.put(iv.temp, reg);
+            }
+        });
+        CALLEE_SAVED.stream().filter(assigned::containsValue).forEach(alloc.usedCalleeSaved::add);
+
+        liveIntervals.callPositions().forEach((callSite, pos) -> {
+            var preserved = new ArrayList<OperandSpecifier>();
+            assigned.forEach((iv, reg) -> {
+                if (!(reg instanceof Register r && CALLEE_SAVED.contains(r)) && iv.isLiveAcross(pos)) {
+                    preserved.add(reg);
+                }
+            });
+            alloc.preservedAcrossCall.put(callSite, preserved);
+            alloc.usedCallerSaved.addAll(preserved);
+        });
+        return alloc;
+    }
+
+    /**
+     * Returns the assigned registers in the order of the intervals' start.
+     * Spilled intervals have no entry.
+     */
+    private static Map<Interval, OperandSpecifier> linearScan(List<Interval> intervals, List<Integer> callPositions) {
+        var assigned = new LinkedHashMap<Interval, OperandSpecifier>();
+        // Ordered by increasing end
+        var active = new ArrayList<Interval>();
+        var freeGprs = new ArrayList<Register>(CALLER_SAVED);
+        freeGprs.addAll(CALLEE_SAVED);
+        var freeXmms = new ArrayList<XmmRegister>(XMM_REGS);
+
+        for (var iv : intervals) {
+            // Expire intervals ended before the current one
+            for (var it = active.iterator(); it.hasNext();) {
+                var other = it.next();
+                if (other.end() >= iv.start()) {
+                    break;
+                }
+                it.remove();
+                switch (assigned.get(other)) {
+                    case Register r -> freeGprs.add(r);
+                    case XmmRegister x -> freeXmms.add(x);
+                    default -> throw new IllegalStateException();
+                }
+            }
+
+            OperandSpecifier reg = null;
+            if (iv.isFloat && !freeXmms.isEmpty()) {
+                reg = freeXmms.stream().min(Enum::compareTo).get();
+                freeXmms.remove(reg);
+            } else if (!iv.isFloat && !freeGprs.isEmpty()) {
+                reg = pickGpr(freeGprs, crossesCall(iv, callPositions));
+                freeGprs.remove(reg);
+            } else {
+                // Spill the interval of the same class ending last
+                var spill = iv;
+                for (var other : active) {
+                    if (other.isFloat == iv.isFloat && other.end() > spill.end()) {
+                        spill = other;
+                    }
+                }
+                if (spill != iv) {
+                    reg = assigned.remove(spill);
+                    active.remove(spill);
+                }
+            }
+
+            if (reg != null) {
+                assigned.put(iv, reg);
+                int i = 0;
+                while (i < active.size() && active.get(i).end() <= iv.end()) {
+                    i++;
+                }
+                active.add(i, iv);
+            }
+        }
+        return assigned;
+    }
+
+    private static Register pickGpr(List<Register> free, boolean crossesCall) {
+        var preferred = crossesCall ? CALLEE_SAVED : CALLER_SAVED;
+        var fallback = crossesCall ? CALLER_SAVED : CALLEE_SAVED;
+        for (var candidates : List.of(preferred, fallback)) {
+            for (var r : candidates) {
+                if (free.contains(r)) {
+                    return r;
+                }
+            }
+        }
+        throw new IllegalStateException("no free register");
+    }
+
+    private static boolean crossesCall(Interval iv, List<Integer> callPositions) {
+        int i = Collections.binarySearch(callPositions, iv.start() + 1);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < callPositions.size() && iv.isLiveAcross(callPositions.get(i));
+    }
+
+    /** The register holding the given variable, if it's not kept on the stack. */
+    public Optional<OperandSpecifier> ofVar(String varName) {
+        return Optional.ofNullable(varRegs.get(varName));
+    }
+
+    /** The register holding the result of {@code value} while it's needed, if any. */
+    public Optional<OperandSpecifier> ofTemp(Expr value) {
+        return Optional.ofNullable(tempRegs.get(value));
+    }
+
+    /** Caller saved registers holding values that must survive the call caused by {@code callSite}. */
+    public List<OperandSpecifier> preservedAcross(Node callSite) {
+        return preservedAcrossCall.getOrDefault(callSite, List.of());
+    }
+
+    /** Callee saved registers in use, which must be restored before returning. */
+    public SequencedSet<Register> usedCalleeSaved() {
+        return Collections.unmodifiableSequencedSet(usedCalleeSaved);
+    }
+
+    /** Caller saved registers which must be preserved across at least one call. */
+    public SequencedSet<OperandSpecifier> usedCallerSaved() {
+        return Collections.unmodifiableSequencedSet(usedCallerSaved);
+    }
+}
@@ -21,6 +21,11 @@ public abstract class SectionBuilder extends SourceCodeBuilder {
         initialState = this.toString();
     }
 
+    /** Whether nothing but the entry directive was written. */
+    public boolean isEmpty() {
+        return length() == initialState.length();
+    }
+
     /** Represents the ".bss" section */
     public static class BssSection extends SectionBuilder {
         public BssSection() {
@@ -0,0 +1,177 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr.Scale;
+
+/**
+ * Generates i64 multiplication, division and modulo by a constant using
+ * cheaper instructions than {@code imulq} and {@code idivq}, i.e. shifts,
+ * {@code leaq} and multiplication by a "magic number" (see Hacker's Delight,
+ * chapter 10).
+ * <p>
+ * The operand and result are in {@code rax}. {@code rcx} and {@code rdx} may be
+ * clobbered.
+ * </p>
+ */
+public final class StrengthReduction {
+    private StrengthReduction() {
+    }
+
+    /**
+     * Multiplier and shift for a divisor {@code d}: The truncated quotient
+     * {@code n / d} is {@code (mulhi(multiplier, n) >> shift)}, plus {@code n}
+     * if {@code d > 0} and the multiplier is negative, minus {@code n} if
+     * {@code d < 0} and the multiplier is positive, then incremented by one if
+     * that is negative.
+     */
+    public record Magic(long multiplier, int shift) {
+    }
+
+    /** Whether division and modulo by {@code divisor} can be reduced. */
+    public static boolean canDivide(long divisor) {
+        // Must trap, respectively overflows in idivq for Long.MIN_VALUE
+        return divisor != 0 && divisor != -1 && divisor != Long.MIN_VALUE;
+    }
+
+    /** {@code rax = rax * factor} */
+    public static void multiply(CodeSection code, long factor) {
+        long abs = Math.abs(factor);
+        if (factor == 0) {
+            code.movq($(0), rax);
+            return;
+        } else if (Long.bitCount(abs) == 1) {
+            int shift = Long.numberOfTrailingZeros(abs);
+            if (shift > 0) {
+                code.shlq($(shift), rax);
+            }
+        } else if (abs == 3 || abs == 5 || abs == 9) {
+            var scale = abs == 3 ? Scale._2 : abs == 5 ? Scale._4 : Scale._8;
+            code.leaq(new MemAddr(0, rax, rax, scale), rax);
+        } else {
+            imulq(code, factor);
+            return;
+        }
+        if (factor < 0) {
+            code.negq(rax);
+        }
+    }
+
+    /** {@code rax = rax / divisor}, rounding toward zero. Requires {@link #canDivide(long)}. */
+    public static void divide(CodeSection code, long divisor) {
+        long abs = Math.abs(divisor);
+        if (Long.bitCount(abs) == 1) {
+            powerOfTwoQuotient(code, Long.numberOfTrailingZeros(abs));
+            if (divisor < 0) {
+                code.negq(rax);
+            }
+        } else {
+            code.movq(rax, rcx);
+            magicQuotient(code, divisor);
+        }
+    }
+
+    /**
+     * {@code rax = rax % divisor}, i.e. the remainder has the dividend's sign.
+     * Requires {@link #canDivide(long)}.
+     */
+    public static void remainder(CodeSection code, long divisor) {
+        // The divisor's sign doesn't affect the remainder
+        long abs = Math.abs(divisor);
+        if (abs == 1) {
+            code.movq($(0), rax);
+            return;
+        }
+        code.movq(rax, rcx);
+        if (Long.bitCount(abs) == 1) {
+            powerOfTwoQuotient(code, Long.numberOfTrailingZeros(abs));
+        } else {
+            magicQuotient(code, abs);
+        }
+        multiply(code, abs);
+        code.subq(rax, rcx);
+        code.movq(rcx, rax);
+    }
+
+    /** {@code rax = rax / 2^shift}, rounding toward zero. Clobbers {@code rdx}. */
+    private static void powerOfTwoQuotient(CodeSection code, int shift) {
+        if (shift == 0) {
+            return;
+        }
+        // Negative dividends are biased by 2^shift - 1, so the shift rounds up
+        code.movq(rax, rdx);
+        if (shift > 1) {
+            code.sarq($(63), rdx);
+        }
+        code.shrq($(64 - shift), rdx);
+        code.addq(rdx, rax);
+        code.sarq($(shift), rax);
+    }
+
+    /** {@code rax = rcx / divisor}, rounding toward zero. Clobbers {@code rdx}. */
+    private static void magicQuotient(CodeSection code, long divisor) {
+        var magic = magic(divisor);
+        code.movq($(magic.multiplier()), rax);
+        code.imulq(rcx);
+        if (divisor > 0 && magic.multiplier() < 0) {
+            code.addq(rcx, rdx);
+        } else if (divisor < 0 && magic.multiplier() > 0) {
+            code.subq(rcx, rdx);
+        }
+        if (magic.shift() > 0) {
+            code.sarq($(magic.shift()), rdx);
+        }
+        // Add one to negative quotients
+        code.movq(rdx, rax);
+        code.shrq($(63), rax);
+        code.addq(rdx, rax);
+    }
+
+    private static void imulq(CodeSection code, long factor) {
+        if (factor == (int) factor) {
+            code.imulq($(factor), rax);
+        } else {
+            code.movq($(factor), rdx);
+            code.imulq(rdx, rax);
+        }
+    }
+
+    /**
+     * Computes the magic number for signed division by {@code divisor}, whose
+     * absolute value must be at least 2 and not a power of two.
+     */
+    public static Magic magic(long divisor) {
+        final long two63 = Long.MIN_VALUE; // 2^63 as unsigned
+        // All arithmetic is unsigned
+        long ad = Math.abs(divisor);
+        long t = two63 + (divisor >>> 63);
+        long anc = t - 1 - Long.remainderUnsigned(t, ad);
+        int p = 63;
+        long q1 = Long.divideUnsigned(two63, anc);
+        long r1 = two63 - q1 * anc;
+        long q2 = Long.divideUnsigned(two63, ad);
+        long r2 = two63 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 *= 2;
+            r1 *= 2;
+            if (Long.compareUnsigned(r1, anc) >= 0) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 *= 2;
+            r2 *= 2;
+            if (Long.compareUnsigned(r2, ad) >= 0) {
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while (Long.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+
+        long multiplier = q2 + 1;
+        return new Magic(divisor < 0 ? -multiplier : multiplier, p - 64);
+    }
+}
@@ -3,6 +3,7 @@ package cc.crochethk.klang.visitor.codegen.asm.helpers;
 import java.util.List;
 
 import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.visitor.StructLayout;
 import cc.crochethk.klang.visitor.Type;
 import cc.crochethk.klang.visitor.Type.*;
 import cc.crochethk.klang.visitor.BuiltinDefinitions;
@@ -22,24 +23,39 @@ public class GenCHeaders extends GenCBase {
 
     @Override
     public void visit(StructDef structDef) {
-        // write actual struct definition
+        // write actual struct definition, with the fields in memory order
+        var layout = StructLayout.of(structDef);
         scb.writeIndented("struct ", structDef.name, " {");
         scb.increaseIndent();
-        for (var f : structDef.fields) {
+        for (var f : layout.fields()) {
             scb.writeIndent();
             // Write field type and name
-            scb.write(f.type().theType.cTypeName(), " ", f.name(), ";");
+            scb.write(f.type().cTypeName(), " ", f.name(), ";");
         }
         // add dummy field if empty
         if (structDef.fields.isEmpty())
             scb.writeIndented("char _$dummy$_;");
         scb.decreaseIndent();
-        scb.writeIndented("};\n");
+        scb.writeIndented("};");
+
+        // The generated assembly relies on the layout computed by the compiler
+        var structName = "struct " + structDef.name;
+        writeStaticAssert("sizeof(" + structName + ") == " + layout.size(), structName);
+        writeStaticAssert("_Alignof(" + structName + ") == " + layout.alignment(), structName);
+        for (var f : layout.fields()) {
+            writeStaticAssert("offsetof(" + structName + ", " + f.name() + ") == " + f.offset(),
+                    structDef.name + "." + f.name());
+        }
+        scb.write("\n");
 
         // Declare struct methods
         structDef.methods.forEach(meth -> meth.accept(this));
     }
 
+    private void writeStaticAssert(String condition, String subject) {
+        scb.writeIndented("_Static_assert(", condition, ", \"layout of ", subject, "\");");
+    }
+
     @Override
     public void visit(MethDef methDef) {
         var ownerType = methDef.owner().theType;
@@ -57,6 +73,7 @@ public class GenCHeaders extends GenCBase {
         scb.writeIndented("#define ", guardName, "\n");
 
         scb.writeIndented("#include <stdbool.h>");
+        scb.writeIndented("#include <stddef.h>");
         scb.writeIndented("#include <stdint.h>");
         scb.writeIndented("#include <stdio.h>");
         scb.writeIndented("#include <stdlib.h>");
@@ -164,7 +164,7 @@ public class CommandLineParser {
         if (!argumentDefinitions.containsKey(argName)) {
             return Optional.empty();
         }
-        return Optional.of(parsedArguments.get(argName));
+        return Optional.ofNullable(parsedArguments.get(argName));
     }
 
     public boolean hasFlag(String flagName) {
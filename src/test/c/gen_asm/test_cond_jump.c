@@ -0,0 +1,84 @@
+#include <math.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_cond_jump.h"
+
+// Masks of true comparisons: == 1, != 2, > 4, >= 8, < 16, <= 32
+#define LESS 50
+#define GREATER 14
+#define EQUAL 41
+#define UNORDERED 2
+
+char* test_f64IfMask() {
+    mu_asserteq(LESS, f64IfMask(1.0, 2.0));
+    mu_asserteq(GREATER, f64IfMask(2.0, 1.0));
+    mu_asserteq(EQUAL, f64IfMask(1.0, 1.0));
+    mu_asserteq(UNORDERED, f64IfMask(NAN, 1.0));
+    mu_asserteq(UNORDERED, f64IfMask(1.0, NAN));
+    mu_asserteq(UNORDERED, f64IfMask(NAN, NAN));
+    return 0;
+}
+
+char* test_f64NotIfElseMask() {
+    mu_asserteq(LESS, f64NotIfElseMask(1.0, 2.0));
+    mu_asserteq(GREATER, f64NotIfElseMask(2.0, 1.0));
+    mu_asserteq(EQUAL, f64NotIfElseMask(1.0, 1.0));
+    mu_asserteq(UNORDERED, f64NotIfElseMask(NAN, 1.0));
+    mu_asserteq(UNORDERED, f64NotIfElseMask(1.0, NAN));
+    return 0;
+}
+
+char* test_f64TernaryMask() {
+    mu_asserteq(LESS, f64TernaryMask(-1.0, 2.0));
+    mu_asserteq(GREATER, f64TernaryMask(2.0, -1.0));
+    mu_asserteq(EQUAL, f64TernaryMask(0.5, 0.5));
+    mu_asserteq(UNORDERED, f64TernaryMask(NAN, 1.0));
+    mu_asserteq(UNORDERED, f64TernaryMask(1.0, NAN));
+    return 0;
+}
+
+char* test_f64StoredMask() {
+    mu_asserteq(LESS, f64StoredMask(1.0, 2.0));
+    mu_asserteq(GREATER, f64StoredMask(2.0, 1.0));
+    mu_asserteq(EQUAL, f64StoredMask(1.0, 1.0));
+    mu_asserteq(UNORDERED, f64StoredMask(NAN, 1.0));
+    mu_asserteq(UNORDERED, f64StoredMask(1.0, NAN));
+    return 0;
+}
+
+char* test_i64IfMask() {
+    mu_asserteq(LESS, i64IfMask(-3, 2));
+    mu_asserteq(GREATER, i64IfMask(2, -3));
+    mu_asserteq(EQUAL, i64IfMask(7, 7));
+    return 0;
+}
+
+char* test_i64NotTernaryMask() {
+    mu_asserteq(LESS, i64NotTernaryMask(-3, 2));
+    mu_asserteq(GREATER, i64NotTernaryMask(2, -3));
+    mu_asserteq(EQUAL, i64NotTernaryMask(7, 7));
+    return 0;
+}
+
+char* test_loops() {
+    mu_asserteq(45, countTo(10));
+    mu_asserteq(0, countTo(-1));
+    mu_asserteq(4, halveUntilBelow(10.0, 1.0));
+    mu_asserteq(0, halveUntilBelow(NAN, 1.0));
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_f64IfMask,
+        test_f64NotIfElseMask,
+        test_f64TernaryMask,
+        test_f64StoredMask,
+        test_i64IfMask,
+        test_i64NotTernaryMask,
+        test_loops
+    };
+    return RUN_TESTS(tests);
+}
@@ -0,0 +1,62 @@
+#include <stdbool.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_leaf_frame.h"
+
+char* test_registersOnly() {
+    mu_asserteq(true, isOdd(7));
+    mu_asserteq(false, isOdd(-4));
+    mu_asserteq(true, isOdd(-3));
+    mu_asserteq(2.5, lerp(2.0, 4.0, 0.25));
+    mu_asserteq(-1.0, lerp(1.0, -1.0, 1.0));
+    mu_asserteq(0, collatzSteps(1));
+    mu_asserteq(111, collatzSteps(27));
+    mu_asserteq(118, collatzSteps(97));
+    return 0;
+}
+
+char* test_redZoneLocals() {
+    mu_asserteq(-17, mix(0));
+    mu_asserteq(35, mix(2));
+    mu_asserteq(343, mix(-5));
+    return 0;
+}
+
+char* test_frameTooLargeForRedZone() {
+    mu_asserteq(-58, mixMore(0));
+    mu_asserteq(2294, mixMore(3));
+    mu_asserteq(-6106, mixMore(-4));
+    return 0;
+}
+
+char* test_stackArgs() {
+    mu_asserteq(204, weigh(1, 2, 3, 4, 5, 6, 7, 8));
+    mu_asserteq(-36, weigh(0, 0, 0, 0, 0, 0, 4, -8));
+    return 0;
+}
+
+char* test_tailCallWithoutFrame() {
+    mu_asserteq(5, absDiff(2, 7));
+    mu_asserteq(5, absDiff(7, 2));
+    mu_asserteq(0, absDiff(-3, -3));
+    return 0;
+}
+
+char* test_callingLeafFunctions() {
+    mu_asserteq(0, sumOfOdds(0));
+    mu_asserteq(2500, sumOfOdds(100));
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_registersOnly,
+        test_redZoneLocals,
+        test_frameTooLargeForRedZone,
+        test_stackArgs,
+        test_tailCallWithoutFrame,
+        test_callingLeafFunctions
+    };
+    return RUN_TESTS(tests);
+}
@@ -0,0 +1,72 @@
+#include <stdbool.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_loop_opt.h"
+
+typedef struct Limits Limits;
+
+/** Reference implementation of sumProducts with wrapping arithmetic */
+static int64_t sumProductsRef(int64_t from, int64_t to, int64_t step) {
+    uint64_t sum = 0;
+    for (int64_t i = from; i != to; i += from < to ? 1 : -1) {
+        sum += (uint64_t)i * (uint64_t)step + 7 * (uint64_t)i;
+    }
+    return (int64_t)sum;
+}
+
+char* test_invariantExpressions() {
+    mu_asserteq(1.0, expTaylorEven(3.0, 0));
+    // cosh(1)
+    double cosh1 = expTaylorEven(1.0, 10);
+    mu_asserteq(1, cosh1 > 1.5430806 && cosh1 < 1.5430807);
+    mu_asserteq(5000, guardedDivision(100, 2));
+    mu_asserteq(0, guardedDivision(100, 0));
+    mu_asserteq(0, guardedDivision(0, 0));
+    return 0;
+}
+
+char* test_inductionVariables() {
+    mu_asserteq(sumProductsRef(0, 10, 3), sumProducts(0, 10, 3));
+    mu_asserteq(sumProductsRef(5, -5, -4), sumProducts(5, -5, -4));
+    mu_asserteq(0, sumProducts(3, 3, 5));
+    mu_asserteq(sumProductsRef(-3, 1000, INT64_MAX), sumProducts(-3, 1000, INT64_MAX));
+    // i = 0, 3, 6, 9: 5 * (0 + 3 + 6 + 9) + 5 * 12
+    mu_asserteq(150, stridedProducts(10, 3, 5));
+    mu_asserteq(0, stridedProducts(-1, 1, 1));
+    return 0;
+}
+
+char* test_nestedLoops() {
+    int64_t expected = 0;
+    for (int64_t r = 0; r < 4; r++) {
+        for (int64_t c = 0; c < 5; c++) {
+            expected += r * 5 * 3 + c;
+        }
+    }
+    mu_asserteq(expected, nestedSums(4, 5));
+    mu_asserteq(0, nestedSums(0, 5));
+    return 0;
+}
+
+char* test_fieldReads() {
+    Limits* limits = Limits$new$(2, 7);
+    mu_asserteq(0 + 1 + 2 + 3 + 4, sumBelowLimit(limits, 10));
+    mu_asserteq(0, sumBelowLimit(NULL, 0));
+    mu_asserteq(5, rangeLength(limits));
+    mu_asserteq(5, drain(limits));
+    mu_asserteq(2, limits->max);
+    free(limits);
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_invariantExpressions,
+        test_inductionVariables,
+        test_nestedLoops,
+        test_fieldReads
+    };
+    return RUN_TESTS(tests);
+}
@@ -16,11 +16,22 @@ char* test_get_field_from_nested_struct() {
     return 0;
 }
 
+char* test_get_bool_and_float_fields() {
+    struct Flags* flags = Flags$new$(true, false, 0.25);
+    mu_asserteq(false, accessBoolField(flags));
+    mu_asserteq(0.25, accessFloatField(flags));
+    flags->second = true;
+    mu_asserteq(true, accessBoolField(flags));
+    free(flags);
+    return 0;
+}
+
 int tests_run = 0;
 int main() {
     char* (*tests[])() = {
         test_get_simple_field,
-        test_get_field_from_nested_struct  //
+        test_get_field_from_nested_struct, //
+        test_get_bool_and_float_fields     //
     };
     return RUN_TESTS(tests);
 }
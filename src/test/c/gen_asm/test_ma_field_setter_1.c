@@ -7,6 +7,7 @@
 typedef struct OneField OneField;
 typedef struct Nested Nested;
 typedef struct MultiPrimFields MultiPrimFields;
+typedef struct TwoBools TwoBools;
 
 char* test_set_simple_field() {
     OneField* obj = OneField$new$(123);
@@ -47,12 +48,43 @@ char* test_set_multiprimfields_fields() {
     return 0;
 }
 
+char* test_set_nested_field_computed() {
+    OneField* oneFielder = OneField$new$(5);
+    Nested* obj = Nested$new$(oneFielder);
+
+    modifyNestedFieldComputed(obj, 3);
+    mu_asserteq(16, obj->oneFielder->num);
+
+    free(oneFielder);
+    free(obj);
+    return 0;
+}
+
+char* test_set_bool_keeps_adjacent_fields() {
+    TwoBools* obj = TwoBools$new$(true, false, -1);
+
+    modifyAdjacentBool(obj, true);
+    mu_asserteq(true, obj->first);
+    mu_asserteq(true, obj->second);
+    mu_asserteq(-1, obj->num);
+
+    modifyAdjacentBool(obj, false);
+    mu_asserteq(true, obj->first);
+    mu_asserteq(false, obj->second);
+    mu_asserteq(-1, obj->num);
+
+    free(obj);
+    return 0;
+}
+
 int tests_run = 0;
 int main() {
     char* (*tests[])() = {
         test_set_simple_field,
         test_set_nested_field,           //
-        test_set_multiprimfields_fields  //
+        test_set_multiprimfields_fields, //
+        test_set_nested_field_computed,  //
+        test_set_bool_keeps_adjacent_fields
     };
     return RUN_TESTS(tests);
 }
@@ -0,0 +1,95 @@
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_pow.h"
+
+char* test_i64ConstExponent() {
+    mu_asserteq(1, i64Pow0(0));
+    mu_asserteq(1, i64Pow0(-7));
+    mu_asserteq(-7, i64Pow1(-7));
+    mu_asserteq(243, i64Pow5(3));
+    mu_asserteq(-32, i64Pow5(-2));
+    mu_asserteq(1594323, i64Pow13(3));
+    mu_asserteq(-8192, i64Pow13(-2));
+    return 0;
+}
+
+char* test_i64Pow() {
+    mu_asserteq(1, i64Pow(5, 0));
+    mu_asserteq(5, i64Pow(5, 1));
+    mu_asserteq(1024, i64Pow(2, 10));
+    mu_asserteq(-27, i64Pow(-3, 3));
+    mu_asserteq(81, i64Pow(-3, 4));
+    mu_asserteq(INT64_MIN, i64Pow(2, 63));
+    // Wraps around like repeated multiplication
+    mu_asserteq(0, i64Pow(2, 64));
+    mu_asserteq(1, i64Pow(0, 0));
+    mu_asserteq(0, i64Pow(0, 3));
+    return 0;
+}
+
+char* test_i64NegativeExponent() {
+    mu_asserteq(0, i64Pow(2, -1));
+    mu_asserteq(0, i64Pow(-5, -2));
+    mu_asserteq(0, i64Pow(0, -1));
+    mu_asserteq(1, i64Pow(1, -3));
+    mu_asserteq(-1, i64Pow(-1, -3));
+    mu_asserteq(1, i64Pow(-1, -4));
+    mu_asserteq(1, i64Pow(-1, INT64_MIN));
+    return 0;
+}
+
+char* test_i64PowOperands() {
+    // 4**3 - 3**2
+    mu_asserteq(55, i64PowOfSums(3, 2));
+    mu_asserteq(64, i64PowChain(2));
+    mu_asserteq(1, i64PowChain(-1));
+    return 0;
+}
+
+char* test_f64ConstExponent() {
+    mu_asserteq(1.0, f64Pow0(3.5));
+    mu_asserteq(1.0, f64Pow0(NAN));
+    mu_asserteq(15.625, f64Pow3(2.5));
+    mu_asserteq(-8.0, f64Pow3(-2.0));
+    mu_asserteq(1024.0, f64Pow10(2.0));
+    mu_asserteq(1.0, f64Pow10(-1.0));
+    mu_asserteq(3.0, f64PowHalf(9.0));
+    return 0;
+}
+
+char* test_f64Pow() {
+    mu_asserteq(pow(2.0, 0.5), f64Pow(2.0, 0.5));
+    mu_asserteq(0.125, f64Pow(2.0, -3.0));
+    mu_asserteq(pow(10.0, 20.0), f64Pow(10.0, 20.0));
+    mu_asserteq(1.0, f64Pow(NAN, 0.0));
+    mu_asserteq(INFINITY, f64Pow(0.0, -1.0));
+    return 0;
+}
+
+char* test_f64PowAcrossCall() {
+    // 9 + 6 + 2 + 5
+    mu_asserteq(22.0, f64PowKeepsLocals(3.0, 2.0, 4));
+    double expected = 0.0;
+    for (int i = 0; i < 6; i++) {
+        expected += pow(2.0, i / 2.0);
+    }
+    mu_asserteq(expected, f64PowSum(6));
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_i64ConstExponent,
+        test_i64Pow,
+        test_i64NegativeExponent,
+        test_i64PowOperands,
+        test_f64ConstExponent,
+        test_f64Pow,
+        test_f64PowAcrossCall
+    };
+    return RUN_TESTS(tests);
+}
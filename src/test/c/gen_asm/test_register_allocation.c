@@ -0,0 +1,26 @@
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_register_allocation.h"
+
+char* test_binOpInLastArg() { mu_asserteq(1239, binOpInLastArg()); return 0; }
+char* test_divInLastArg() { mu_asserteq(1234, divInLastArg()); return 0; }
+char* test_floatBinOpInLastArg() { mu_asserteq(128.0, floatBinOpInLastArg()); return 0; }
+char* test_manyLiveAcrossCall() { mu_asserteq(55, manyLiveAcrossCall(1)); return 0; }
+char* test_manyFloatsLiveAcrossCall() { mu_asserteq(55.0, manyFloatsLiveAcrossCall(1.0)); return 0; }
+char* test_loopCarried() { mu_asserteq(30, loopCarried(5)); return 0; }
+char* test_methodCallWithBinOpArg() { mu_asserteq(25, methodCallWithBinOpArg(8)); return 0; }
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_binOpInLastArg,
+        test_divInLastArg,
+        test_floatBinOpInLastArg,
+        test_manyLiveAcrossCall,
+        test_manyFloatsLiveAcrossCall,
+        test_loopCarried,
+        test_methodCallWithBinOpArg
+    };
+    return RUN_TESTS(tests);
+}
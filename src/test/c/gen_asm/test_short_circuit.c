@@ -0,0 +1,79 @@
+#include <stdbool.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_short_circuit.h"
+
+typedef struct Counter Counter;
+typedef struct Node Node;
+
+char* test_andValue() {
+    Counter* c = Counter$new$(0);
+    mu_asserteq(false, andValue(c, false, true));
+    mu_asserteq(1, c->calls);
+    mu_asserteq(true, andValue(c, true, true));
+    mu_asserteq(3, c->calls);
+    mu_asserteq(false, andValue(c, true, false));
+    mu_asserteq(5, c->calls);
+    free(c);
+    return 0;
+}
+
+char* test_orValue() {
+    Counter* c = Counter$new$(0);
+    mu_asserteq(true, orValue(c, true, false));
+    mu_asserteq(1, c->calls);
+    mu_asserteq(true, orValue(c, false, true));
+    mu_asserteq(3, c->calls);
+    mu_asserteq(false, orValue(c, false, false));
+    mu_asserteq(5, c->calls);
+    free(c);
+    return 0;
+}
+
+char* test_andOrCondition() {
+    Counter* c = Counter$new$(0);
+    mu_asserteq(1, andOrCondition(c, true, true, false));
+    mu_asserteq(2, c->calls);
+    mu_asserteq(1, andOrCondition(c, false, true, true));
+    mu_asserteq(4, c->calls);
+    mu_asserteq(0, andOrCondition(c, true, false, false));
+    mu_asserteq(7, c->calls);
+    free(c);
+    return 0;
+}
+
+char* test_notOrTernary() {
+    Counter* c = Counter$new$(0);
+    mu_asserteq(0, notOrTernary(c, true, false));
+    mu_asserteq(1, c->calls);
+    mu_asserteq(1, notOrTernary(c, false, false));
+    mu_asserteq(3, c->calls);
+    free(c);
+    return 0;
+}
+
+char* test_nullChecks() {
+    mu_asserteq(false, hasPositiveValue(NULL));
+    Node* last = Node$new$(5, NULL);
+    Node* first = Node$new$(-1, last);
+    mu_asserteq(false, hasPositiveValue(first));
+    mu_asserteq(true, hasPositiveValue(last));
+    mu_asserteq(1, firstPositive(first));
+    mu_asserteq(0, firstPositive(NULL));
+    free(first);
+    free(last);
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_andValue,
+        test_orValue,
+        test_andOrCondition,
+        test_notOrTernary,
+        test_nullChecks
+    };
+    return RUN_TESTS(tests);
+}
@@ -0,0 +1,92 @@
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_strength_reduction.h"
+
+static const int64_t values[] = {
+    0, 1, -1, 2, -2, 3, -3, 7, -7, 9, -9, 10, -10, 15, -15, 99, -99, 12345, -12345,
+    INT32_MAX, INT32_MIN, INT64_MAX, INT64_MIN + 1, INT64_MIN
+};
+static const int values_len = sizeof(values) / sizeof(values[0]);
+
+char* test_multiplication() {
+    for (int i = 0; i < values_len; i++) {
+        // Wrapping multiplication, computed unsigned to avoid undefined behavior
+        uint64_t x = (uint64_t)values[i];
+        mu_asserteq(0, mul0(values[i]));
+        mu_asserteq((int64_t)(x * 3), mul3(values[i]));
+        mu_asserteq((int64_t)(x * 8), mul8(values[i]));
+        mu_asserteq((int64_t)(x * (uint64_t)-9), mulNeg9(values[i]));
+        mu_asserteq((int64_t)(x * 10), mul10(values[i]));
+        mu_asserteq((int64_t)(x * 3000000000), mulBig(values[i]));
+    }
+    return 0;
+}
+
+char* test_division() {
+    for (int i = 0; i < values_len; i++) {
+        int64_t x = values[i];
+        mu_asserteq(x, div1(x));
+        mu_asserteq(x / 2, div2(x));
+        mu_asserteq(x / -4, divNeg4(x));
+        mu_asserteq(x / 7, div7(x));
+        mu_asserteq(x / 10, div10(x));
+        mu_asserteq(x / -10, divNeg10(x));
+        mu_asserteq(x / 3000000000, divBig(x));
+    }
+    return 0;
+}
+
+char* test_modulo() {
+    for (int i = 0; i < values_len; i++) {
+        int64_t x = values[i];
+        mu_asserteq(x % 2, mod2(x));
+        mu_asserteq(x % -8, modNeg8(x));
+        mu_asserteq(x % 7, mod7(x));
+        mu_asserteq(x % 10, mod10(x));
+    }
+    return 0;
+}
+
+char* test_addSubImmediates() {
+    mu_asserteq(993, addSub(0));
+    mu_asserteq(-7, addSub(-1000));
+    mu_asserteq(3000000001, addBig(1));
+    mu_asserteq(-1, addBig(-3000000001));
+    return 0;
+}
+
+char* test_comparisons() {
+    mu_asserteq(true, isOdd(-3));
+    mu_asserteq(false, isOdd(-4));
+    mu_asserteq(true, isOdd(INT64_MAX));
+    mu_asserteq(false, isOdd(INT64_MIN));
+    mu_asserteq(15, fizzBuzz(-30));
+    mu_asserteq(5, fizzBuzz(25));
+    mu_asserteq(3, fizzBuzz(-9));
+    mu_asserteq(0, fizzBuzz(7));
+    return 0;
+}
+
+char* test_digitSum() {
+    mu_asserteq(0, digitSum(0));
+    mu_asserteq(15, digitSum(12345));
+    mu_asserteq(-15, digitSum(-12345));
+    mu_asserteq(88, digitSum(INT64_MAX));
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_multiplication,
+        test_division,
+        test_modulo,
+        test_addSubImmediates,
+        test_comparisons,
+        test_digitSum
+    };
+    return RUN_TESTS(tests);
+}
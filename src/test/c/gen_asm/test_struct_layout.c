@@ -0,0 +1,44 @@
+#include <stdbool.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_struct_layout.h"
+
+typedef struct Padded Padded;
+typedef struct Reordered Reordered;
+
+char* test_declared_layout() {
+    mu_asserteq(32, sizeof(Padded));
+    Padded* obj = Padded$new$(true, 40, false, 2);
+    mu_asserteq(43, sumPadded(obj));
+    free(obj);
+    return 0;
+}
+
+char* test_reordered_layout() {
+    mu_asserteq(32, sizeof(Reordered));
+    mu_asserteq(24, offsetof(Reordered, flag));
+    mu_asserteq(25, offsetof(Reordered, other));
+
+    // The constructor keeps the declaration order
+    Reordered* obj = Reordered$new$(true, 40, false, 2, 0.5);
+    mu_asserteq(43, sumReordered(obj));
+
+    toggleReordered(obj);
+    mu_asserteq(true, obj->flag);
+    mu_asserteq(true, obj->other);
+    mu_asserteq(40, obj->value);
+    mu_asserteq(1.0, obj->ratio);
+    mu_asserteq(42, sumReordered(obj));
+    free(obj);
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_declared_layout,
+        test_reordered_layout  //
+    };
+    return RUN_TESTS(tests);
+}
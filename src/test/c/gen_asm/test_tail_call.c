@@ -0,0 +1,67 @@
+#include <stdbool.h>
+#include <stdio.h>
+
+#include "../minunit.h"
+#include "tests.asm.test_tail_call.h"
+
+typedef struct Node Node;
+
+char* test_selfTailCalls() {
+    mu_asserteq(0, sumTo(0, 0));
+    // Deep enough to need a lot of stack without tail calls
+    mu_asserteq(5000050000, sumTo(100000, 0));
+    mu_asserteq(6, gcd(48, 18));
+    mu_asserteq(1, gcd(17, 5));
+    mu_asserteq(12, alternate(1, 2, 0));
+    mu_asserteq(21, alternate(1, 2, 99999));
+    mu_asserteq(1024.0, powLoop(2.0, 10, 1.0));
+    mu_asserteq(1.0, powLoop(0.5, 0, 1.0));
+    return 0;
+}
+
+char* test_siblingTailCalls() {
+    mu_asserteq(true, isEven(0));
+    mu_asserteq(false, isEven(7));
+    mu_asserteq(true, isOdd(100001));
+    mu_asserteq(false, isOdd(100000));
+    // (2 * 4) * 0.5 + (3 * 4) * 1.5
+    mu_asserteq(22.0, scaledWeightedSum(2, 3, 0.5));
+    return 0;
+}
+
+char* test_stackArgsAreNotTailCalled() {
+    mu_asserteq(123456, rotate(1, 2, 3, 4, 5, 6, 0));
+    mu_asserteq(345612, rotate(1, 2, 3, 4, 5, 6, 2));
+    mu_asserteq(123456, rotate(1, 2, 3, 4, 5, 6, 6000));
+    return 0;
+}
+
+char* test_methodTailCalls() {
+    Node* head = newNode(0);
+    Node* last = head;
+    for (int i = 1; i < 1000; i++) {
+        last = Node$append(head, i);
+        mu_asserteq(i, last->value);
+    }
+    mu_asserteq(NULL, last->next);
+    mu_asserteq(1000, Node$length(head, 0));
+    mu_asserteq(1, Node$length(last, 0));
+
+    while (head != NULL) {
+        Node* next = head->next;
+        free(head);
+        head = next;
+    }
+    return 0;
+}
+
+int tests_run = 0;
+int main() {
+    char* (*tests[])() = {
+        test_selfTailCalls,
+        test_siblingTailCalls,
+        test_stackArgsAreNotTailCalled,
+        test_methodTailCalls
+    };
+    return RUN_TESTS(tests);
+}
@@ -0,0 +1,126 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CompilationCacheTest {
+    static final byte[] SOURCE = "fn foo() -> i64 { return 42; }".getBytes();
+
+    static KlangCompilerConfig.KlangCompilerConfigBuilder configBuilder() {
+        return KlangCompilerConfig.builder().outputDir("out").buildAst(true).typeCheck(true)
+                .generateAsm(true).useCache(true);
+    }
+
+    @Nested
+    class KeyTests {
+        final String key = CompilationCache.key(SOURCE, configBuilder().build(), "pkg", "Foo");
+
+        @Test
+        void sameInputsSameKey() {
+            assertEquals(key, CompilationCache.key(SOURCE, configBuilder().build(), "pkg", "Foo"));
+        }
+
+        @Test
+        void changedSourceChangesKey() {
+            var changed = "fn foo() -> i64 { return 43; }".getBytes();
+            assertNotEquals(key, CompilationCache.key(changed, configBuilder().build(), "pkg", "Foo"));
+        }
+
+        @Test
+        void changedOutputFormatChangesKey() {
+            var cfg = configBuilder().generateJbc(true).build();
+            assertNotEquals(key, CompilationCache.key(SOURCE, cfg, "pkg", "Foo"));
+        }
+
+        @Test
+        void streamedAsmChangesKey() {
+            var cfg = configBuilder().streamAsm(true).build();
+            assertNotEquals(key, CompilationCache.key(SOURCE, cfg, "pkg", "Foo"));
+        }
+
+        @Test
+        void changedOptLevelChangesKey() {
+            var cfg = configBuilder().optLevel(1).build();
+            assertNotEquals(key, CompilationCache.key(SOURCE, cfg, "pkg", "Foo"));
+        }
+
+        @Test
+        void asmFromIrChangesKey() {
+            var cfg = configBuilder().asmFromIr(true).build();
+            assertNotEquals(key, CompilationCache.key(SOURCE, cfg, "pkg", "Foo"));
+        }
+
+        @Test
+        void changedUnitNameChangesKey() {
+            assertNotEquals(key, CompilationCache.key(SOURCE, configBuilder().build(), "pkg", "Bar"));
+            assertNotEquals(key, CompilationCache.key(SOURCE, configBuilder().build(), "", "Foo"));
+        }
+
+        @Test
+        void outputDirDoesNotChangeKey() {
+            var cfg = configBuilder().outputDir("elsewhere").build();
+            assertEquals(key, CompilationCache.key(SOURCE, cfg, "pkg", "Foo"));
+        }
+    }
+
+    @Nested
+    class StoreRestoreTests {
+        @TempDir
+        Path outDir;
+        CompilationCache cache;
+        List<Path> outputs;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            cache = new CompilationCache(outDir.toString());
+            outputs = List.of(outDir.resolve("pkg.Foo.s"), outDir.resolve("pkg.Foo.c"));
+            Files.writeString(outputs.get(0), "asm");
+            Files.writeString(outputs.get(1), "c");
+        }
+
+        @Test
+        void missWithoutEntry() throws IOException {
+            assertFalse(cache.restore("k1", "pkg", "Foo", outputs));
+        }
+
+        @Test
+        void missWithOtherKey() throws IOException {
+            cache.store("k1", "pkg", "Foo", outputs);
+            assertFalse(cache.restore("k2", "pkg", "Foo", outputs));
+        }
+
+        @Test
+        void hitRestoresModifiedAndMissingOutputs() throws IOException {
+            cache.store("k1", "pkg", "Foo", outputs);
+            Files.writeString(outputs.get(0), "modified");
+            Files.delete(outputs.get(1));
+
+            assertTrue(cache.restore("k1", "pkg", "Foo", outputs));
+            assertEquals("asm", Files.readString(outputs.get(0)));
+            assertEquals("c", Files.readString(outputs.get(1)));
+        }
+
+        @Test
+        void storeReplacesPreviousEntry() throws IOException {
+            cache.store("k1", "pkg", "Foo", outputs);
+            Files.writeString(outputs.get(0), "asm2");
+            cache.store("k2", "pkg", "Foo", outputs);
+
+            assertFalse(cache.restore("k1", "pkg", "Foo", outputs));
+            assertTrue(cache.restore("k2", "pkg", "Foo", outputs));
+            assertEquals("asm2", Files.readString(outputs.get(0)));
+        }
+    }
+}
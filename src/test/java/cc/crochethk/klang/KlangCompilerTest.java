@@ -0,0 +1,154 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KlangCompilerTest {
+    /** If-else statements whose branches both return end the function's bytecode. */
+    @Test
+    void jbcWithReturningBranchesAtEndOfCode(@TempDir Path root) throws Exception {
+        for (int optLevel = 0; optLevel <= 1; optLevel++) {
+            var outDir = root.resolve("opt" + optLevel);
+            assertEquals(64L, compileT5(outDir, optLevel).invoke(null, 0L, 1L, 15L));
+        }
+    }
+
+    /** Compiles tests/t5.k to JBC and returns its {@code sum_odd_from_to} method. */
+    private static Method compileT5(Path outDir, int optLevel) throws Exception {
+        var config = KlangCompilerConfig.builder().outputDir(outDir.toString())
+                .buildAst(true).typeCheck(true).generateJbc(true).optLevel(optLevel).build();
+        var errBuf = new ByteArrayOutputStream();
+        var compiler = new KlangCompiler(config, new PrintStream(OutputStream.nullOutputStream()),
+                new PrintStream(errBuf));
+        assertEquals(KlangCompiler.Result.Ok, compiler.compileFile(Path.of("tests"), Path.of("t5.k")),
+                errBuf::toString);
+
+        var loader = new URLClassLoader(new URL[] { outDir.toUri().toURL() });
+        return loader.loadClass("t5").getMethod("sum_odd_from_to", long.class, long.class, long.class);
+    }
+
+    /** Exit code and output of a {@link KlangCompiler#run} invocation. */
+    record RunResult(int exitCode, String out, String err) {
+    }
+
+    static RunResult run(Path workDir, List<String> args) {
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        int exitCode = KlangCompiler.run(args.toArray(String[]::new), workDir, new PrintStream(out, true),
+                new PrintStream(err, true));
+        return new RunResult(exitCode, out.toString(), err.toString());
+    }
+
+    @Nested
+    class CacheTests {
+        @TempDir
+        Path root;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            Files.writeString(root.resolve("a.k"), "fn a(x: i64) -> i64 {\n    return x * 2;\n}\n");
+        }
+
+        @Test
+        void cacheIsOffByDefault() {
+            for (int i = 0; i < 2; i++) {
+                var result = run(root, List.of("--out", "out", "a.k"));
+                assertEquals(0, result.exitCode());
+                assertFalse(result.out().contains("using cached output"), result.out());
+            }
+            assertFalse(Files.exists(root.resolve("out/.klang-cache")));
+        }
+
+        @Test
+        void cacheIsUsedWhenEnabled() {
+            var args = List.of("--cache", "true", "--out", "out", "a.k");
+            assertFalse(run(root, args).out().contains("using cached output"));
+            assertTrue(Files.isDirectory(root.resolve("out/.klang-cache")));
+            assertTrue(run(root, args).out().contains("Source unchanged, using cached output:"));
+        }
+    }
+
+    @Nested
+    class JobsTests {
+        @TempDir
+        Path root;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            Files.writeString(root.resolve("a.k"), "fn a(x: i64) -> i64 {\n    return x * 2;\n}\n");
+            Files.writeString(root.resolve("b.k"), "fn b(x: f64) -> f64 {\n    return x / 2.0;\n}\n");
+            Files.writeString(root.resolve("c.k"), "fn c() -> bool {\n    return 1 < 2;\n}\n");
+            Files.writeString(root.resolve("syntax_error.k"), "fn s() {\n    let x = ;\n}\n");
+            Files.writeString(root.resolve("type_error.k"), "fn t() -> i64 {\n    return true;\n}\n");
+        }
+
+        RunResult compile(String jobs, String... files) {
+            var args = new ArrayList<>(List.of("--cache", "false", "--out", "out", "--jobs", jobs, "--"));
+            args.addAll(List.of(files));
+            return run(root, args);
+        }
+
+        /** Asserts that compiling in parallel prints the same and exits the same as sequentially. */
+        RunResult assertSameAsSequential(String... files) {
+            var sequential = compile("1", files);
+            // 0 means one job per available processor
+            for (var jobs : List.of("4", "0")) {
+                assertEquals(sequential, compile(jobs, files), "--jobs " + jobs);
+            }
+            return sequential;
+        }
+
+        @Test
+        void allFilesValid() {
+            var result = assertSameAsSequential("a.k", "b.k", "c.k");
+            assertEquals(0, result.exitCode());
+            assertEquals("", result.err());
+        }
+
+        @Test
+        void syntaxErrorStopsAfterFailedFile() {
+            var result = assertSameAsSequential("a.k", "syntax_error.k", "b.k", "c.k");
+            assertEquals(1, result.exitCode());
+            assertTrue(result.err().startsWith("line 2:12 "), result.err());
+            assertFalse(result.out().contains("[ b.k ]"), result.out());
+        }
+
+        @Test
+        void typeErrorStopsAfterFailedFile() {
+            var result = assertSameAsSequential("a.k", "b.k", "type_error.k", "c.k");
+            assertEquals(1, result.exitCode());
+            assertFalse(result.err().isEmpty());
+            assertFalse(result.out().contains("[ c.k ]"), result.out());
+        }
+
+        @Test
+        void invalidJobsAreRejected() {
+            // "-1" already fails parsing the arguments, since it looks like an option
+            var expectedErrors = List.of("Error: Missing value for argument: --jobs\n",
+                    "Error: Invalid number of jobs: many\n");
+            var jobs = List.of("-1", "many");
+            for (int i = 0; i < jobs.size(); i++) {
+                var result = compile(jobs.get(i), "a.k", "b.k");
+                assertEquals(1, result.exitCode());
+                assertTrue(result.err().startsWith(expectedErrors.get(i)), result.err());
+                assertFalse(result.out().contains("[ a.k ]"), result.out());
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package cc.crochethk.klang;
+
+import static cc.crochethk.klang.KlangDaemon.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KlangDaemonTest {
+    static final String VALID_SOURCE = "fn ___main___() {\n    print(1);\n}\n";
+    static final String INVALID_SOURCE = "fn foo() {\n    let x = ;\n}\n";
+
+    /** Request lines of a compile request with the given working directory and arguments. */
+    static List<String> compileRequest(Path workDir, String... args) {
+        var lines = new ArrayList<String>();
+        lines.add(workDir.toString());
+        lines.add(String.valueOf(args.length));
+        lines.addAll(List.of(args));
+        return lines;
+    }
+
+    static byte[] encode(List<String> requestLines) {
+        return requestLines.stream().map(line -> line + "\n").collect(Collectors.joining()).getBytes(UTF_8);
+    }
+
+    /** Concatenates the content of all response lines with the given tag. */
+    static String linesTagged(List<String> response, String tag) {
+        return response.stream()
+                .filter(line -> line.startsWith(tag))
+                .map(line -> line.substring(tag.length()) + "\n")
+                .collect(Collectors.joining());
+    }
+
+    @Nested
+    class FramingTests {
+        List<String> handle(List<String> requestLines) throws IOException {
+            var response = new ByteArrayOutputStream();
+            KlangDaemon.handle(new ByteArrayInputStream(encode(requestLines)), response);
+            return response.toString(UTF_8).lines().toList();
+        }
+
+        @Test
+        void responseReplaysOutputAndExitCode(@TempDir Path root) throws IOException {
+            Files.writeString(root.resolve("ok.k"), VALID_SOURCE);
+            Files.writeString(root.resolve("bad.k"), INVALID_SOURCE);
+
+            var exitCodes = new ArrayList<Integer>();
+            for (var file : List.of("ok.k", "bad.k")) {
+                String[] args = { "--cache", "false", "--out", "out", "--", file };
+                var out = new ByteArrayOutputStream();
+                var err = new ByteArrayOutputStream();
+                int exitCode = KlangCompiler.run(args, root, new PrintStream(out, true, UTF_8),
+                        new PrintStream(err, true, UTF_8));
+                exitCodes.add(exitCode);
+
+                var response = handle(compileRequest(root, args));
+                assertEquals(out.toString(UTF_8), linesTagged(response, TAG_OUT));
+                assertEquals(err.toString(UTF_8), linesTagged(response, TAG_ERR));
+                assertEquals(TAG_EXIT + exitCode, response.getLast());
+                for (var line : response.subList(0, response.size() - 1)) {
+                    assertTrue(line.startsWith(TAG_OUT) || line.startsWith(TAG_ERR), line);
+                }
+            }
+            assertEquals(List.of(0, 1), exitCodes);
+        }
+
+        @Test
+        void relativePathsAreResolvedAgainstWorkDir(@TempDir Path root) throws IOException {
+            Files.writeString(root.resolve("ok.k"), VALID_SOURCE);
+            var response = handle(compileRequest(root, "--cache", "false", "--out", "gen", "--", "ok.k"));
+            assertEquals(TAG_EXIT + 0, response.getLast());
+            // Files of the root package are prefixed with the (empty) package name
+            assertTrue(Files.exists(root.resolve("gen/.ok.s")));
+        }
+
+        @Test
+        void malformedRequestsAreAnsweredWithAnError() throws IOException {
+            var requests = List.of(
+                    List.<String>of(),
+                    List.of("/", "one", "--help"),
+                    List.of("/", "2", "--help"));
+            for (var request : requests) {
+                var response = handle(request);
+                assertEquals(TAG_EXIT + 1, response.getLast(), request::toString);
+                assertTrue(response.getFirst().startsWith(TAG_ERR + "Error: "), request::toString);
+            }
+        }
+    }
+
+    @Nested
+    class SocketTests {
+        /** Starts a daemon on the given socket, which is served until the test JVM exits. */
+        void startDaemon(Path socket) throws Exception {
+            var daemon = new Thread(() -> {
+                try {
+                    new KlangDaemon(socket).serve();
+                } catch (IOException e) {
+                    // Test fails waiting for the daemon
+                }
+            });
+            daemon.setDaemon(true);
+            daemon.start();
+
+            // The socket file shows up before the daemon listens, so wait for a first exchange
+            for (int attempt = 1;; attempt++) {
+                try {
+                    request(socket, List.of());
+                    return;
+                } catch (IOException e) {
+                    if (attempt == 500) {
+                        throw e;
+                    }
+                    Thread.sleep(10);
+                }
+            }
+        }
+
+        List<String> request(Path socket, List<String> requestLines) throws IOException {
+            try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                Channels.newOutputStream(channel).write(encode(requestLines));
+                channel.shutdownOutput();
+                return new String(Channels.newInputStream(channel).readAllBytes(), UTF_8).lines().toList();
+            }
+        }
+
+        @Test
+        void servesRequestsOverSocket(@TempDir Path root) throws Exception {
+            var socket = root.resolve("klangd.sock");
+            startDaemon(socket);
+            Files.writeString(root.resolve("ok.k"), VALID_SOURCE);
+
+            var response = request(socket, compileRequest(root, "--cache", "false", "--out", "out", "--", "ok.k"));
+            assertTrue(response.contains(TAG_OUT + "Files to process: [ok.k]"), response::toString);
+            assertEquals(TAG_EXIT + 0, response.getLast());
+        }
+
+        /** The shell client needs socat or nc, which is not available everywhere. */
+        @Test
+        void shellClientReplaysOutputAndExitCode(@TempDir Path root) throws Exception {
+            var which = new ProcessBuilder("sh", "-c", "command -v socat || command -v nc").start();
+            assumeTrue(which.waitFor() == 0, "Neither socat nor nc available");
+
+            var socket = root.resolve("klangd.sock");
+            startDaemon(socket);
+            Files.writeString(root.resolve("ok.k"), VALID_SOURCE);
+            Files.writeString(root.resolve("bad.k"), INVALID_SOURCE);
+
+            var client = Path.of("scripts/klang_client.sh").toAbsolutePath().toString();
+            for (var file : List.of("ok.k", "bad.k")) {
+                String[] args = { "--cache", "false", "--out", "out", "--", file };
+                var out = new ByteArrayOutputStream();
+                var err = new ByteArrayOutputStream();
+                int exitCode = KlangCompiler.run(args, root, new PrintStream(out, true, UTF_8),
+                        new PrintStream(err, true, UTF_8));
+
+                var command = new ArrayList<>(List.of("bash", client, socket.toString()));
+                command.addAll(List.of(args));
+                var process = new ProcessBuilder(command).directory(root.toFile()).start();
+                var clientErr = new String(process.getErrorStream().readAllBytes(), UTF_8);
+                var clientOut = new String(process.getInputStream().readAllBytes(), UTF_8);
+                assertEquals(exitCode, process.waitFor());
+                assertEquals(out.toString(UTF_8), clientOut);
+                assertEquals(err.toString(UTF_8), clientErr);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.FieldAssignStat;
+import cc.crochethk.klang.ast.Prog;
+import cc.crochethk.klang.ast.MemberAccess.FieldSet;
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator;
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator.Sizes;
+
+public class ParserPoolTest {
+    static CommonTokenStream tokens(String code) {
+        var tokens = new CommonTokenStream(ParserPool.lexer(CharStreams.fromString(code), System.err));
+        tokens.fill();
+        return tokens;
+    }
+
+    /** Parse tree in LISP notation, as produced by a fresh parser in default mode. */
+    static String llTree(String code) {
+        var parser = KlangCompiler.buildParser(KlangCompiler.buildLexer(CharStreams.fromString(code)));
+        return parser.start().toStringTree(parser);
+    }
+
+    @Nested
+    class TwoStageParsing {
+        @Test
+        void sllSucceedsOnWarmupSource() {
+            assertDoesNotThrow(() -> ParserPool.parseSll(ParserPool.parser(), tokens(ParserPool.WARMUP_SOURCE)));
+        }
+
+        @Test
+        void sllSucceedsOnGeneratedProgram() {
+            var code = SyntheticProgramGenerator.generate(Sizes.DEFAULT.scaled(2));
+            assertDoesNotThrow(() -> ParserPool.parseSll(ParserPool.parser(), tokens(code)));
+        }
+
+        @Test
+        void sameTreeAsDefaultParser() {
+            var code = SyntheticProgramGenerator.generate(Sizes.DEFAULT);
+            var parser = ParserPool.parser();
+            assertEquals(llTree(code), ParserPool.parse(parser, tokens(code), System.err).toStringTree(parser));
+        }
+
+        @Test
+        void sllBailsOnSyntaxError() {
+            assertThrows(ParseCancellationException.class,
+                    () -> ParserPool.parseSll(ParserPool.parser(), tokens("fn foo( {}")));
+        }
+
+        @Test
+        void syntaxErrorIsReportedByLlStage() {
+            var parser = ParserPool.parser();
+            var code = "fn foo() { let x = ; }";
+            // Recovered from just like by the default parser
+            assertEquals(llTree(code), ParserPool.parse(parser, tokens(code), System.err).toStringTree(parser));
+            assertEquals(1, parser.getNumberOfSyntaxErrors());
+        }
+    }
+
+    /** AST built by walking the complete parse tree, as done by default. */
+    static Prog walkedAst(String code) {
+        var tree = KlangCompiler.buildParser(KlangCompiler.buildLexer(CharStreams.fromString(code))).start();
+        ParseTreeWalker.DEFAULT.walk(new TreeBuilder(), tree);
+        return tree.result;
+    }
+
+    @Nested
+    class TreeFreeParsing {
+        @Test
+        void sameAstAsWalkedTree() {
+            var code = SyntheticProgramGenerator.generate(Sizes.DEFAULT.scaled(2));
+            assertEquals(walkedAst(code), ParserPool.parseAst(CharStreams.fromString(code), System.err));
+        }
+
+        @Test
+        void sameAstForAllConstructs() {
+            var code = ParserPool.WARMUP_SOURCE;
+            assertEquals(walkedAst(code), ParserPool.parseAst(CharStreams.fromString(code), System.err));
+        }
+
+        @Test
+        void fieldSetAndEntryPointAreBuilt() {
+            var code = "fn ___main___() { a.b.c = d.e + f.g(h.i); }";
+            var prog = ParserPool.parseAst(CharStreams.fromString(code), System.err);
+            assertEquals(walkedAst(code), prog);
+            assertTrue(prog.entryPoint.isPresent());
+            var stat = (FieldAssignStat) prog.funDefs.get(0).body.statements.get(0);
+            assertInstanceOf(FieldSet.class, stat.maChain.chain.next);
+        }
+
+        @Test
+        void lexerErrorAborts() {
+            assertThrows(ParseCancellationException.class,
+                    () -> ParserPool.parseAst(CharStreams.fromString("fn foo() { let x = $; }"), System.err));
+        }
+
+        @Test
+        void syntaxErrorsAreReportedToGivenStream() {
+            var err = new ByteArrayOutputStream();
+            var code = "fn foo() {\n    let x = $;\n    let y = ;\n}";
+            assertThrows(ParseCancellationException.class,
+                    () -> ParserPool.parseAst(CharStreams.fromString(code), new PrintStream(err)));
+            var lines = err.toString().lines().toList();
+            assertEquals(2, lines.size(), err::toString);
+            assertTrue(lines.get(0).startsWith("line 2:12 mismatched input '$'"), lines.get(0));
+            assertTrue(lines.get(1).startsWith("line 3:12 "), lines.get(1));
+        }
+    }
+
+    @Nested
+    class Pooling {
+        @Test
+        void instancesAreReusedPerThread() throws InterruptedException {
+            var parser = ParserPool.parser();
+            var lexer = ParserPool.lexer(CharStreams.fromString("fn"), System.err);
+            assertSame(parser, ParserPool.parser());
+            assertSame(lexer, ParserPool.lexer(CharStreams.fromString("struct"), System.err));
+
+            var otherThreadsParser = new KlangParserHolder();
+            var t = new Thread(() -> otherThreadsParser.parser = ParserPool.parser());
+            t.start();
+            t.join();
+            assertNotSame(parser, otherThreadsParser.parser);
+        }
+
+        @Test
+        void parserIsReusableAfterError() {
+            var parser = ParserPool.parser();
+            assertThrows(RuntimeException.class, () -> ParserPool.parse(parser, tokens("fn ("), System.err));
+            var code = "fn foo() -> i64 { return 1 + 2 * 3; }";
+            assertEquals(llTree(code), ParserPool.parse(parser, tokens(code), System.err).toStringTree(parser));
+        }
+
+        @Test
+        void prewarmLeavesPoolUsable() {
+            ParserPool.prewarm();
+            var code = "fn foo() {}";
+            var parser = ParserPool.parser();
+            assertEquals(llTree(code), ParserPool.parse(parser, tokens(code), System.err).toStringTree(parser));
+        }
+    }
+
+    private static class KlangParserHolder {
+        cc.crochethk.klang.antlr.KlangParser parser;
+    }
+}
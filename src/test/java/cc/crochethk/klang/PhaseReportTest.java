@@ -0,0 +1,176 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cc.crochethk.klang.PhaseTimer.Phase;
+import cc.crochethk.klang.PhaseTimer.Sample;
+import cc.crochethk.klang.testhelpers.JsonReader;
+
+public class PhaseReportTest {
+    static final Path FILE_A = Path.of("a.k");
+    static final Path FILE_B = Path.of("pkg/b.k");
+
+    PhaseReport report;
+
+    @BeforeEach
+    void setUp() {
+        report = new PhaseReport(List.of(FILE_A, FILE_B));
+        var a = report.timerFor(FILE_A);
+        a.add(Phase.LEX, new Sample(1_000_000, 500_000, 100));
+        a.add(Phase.PARSE, new Sample(2_000_000, 1_500_000, 0));
+        a.add(Phase.GEN_ASM, new Sample(4_000_000, 3_000_000, 1_000));
+        var b = report.timerFor(FILE_B);
+        b.add(Phase.LEX, new Sample(3_000_000, 2_500_000, 50));
+        b.add(Phase.GEN_ASM, new Sample(250_000, 125_000, 400));
+    }
+
+    @Test
+    void totalsAreSummedUpAcrossFiles() {
+        assertEquals(Map.of(
+                Phase.LEX, new Sample(4_000_000, 3_000_000, 150),
+                Phase.PARSE, new Sample(2_000_000, 1_500_000, 0),
+                Phase.GEN_ASM, new Sample(4_250_000, 3_125_000, 1_400)), report.totals());
+    }
+
+    @Test
+    void summaryHasFileAndTotalRows() {
+        var buf = new ByteArrayOutputStream();
+        report.printSummary(new PrintStream(buf, true));
+        var rows = buf.toString().lines()
+                .map(line -> Arrays.asList(line.trim().split("\\s+")))
+                .toList();
+
+        assertEquals(List.of(
+                List.of("Phase", "timings:"),
+                List.of("File", "Phase", "Wall", "[ms]", "CPU", "[ms]", "Bytes"),
+                List.of("a.k", "lex", "1.000", "0.500", "100"),
+                List.of("a.k", "parse", "2.000", "1.500", "0"),
+                List.of("a.k", "gen-asm", "4.000", "3.000", "1000"),
+                List.of("pkg/b.k", "lex", "3.000", "2.500", "50"),
+                List.of("pkg/b.k", "gen-asm", "0.250", "0.125", "400"),
+                List.of("TOTAL", "lex", "4.000", "3.000", "150"),
+                List.of("TOTAL", "parse", "2.000", "1.500", "0"),
+                List.of("TOTAL", "gen-asm", "4.250", "3.125", "1400"),
+                // Bytes of different phases are not summed up
+                List.of("TOTAL", "all", "10.250", "7.625")), rows);
+    }
+
+    @Test
+    void longFileNamesAreAbbreviated() {
+        var longName = Path.of("some/very/long/directory/structure/file.k");
+        var longReport = new PhaseReport(List.of(longName));
+        longReport.timerFor(longName).add(Phase.LEX, Sample.ZERO);
+        var buf = new ByteArrayOutputStream();
+        longReport.printSummary(new PrintStream(buf, true));
+        assertEquals("...ng/directory/structure/file.k", buf.toString().lines().toList().get(2).split(" ")[0]);
+    }
+
+    @Nested
+    class JsonTests {
+        @TempDir
+        Path dir;
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> writeAndParse(PhaseReport report) throws IOException {
+            var target = dir.resolve("reports/report.json");
+            report.writeJson(target);
+            return (Map<String, Object>) JsonReader.parse(Files.readString(target));
+        }
+
+        static Map<String, Object> sampleJson(long wallNanos, long cpuNanos, long bytes) {
+            return Map.of("wallNanos", wallNanos, "cpuNanos", cpuNanos, "bytes", bytes);
+        }
+
+        @Test
+        void jsonHasFilesAndTotals() throws IOException {
+            var json = writeAndParse(report);
+            assertEquals(List.of("files", "totals"), List.copyOf(json.keySet()));
+            assertEquals(List.of(
+                    Map.of("file", "a.k", "phases", Map.of(
+                            "lex", sampleJson(1_000_000, 500_000, 100),
+                            "parse", sampleJson(2_000_000, 1_500_000, 0),
+                            "gen-asm", sampleJson(4_000_000, 3_000_000, 1_000))),
+                    Map.of("file", "pkg/b.k", "phases", Map.of(
+                            "lex", sampleJson(3_000_000, 2_500_000, 50),
+                            "gen-asm", sampleJson(250_000, 125_000, 400)))),
+                    json.get("files"));
+            assertEquals(Map.of(
+                    "lex", sampleJson(4_000_000, 3_000_000, 150),
+                    "parse", sampleJson(2_000_000, 1_500_000, 0),
+                    "gen-asm", sampleJson(4_250_000, 3_125_000, 1_400)),
+                    json.get("totals"));
+        }
+
+        @Test
+        void phasesAreInPhaseOrder() throws IOException {
+            @SuppressWarnings("unchecked")
+            var totals = (Map<String, Object>) writeAndParse(report).get("totals");
+            assertEquals(List.of("lex", "parse", "gen-asm"), List.copyOf(totals.keySet()));
+        }
+
+        @Test
+        void jsonWithoutSamples() throws IOException {
+            var json = writeAndParse(new PhaseReport(List.of()));
+            assertEquals(Map.of("files", List.of(), "totals", Map.of()), json);
+        }
+
+        @Test
+        void fileNamesAreEscaped() throws IOException {
+            var name = Path.of("we\"ird\\na\tme.k");
+            var json = writeAndParse(new PhaseReport(List.of(name)));
+            assertEquals(List.of(Map.of("file", name.toString(), "phases", Map.of())), json.get("files"));
+        }
+    }
+
+    @Nested
+    class CliTests {
+        @TempDir
+        Path root;
+
+        @Test
+        void timeReportCoversAllPhasesOfEachFile() throws IOException {
+            var source = "fn ___main___() {\n    print(1);\n}\n";
+            Files.writeString(root.resolve("a.k"), source);
+            Files.writeString(root.resolve("b.k"), source + "\nfn f() -> i64 {\n    return 2;\n}\n");
+
+            var out = new ByteArrayOutputStream();
+            var err = new ByteArrayOutputStream();
+            String[] args = { "--cache", "false", "--out", "out", "--time-report", "report.json",
+                    "--jbc", "--asm", "--", "a.k", "b.k" };
+            assertEquals(0, KlangCompiler.run(args, root, new PrintStream(out, true), new PrintStream(err, true)),
+                    err::toString);
+            assertTrue(out.toString().contains("\nPhase timings:\n"), out::toString);
+
+            @SuppressWarnings("unchecked")
+            var json = (Map<String, List<Map<String, Object>>>) JsonReader
+                    .parse(Files.readString(root.resolve("report.json")));
+            var files = json.get("files");
+            assertEquals(List.of("a.k", "b.k"), files.stream().map(f -> f.get("file")).toList());
+
+            var expectedPhases = Arrays.stream(Phase.values()).map(p -> p.label).toList();
+            for (var file : files) {
+                @SuppressWarnings("unchecked")
+                var phases = (Map<String, Map<String, Long>>) file.get("phases");
+                assertEquals(expectedPhases, List.copyOf(phases.keySet()));
+                var sourceSize = Files.size(root.resolve((String) file.get("file")));
+                assertEquals(sourceSize, phases.get("lex").get("bytes"));
+                assertTrue(phases.get("gen-asm").get("bytes") > 0);
+                assertTrue(phases.get("gen-jbc").get("bytes") > 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.PhaseTimer.Phase;
+import cc.crochethk.klang.PhaseTimer.Sample;
+
+public class PhaseTimerTest {
+    PhaseTimer timer = new PhaseTimer("a.k");
+
+    @Test
+    void timeReturnsResultOfAction() {
+        assertEquals("result", timer.time(Phase.PARSE, () -> "result"));
+        assertEquals(List.of(Phase.PARSE), List.copyOf(timer.samples().keySet()));
+    }
+
+    @Test
+    void timeMeasuresWallAndCpuTime() {
+        timer.time(Phase.TYPE_CHECK, () -> {
+            // Busy wait, so CPU time is spent as well
+            long end = System.nanoTime() + 20_000_000;
+            while (System.nanoTime() < end) {
+            }
+        });
+        var sample = timer.samples().get(Phase.TYPE_CHECK);
+        assertTrue(sample.wallNanos() >= 20_000_000, sample::toString);
+        assertTrue(sample.cpuNanos() > 0, sample::toString);
+        assertEquals(0, sample.bytes());
+    }
+
+    @Test
+    void timeRecordsFailingAction() {
+        assertThrows(IllegalStateException.class, () -> timer.time(Phase.LEX, () -> {
+            throw new IllegalStateException();
+        }));
+        assertTrue(timer.samples().containsKey(Phase.LEX));
+    }
+
+    @Test
+    void samplesOfSamePhaseAreSummedUp() {
+        timer.add(Phase.GEN_ASM, new Sample(10, 5, 0));
+        timer.add(Phase.GEN_ASM, new Sample(20, 15, 0));
+        timer.addBytes(Phase.GEN_ASM, 300);
+        assertEquals(new Sample(30, 20, 300), timer.samples().get(Phase.GEN_ASM));
+    }
+
+    @Test
+    void samplesAreInPhaseOrder() {
+        timer.add(Phase.GEN_ASM, Sample.ZERO);
+        timer.add(Phase.LEX, Sample.ZERO);
+        timer.add(Phase.TYPE_CHECK, Sample.ZERO);
+        assertEquals(List.of(Phase.LEX, Phase.TYPE_CHECK, Phase.GEN_ASM), List.copyOf(timer.samples().keySet()));
+    }
+}
@@ -0,0 +1,138 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import cc.crochethk.klang.PhaseTimer.Phase;
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator;
+import cc.crochethk.klang.testhelpers.SyntheticProgramGenerator.Sizes;
+
+public class ScalingTest {
+    static final int MAX_FACTOR = 1024;
+    /** Sizes below this factor are dominated by fixed costs and ignored for the fit. */
+    static final int MIN_FIT_FACTOR = 16;
+    /** Largest accepted exponent {@code k} in {@code time ~ size^k}. Leaves room for noise. */
+    static final double MAX_EXPONENT = 1.3;
+
+    static final PrintStream NULL_STREAM = new PrintStream(OutputStream.nullOutputStream());
+
+    record Measurement(long sourceBytes, Map<Phase, Long> wallNanos) {
+    }
+
+    static KlangCompilerConfig config(Path root) {
+        return KlangCompilerConfig.builder()
+                .outputDir(root.resolve("out").toString())
+                .buildAst(true).typeCheck(true).generateAsm(true)
+                .build();
+    }
+
+    @Test
+    void generatedProgramsCompile(@TempDir Path root) throws IOException {
+        var config = config(root);
+        for (int factor = 1; factor <= 4; factor *= 2) {
+            compile(config, root, factor);
+        }
+    }
+
+    /**
+     * Compiles synthetic programs of sizes 1x to 1024x and checks that no phase's
+     * time grows superlinearly with the input size. Takes a while, thus only runs
+     * if the system property {@code klang.scaling} is set to {@code true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "klang.scaling", matches = "true")
+    void noPhaseGrowsSuperlinearly(@TempDir Path root) throws IOException {
+        var config = config(root);
+
+        // Warm up JIT, so small sizes are not measured in interpreted mode
+        for (int i = 0; i < 5; i++) {
+            compile(config, root, 8);
+        }
+
+        var measurements = new ArrayList<Measurement>();
+        for (int factor = 1; factor <= MAX_FACTOR; factor *= 2) {
+            // Repeat small sizes, taking the fastest run per phase, to reduce noise
+            int runs = factor < MIN_FIT_FACTOR ? 5 : factor < 256 ? 3 : 1;
+            Measurement best = null;
+            for (int r = 0; r < runs; r++) {
+                var m = compile(config, root, factor);
+                best = best == null ? m : fastest(best, m);
+            }
+            measurements.add(best);
+        }
+
+        var superlinear = new ArrayList<String>();
+        System.out.println("Scaling exponents (time ~ size^k):");
+        for (var phase : Phase.values()) {
+            var xs = new ArrayList<Double>();
+            var ys = new ArrayList<Double>();
+            for (int i = 0; i < measurements.size(); i++) {
+                var m = measurements.get(i);
+                if ((1 << i) >= MIN_FIT_FACTOR && m.wallNanos().containsKey(phase)) {
+                    xs.add(Math.log(m.sourceBytes()));
+                    ys.add(Math.log(Math.max(1, m.wallNanos().get(phase))));
+                }
+            }
+            if (xs.size() < 2) {
+                continue;
+            }
+            var k = slope(xs, ys);
+            System.out.println(String.format(Locale.ROOT, "    %-14s k = %.2f", phase.label, k));
+            if (k > MAX_EXPONENT) {
+                superlinear.add(String.format(Locale.ROOT, "%s (k = %.2f)", phase.label, k));
+            }
+        }
+        assertTrue(superlinear.isEmpty(), "Phases growing superlinearly: " + superlinear);
+    }
+
+    private static Measurement compile(KlangCompilerConfig config, Path root, int factor) throws IOException {
+        var source = SyntheticProgramGenerator.generate(Sizes.DEFAULT.scaled(factor));
+        var relPath = Path.of("synthetic", "x" + factor + ".k");
+        Files.createDirectories(root.resolve(relPath).getParent());
+        Files.writeString(root.resolve(relPath), source);
+
+        var report = new PhaseReport(List.of(relPath));
+        var errBuf = new ByteArrayOutputStream();
+        var compiler = new KlangCompiler(config, NULL_STREAM, new PrintStream(errBuf), report);
+        assertEquals(KlangCompiler.Result.Ok, compiler.compileFile(root, relPath),
+                () -> "Compiling " + relPath + " failed:\n" + errBuf);
+
+        var wallNanos = new EnumMap<Phase, Long>(Phase.class);
+        report.timerFor(relPath).samples().forEach((phase, s) -> wallNanos.put(phase, s.wallNanos()));
+        return new Measurement(source.length(), wallNanos);
+    }
+
+    private static Measurement fastest(Measurement a, Measurement b) {
+        var wallNanos = new EnumMap<Phase, Long>(a.wallNanos());
+        b.wallNanos().forEach((phase, t) -> wallNanos.merge(phase, t, Math::min));
+        return new Measurement(a.sourceBytes(), wallNanos);
+    }
+
+    /** Least squares slope of the given points. */
+    private static double slope(List<Double> xs, List<Double> ys) {
+        double n = xs.size(), sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < xs.size(); i++) {
+            sx += xs.get(i);
+            sy += ys.get(i);
+            sxx += xs.get(i) * xs.get(i);
+            sxy += xs.get(i) * ys.get(i);
+        }
+        return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    }
+}
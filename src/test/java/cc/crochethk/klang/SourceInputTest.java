@@ -0,0 +1,157 @@
+package cc.crochethk.klang;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cc.crochethk.klang.antlr.KlangLexer;
+
+public class SourceInputTest {
+    static final String ASCII_SOURCE = """
+            // comment
+            fn foo(a: i64) -> string {
+                return "a = " + a.to_string();
+            }""";
+    static final String NON_ASCII_SOURCE = """
+            // Kommentar mit Ümläuten
+            fn foo() -> string {
+                return "Grüße €";
+            }""";
+
+    static ByteBuffer utf8(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Type and text of all tokens. */
+    static List<String> tokens(CharStream input) {
+        var tokens = new CommonTokenStream(new KlangLexer(input));
+        tokens.fill();
+        return tokens.getTokens().stream().map(t -> t.getType() + ":" + t.getText()).toList();
+    }
+
+    @Nested
+    class IsAscii {
+        @Test
+        void empty() {
+            assertTrue(SourceInput.isAscii(ByteBuffer.allocate(0)));
+        }
+
+        @Test
+        void asciiSource() {
+            assertTrue(SourceInput.isAscii(utf8(ASCII_SOURCE)));
+        }
+
+        @Test
+        void nonAsciiSource() {
+            assertFalse(SourceInput.isAscii(utf8(NON_ASCII_SOURCE)));
+        }
+
+        @Test
+        void nonAsciiInTrailingBytes() {
+            // 8 ASCII bytes followed by a 2 byte sequence, so it's not checked as part of a long
+            assertFalse(SourceInput.isAscii(utf8("12345678ü")));
+        }
+
+        @Test
+        void onlyRemainingBytesAreChecked() {
+            var buf = utf8("ü123");
+            buf.position(2);
+            assertTrue(SourceInput.isAscii(buf));
+        }
+    }
+
+    @Nested
+    class CharStreamTests {
+        @Test
+        void asciiUsesFastPath() {
+            assertInstanceOf(SourceInput.AsciiCharStream.class, SourceInput.charStream(utf8("fn"), "x.k"));
+        }
+
+        @Test
+        void asciiTokensMatchAntlrStream() {
+            assertEquals(tokens(CharStreams.fromString(ASCII_SOURCE)),
+                    tokens(SourceInput.charStream(utf8(ASCII_SOURCE), "x.k")));
+        }
+
+        @Test
+        void nonAsciiTokensMatchAntlrStream() {
+            assertEquals(tokens(CharStreams.fromString(NON_ASCII_SOURCE)),
+                    tokens(SourceInput.charStream(utf8(NON_ASCII_SOURCE), "x.k")));
+        }
+
+        @Test
+        void lookAheadAndBehind() {
+            var cs = SourceInput.charStream(utf8("ab"), "x.k");
+            assertEquals(IntStream.EOF, cs.LA(-1));
+            assertEquals('a', cs.LA(1));
+            assertEquals('b', cs.LA(2));
+            assertEquals(IntStream.EOF, cs.LA(3));
+            cs.consume();
+            assertEquals('a', cs.LA(-1));
+            cs.consume();
+            assertEquals(IntStream.EOF, cs.LA(1));
+            assertThrows(IllegalStateException.class, cs::consume);
+        }
+
+        @Test
+        void getTextIsClampedToSize() {
+            var cs = SourceInput.charStream(utf8("abc"), "x.k");
+            assertEquals("bc", cs.getText(Interval.of(1, 10)));
+            assertEquals("", cs.getText(Interval.of(3, 5)));
+        }
+
+        @Test
+        void bufferPositionIsRespectedAndKept() {
+            var buf = utf8("xxfn");
+            buf.position(2);
+            var tokens = tokens(SourceInput.charStream(buf, "x.k"));
+            assertEquals(List.of(KlangLexer.KW_FUN + ":fn", Token.EOF + ":<EOF>"), tokens);
+            assertEquals(2, buf.position());
+        }
+    }
+
+    @Nested
+    class ReadTests {
+        @TempDir
+        Path dir;
+
+        @Test
+        void smallFileIsRead() throws IOException {
+            var file = Files.writeString(dir.resolve("small.k"), ASCII_SOURCE);
+            var buf = SourceInput.read(file);
+            assertFalse(buf instanceof MappedByteBuffer);
+            assertEquals(ASCII_SOURCE, StandardCharsets.UTF_8.decode(buf).toString());
+        }
+
+        @Test
+        void largeFileIsMapped() throws IOException {
+            var content = ASCII_SOURCE.repeat((int) (SourceInput.MMAP_THRESHOLD / ASCII_SOURCE.length()) + 1);
+            var file = Files.writeString(dir.resolve("large.k"), content);
+            var buf = SourceInput.read(file);
+            assertInstanceOf(MappedByteBuffer.class, buf);
+            assertEquals(content, StandardCharsets.UTF_8.decode(buf).toString());
+        }
+
+        @Test
+        void emptyFile() throws IOException {
+            var file = Files.writeString(dir.resolve("empty.k"), "");
+            assertEquals(0, SourceInput.read(file).remaining());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package cc.crochethk.klang.ir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ir.Instr.*;
+import cc.crochethk.klang.ir.Value.Const;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+import cc.crochethk.klang.visitor.Type;
+import cc.crochethk.klang.visitor.TypeChecker;
+
+public class IrTest extends NodeMocker {
+    /** Type checks the given functions, so their expressions' types are known. */
+    private void typeCheck(FunDef... funDefs) {
+        new TypeChecker().visit(prog(List.of(funDefs), List.of()));
+    }
+
+    private static List<Instr> allInstrs(IrFunction fn) {
+        var instrs = new ArrayList<Instr>();
+        fn.blocks.forEach(b -> {
+            instrs.addAll(b.instrs);
+            instrs.add(b.terminator());
+        });
+        return instrs;
+    }
+
+    @Nested
+    class IrBuilderTests {
+        @Test
+        void binOpEvaluatesRhsFirst() {
+            var fun = funDef("f", List.of(param("a", I64_TN)), I64_TN, List.of(returnStat(
+                    binOpExpr(binOpExpr(var("a"), BinaryOp.mult, i64Lit(2)),
+                            BinaryOp.sub,
+                            binOpExpr(var("a"), BinaryOp.add, i64Lit(1))))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            assertEquals(1, fn.blocks.size());
+            var instrs = fn.entry().instrs;
+            assertEquals(3, instrs.size());
+            var add = (BinOp) instrs.get(0);
+            var mult = (BinOp) instrs.get(1);
+            var sub = (BinOp) instrs.get(2);
+            assertEquals(BinaryOp.add, add.op());
+            assertEquals(BinaryOp.mult, mult.op());
+            assertEquals(mult.dst(), sub.lhs());
+            assertEquals(add.dst(), sub.rhs());
+            assertEquals(new Return(sub.dst()), fn.entry().terminator());
+        }
+
+        @Test
+        void paramsAndVariablesAreTemps() {
+            var fun = funDef("f", List.of(param("a", F64_TN)), F64_TN, List.of(
+                    varDeclareStat("x", F64_TN, var("a")),
+                    varAssignStat("x", f64Lit(1.5)),
+                    returnStat(var("x"))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            var a = fn.params.get(0);
+            assertTrue(a.isVariable());
+            assertEquals(Type.DOUBLE_T, a.type());
+            var instrs = fn.entry().instrs;
+            var x = ((Copy) instrs.get(0)).dst();
+            assertEquals("x", x.varName());
+            assertEquals(new Copy(x, a), instrs.get(0));
+            assertEquals(new Copy(x, Const.of(1.5)), instrs.get(1));
+        }
+
+        @Test
+        void ifElseJoinsBranches() {
+            var fun = funDef("f", List.of(param("c", BOOL_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(0)),
+                    ifElseStat(var("c"),
+                            statementList(varAssignStat("x", i64Lit(1))),
+                            statementList(varAssignStat("x", i64Lit(2)))),
+                    returnStat(var("x"))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            assertEquals(4, fn.blocks.size());
+            var branch = (Branch) fn.entry().terminator();
+            var join = branch.then().successors().get(0);
+            assertEquals(List.of(join), branch.otherwise().successors());
+            assertInstanceOf(Return.class, join.terminator());
+        }
+
+        @Test
+        void andConditionBranchesOnEachOperand() {
+            var fun = funDef("f", List.of(param("a", BOOL_TN), param("b", BOOL_TN)), I64_TN, List.of(
+                    ifElseStat(binOpExpr(var("a"), BinaryOp.and, var("b")),
+                            statementList(returnStat(i64Lit(1))),
+                            statementList()),
+                    returnStat(i64Lit(0))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            var first = (Branch) fn.entry().terminator();
+            assertEquals(fn.params.get(0), first.cond());
+            // rhs is evaluated only if lhs is true
+            var second = (Branch) first.then().terminator();
+            assertEquals(fn.params.get(1), second.cond());
+            assertEquals(first.otherwise(), second.otherwise());
+            assertEquals(fn.blocks.get(1), first.then());
+            assertTrue(allInstrs(fn).stream().noneMatch(i -> i instanceof BinOp));
+        }
+
+        @Test
+        void orValueSkipsRhs() {
+            var fun = funDef("f", List.of(param("a", BOOL_TN), param("b", BOOL_TN)), BOOL_TN, List.of(
+                    returnStat(binOpExpr(var("a"), BinaryOp.or, var("b")))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            assertEquals(3, fn.blocks.size());
+            var branch = (Branch) fn.entry().terminator();
+            var result = ((Copy) fn.entry().instrs.getLast()).dst();
+            assertEquals(result, branch.cond());
+            // true lhs is the result
+            var join = branch.then();
+            assertEquals(new Return(result), join.terminator());
+            assertEquals(new Copy(result, fn.params.get(1)), branch.otherwise().instrs.getFirst());
+        }
+
+        @Test
+        void statementsAfterReturnAreRemoved() {
+            var fun = funDef("f", List.of(), I64_TN, List.of(
+                    returnStat(i64Lit(1)),
+                    varDeclareStat("x", I64_TN, i64Lit(2)),
+                    returnStat(var("x"))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            assertEquals(1, fn.blocks.size());
+            assertEquals(new Return(Const.of(1L)), fn.entry().terminator());
+            assertTrue(fn.entry().instrs.isEmpty());
+        }
+
+        @Test
+        void breakLeavesLoop() {
+            var fun = funDef("f", List.of(), VOID_TN, List.of(
+                    loopStat(statementList(breakStat())),
+                    funCall("print", List.of(i64Lit(1)))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            // entry -> header -> exit
+            assertEquals(3, fn.blocks.size());
+            var header = ((Jump) fn.entry().terminator()).target();
+            var exit = ((Jump) header.terminator()).target();
+            assertEquals(fn.blocks.get(2), exit);
+            var print = (Call) exit.instrs.get(0);
+            assertEquals(new Callee.Print(Type.LONG_T), print.callee());
+            assertNull(print.dst());
+            assertEquals(new Return(null), exit.terminator());
+        }
+
+        @Test
+        void ternaryAssignsResultInBothBranches() {
+            var fun = funDef("f", List.of(param("c", BOOL_TN)), F64_TN, List.of(
+                    returnStat(ternaryConditionalExpr(var("c"), f64Lit(1.0), f64Lit(2.0)))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            var branch = (Branch) fn.entry().terminator();
+            var thenCopy = (Copy) branch.then().instrs.get(0);
+            var elseCopy = (Copy) branch.otherwise().instrs.get(0);
+            assertEquals(thenCopy.dst(), elseCopy.dst());
+            assertFalse(thenCopy.dst().isVariable());
+            var join = branch.then().successors().get(0);
+            assertEquals(new Return(thenCopy.dst()), join.terminator());
+        }
+
+        @Test
+        void castToSameTypeIsNoop() {
+            var fun = funDef("f", List.of(param("a", I64_TN)), F64_TN, List.of(
+                    returnStat(typeCast(typeCast(var("a"), I64_TN), F64_TN))));
+            typeCheck(fun);
+
+            var fn = IrBuilder.build(fun);
+            var instrs = allInstrs(fn);
+            assertEquals(2, instrs.size());
+            var convert = (Convert) instrs.get(0);
+            assertEquals(fn.params.get(0), convert.src());
+            assertEquals(Type.DOUBLE_T, convert.dst().type());
+        }
+    }
+
+    /** Creates a function with the given number of blocks, unterminated. */
+    private static IrFunction blocks(int count) {
+        var fn = new IrFunction("f", Type.VOID_T);
+        for (int i = 0; i < count; i++) {
+            fn.newBlock();
+        }
+        return fn;
+    }
+
+    private static final Value COND = Const.of(true);
+
+    @Nested
+    class ControlFlowGraphTests {
+        @Test
+        void unreachableBlocksAreRemoved() {
+            var fn = blocks(3);
+            var b = fn.blocks;
+            b.get(0).setTerminator(new Jump(b.get(2)));
+            b.get(1).setTerminator(new Jump(b.get(2)));
+            b.get(2).setTerminator(new Return(null));
+            var b1 = b.get(1);
+
+            var cfg = ControlFlowGraph.of(fn);
+            assertFalse(fn.blocks.contains(b1));
+            assertEquals(List.of(fn.entry()), cfg.predecessors(fn.blocks.get(1)));
+        }
+
+        @Test
+        void reversePostorderPrecedesSuccessors() {
+            // 0 -> 1 -> 3, 0 -> 2 -> 3, 3 -> {1, 0} (back edges)
+            var fn = blocks(4);
+            var b = fn.blocks;
+            b.get(0).setTerminator(new Branch(COND, b.get(1), b.get(2)));
+            b.get(1).setTerminator(new Jump(b.get(3)));
+            b.get(2).setTerminator(new Jump(b.get(3)));
+            b.get(3).setTerminator(new Branch(COND, b.get(1), b.get(0)));
+
+            var rpo = ControlFlowGraph.of(fn).blocks();
+            assertEquals(b.get(0), rpo.get(0));
+            assertEquals(b.get(3), rpo.get(3));
+        }
+    }
+
+    @Nested
+    class DominatorTreeTests {
+        @Test
+        void diamond() {
+            // 0 -> {1, 2} -> 3
+            var fn = blocks(4);
+            var b = fn.blocks;
+            b.get(0).setTerminator(new Branch(COND, b.get(1), b.get(2)));
+            b.get(1).setTerminator(new Jump(b.get(3)));
+            b.get(2).setTerminator(new Jump(b.get(3)));
+            b.get(3).setTerminator(new Return(null));
+
+            var dom = DominatorTree.of(ControlFlowGraph.of(fn));
+            assertNull(dom.idom(b.get(0)));
+            assertEquals(b.get(0), dom.idom(b.get(1)));
+            assertEquals(b.get(0), dom.idom(b.get(2)));
+            assertEquals(b.get(0), dom.idom(b.get(3)));
+            assertEquals(Set.of(b.get(1), b.get(2), b.get(3)), Set.copyOf(dom.children(b.get(0))));
+            assertFalse(dom.dominates(b.get(1), b.get(3)));
+            assertEquals(Set.of(b.get(3)), dom.dominanceFrontier(b.get(1)));
+            assertEquals(Set.of(), dom.dominanceFrontier(b.get(0)));
+        }
+
+        @Test
+        void loop() {
+            // 0 -> 1 (header) -> 2 (body) -> 1, 1 -> 3 (exit)
+            var fn = blocks(4);
+            var b = fn.blocks;
+            b.get(0).setTerminator(new Jump(b.get(1)));
+            b.get(1).setTerminator(new Branch(COND, b.get(2), b.get(3)));
+            b.get(2).setTerminator(new Jump(b.get(1)));
+            b.get(3).setTerminator(new Return(null));
+
+            var dom = DominatorTree.of(ControlFlowGraph.of(fn));
+            assertEquals(b.get(1), dom.idom(b.get(2)));
+            assertEquals(b.get(1), dom.idom(b.get(3)));
+            assertTrue(dom.dominates(b.get(1), b.get(2)));
+            assertTrue(dom.isBackEdge(b.get(2), b.get(1)));
+            assertFalse(dom.isBackEdge(b.get(1), b.get(2)));
+            // The header is where values defined in the body merge
+            assertEquals(Set.of(b.get(1)), dom.dominanceFrontier(b.get(2)));
+            assertEquals(Set.of(b.get(1)), dom.dominanceFrontier(b.get(1)));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package cc.crochethk.klang.testhelpers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal strict JSON parser for checking generated JSON in tests. Objects are
+ * returned as {@link Map}s keeping the key order, arrays as {@link List}s and
+ * numbers as {@link Long} or {@link Double}. Malformed input throws an
+ * {@link IllegalArgumentException}.
+ */
+public class JsonReader {
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    private final String json;
+    private int pos = 0;
+
+    private JsonReader(String json) {
+        this.json = json;
+    }
+
+    public static Object parse(String json) {
+        var reader = new JsonReader(json);
+        var value = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos != json.length()) {
+            throw reader.error("Trailing content");
+        }
+        return value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("Unexpected end of input");
+        }
+        return switch (json.charAt(pos)) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", true);
+            case 'f' -> literal("false", false);
+            case 'n' -> literal("null", null);
+            default -> number();
+        };
+    }
+
+    private Map<String, Object> object() {
+        var result = new LinkedHashMap<String, Object>();
+        expect('{');
+        skipWhitespace();
+        if (tryConsume('}')) {
+            return result;
+        }
+        do {
+            skipWhitespace();
+            var key = string();
+            skipWhitespace();
+            expect(':');
+            if (result.containsKey(key)) {
+                throw error("Duplicate key '" + key + "'");
+            }
+            result.put(key, value());
+            skipWhitespace();
+        } while (tryConsume(','));
+        expect('}');
+        return result;
+    }
+
+    private List<Object> array() {
+        var result = new ArrayList<Object>();
+        expect('[');
+        skipWhitespace();
+        if (tryConsume(']')) {
+            return result;
+        }
+        do {
+            result.add(value());
+            skipWhitespace();
+        } while (tryConsume(','));
+        expect(']');
+        return result;
+    }
+
+    private String string() {
+        expect('"');
+        var sb = new StringBuilder();
+        while (true) {
+            if (pos >= json.length()) {
+                throw error("Unterminated string");
+            }
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            } else if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            } else if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= json.length()) {
+                throw error("Unterminated escape sequence");
+            }
+            char escaped = json.charAt(pos++);
+            switch (escaped) {
+                case '"', '\\', '/' -> sb.append(escaped);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > json.length()) {
+                        throw error("Incomplete unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                }
+                default -> throw error("Invalid escape sequence '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Object number() {
+        var matcher = NUMBER.matcher(json).region(pos, json.length());
+        if (!matcher.lookingAt()) {
+            throw error("Unexpected character '" + json.charAt(pos) + "'");
+        }
+        pos = matcher.end();
+        var text = matcher.group();
+        return matcher.group(2) == null && matcher.group(3) == null
+                ? (Object) Long.parseLong(text)
+                : (Object) Double.parseDouble(text);
+    }
+
+    private Object literal(String text, Object value) {
+        if (!json.startsWith(text, pos)) {
+            throw error("Invalid literal");
+        }
+        pos += text.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && " \t\r\n".indexOf(json.charAt(pos)) >= 0) {
+            pos++;
+        }
+    }
+
+    private boolean tryConsume(char c) {
+        if (pos < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!tryConsume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at position " + pos);
+    }
+}
@@ -0,0 +1,296 @@
+package cc.crochethk.klang.testhelpers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates valid, type-correct Klang programs of tunable size for stress,
+ * scaling and benchmark purposes. Output is deterministic for a given seed.
+ *
+ * <p>Generated programs consist of
+ * <ul>
+ *   <li>structs with a self-referencing {@code next} field and a few methods,</li>
+ *   <li>functions with a mix of declarations, assignments, if-else and bounded loops,
+ *   nested arithmetic/boolean expressions, member access chains and calls of the
+ *   previously defined function,</li>
+ *   <li>an entry point calling every function.</li>
+ * </ul>
+ */
+public class SyntheticProgramGenerator {
+    /**
+     * @param functions Number of top-level functions.
+     * @param structs Number of struct definitions.
+     * @param statements Number of statements per function body.
+     * @param exprDepth Nesting depth of generated expressions.
+     * @param chainLength Length of generated member access chains (e.g. {@code s.next.next.v} is 3).
+     * @param argCount Number of parameters of each function.
+     */
+    public record Sizes(int functions, int structs, int statements, int exprDepth, int chainLength,
+            int argCount) {
+        public static final Sizes DEFAULT = new Sizes(4, 1, 12, 3, 3, 3);
+
+        /** Scales the number of functions and structs, i.e. the overall program size. */
+        public Sizes scaled(int factor) {
+            return new Sizes(functions * factor, structs * factor, statements, exprDepth, chainLength, argCount);
+        }
+    }
+
+    private final Sizes sizes;
+    private final Random rnd;
+    private final StringBuilder sb = new StringBuilder();
+
+    // Per function state
+    private final List<String> i64Vars = new ArrayList<>();
+    private final List<String> f64Vars = new ArrayList<>();
+    private final List<String> boolVars = new ArrayList<>();
+    private int varCounter;
+    private boolean calledPrevious;
+
+    public SyntheticProgramGenerator(Sizes sizes, long seed) {
+        this.sizes = sizes;
+        this.rnd = new Random(seed);
+    }
+
+    public static String generate(Sizes sizes) {
+        return new SyntheticProgramGenerator(sizes, 42).generate();
+    }
+
+    public String generate() {
+        sb.setLength(0);
+        for (int i = 0; i < sizes.structs(); i++) {
+            genStruct(i);
+        }
+        for (int i = 0; i < sizes.functions(); i++) {
+            genFunction(i);
+        }
+        genMain();
+        return sb.toString();
+    }
+
+    private static String structName(int i) {
+        return "S" + i;
+    }
+
+    private static String funName(int i) {
+        return "fun" + i;
+    }
+
+    private void genStruct(int i) {
+        var name = structName(i);
+        sb.append("struct ").append(name).append(" {\n");
+        sb.append("    v: i64,\n    w: f64,\n    flag: bool,\n    next: ").append(name).append(",\n");
+        sb.append("    ---\n");
+        sb.append("    bump(d: i64) -> i64 {\n");
+        sb.append("        self.v = self.v + d;\n");
+        sb.append("        return self.v;\n    }\n\n");
+        sb.append("    scaled(f: f64) -> f64 {\n");
+        sb.append("        return self.w * f + (self.flag ? 1.0 : 0.0);\n    }\n");
+        sb.append("}\n\n");
+    }
+
+    /** Parameter i is of type i64 for even, and f64 for odd i. */
+    private static String paramType(int i) {
+        return i % 2 == 0 ? "i64" : "f64";
+    }
+
+    private void genFunction(int idx) {
+        i64Vars.clear();
+        f64Vars.clear();
+        boolVars.clear();
+        varCounter = 0;
+        calledPrevious = false;
+
+        sb.append("fn ").append(funName(idx)).append("(");
+        for (int i = 0; i < sizes.argCount(); i++) {
+            var p = "p" + i;
+            sb.append(i > 0 ? ", " : "").append(p).append(": ").append(paramType(i));
+            (i % 2 == 0 ? i64Vars : f64Vars).add(p);
+        }
+        sb.append(") -> i64 {\n");
+
+        // Always have at least one variable of each type available
+        declare("i64", "acc", genI64Expr(1));
+        declare("f64", "facc", genF64Expr(1));
+        declare("bool", "cond", genBoolExpr(1));
+
+        for (int s = 0; s < sizes.statements(); s++) {
+            genStatement(idx);
+        }
+        sb.append("    return acc + (facc as i64);\n}\n\n");
+    }
+
+    private void declare(String type, String name, String expr) {
+        sb.append("    let ").append(name).append(": ").append(type).append(" = ").append(expr).append(";\n");
+        switch (type) {
+            case "i64" -> i64Vars.add(name);
+            case "f64" -> f64Vars.add(name);
+            default -> boolVars.add(name);
+        }
+    }
+
+    private String freshVar() {
+        return "v" + varCounter++;
+    }
+
+    private void genStatement(int funIdx) {
+        switch (rnd.nextInt(7)) {
+            case 0 -> declare("i64", freshVar(), genI64Expr(sizes.exprDepth()));
+            case 1 -> declare("f64", freshVar(), genF64Expr(sizes.exprDepth()));
+            case 2 -> declare("bool", freshVar(), genBoolExpr(sizes.exprDepth()));
+            case 3 -> {
+                // Declarations stay at the function's top level, blocks only assign
+                sb.append("    if ").append(genBoolExpr(sizes.exprDepth())).append(" {\n");
+                sb.append("        ").append(pick(i64Vars)).append(" = ").append(genI64Expr(sizes.exprDepth()))
+                        .append(";\n");
+                sb.append("    } else {\n");
+                sb.append("        ").append(pick(f64Vars)).append(" = ").append(genF64Expr(sizes.exprDepth()))
+                        .append(";\n");
+                sb.append("    }\n");
+            }
+            case 4 -> {
+                var counter = freshVar();
+                declare("i64", counter, "0");
+                sb.append("    loop {\n");
+                sb.append("        if ").append(counter).append(" >= 3 {\n            break;\n        }\n");
+                sb.append("        ").append(counter).append(" = ").append(counter).append(" + 1;\n");
+                sb.append("        acc = acc + ").append(genI64Expr(sizes.exprDepth() - 1)).append(";\n");
+                sb.append("    }\n");
+            }
+            case 5 -> {
+                // Call the previous function at most once, keeping the runtime linear
+                if (funIdx > 0 && !calledPrevious) {
+                    calledPrevious = true;
+                    sb.append("    acc = acc + ").append(genCall(funIdx - 1)).append(";\n");
+                } else {
+                    sb.append("    acc = acc - 1;\n");
+                }
+            }
+            default -> {
+                if (sizes.structs() > 0) {
+                    genStructUsage(rnd.nextInt(sizes.structs()));
+                } else {
+                    sb.append("    facc = facc * 0.5;\n");
+                }
+            }
+        }
+    }
+
+    /** Builds a chain of struct instances, accesses members along it and frees it again. */
+    private void genStructUsage(int structIdx) {
+        var name = structName(structIdx);
+        var nodes = new ArrayList<String>();
+        var head = freshVar();
+        nodes.add(head);
+        sb.append("    let ").append(head).append(" = ").append(name).append("{")
+                .append(genI64Expr(1)).append(", ").append(genF64Expr(1)).append(", true, null};\n");
+
+        // Extend the chain, so that "head(.next){chainLength - 1}.v" is valid
+        var path = new StringBuilder(head);
+        for (int i = 1; i < sizes.chainLength(); i++) {
+            sb.append("    ").append(path).append(".next = ").append(name).append("{")
+                    .append(i).append(", ").append(i).append(".5, false, null};\n");
+            path.append(".next");
+        }
+        sb.append("    ").append(path).append(".v = ").append(path).append(".v + ").append(genI64Expr(1))
+                .append(";\n");
+        sb.append("    acc = acc + ").append(path).append(".bump(").append(genI64Expr(1)).append(");\n");
+        sb.append("    facc = facc + ").append(head).append(".scaled(").append(genF64Expr(1)).append(");\n");
+
+        // Free the chain back to front
+        for (int i = 1; i < sizes.chainLength(); i++) {
+            var node = freshVar();
+            sb.append("    let ").append(node).append(" = ").append(nodes.get(i - 1)).append(".next;\n");
+            nodes.add(node);
+        }
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            sb.append("    drop ").append(nodes.get(i)).append(";\n");
+        }
+    }
+
+    private String genCall(int funIdx) {
+        var call = new StringBuilder(funName(funIdx)).append("(");
+        for (int i = 0; i < sizes.argCount(); i++) {
+            call.append(i > 0 ? ", " : "");
+            call.append(paramType(i).equals("i64") ? genI64Expr(1) : genF64Expr(1));
+        }
+        return call.append(")").toString();
+    }
+
+    private String pick(List<String> vars) {
+        return vars.get(rnd.nextInt(vars.size()));
+    }
+
+    private String genI64Expr(int depth) {
+        if (depth <= 0) {
+            return rnd.nextInt(3) == 0 || i64Vars.isEmpty() ? String.valueOf(rnd.nextInt(100)) : pick(i64Vars);
+        }
+        return switch (rnd.nextInt(6)) {
+            case 0 -> "(" + genI64Expr(depth - 1) + " + " + genI64Expr(depth - 1) + ")";
+            case 1 -> "(" + genI64Expr(depth - 1) + " - " + genI64Expr(depth - 1) + ")";
+            case 2 -> "(" + genI64Expr(depth - 1) + " * " + genI64Expr(depth - 1) + ")";
+            // Literal divisors only, so no division by zero at runtime
+            case 3 -> "(" + genI64Expr(depth - 1) + " / " + (rnd.nextInt(9) + 1) + ")";
+            case 4 -> "(" + genI64Expr(depth - 1) + " % " + (rnd.nextInt(9) + 1) + ")";
+            default -> "(" + genF64Expr(depth - 1) + " as i64)";
+        };
+    }
+
+    private String genF64Expr(int depth) {
+        if (depth <= 0) {
+            return rnd.nextInt(3) == 0 || f64Vars.isEmpty() ? rnd.nextInt(100) + "." + rnd.nextInt(10) : pick(f64Vars);
+        }
+        return switch (rnd.nextInt(5)) {
+            case 0 -> "(" + genF64Expr(depth - 1) + " + " + genF64Expr(depth - 1) + ")";
+            case 1 -> "(" + genF64Expr(depth - 1) + " - " + genF64Expr(depth - 1) + ")";
+            case 2 -> "(" + genF64Expr(depth - 1) + " * " + genF64Expr(depth - 1) + ")";
+            case 3 -> "(" + genF64Expr(depth - 1) + " / " + (rnd.nextInt(9) + 1) + ".5)";
+            default -> "(" + genI64Expr(depth - 1) + " as f64)";
+        };
+    }
+
+    private String genBoolExpr(int depth) {
+        if (depth <= 0) {
+            return rnd.nextBoolean() && !boolVars.isEmpty() ? pick(boolVars) : String.valueOf(rnd.nextBoolean());
+        }
+        return switch (rnd.nextInt(6)) {
+            case 0 -> "(" + genI64Expr(depth - 1) + " < " + genI64Expr(depth - 1) + ")";
+            case 1 -> "(" + genF64Expr(depth - 1) + " >= " + genF64Expr(depth - 1) + ")";
+            case 2 -> "(" + genI64Expr(depth - 1) + " == " + genI64Expr(depth - 1) + ")";
+            case 3 -> "(" + genBoolExpr(depth - 1) + " && " + genBoolExpr(depth - 1) + ")";
+            case 4 -> "(" + genBoolExpr(depth - 1) + " || " + genBoolExpr(depth - 1) + ")";
+            default -> "!" + genBoolExpr(depth - 1);
+        };
+    }
+
+    private void genMain() {
+        i64Vars.clear();
+        f64Vars.clear();
+        boolVars.clear();
+        i64Vars.add("0");
+        f64Vars.add("0.0");
+
+        sb.append("fn ___main___() {\n");
+        sb.append("    let sum = 0;\n");
+        for (int i = 0; i < sizes.functions(); i++) {
+            sb.append("    sum = sum + ").append(genCall(i)).append(";\n");
+        }
+        sb.append("    print(sum);\n    print(\"\\n\");\n}\n");
+    }
+
+    /**
+     * Writes a generated program to a file.
+     * Usage: {@code SyntheticProgramGenerator <scaleFactor> <outFile.k>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: " + SyntheticProgramGenerator.class.getName() + " <scaleFactor> <outFile.k>");
+            System.exit(1);
+        }
+        var sizes = Sizes.DEFAULT.scaled(Integer.parseInt(args[0]));
+        Files.writeString(Path.of(args[1]), generate(sizes));
+    }
+}
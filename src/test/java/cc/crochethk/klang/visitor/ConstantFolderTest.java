@@ -0,0 +1,212 @@
+package cc.crochethk.klang.visitor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.UnaryOpExpr.UnaryOp;
+import cc.crochethk.klang.ast.literal.*;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+
+public class ConstantFolderTest extends NodeMocker {
+    /** Type checks and folds {@code fun}. */
+    private FunDef fold(FunDef fun) {
+        new TypeChecker().visit(prog(List.of(fun), List.of()));
+        new ConstantFolder().visit(fun);
+        return fun;
+    }
+
+    /** Folds {@code fn f() -> type { return expr; }} and returns the resulting expression. */
+    private Expr foldReturned(TypeNode type, Expr expr) {
+        var fun = fold(funDef("f", List.of(), type, List.of(returnStat(expr))));
+        return ((ReturnStat) fun.body.statements.getLast()).expr;
+    }
+
+    private Expr returnedExpr(FunDef fun) {
+        return ((ReturnStat) fun.body.statements.getLast()).expr;
+    }
+
+    @Nested
+    class FoldingTests {
+        @Test
+        void foldsNestedFloatArithmetic() {
+            var expr = binOpExpr(binOpExpr(f64Lit(2), BinaryOp.mult, f64Lit(3.14159)),
+                    BinaryOp.div, f64Lit(180.0));
+            var folded = foldReturned(F64_TN, expr);
+            var lit = assertInstanceOf(F64Lit.class, folded);
+            assertEquals(2 * 3.14159 / 180.0, lit.value);
+            assertEquals(Type.DOUBLE_T, lit.theType);
+        }
+
+        @Test
+        void foldsUnaryNegation() {
+            var folded = foldReturned(I64_TN, unaryOpExpr(i64Lit(1), UnaryOp.neg));
+            assertEquals(-1L, assertInstanceOf(I64Lit.class, folded).value);
+        }
+
+        @Test
+        void integerOverflowWraps() {
+            var folded = foldReturned(I64_TN, binOpExpr(i64Lit(Long.MAX_VALUE), BinaryOp.add, i64Lit(1)));
+            assertEquals(Long.MIN_VALUE, assertInstanceOf(I64Lit.class, folded).value);
+        }
+
+        @Test
+        void trappingDivisionIsNotFolded() {
+            assertInstanceOf(BinOpExpr.class,
+                    foldReturned(I64_TN, binOpExpr(i64Lit(1), BinaryOp.div, i64Lit(0))));
+            assertInstanceOf(BinOpExpr.class,
+                    foldReturned(I64_TN, binOpExpr(i64Lit(Long.MIN_VALUE), BinaryOp.mod, i64Lit(-1))));
+            var folded = foldReturned(I64_TN, binOpExpr(i64Lit(-7), BinaryOp.mod, i64Lit(3)));
+            assertEquals(-1L, assertInstanceOf(I64Lit.class, folded).value);
+        }
+
+        @Test
+        void integerPowers() {
+            var folded = foldReturned(I64_TN, binOpExpr(i64Lit(-3), BinaryOp.pow, i64Lit(5)));
+            assertEquals(-243L, assertInstanceOf(I64Lit.class, folded).value);
+            folded = foldReturned(I64_TN, binOpExpr(i64Lit(2), BinaryOp.pow, i64Lit(-1)));
+            assertEquals(0L, assertInstanceOf(I64Lit.class, folded).value);
+            folded = foldReturned(I64_TN, binOpExpr(i64Lit(-1), BinaryOp.pow, i64Lit(-3)));
+            assertEquals(-1L, assertInstanceOf(I64Lit.class, folded).value);
+            // Float powers are left to the runtime
+            assertInstanceOf(BinOpExpr.class,
+                    foldReturned(F64_TN, binOpExpr(f64Lit(2), BinaryOp.pow, f64Lit(0.5))));
+        }
+
+        @Test
+        void nanComparisons() {
+            assertInstanceOf(BinOpExpr.class,
+                    foldReturned(BOOL_TN, binOpExpr(f64Lit(Double.NaN), BinaryOp.lt, f64Lit(1))));
+            var folded = foldReturned(BOOL_TN, binOpExpr(f64Lit(Double.NaN), BinaryOp.eq, f64Lit(Double.NaN)));
+            assertEquals(false, assertInstanceOf(BoolLit.class, folded).value);
+        }
+
+        @Test
+        void castsInRangeOnly() {
+            var folded = foldReturned(I64_TN, typeCast(f64Lit(-2.9), I64_TN));
+            assertEquals(-2L, assertInstanceOf(I64Lit.class, folded).value);
+            assertInstanceOf(TypeCast.class, foldReturned(I64_TN, typeCast(f64Lit(1e19), I64_TN)));
+            assertInstanceOf(TypeCast.class, foldReturned(I64_TN, typeCast(f64Lit(Double.NaN), I64_TN)));
+        }
+
+        @Test
+        void ternaryWithConstantCondition() {
+            var folded = foldReturned(I64_TN, ternaryConditionalExpr(
+                    binOpExpr(i64Lit(1), BinaryOp.lt, i64Lit(2)), i64Lit(10),
+                    binOpExpr(i64Lit(1), BinaryOp.div, i64Lit(0))));
+            assertEquals(10L, assertInstanceOf(I64Lit.class, folded).value);
+        }
+
+        @Test
+        void shortCircuitWithConstantLhs() {
+            var g = funDef("g", List.of(), BOOL_TN, List.of(returnStat(boolLit(true))));
+            // (false && g()) || (true && g())  ->  g()
+            var f = funDef("f", List.of(), BOOL_TN, List.of(returnStat(binOpExpr(
+                    binOpExpr(boolLit(false), BinaryOp.and, funCall("g")),
+                    BinaryOp.or,
+                    binOpExpr(boolLit(true), BinaryOp.and, funCall("g"))))));
+            // true || g()  ->  true
+            var h = funDef("h", List.of(), BOOL_TN, List.of(returnStat(
+                    binOpExpr(boolLit(true), BinaryOp.or, funCall("g")))));
+            new TypeChecker().visit(prog(List.of(f, g, h), List.of()));
+            new ConstantFolder().visit(f);
+            new ConstantFolder().visit(h);
+            assertEquals("g", assertInstanceOf(FunCall.class, returnedExpr(f)).name);
+            assertEquals(true, assertInstanceOf(BoolLit.class, returnedExpr(h)).value);
+        }
+    }
+
+    @Nested
+    class PropagationTests {
+        @Test
+        void straightLineCode() {
+            var fun = fold(funDef("f", List.of(), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(2)),
+                    varDeclareStat("y", I64_TN, binOpExpr(var("x"), BinaryOp.mult, i64Lit(3))),
+                    varAssignStat("x", var("y")),
+                    returnStat(binOpExpr(var("x"), BinaryOp.add, var("y"))))));
+            assertEquals(12L, assertInstanceOf(I64Lit.class, returnedExpr(fun)).value);
+        }
+
+        @Test
+        void paramsAreUnknown() {
+            var fun = fold(funDef("f", List.of(param("p", I64_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(2)),
+                    varAssignStat("x", var("p")),
+                    returnStat(var("x")))));
+            assertInstanceOf(Var.class, returnedExpr(fun));
+        }
+
+        @Test
+        void branchesMerge() {
+            var fun = fold(funDef("f", List.of(param("c", BOOL_TN)), I64_TN, List.of(
+                    varDeclareStat("same", I64_TN, i64Lit(0)),
+                    varDeclareStat("differs", I64_TN, i64Lit(0)),
+                    ifElseStat(var("c"),
+                            statementList(varAssignStat("same", i64Lit(1)), varAssignStat("differs", i64Lit(1))),
+                            statementList(varAssignStat("same", i64Lit(1)), varAssignStat("differs", i64Lit(2)))),
+                    returnStat(binOpExpr(var("same"), BinaryOp.add, var("differs"))))));
+            var sum = assertInstanceOf(BinOpExpr.class, returnedExpr(fun));
+            assertEquals(1L, assertInstanceOf(I64Lit.class, sum.lhs).value);
+            assertInstanceOf(Var.class, sum.rhs);
+        }
+
+        @Test
+        void returningBranchDoesNotMerge() {
+            var fun = fold(funDef("f", List.of(param("c", BOOL_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(0)),
+                    ifElseStat(var("c"),
+                            statementList(varAssignStat("x", i64Lit(1)), returnStat(var("x"))),
+                            statementList()),
+                    returnStat(var("x")))));
+            assertEquals(0L, assertInstanceOf(I64Lit.class, returnedExpr(fun)).value);
+        }
+
+        @Test
+        void loopCarriedVarsAreUnknown() {
+            var loop = loopStat(statementList(
+                    ifElseStat(binOpExpr(var("i"), BinaryOp.gteq, var("n")),
+                            statementList(breakStat()), statementList()),
+                    varAssignStat("i", binOpExpr(var("i"), BinaryOp.add, i64Lit(1)))));
+            var fun = fold(funDef("f", List.of(), I64_TN, List.of(
+                    varDeclareStat("n", I64_TN, i64Lit(3)),
+                    varDeclareStat("i", I64_TN, i64Lit(0)),
+                    loop,
+                    returnStat(var("i")))));
+            var cond = (BinOpExpr) ((IfElseStat) loop.body.statements.get(0)).condition;
+            assertInstanceOf(Var.class, cond.lhs);
+            // "n" is not assigned in the loop
+            assertEquals(3L, assertInstanceOf(I64Lit.class, cond.rhs).value);
+            assertInstanceOf(Var.class, returnedExpr(fun));
+        }
+    }
+
+    @Nested
+    class IfElseRemovalTests {
+        @Test
+        void takenBranchIsInlined() {
+            var fun = fold(funDef("f", List.of(), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(5)),
+                    ifElseStat(binOpExpr(var("x"), BinaryOp.gt, i64Lit(3)),
+                            statementList(varAssignStat("x", i64Lit(1))),
+                            statementList(varAssignStat("x", i64Lit(2)))),
+                    returnStat(var("x")))));
+            var stats = fun.body.statements;
+            assertEquals(3, stats.size());
+            assertInstanceOf(VarAssignStat.class, stats.get(1));
+            assertEquals(1L, assertInstanceOf(I64Lit.class, returnedExpr(fun)).value);
+        }
+
+        @Test
+        void falseWithoutElseIsRemoved() {
+            var fun = fold(funDef("f", List.of(), VOID_TN, List.of(
+                    ifElseStat(boolLit(false), statementList(returnStat()), statementList()))));
+            assertTrue(fun.body.statements.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cc.crochethk.klang.visitor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+
+public class DeadCodeEliminatorTest extends NodeMocker {
+    /** Type checks all given functions and eliminates dead code in the first one. */
+    private FunDef eliminate(FunDef fun, FunDef... others) {
+        var funDefs = new ArrayList<>(List.of(others));
+        funDefs.addFirst(fun);
+        new TypeChecker().visit(prog(funDefs, List.of()));
+        new DeadCodeEliminator().apply(fun);
+        return fun;
+    }
+
+    /** {@code fn g() -> i64 { print(1); return 1; }} */
+    private FunDef effectfulFun() {
+        return funDef("g", List.of(), I64_TN, List.of(
+                funCall("print", List.of(i64Lit(1))),
+                returnStat(i64Lit(1))));
+    }
+
+    @Nested
+    class UnreachableCodeTests {
+        @Test
+        void statementsAfterReturnAreRemoved() {
+            var fun = eliminate(funDef("f", List.of(), I64_TN, List.of(
+                    returnStat(i64Lit(1)),
+                    funCall("print", List.of(i64Lit(2))),
+                    returnStat(i64Lit(2)))));
+            assertEquals(1, fun.body.statements.size());
+        }
+
+        @Test
+        void statementsAfterBreakAreRemoved() {
+            var loop = loopStat(statementList(
+                    breakStat(),
+                    funCall("print", List.of(i64Lit(1)))));
+            eliminate(funDef("f", List.of(), VOID_TN, List.of(loop)));
+            assertEquals(1, loop.body.statements.size());
+            assertInstanceOf(BreakStat.class, loop.body.statements.get(0));
+        }
+
+        @Test
+        void statementsAfterLeavingIfElseAreRemoved() {
+            var fun = eliminate(funDef("f", List.of(param("c", BOOL_TN)), I64_TN, List.of(
+                    ifElseStat(var("c"),
+                            statementList(returnStat(i64Lit(1))),
+                            statementList(returnStat(i64Lit(2)))),
+                    returnStat(i64Lit(3)))));
+            assertInstanceOf(IfElseStat.class, fun.body.statements.getLast());
+        }
+
+        @Test
+        void statementsAfterEndlessLoopAreRemoved() {
+            var fun = eliminate(funDef("f", List.of(), VOID_TN, List.of(
+                    loopStat(statementList(funCall("print", List.of(i64Lit(1))))),
+                    funCall("print", List.of(i64Lit(2))))));
+            assertEquals(1, fun.body.statements.size());
+        }
+
+        @Test
+        void nestedBreakDoesNotLeaveOuterLoop() {
+            var fun = eliminate(funDef("f", List.of(), VOID_TN, List.of(
+                    loopStat(statementList(loopStat(statementList(breakStat())))),
+                    funCall("print", List.of(i64Lit(2))))));
+            assertEquals(1, fun.body.statements.size());
+        }
+
+        @Test
+        void statementsAfterLoopWithBreakAreKept() {
+            var fun = eliminate(funDef("f", List.of(param("c", BOOL_TN)), VOID_TN, List.of(
+                    loopStat(statementList(
+                            ifElseStat(var("c"), statementList(breakStat()), statementList()))),
+                    funCall("print", List.of(i64Lit(2))))));
+            assertEquals(2, fun.body.statements.size());
+        }
+    }
+
+    @Nested
+    class DeadStoreTests {
+        @Test
+        void overwrittenStoreIsRemoved() {
+            var fun = eliminate(funDef("f", List.of(param("p", I64_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN),
+                    varAssignStat("x", binOpExpr(var("p"), BinaryOp.add, i64Lit(1))),
+                    varAssignStat("x", var("p")),
+                    returnStat(var("x")))));
+            var stats = fun.body.statements;
+            assertEquals(3, stats.size());
+            assertInstanceOf(Var.class, ((VarAssignStat) stats.get(1)).expr);
+        }
+
+        @Test
+        void unreadInitializerIsStripped() {
+            var decl = varDeclareStat("x", I64_TN, i64Lit(1));
+            var fun = eliminate(funDef("f", List.of(), I64_TN, List.of(
+                    decl,
+                    varAssignStat("x", i64Lit(2)),
+                    returnStat(var("x")))));
+            assertEquals(3, fun.body.statements.size());
+            assertTrue(decl.initializer.isEmpty());
+        }
+
+        @Test
+        void unusedVariableIsRemoved() {
+            var fun = eliminate(funDef("f", List.of(param("p", I64_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, binOpExpr(var("p"), BinaryOp.mult, i64Lit(2))),
+                    varAssignStat("x", i64Lit(3)),
+                    returnStat(var("p")))));
+            assertEquals(1, fun.body.statements.size());
+            assertInstanceOf(ReturnStat.class, fun.body.statements.get(0));
+        }
+
+        @Test
+        void storesWithSideEffectsAreKept() {
+            var fun = eliminate(funDef("f", List.of(), VOID_TN, List.of(
+                    varDeclareStat("x", I64_TN, funCall("g")),
+                    varAssignStat("x", funCall("g")))),
+                    effectfulFun());
+            var stats = fun.body.statements;
+            assertEquals(2, stats.size());
+            assertTrue(((VarDeclareStat) stats.get(0)).initializer.isPresent());
+        }
+
+        @Test
+        void possiblyTrappingDivisionIsKept() {
+            var fun = eliminate(funDef("f", List.of(param("p", I64_TN)), VOID_TN, List.of(
+                    varDeclareStat("x", I64_TN, binOpExpr(i64Lit(1), BinaryOp.div, var("p"))),
+                    varDeclareStat("y", I64_TN, binOpExpr(var("p"), BinaryOp.div, i64Lit(2))))));
+            assertEquals(1, fun.body.statements.size());
+            assertEquals("x", ((VarDeclareStat) fun.body.statements.get(0)).varName());
+        }
+
+        @Test
+        void storeReadInOneBranchIsKept() {
+            var fun = eliminate(funDef("f", List.of(param("c", BOOL_TN)), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(1)),
+                    ifElseStat(var("c"),
+                            statementList(returnStat(var("x"))),
+                            statementList(varAssignStat("x", i64Lit(2)))),
+                    returnStat(i64Lit(0)))));
+            var ifElse = (IfElseStat) fun.body.statements.get(1);
+            assertTrue(((VarDeclareStat) fun.body.statements.get(0)).initializer.isPresent());
+            // Dead in the else branch, since it's never read afterwards
+            assertTrue(ifElse.otherwise.statements.isEmpty());
+        }
+
+        @Test
+        void loopCarriedStoresAreKept() {
+            // let i = 0; let sum = 0;
+            // loop { if i >= 10 { break; } sum = sum + i; i = i + 1; }
+            // return sum;
+            var loop = loopStat(statementList(
+                    ifElseStat(binOpExpr(var("i"), BinaryOp.gteq, i64Lit(10)),
+                            statementList(breakStat()), statementList()),
+                    varAssignStat("sum", binOpExpr(var("sum"), BinaryOp.add, var("i"))),
+                    varAssignStat("i", binOpExpr(var("i"), BinaryOp.add, i64Lit(1)))));
+            var fun = eliminate(funDef("f", List.of(), I64_TN, List.of(
+                    varDeclareStat("i", I64_TN, i64Lit(0)),
+                    varDeclareStat("sum", I64_TN, i64Lit(0)),
+                    loop,
+                    returnStat(var("sum")))));
+            assertEquals(4, fun.body.statements.size());
+            assertEquals(3, loop.body.statements.size());
+        }
+
+        @Test
+        void storeOnlyReadAfterBreakIsKept() {
+            // let x = 0; loop { x = 1; break; } return x;
+            var loop = loopStat(statementList(varAssignStat("x", i64Lit(1)), breakStat()));
+            eliminate(funDef("f", List.of(), I64_TN, List.of(
+                    varDeclareStat("x", I64_TN, i64Lit(0)),
+                    loop,
+                    returnStat(var("x")))));
+            assertEquals(2, loop.body.statements.size());
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package cc.crochethk.klang.visitor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.ast.literal.I64Lit;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+
+public class LoopOptimizerTest extends NodeMocker {
+    /** Type checks the function and optimizes its loops. */
+    private FunDef optimize(FunDef fun, StructDef... structDefs) {
+        new TypeChecker().visit(prog(List.of(fun), List.of(structDefs)));
+        new LoopOptimizer().apply(fun);
+        return fun;
+    }
+
+    /**
+     * {@code fn f(<params>) { let i = 0; loop { if i >= n { break; } <stats>; i = i + 1; } }}
+     * with an {@code i64} parameter {@code n}.
+     */
+    private FunDef countingLoop(List<Parameter> params, Node... stats) {
+        var body = new ArrayList<Node>();
+        body.add(ifElseStat(binOpExpr(var("i"), BinaryOp.gteq, var("n")),
+                statementList(breakStat()), statementList()));
+        body.addAll(List.of(stats));
+        body.add(varAssignStat("i", binOpExpr(var("i"), BinaryOp.add, i64Lit(1))));
+
+        var allParams = new ArrayList<>(params);
+        allParams.add(param("n", I64_TN));
+        return funDef("f", allParams, VOID_TN, List.of(
+                varDeclareStatInferType("i", i64Lit(0)),
+                loopStat(statementList(body.toArray(Node[]::new)))));
+    }
+
+    private static LoopStat loopOf(FunDef fun) {
+        return (LoopStat) fun.body.statements.getLast();
+    }
+
+    /** Returns the preheader's declarations, i.e. those between {@code let i} and the loop. */
+    private static List<VarDeclareStat> preheaderOf(FunDef fun) {
+        var stats = fun.body.statements;
+        return stats.subList(1, stats.size() - 1).stream().map(s -> (VarDeclareStat) s).toList();
+    }
+
+    /** The expression assigned by the loop body's statement at {@code index}. */
+    private static Expr assignedIn(FunDef fun, int index) {
+        return ((VarAssignStat) loopOf(fun).body.statements.get(index)).expr;
+    }
+
+    @Nested
+    class InvariantCodeMotionTests {
+        @Test
+        void invariantProductIsHoisted() {
+            var fun = optimize(countingLoop(List.of(param("x", F64_TN), param("s", F64_TN)),
+                    varAssignStat("s", binOpExpr(var("s"), BinaryOp.add,
+                            binOpExpr(var("x"), BinaryOp.mult, var("x"))))));
+            var preheader = preheaderOf(fun);
+            assertEquals(1, preheader.size());
+            assertInstanceOf(BinOpExpr.class, preheader.get(0).initializer.get().expr);
+            assertEquals(Type.DOUBLE_T, preheader.get(0).theType);
+
+            var sum = (BinOpExpr) assignedIn(fun, 1);
+            var hoisted = assertInstanceOf(Var.class, sum.rhs);
+            assertEquals(preheader.get(0).varName(), hoisted.name);
+            assertEquals(Type.DOUBLE_T, hoisted.theType);
+        }
+
+        @Test
+        void sameExpressionIsHoistedOnce() {
+            var fun = optimize(countingLoop(List.of(param("a", I64_TN), param("b", I64_TN)),
+                    varAssignStat("a", binOpExpr(var("a"), BinaryOp.add,
+                            binOpExpr(var("b"), BinaryOp.sub, i64Lit(3)))),
+                    varAssignStat("a", binOpExpr(var("a"), BinaryOp.mult,
+                            binOpExpr(var("b"), BinaryOp.sub, i64Lit(3))))));
+            assertEquals(1, preheaderOf(fun).size());
+            var name = preheaderOf(fun).get(0).varName();
+            assertEquals(name, ((Var) ((BinOpExpr) assignedIn(fun, 1)).rhs).name);
+            assertEquals(name, ((Var) ((BinOpExpr) assignedIn(fun, 2)).rhs).name);
+        }
+
+        @Test
+        void expressionsOfAssignedVariablesStay() {
+            var fun = optimize(countingLoop(List.of(param("a", I64_TN)),
+                    varAssignStat("a", binOpExpr(var("a"), BinaryOp.add, var("i")))));
+            assertTrue(preheaderOf(fun).isEmpty());
+            assertInstanceOf(BinOpExpr.class, assignedIn(fun, 1));
+        }
+
+        @Test
+        void possiblyTrappingDivisionStays() {
+            var fun = optimize(countingLoop(List.of(param("a", I64_TN), param("d", I64_TN)),
+                    ifElseStat(binOpExpr(var("d"), BinaryOp.neq, i64Lit(0)),
+                            statementList(varAssignStat("a", binOpExpr(i64Lit(100), BinaryOp.div, var("d")))),
+                            statementList())));
+            // Only the condition is hoisted
+            assertEquals(1, preheaderOf(fun).size());
+            var guard = (IfElseStat) loopOf(fun).body.statements.get(1);
+            assertInstanceOf(Var.class, guard.condition);
+            var division = ((VarAssignStat) guard.then.statements.get(0)).expr;
+            assertEquals(BinaryOp.div, ((BinOpExpr) division).op);
+        }
+
+        @Test
+        void invariantInnerLoopExpressionLeavesBothLoops() {
+            var inner = loopStat(statementList(
+                    varAssignStat("a", binOpExpr(var("a"), BinaryOp.add,
+                            binOpExpr(var("b"), BinaryOp.mult, var("b")))),
+                    breakStat()));
+            var fun = optimize(countingLoop(List.of(param("a", I64_TN), param("b", I64_TN)), inner));
+            assertEquals(1, preheaderOf(fun).size());
+            // The inner loop has no preheader
+            assertSame(inner, loopOf(fun).body.statements.get(1));
+        }
+
+        private final StructDef pair = structDef("Pair", List.of(param("a", I64_TN), param("b", I64_TN)));
+
+        /** {@code p.a - p.b} */
+        private Expr fieldDifference() {
+            return binOpExpr(memberAccessChain(var("p"), fieldGet("a")), BinaryOp.sub,
+                    memberAccessChain(var("p"), fieldGet("b")));
+        }
+
+        @Test
+        void fieldReadsReachedFirstAreHoisted() {
+            var fun = optimize(countingLoop(List.of(param("p", "Pair"), param("s", I64_TN)),
+                    varAssignStat("s", fieldDifference())), pair);
+            // Only the break check precedes the read, which evaluates variables only
+            assertTrue(preheaderOf(fun).isEmpty());
+
+            fun = optimize(funDef("f", List.of(param("p", "Pair"), param("s", I64_TN)), VOID_TN, List.of(
+                    loopStat(statementList(
+                            varAssignStat("s", binOpExpr(var("s"), BinaryOp.add, fieldDifference())),
+                            ifElseStat(binOpExpr(var("s"), BinaryOp.gt, i64Lit(100)),
+                                    statementList(breakStat()), statementList()))))), pair);
+            assertInstanceOf(VarDeclareStat.class, fun.body.statements.get(0));
+            assertInstanceOf(Var.class, ((BinOpExpr) assignedIn(fun, 0)).rhs);
+        }
+
+        @Test
+        void fieldReadsAreKeptIfFieldsMightChange() {
+            var fun = optimize(funDef("f", List.of(param("p", "Pair"), param("s", I64_TN)), VOID_TN, List.of(
+                    loopStat(statementList(
+                            varAssignStat("s", binOpExpr(var("s"), BinaryOp.add, fieldDifference())),
+                            fieldAssignStat(var("p"), List.of(fieldSet("a")), var("s")),
+                            ifElseStat(binOpExpr(var("s"), BinaryOp.gt, i64Lit(100)),
+                                    statementList(breakStat()), statementList()))))), pair);
+            assertEquals(1, fun.body.statements.size());
+        }
+    }
+
+    @Nested
+    class InductionVariableTests {
+        @Test
+        void productIsUpdatedByAddition() {
+            var fun = optimize(countingLoop(List.of(param("s", I64_TN), param("k", I64_TN)),
+                    varAssignStat("s", binOpExpr(var("s"), BinaryOp.add,
+                            binOpExpr(var("i"), BinaryOp.mult, var("k"))))));
+            // i * k, then 1 * k
+            var preheader = preheaderOf(fun);
+            assertEquals(2, preheader.size());
+            var iv = preheader.get(0).varName();
+            var step = preheader.get(1).varName();
+
+            assertEquals(iv, ((Var) ((BinOpExpr) assignedIn(fun, 1)).rhs).name);
+            var stats = loopOf(fun).body.statements;
+            assertEquals(4, stats.size());
+            var update = (VarAssignStat) stats.get(3);
+            assertEquals(iv, update.targetVarName);
+            var next = (BinOpExpr) update.expr;
+            assertEquals(BinaryOp.add, next.op);
+            assertEquals(step, ((Var) next.rhs).name);
+        }
+
+        @Test
+        void constantStepIsFolded() {
+            var fun = optimize(funDef("f", List.of(param("s", I64_TN)), VOID_TN, List.of(
+                    varDeclareStatInferType("i", i64Lit(0)),
+                    loopStat(statementList(
+                            ifElseStat(binOpExpr(var("i"), BinaryOp.gt, i64Lit(100)),
+                                    statementList(breakStat()), statementList()),
+                            varAssignStat("s", binOpExpr(var("s"), BinaryOp.add,
+                                    binOpExpr(i64Lit(3), BinaryOp.mult, var("i")))),
+                            varAssignStat("i", binOpExpr(var("i"), BinaryOp.sub, i64Lit(2))))))));
+            assertEquals(1, preheaderOf(fun).size());
+            var update = (BinOpExpr) assignedIn(fun, 3);
+            assertEquals(BinaryOp.sub, update.op);
+            assertEquals(6, ((I64Lit) update.rhs).value);
+        }
+
+        @Test
+        void powerOfTwoFactorIsKept() {
+            var fun = optimize(countingLoop(List.of(param("s", I64_TN)),
+                    varAssignStat("s", binOpExpr(var("s"), BinaryOp.add,
+                            binOpExpr(i64Lit(8), BinaryOp.mult, var("i"))))));
+            assertTrue(preheaderOf(fun).isEmpty());
+            var product = (BinOpExpr) ((BinOpExpr) assignedIn(fun, 1)).rhs;
+            assertInstanceOf(Var.class, product.lhs);
+            assertInstanceOf(I64Lit.class, product.rhs);
+        }
+
+        @Test
+        void variableAssignedTwiceIsNoInductionVariable() {
+            var fun = optimize(countingLoop(List.of(param("s", I64_TN), param("k", I64_TN)),
+                    varAssignStat("s", binOpExpr(var("i"), BinaryOp.mult, var("k"))),
+                    varAssignStat("i", binOpExpr(var("i"), BinaryOp.add, var("s")))));
+            assertTrue(preheaderOf(fun).isEmpty());
+            assertInstanceOf(BinOpExpr.class, assignedIn(fun, 1));
+        }
+    }
+}
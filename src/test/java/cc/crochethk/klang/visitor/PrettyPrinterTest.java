@@ -149,6 +149,17 @@ public class PrettyPrinterTest extends NodeMocker {
                       four: OtherStruct,
                     }""", pp.scb.toString());
         }
+
+        @Test
+        void structWithAttribute() {
+            pp.visit(new StructDef(srcPosMock, "Node", List.of(param("flag", BOOL_TN)), List.of(),
+                    List.of(StructDef.ATTR_REORDER)));
+            assertEquals("""
+                    #[reorder]
+                    struct Node {
+                      flag: bool,
+                    }""", pp.scb.toString());
+        }
     }
 
     @Nested
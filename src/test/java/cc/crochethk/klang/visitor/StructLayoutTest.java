@@ -0,0 +1,97 @@
+package cc.crochethk.klang.visitor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+
+public class StructLayoutTest extends NodeMocker {
+    /** Type checks the given struct and returns its layout. */
+    private StructLayout layoutOf(StructDef structDef) {
+        new TypeChecker().visit(prog(List.of(), List.of(structDef)));
+        return StructLayout.of(structDef);
+    }
+
+    private List<Integer> offsets(StructLayout layout) {
+        return layout.fields().stream().map(StructLayout.Field::offset).toList();
+    }
+
+    @Test
+    void fieldsAreAlignedToTheirSize() {
+        var layout = layoutOf(structDef("Mixed", List.of(
+                param("flag", BOOL_TN),
+                param("num", I64_TN),
+                param("other", BOOL_TN),
+                param("third", BOOL_TN),
+                param("ratio", F64_TN),
+                param("name", STRING_TN))));
+        assertEquals(List.of(0, 8, 16, 17, 24, 32), offsets(layout));
+        assertEquals(40, layout.size());
+        assertEquals(8, layout.alignment());
+    }
+
+    @Test
+    void sizeIsPaddedToAlignment() {
+        var layout = layoutOf(structDef("Padded", List.of(
+                param("num", I64_TN),
+                param("flag", BOOL_TN))));
+        assertEquals(List.of(0, 8), offsets(layout));
+        assertEquals(16, layout.size());
+    }
+
+    @Test
+    void boolsOnlyArePacked() {
+        var layout = layoutOf(structDef("Bools", List.of(
+                param("a", BOOL_TN),
+                param("b", BOOL_TN),
+                param("c", BOOL_TN))));
+        assertEquals(List.of(0, 1, 2), offsets(layout));
+        assertEquals(3, layout.size());
+        assertEquals(1, layout.alignment());
+    }
+
+    @Test
+    void reorderingRemovesPadding() {
+        var fields = List.of(
+                param("flag", BOOL_TN),
+                param("value", I64_TN),
+                param("other", BOOL_TN),
+                param("next", "Node"));
+        assertEquals(32, layoutOf(structDef("Node", fields)).size());
+
+        var reordered = layoutOf(new StructDef(srcPosMock, "Node", fields, List.of(),
+                List.of(StructDef.ATTR_REORDER)));
+        assertEquals(List.of("value", "next", "flag", "other"),
+                reordered.fields().stream().map(StructLayout.Field::name).toList());
+        assertEquals(List.of(0, 8, 16, 17), offsets(reordered));
+        assertEquals(24, reordered.size());
+    }
+
+    @Test
+    void referenceFieldsArePointers() {
+        var node = structDef("Node", List.of(
+                param("value", I64_TN),
+                param("next", "Node")));
+        var layout = layoutOf(node);
+        assertEquals(8, layout.field("next").offset());
+        assertEquals(node.theType, layout.field("next").type());
+    }
+
+    @Test
+    void emptyStructHasDummyByte() {
+        var layout = layoutOf(EMPTY_STRUCT);
+        assertTrue(layout.fields().isEmpty());
+        assertEquals(1, layout.size());
+    }
+
+    @Test
+    void unknownFieldFails() {
+        var layout = layoutOf(EMPTY_STRUCT);
+        assertThrows(NoSuchElementException.class, () -> layout.field("missing"));
+    }
+}
@@ -753,6 +753,22 @@ public class TypeCheckerTest extends NodeMocker {
             assertDoesNotThrow(() -> checkProgOf(List.of(), List.of(firstStruct, otherStruct)));
             assertReportedErrors(0);
         }
+
+        @Test
+        void structDefWithReorderAttribute() {
+            var struct = new StructDef(srcPosMock, "Reordered", List.of(param("a", BOOL_TN)), List.of(),
+                    List.of(StructDef.ATTR_REORDER));
+            checkProgOf(List.of(), List.of(struct));
+            assertReportedErrors(0);
+        }
+
+        @Test
+        void structDefWithUnknownAttributeFails() {
+            var struct = new StructDef(srcPosMock, "Packed", List.of(param("a", BOOL_TN)), List.of(),
+                    List.of("packed"));
+            assertThrows(TypeCheckFailedException.class, () -> checkProgOf(List.of(), List.of(struct)));
+            assertReportedErrors(1);
+        }
     }
 
     /** Run TypeChecker on new Program consiting of given definitions */
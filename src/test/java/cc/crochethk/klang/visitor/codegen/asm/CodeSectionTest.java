@@ -0,0 +1,67 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr.Scale;
+
+public class CodeSectionTest {
+    @Nested
+    class OmitFramePointerTests {
+        private final CodeSection code = new CodeSection(PeepholeOptimizer.NONE, true);
+
+        private List<Instruction> finish() {
+            code.endFunction();
+            // Drop the function label
+            return code.instructions().subList(1, code.instructions().size());
+        }
+
+        @Test
+        void prologueAndLeaveAreRemoved() {
+            code.beginFunction("f");
+            code.pushq(rbp);
+            code.movq(rsp, rbp);
+            code.movq(rdi, rax);
+            code.leave();
+            code.ret();
+            code.omitFramePointer();
+            assertEquals(List.of(new Op("movq", rdi, rax), new Op("ret")), finish());
+        }
+
+        @Test
+        void frameIsAddressedRelativeToRsp() {
+            code.beginFunction("f");
+            code.pushq(rbp);
+            code.movq(rsp, rbp);
+            code.movq(rbx, new MemAddr(-8, rbp));
+            code.movsd(new MemAddr(16, rbp), xmm0);
+            code.leaq(new MemAddr(-16, rbp, rax, Scale._8), rcx);
+            code.movq(new MemAddr(8, rdi), rax);
+            code.omitFramePointer();
+            assertEquals(List.of(
+                    new Op("movq", rbx, new MemAddr(-16, rsp)),
+                    new Op("movsd", new MemAddr(8, rsp), xmm0),
+                    new Op("leaq", new MemAddr(-24, rsp, rax, Scale._8), rcx),
+                    new Op("movq", new MemAddr(8, rdi), rax)), finish());
+        }
+
+        @Test
+        void tailCallNeedsNoLeave() {
+            code.beginFunction("f");
+            code.pushq(rbp);
+            code.movq(rsp, rbp);
+            code.leave();
+            code.tailCall("g");
+            code.omitFramePointer();
+            assertEquals(List.of(new Call("g", true)), finish());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.visitor.codegen.asm.DataSection.ReadOnlyData;
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.MachineCodeEncoder.Relocation;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr.Scale;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.ByteRegister;
+
+public class MachineCodeEncoderTest {
+    private static String encode(Instruction... instructions) {
+        var encoder = new MachineCodeEncoder(new ReadOnlyData());
+        encoder.encode(List.of(instructions));
+        return HexFormat.ofDelimiter(" ").formatHex(encoder.code());
+    }
+
+    @Nested
+    class EncodingTests {
+        @Test
+        void registerAndMemoryMoves() {
+            assertEquals("48 89 45 f8", encode(new Op("movq", rax, new MemAddr(-8, rbp))));
+            assertEquals("4c 89 e7", encode(new Op("movq", r12, rdi)));
+            assertEquals("48 8b 04 24", encode(new Op("movq", new MemAddr(rsp), rax)));
+            assertEquals("49 8b 45 00", encode(new Op("movq", new MemAddr(r13), rax)));
+            assertEquals("48 8b 84 c8 00 01 00 00",
+                    encode(new Op("movq", new MemAddr(256, rax, rcx, Scale._8), rax)));
+        }
+
+        @Test
+        void byteLoadsAndStores() {
+            assertEquals("48 0f b6 41 08", encode(new Op("movzbq", new MemAddr(8, rcx), rax)));
+            assertEquals("4d 0f b6 0c 24", encode(new Op("movzbq", new MemAddr(r12), r9)));
+            assertEquals("88 41 08", encode(new Op("movb", ByteRegister.al, new MemAddr(8, rcx))));
+            assertEquals("40 88 37", encode(new Op("movb", ByteRegister.sil, new MemAddr(rdi))));
+        }
+
+        @Test
+        void immediates() {
+            assertEquals("48 c7 c0 01 00 00 00", encode(new Op("movq", $(1), rax)));
+            assertEquals("48 b8 00 00 00 00 01 00 00 00", encode(new Op("movq", $(1L << 32), rax)));
+            assertEquals("48 83 c4 08", encode(new Op("addq", $(8), rsp)));
+            assertEquals("48 81 ec 00 01 00 00", encode(new Op("subq", $(256), rsp)));
+            assertEquals("48 6b c0 0a", encode(new Op("imulq", $(10), rax)));
+        }
+
+        @Test
+        void shiftsByConstant() {
+            assertEquals("48 d1 e9", encode(new Op("shrq", $(1), rcx)));
+            assertEquals("48 c1 e0 03", encode(new Op("shlq", $(3), rax)));
+            assertEquals("49 c1 f8 02", encode(new Op("sarq", $(2), r8)));
+        }
+
+        @Test
+        void wideningMultiplyAndScaledLea() {
+            assertEquals("48 f7 e9", encode(new Op("imulq", rcx)));
+            assertEquals("48 8d 04 40", encode(new Op("leaq", new MemAddr(0, rax, rax, Scale._2), rax)));
+        }
+
+        @Test
+        void setNeedsRexForSil() {
+            assertEquals("0f 94 c0", encode(new Op("sete", ByteRegister.al)));
+            assertEquals("40 0f 94 c6", encode(new Op("sete", ByteRegister.sil)));
+            assertEquals("41 0f 9f c0", encode(new Op("setg", ByteRegister.r8b)));
+        }
+
+        @Test
+        void sseInstructions() {
+            assertEquals("f2 0f 11 04 24", encode(new Op("movsd", xmm0, new MemAddr(rsp))));
+            assertEquals("f2 44 0f 58 c1", encode(new Op("addsd", xmm1, xmm8)));
+            assertEquals("66 0f 2e c1", encode(new Op("ucomisd", xmm1, xmm0)));
+            assertEquals("f2 48 0f 2a c0", encode(new Op("cvtsi2sdq", rax, xmm0)));
+            assertEquals("f2 48 0f 2c c0", encode(new Op("cvttsd2siq", xmm0, rax)));
+        }
+
+        @Test
+        void pushAndNullaryInstructions() {
+            assertEquals("55 41 54 c9 c3 48 99",
+                    encode(new Op("pushq", rbp), new Op("pushq", r12), new Op("leave"), new Op("ret"),
+                            new Op("cqto")));
+        }
+
+        @Test
+        void jumpsAreResolved() {
+            assertEquals("0f 84 05 00 00 00 e9 f5 ff ff ff c3",
+                    encode(new Label(".L0"), new Jump("je", ".L1"), new Jump("jmp", ".L0"),
+                            new Label(".L1"), new Op("ret")));
+        }
+
+        @Test
+        void conditionalJumps() {
+            assertEquals("0f 87 0c 00 00 00 0f 8a 06 00 00 00 0f 86 00 00 00 00",
+                    encode(new Jump("ja", ".L0"), new Jump("jp", ".L0"), new Jump("jbe", ".L0"),
+                            new Label(".L0")));
+        }
+
+        @Test
+        void unknownLabelFails() {
+            assertThrows(IllegalStateException.class, () -> encode(new Jump("jmp", ".L9")));
+        }
+    }
+
+    @Nested
+    class RelocationTests {
+        @Test
+        void callsAndRodataReferences() {
+            var rodata = new ReadOnlyData();
+            rodata.createLiteral("abc");
+            var label = rodata.createLiteral(1.5);
+            var encoder = new MachineCodeEncoder(rodata);
+            encoder.encode(List.of(
+                    new FunctionLabel("main"),
+                    new Call("printf@PLT"),
+                    new Op("movsd", new MemAddr(label, rip), xmm0)));
+
+            assertEquals(List.of(
+                    new Relocation(1, Relocation.Kind.PLT32, "printf", -4),
+                    // "abc\0" is padded to 8 bytes
+                    new Relocation(9, Relocation.Kind.PC32, MachineCodeEncoder.RODATA, 8 - 4)),
+                    encoder.relocations());
+            assertEquals(0, encoder.functions().get("main"));
+            assertEquals(16, rodata.bytes().length);
+        }
+
+        @Test
+        void tailCallJumpsToPlt() {
+            var encoder = new MachineCodeEncoder(new ReadOnlyData());
+            encoder.encode(List.of(new FunctionLabel("f"), new Op("leave"), new Call("g", true)));
+
+            assertEquals("c9 e9 00 00 00 00", HexFormat.ofDelimiter(" ").formatHex(encoder.code()));
+            assertEquals(List.of(new Relocation(2, Relocation.Kind.PLT32, "g", -4)), encoder.relocations());
+        }
+
+        @Test
+        void objectFileHeader() {
+            var rodata = new ReadOnlyData();
+            var encoder = new MachineCodeEncoder(rodata);
+            encoder.encode(List.of(new FunctionLabel("f"), new Call("g"), new Op("ret")));
+            var bytes = ByteBuffer.wrap(new ElfObjectWriter(encoder, rodata).toBytes())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            assertEquals(0x464C457F, bytes.getInt(0)); // "\x7FELF"
+            assertEquals(1, bytes.getShort(16)); // relocatable
+            assertEquals(62, bytes.getShort(18)); // x86-64
+            long shoff = bytes.getLong(40);
+            int shnum = bytes.getShort(60);
+            assertEquals(bytes.capacity(), shoff + 64 * shnum);
+        }
+    }
+}
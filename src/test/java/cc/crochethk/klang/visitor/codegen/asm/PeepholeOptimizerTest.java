@@ -0,0 +1,220 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const.$;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.*;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.PeepholeOptimizer.Pass;
+
+public class PeepholeOptimizerTest {
+    private static final MemAddr SLOT = new MemAddr(-8, rbp);
+
+    private static List<Instruction> optimize(Pass pass, Instruction... code) {
+        return new PeepholeOptimizer(EnumSet.of(pass)).optimize(List.of(code));
+    }
+
+    @Nested
+    class RedundantMovesTests {
+        @Test
+        void loadAfterStoreIsRemoved() {
+            var store = new Op("movq", rax, new MemAddr(-8, rbp));
+            var result = optimize(Pass.REDUNDANT_MOVES, store, new Op("movq", SLOT, rax));
+            assertEquals(List.of(store), result);
+        }
+
+        @Test
+        void selfMoveIsRemoved() {
+            var result = optimize(Pass.REDUNDANT_MOVES, new Op("movsd", xmm0, xmm0), new Op("ret"));
+            assertEquals(List.of(new Op("ret")), result);
+        }
+
+        @Test
+        void differentWidthsAreKept() {
+            var code = List.<Instruction>of(new Op("movq", rax, SLOT), new Op("movsd", SLOT, xmm0));
+            assertEquals(code, optimize(Pass.REDUNDANT_MOVES, code.toArray(Instruction[]::new)));
+        }
+
+        @Test
+        void loadThroughOverwrittenBaseIsKept() {
+            // The second move writes to where %rax points to afterwards
+            var deref = new MemAddr(rax);
+            var code = List.<Instruction>of(new Op("movq", deref, rax), new Op("movq", rax, deref));
+            assertEquals(code, optimize(Pass.REDUNDANT_MOVES, code.toArray(Instruction[]::new)));
+        }
+
+        @Test
+        void movesSeparatedByLabelAreKept() {
+            var code = List.<Instruction>of(new Op("movq", rax, SLOT), new Label(".L0"), new Op("movq", SLOT, rax));
+            assertEquals(code, optimize(Pass.REDUNDANT_MOVES, code.toArray(Instruction[]::new)));
+        }
+    }
+
+    @Nested
+    class JumpTests {
+        @Test
+        void jumpToNextLabelIsRemoved() {
+            var result = optimize(Pass.JUMP_TO_NEXT,
+                    new Jump("je", ".L1"), new Label(".L0"), new Label(".L1"), new Op("ret"));
+            assertEquals(List.of(new Label(".L0"), new Label(".L1"), new Op("ret")), result);
+        }
+
+        @Test
+        void jumpOverCodeIsKept() {
+            var code = List.<Instruction>of(new Jump("jmp", ".L0"), new Op("ret"), new Label(".L0"));
+            assertEquals(code, optimize(Pass.JUMP_TO_NEXT, code.toArray(Instruction[]::new)));
+        }
+
+        @Test
+        void jumpsAreThreaded() {
+            var result = optimize(Pass.JUMP_THREADING,
+                    new Jump("jne", ".L0"),
+                    new Op("ret"),
+                    new Label(".L0"),
+                    new Jump("jmp", ".L1"),
+                    new Label(".L1"),
+                    new Jump("jmp", ".L2"),
+                    new Label(".L2"),
+                    new Op("leave"));
+            assertEquals(List.of(
+                    new Jump("jne", ".L2"),
+                    new Op("ret"),
+                    new Label(".L2"),
+                    new Op("leave")), result);
+        }
+
+        @Test
+        void jumpCycleTerminates() {
+            var code = List.<Instruction>of(new Label(".L0"), new Jump("jmp", ".L0"));
+            assertEquals(code, optimize(Pass.JUMP_THREADING, code.toArray(Instruction[]::new)));
+        }
+
+        @Test
+        void codeAfterUnconditionalJumpIsRemoved() {
+            var result = optimize(Pass.JUMP_THREADING,
+                    new Label(".L0"),
+                    new Op("movq", $(1), rax),
+                    new Jump("jmp", ".L0"),
+                    new Jump("jmp", ".L1"),
+                    new Label(".L1"),
+                    new Op("ret"));
+            assertEquals(List.of(
+                    new Label(".L0"),
+                    new Op("movq", $(1), rax),
+                    new Jump("jmp", ".L0")), result);
+        }
+
+        @Test
+        void codeAfterTailCallIsRemoved() {
+            var result = optimize(Pass.JUMP_THREADING,
+                    new Op("leave"),
+                    new Call("g", true),
+                    new Op("leave"),
+                    new Op("ret"));
+            assertEquals(List.of(new Op("leave"), new Call("g", true)), result);
+            assertEquals("\n\tjmp\tg", result.getLast().render());
+        }
+    }
+
+    @Nested
+    class InvertBranchesTests {
+        @Test
+        void branchOverJumpIsInverted() {
+            var result = optimize(Pass.INVERT_BRANCHES,
+                    new Jump("jbe", ".L0"),
+                    new Jump("jmp", ".L1"),
+                    new Label(".L0"),
+                    new Op("ret"));
+            assertEquals(List.of(
+                    new Jump("ja", ".L1"),
+                    new Label(".L0"),
+                    new Op("ret")), result);
+        }
+
+        @Test
+        void branchToOtherLabelIsKept() {
+            var code = List.<Instruction>of(
+                    new Jump("je", ".L2"), new Jump("jmp", ".L1"), new Label(".L0"), new Op("ret"));
+            assertEquals(code, optimize(Pass.INVERT_BRANCHES, code.toArray(Instruction[]::new)));
+        }
+    }
+
+    @Nested
+    class CmpZeroToTestTests {
+        @Test
+        void registerComparisonIsRewritten() {
+            var result = optimize(Pass.CMP_ZERO_TO_TEST, new Op("cmpq", $(0), rbx));
+            assertEquals(List.of(new Op("testq", rbx, rbx)), result);
+        }
+
+        @Test
+        void memoryAndNonZeroComparisonsAreKept() {
+            var code = List.<Instruction>of(new Op("cmpq", $(0), SLOT), new Op("cmpq", $(1), rax));
+            assertEquals(code, optimize(Pass.CMP_ZERO_TO_TEST, code.toArray(Instruction[]::new)));
+        }
+    }
+
+    @Nested
+    class CodeSectionTests {
+        private static String render(CodeSection code) throws IOException {
+            var out = new StringWriter();
+            code.drainTo(out);
+            return out.toString();
+        }
+
+        /** Emits a function returning early with the result of a comparison. */
+        private static void emitFunction(CodeSection code) {
+            code.beginFunction("f");
+            code.cmpq($(0), rdi);
+            var exit = code.newLabel();
+            code.movq(rdi, rax);
+            code.jmp(exit);
+            code.bindLabel(exit);
+            code.leave();
+            code.ret();
+            code.endFunction();
+        }
+
+        @Test
+        void rendersAsWritten() throws IOException {
+            var code = new CodeSection();
+            emitFunction(code);
+            assertEquals("""
+                    \t.text
+                    \t.globl\tf
+                    \t.type\tf, @function
+                    f:
+                    \tcmpq\t$0, %rdi
+                    \tmovq\t%rdi, %rax
+                    \tjmp\t.L0
+                    .L0:
+                    \tleave
+                    \tret""", render(code).substring(1));
+        }
+
+        @Test
+        void rendersOptimized() throws IOException {
+            var code = new CodeSection(PeepholeOptimizer.ALL);
+            emitFunction(code);
+            assertEquals("""
+                    \t.text
+                    \t.globl\tf
+                    \t.type\tf, @function
+                    f:
+                    \ttestq\t%rdi, %rdi
+                    \tmovq\t%rdi, %rax
+                    \tleave
+                    \tret""", render(code).substring(1));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.XmmRegister.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.ast.*;
+import cc.crochethk.klang.ast.BinOpExpr.BinaryOp;
+import cc.crochethk.klang.testhelpers.NodeMocker;
+import cc.crochethk.klang.visitor.TypeChecker;
+
+public class RegisterAllocationTest extends NodeMocker {
+    /** {@code fn id(x: i64) -> i64 { return x; }} */
+    private FunDef idFun() {
+        return funDef("id", List.of(param("x", I64_TN)), I64_TN, List.of(returnStat(var("x"))));
+    }
+
+    /** Type checks the given functions, so their expressions' types are known. */
+    private void typeCheck(FunDef... funDefs) {
+        new TypeChecker().visit(prog(List.of(funDefs), List.of()));
+    }
+
+    /** Declares {@code count} variables {@code v0, v1, ...} initialized with {@code param + i}. */
+    private List<Node> declareMany(String param, int count) {
+        var stats = new ArrayList<Node>();
+        for (int i = 0; i < count; i++) {
+            stats.add(varDeclareStatInferType("v" + i, binOpExpr(var(param), BinaryOp.add, i64Lit(i))));
+        }
+        return stats;
+    }
+
+    /** Sums up the variables {@code v0, v1, ...}. */
+    private Expr sumOfMany(int count) {
+        Expr sum = var("v0");
+        for (int i = 1; i < count; i++) {
+            sum = binOpExpr(sum, BinaryOp.add, var("v" + i));
+        }
+        return sum;
+    }
+
+    @Nested
+    class LiveIntervalsTests {
+        @Test
+        void varUsedInLoopLivesUntilLoopEnd() {
+            var stats = new ArrayList<Node>();
+            stats.add(varDeclareStat("n", I64_TN, i64Lit(3)));
+            stats.add(varDeclareStat("i", I64_TN, i64Lit(0)));
+            stats.add(loopStat(statementList(
+                    ifElseStat(binOpExpr(var("i"), BinaryOp.gteq, var("n")),
+                            statementList(breakStat()), statementList()),
+                    varAssignStat("i", binOpExpr(var("i"), BinaryOp.add, i64Lit(1))))));
+            stats.add(returnStat(i64Lit(0)));
+            var fun = funDef("f", List.of(), I64_TN, stats);
+            typeCheck(fun);
+
+            var intervals = LiveIntervals.of(fun).intervals();
+            var n = intervals.stream().filter(iv -> "n".equals(iv.varName)).findFirst().get();
+            var i = intervals.stream().filter(iv -> "i".equals(iv.varName)).findFirst().get();
+            // "n" is last read before the increment of "i", but needed in the next iteration
+            assertEquals(i.end(), n.end());
+        }
+
+        @Test
+        void preEvaluatedArgTempLivesUntilCall() {
+            var call = funCall("id", List.of(binOpExpr(i64Lit(1), BinaryOp.add, i64Lit(2))));
+            var fun = funDef("f", List.of(), I64_TN, List.of(returnStat(call)));
+            typeCheck(fun, idFun());
+
+            var li = LiveIntervals.of(fun);
+            var temp = li.intervals().stream().filter(iv -> iv.temp == call.args.get(0)).findFirst().get();
+            assertEquals((int) li.callPositions().get(call), temp.end());
+        }
+    }
+
+    @Nested
+    class AllocationTests {
+        @Test
+        void valueNotLiveAcrossCallUsesCallerSaved() {
+            var fun = funDef("f", List.of(param("a", I64_TN)), I64_TN,
+                    List.of(returnStat(binOpExpr(var("a"), BinaryOp.add, i64Lit(1)))));
+            typeCheck(fun);
+
+            var alloc = RegisterAllocation.of(fun);
+            assertEquals(Optional.of(r10), alloc.ofVar("a"));
+            assertTrue(alloc.usedCalleeSaved().isEmpty());
+        }
+
+        @Test
+        void valueLiveAcrossCallUsesCalleeSaved() {
+            var fun = funDef("f", List.of(param("a", I64_TN)), I64_TN, List.of(
+                    varDeclareStatInferType("b", funCall("id", List.of(i64Lit(1)))),
+                    returnStat(binOpExpr(var("a"), BinaryOp.add, var("b")))));
+            typeCheck(fun, idFun());
+
+            var alloc = RegisterAllocation.of(fun);
+            assertEquals(Optional.of(rbx), alloc.ofVar("a"));
+            assertEquals(List.of(rbx), List.copyOf(alloc.usedCalleeSaved()));
+        }
+
+        @Test
+        void floatsUseXmmRegisters() {
+            var fun = funDef("f", List.of(param("a", F64_TN), param("b", F64_TN)), F64_TN,
+                    List.of(returnStat(binOpExpr(var("a"), BinaryOp.mult, var("b")))));
+            typeCheck(fun);
+
+            var alloc = RegisterAllocation.of(fun);
+            assertEquals(Optional.of(xmm8), alloc.ofVar("a"));
+            assertEquals(Optional.of(xmm9), alloc.ofVar("b"));
+        }
+
+        @Test
+        void callerSavedRegistersArePreservedAcrossCall() {
+            // More values live across the call than there are callee saved registers
+            var call = funCall("id", List.of(var("x")));
+            var stats = new ArrayList<>(declareMany("x", 6));
+            stats.add(varDeclareStatInferType("r", call));
+            stats.add(returnStat(binOpExpr(sumOfMany(6), BinaryOp.add, var("r"))));
+            var fun = funDef("f", List.of(param("x", I64_TN)), I64_TN, stats);
+            typeCheck(fun, idFun());
+
+            var alloc = RegisterAllocation.of(fun);
+            assertEquals(5, alloc.usedCalleeSaved().size());
+            assertEquals(1, alloc.preservedAcross(call).size());
+            assertEquals(List.copyOf(alloc.usedCallerSaved()), alloc.preservedAcross(call));
+        }
+
+        @Test
+        void spillsWhenOutOfRegisters() {
+            var stats = new ArrayList<>(declareMany("x", 8));
+            stats.add(returnStat(sumOfMany(8)));
+            var fun = funDef("f", List.of(param("x", I64_TN)), I64_TN, stats);
+            typeCheck(fun);
+
+            var alloc = RegisterAllocation.of(fun);
+            var spilled = new ArrayList<String>();
+            for (var name : List.of("x", "v0", "v1", "v2", "v3", "v4", "v5", "v6", "v7")) {
+                if (alloc.ofVar(name).isEmpty()) {
+                    spilled.add(name);
+                }
+            }
+            // 7 registers for 8 values, which are all live while initializing "v6"
+            assertEquals(List.of("v6"), spilled);
+        }
+
+        @Test
+        void noneKeepsEverythingOnStack() {
+            assertTrue(RegisterAllocation.NONE.ofVar("a").isEmpty());
+            assertTrue(RegisterAllocation.NONE.usedCalleeSaved().isEmpty());
+        }
+    }
+}
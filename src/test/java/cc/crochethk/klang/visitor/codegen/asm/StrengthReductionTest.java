@@ -0,0 +1,152 @@
+package cc.crochethk.klang.visitor.codegen.asm;
+
+import static cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import cc.crochethk.klang.visitor.codegen.asm.Instruction.Op;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Const;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.MemAddr;
+import cc.crochethk.klang.visitor.codegen.asm.OperandSpecifier.Register;
+import cc.crochethk.klang.visitor.codegen.asm.StrengthReduction.Magic;
+
+public class StrengthReductionTest {
+    private static final long[] DIVIDENDS = LongStream.concat(
+            LongStream.rangeClosed(-300, 300),
+            LongStream.of(Long.MIN_VALUE, Long.MIN_VALUE + 1, Long.MAX_VALUE, Long.MAX_VALUE - 1,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, 1L << 32, -(1L << 32) + 7, 123456789012345L))
+            .toArray();
+
+    private static final long[] CONSTANTS = {
+            2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 25, 100, 641, 1000, 1 << 20, 1_000_000_007,
+            Integer.MAX_VALUE, 1L << 40, 3_000_000_000L, Long.MAX_VALUE, Long.MAX_VALUE / 3 };
+
+    private static List<Instruction> generate(BiConsumer<CodeSection, Long> generator, long constant) {
+        var code = new CodeSection(PeepholeOptimizer.NONE, true);
+        code.beginFunction("f");
+        generator.accept(code, constant);
+        code.endFunction();
+        // Drop the function label
+        return code.instructions().subList(1, code.instructions().size());
+    }
+
+    /** Executes the straight-line code with {@code rax} set to {@code n} and returns {@code rax}. */
+    private static long run(List<Instruction> code, long n) {
+        Map<Register, Long> regs = new HashMap<>(Map.of(rax, n, rcx, 0L, rdx, 0L));
+        for (var instr : code) {
+            var op = assertInstanceOf(Op.class, instr);
+            var src = op.src();
+            var dst = op.dst() instanceof Register reg ? reg : null;
+            long value = switch (src) {
+                case Const c -> c.value();
+                case Register reg -> regs.get(reg);
+                default -> 0;
+            };
+            switch (op.mnemonic()) {
+                case "movq" -> regs.put(dst, value);
+                case "addq" -> regs.put(dst, regs.get(dst) + value);
+                case "subq" -> regs.put(dst, regs.get(dst) - value);
+                case "negq" -> regs.put(dst, -regs.get(dst));
+                case "shlq" -> regs.put(dst, regs.get(dst) << value);
+                case "shrq" -> regs.put(dst, regs.get(dst) >>> value);
+                case "sarq" -> regs.put(dst, regs.get(dst) >> value);
+                case "leaq" -> {
+                    var addr = (MemAddr) src;
+                    regs.put(dst, regs.get(addr.base()) + regs.get(addr.index()) * addr.scale().factor);
+                }
+                case "imulq" -> {
+                    if (op.operands().size() == 1) {
+                        regs.put(rdx, Math.multiplyHigh(regs.get(rax), value));
+                        regs.put(rax, regs.get(rax) * value);
+                    } else {
+                        regs.put(dst, regs.get(dst) * value);
+                    }
+                }
+                default -> fail("Unexpected instruction " + op.render());
+            }
+        }
+        return regs.get(rax);
+    }
+
+    @Nested
+    class MagicTests {
+        @Test
+        void knownMagicNumbers() {
+            assertEquals(new Magic(0x5555555555555556L, 0), StrengthReduction.magic(3));
+            assertEquals(new Magic(0x6666666666666667L, 1), StrengthReduction.magic(5));
+            assertEquals(new Magic(0x4924924924924925L, 1), StrengthReduction.magic(7));
+            assertEquals(new Magic(-0x6666666666666667L, 1), StrengthReduction.magic(-5));
+        }
+
+        @Test
+        void divisionByMinusOneAndZeroIsNotReduced() {
+            assertFalse(StrengthReduction.canDivide(0));
+            assertFalse(StrengthReduction.canDivide(-1));
+            assertFalse(StrengthReduction.canDivide(Long.MIN_VALUE));
+            assertTrue(StrengthReduction.canDivide(1));
+        }
+    }
+
+    @Nested
+    class GeneratedCodeTests {
+        @Test
+        void multiplication() {
+            for (long factor : CONSTANTS) {
+                for (long c : new long[] { factor, -factor, 0, 1, -1, Long.MIN_VALUE }) {
+                    var code = generate(StrengthReduction::multiply, c);
+                    for (long n : DIVIDENDS) {
+                        assertEquals(n * c, run(code, n), n + " * " + c);
+                    }
+                }
+            }
+        }
+
+        @Test
+        void smallFactorsUseShiftsOrLea() {
+            assertEquals(List.of("shlq"), mnemonics(generate(StrengthReduction::multiply, 8L)));
+            assertEquals(List.of("leaq", "negq"), mnemonics(generate(StrengthReduction::multiply, -9L)));
+        }
+
+        @Test
+        void division() {
+            for (long divisor : CONSTANTS) {
+                for (long d : new long[] { divisor, -divisor, 1 }) {
+                    var code = generate(StrengthReduction::divide, d);
+                    for (long n : DIVIDENDS) {
+                        assertEquals(n / d, run(code, n), n + " / " + d);
+                    }
+                }
+            }
+        }
+
+        @Test
+        void remainder() {
+            for (long divisor : CONSTANTS) {
+                for (long d : new long[] { divisor, -divisor, 1 }) {
+                    var code = generate(StrengthReduction::remainder, d);
+                    for (long n : DIVIDENDS) {
+                        assertEquals(n % d, run(code, n), n + " % " + d);
+                    }
+                }
+            }
+        }
+
+        @Test
+        void divisionHasNoIdiv() {
+            assertFalse(mnemonics(generate(StrengthReduction::divide, 10L)).contains("idivq"));
+            assertFalse(mnemonics(generate(StrengthReduction::remainder, 2L)).contains("idivq"));
+        }
+
+        private static List<String> mnemonics(List<Instruction> code) {
+            return code.stream().map(i -> ((Op) i).mnemonic()).toList();
+        }
+    }
+}